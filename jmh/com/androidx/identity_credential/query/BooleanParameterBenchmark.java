@@ -0,0 +1,22 @@
+package com.androidx.identity_credential.query;
+
+import co.nstant.in.cbor.model.Array;
+import co.nstant.in.cbor.model.SimpleValue;
+
+import static com.androidx.identity_credential.query.ICQueryExecutor.TYPE_BOOLEAN;
+
+/** The smallest possible query: a single boolean parameter. */
+public class BooleanParameterBenchmark extends QueryBenchmark {
+
+    @Override
+    protected Array createQuery() {
+        return new QueryBuilder().param(TYPE_BOOLEAN, "flag").build();
+    }
+
+    @Override
+    protected ParameterSet createParameters() {
+        ParameterSet parameters = new ParameterSet();
+        parameters.put("flag", SimpleValue.TRUE);
+        return parameters;
+    }
+}
@@ -0,0 +1,37 @@
+package com.androidx.identity_credential.query;
+
+import co.nstant.in.cbor.model.Array;
+import co.nstant.in.cbor.model.DataItem;
+
+import java.util.Map;
+
+import static com.androidx.identity_credential.query.ICQueryExecutor.AND;
+
+/** {@code AND} over eight boolean data elements, so the cost is mostly data set lookups. */
+public class DataLookupBenchmark extends QueryBenchmark {
+
+    private static final int ELEMENTS = 8;
+
+    @Override
+    protected Array createQuery() {
+        QueryBuilder builder = new QueryBuilder().data("flag0");
+        for (int i = 1; i < ELEMENTS; i++) {
+            builder.data("flag" + i).op(AND);
+        }
+        return builder.build();
+    }
+
+    @Override
+    protected ParameterSet createParameters() {
+        return new ParameterSet();
+    }
+
+    @Override
+    protected Map<DataItem, DataItem> createDataSet() {
+        DataSetBuilder builder = new DataSetBuilder();
+        for (int i = 0; i < ELEMENTS; i++) {
+            builder.add("flag" + i, true);
+        }
+        return builder.build();
+    }
+}
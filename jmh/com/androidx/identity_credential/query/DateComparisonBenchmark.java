@@ -0,0 +1,32 @@
+package com.androidx.identity_credential.query;
+
+import co.nstant.in.cbor.model.Array;
+import co.nstant.in.cbor.model.DataItem;
+
+import java.util.GregorianCalendar;
+import java.util.Map;
+
+import static com.androidx.identity_credential.query.ICQueryExecutor.*;
+import static com.androidx.identity_credential.query.ParameterSet.DATE_TAG;
+
+/** An age check: a birth date data element against a cutoff date parameter. */
+public class DateComparisonBenchmark extends QueryBenchmark {
+
+    @Override
+    protected Array createQuery() {
+        return new QueryBuilder().data("birth_date").param(DATE_TAG, TYPE_STRING, "cutoff")
+                                 .op(DATE_TAG, LESS_OR_EQUAL).build();
+    }
+
+    @Override
+    protected ParameterSet createParameters() {
+        return new ParameterSetBuilder().add("cutoff",
+                new GregorianCalendar(2001, 5, 15).getTime()).build();
+    }
+
+    @Override
+    protected Map<DataItem, DataItem> createDataSet() {
+        return new DataSetBuilder().add("birth_date", new GregorianCalendar(1990, 0, 1).getTime())
+                                   .build();
+    }
+}
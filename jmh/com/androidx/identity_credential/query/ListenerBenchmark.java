@@ -0,0 +1,18 @@
+package com.androidx.identity_credential.query;
+
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * The data lookup benchmark with and without a {@link QueryMetrics} listener, to show what
+ * instrumentation costs and that an executor without a listener pays nothing for it.
+ */
+public class ListenerBenchmark extends DataLookupBenchmark {
+
+    @Param({"none", "metrics"})
+    public String listener;
+
+    @Override
+    protected ICQueryExecutor createExecutor() {
+        return new ICQueryExecutor(listener.equals("metrics") ? new QueryMetrics() : null);
+    }
+}
@@ -0,0 +1,40 @@
+package com.androidx.identity_credential.query;
+
+import co.nstant.in.cbor.model.Array;
+import co.nstant.in.cbor.model.SimpleValue;
+import org.openjdk.jmh.annotations.Param;
+
+import static com.androidx.identity_credential.query.ICQueryExecutor.AND;
+import static com.androidx.identity_credential.query.ICQueryExecutor.OR;
+import static com.androidx.identity_credential.query.ICQueryExecutor.TYPE_BOOLEAN;
+
+/**
+ * A left-deep chain of {@code AND} or {@code OR} over distinct boolean parameters.  Every term
+ * is true for {@code AND} and false for {@code OR}, so short-circuiting never skips any.
+ */
+public class LogicalTreeBenchmark extends QueryBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int terms;
+
+    @Param({"AND", "OR"})
+    public String operator;
+
+    @Override
+    protected Array createQuery() {
+        QueryBuilder builder = new QueryBuilder().param(TYPE_BOOLEAN, "b0");
+        for (int i = 1; i < terms; i++) {
+            builder.param(TYPE_BOOLEAN, "b" + i).op(operator.equals("AND") ? AND : OR);
+        }
+        return builder.build();
+    }
+
+    @Override
+    protected ParameterSet createParameters() {
+        ParameterSet parameters = new ParameterSet();
+        for (int i = 0; i < terms; i++) {
+            parameters.put("b" + i, operator.equals("AND") ? SimpleValue.TRUE : SimpleValue.FALSE);
+        }
+        return parameters;
+    }
+}
@@ -0,0 +1,43 @@
+package com.androidx.identity_credential.query;
+
+import co.nstant.in.cbor.model.Array;
+import co.nstant.in.cbor.model.DataItem;
+import org.openjdk.jmh.annotations.Param;
+
+import java.math.BigInteger;
+import java.util.Map;
+
+import static com.androidx.identity_credential.query.ICQueryExecutor.*;
+
+/** Checks that a data element lies in a parameter range, with small or BigInteger values. */
+public class NumericRangeBenchmark extends QueryBenchmark {
+
+    private static final BigInteger BIG = BigInteger.ONE.shiftLeft(64);
+
+    @Param({"small", "big"})
+    public String values;
+
+    @Override
+    protected Array createQuery() {
+        return new QueryBuilder().data("value").param(TYPE_INTEGER, "min").op(GREATER_OR_EQUAL)
+                                 .data("value").param(TYPE_INTEGER, "max").op(LESS_THAN)
+                                 .op(AND).build();
+    }
+
+    @Override
+    protected ParameterSet createParameters() {
+        if (values.equals("small")) {
+            return new ParameterSetBuilder().add("min", 21).add("max", 65).build();
+        }
+        return new ParameterSetBuilder().add("min", BIG).add("max", BIG.shiftLeft(8)).build();
+    }
+
+    @Override
+    protected Map<DataItem, DataItem> createDataSet() {
+        if (values.equals("small")) {
+            return new DataSetBuilder().add("value", 30).build();
+        }
+        return new DataSetBuilder().add("value", new ParameterSetBuilder()
+                .add("value", BIG.shiftLeft(4)).build().get("value")).build();
+    }
+}
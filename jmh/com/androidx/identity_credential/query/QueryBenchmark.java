@@ -0,0 +1,87 @@
+package com.androidx.identity_credential.query;
+
+import co.nstant.in.cbor.model.Array;
+import co.nstant.in.cbor.model.DataItem;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures one query through each execution path: the interpreter, a compiled query with a
+ * {@link ParameterSet}, and a compiled query with {@link BoundParameters}.  Subclasses supply
+ * the query and its inputs.  {@link #predicates} measures the bound query compiled to a
+ * predicate tree by {@link ICQueryExecutor#compilePredicates}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public abstract class QueryBenchmark {
+
+    private ICQueryExecutor executor;
+    private Array query;
+    private CompiledQuery compiledQuery;
+    private CompiledQuery predicateQuery;
+    private ParameterSet parameters;
+    private BoundParameters boundParameters;
+    private DataSet dataSet;
+
+    @Setup
+    public void setUp() throws QueryException {
+        executor = createExecutor();
+        query = createQuery();
+        parameters = createParameters();
+        Map<DataItem, DataItem> dataElements = new HashMap<>(createDataSet());
+        dataSet = dataElements::get;
+        compiledQuery = executor.compile(query);
+        boundParameters = compiledQuery.getParameterLayout().bind(parameters);
+        predicateQuery = executor.compilePredicates(compiledQuery);
+
+        // Every path must agree, or the benchmark is measuring an error.
+        boolean expected = executor.execute(query, parameters, dataSet);
+        if (executor.execute(compiledQuery, parameters, dataSet) != expected ||
+            executor.execute(compiledQuery, boundParameters, dataSet) != expected ||
+            executor.execute(predicateQuery, boundParameters, dataSet) != expected) {
+            throw new IllegalStateException("Execution paths disagree on " + query);
+        }
+    }
+
+    protected ICQueryExecutor createExecutor() {
+        return new ICQueryExecutor();
+    }
+
+    protected abstract Array createQuery();
+
+    protected abstract ParameterSet createParameters();
+
+    protected Map<DataItem, DataItem> createDataSet() {
+        return new HashMap<>();
+    }
+
+    @Benchmark
+    public boolean interpreted() throws QueryException {
+        return executor.execute(query, parameters, dataSet);
+    }
+
+    @Benchmark
+    public boolean compiled() throws QueryException {
+        return executor.execute(compiledQuery, parameters, dataSet);
+    }
+
+    @Benchmark
+    public boolean bound() throws QueryException {
+        return executor.execute(compiledQuery, boundParameters, dataSet);
+    }
+
+    @Benchmark
+    public boolean predicates() throws QueryException {
+        return executor.execute(predicateQuery, boundParameters, dataSet);
+    }
+}
@@ -0,0 +1,92 @@
+package com.androidx.identity_credential.query;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Random queries evaluated by one {@link ICQueryExecutor}, with the queries and data sets shared
+ * by every thread, to show how throughput scales with threads.  Each thread cycles through the
+ * queries from its own offset.  Compare the scores of the one, four and all-thread variants.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SharedExecutorBenchmark {
+
+    private static final int CASES = 500;
+
+    @Param({"interpreted", "compiled"})
+    public String path;
+
+    private final ICQueryExecutor executor = new ICQueryExecutor();
+    private final List<RandomQueries.Case> cases = new ArrayList<>();
+    private final List<CompiledQuery> compiledQueries = new ArrayList<>();
+
+    @Setup
+    public void setUp() throws QueryException {
+        Random random = new Random(42);
+        for (int i = 0; i < CASES; i++) {
+            RandomQueries.Case testCase = RandomQueries.generate(random, 5, 0.05);
+            cases.add(testCase);
+            compiledQueries.add(executor.compile(testCase.query));
+        }
+    }
+
+    /** The next query a thread evaluates. */
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        int index;
+
+        @Setup
+        public void setUp(ThreadParams threads) {
+            index = (31 * threads.getThreadIndex()) % CASES;
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Boolean oneThread(Cursor cursor) {
+        return evaluate(cursor);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Boolean fourThreads(Cursor cursor) {
+        return evaluate(cursor);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Boolean allThreads(Cursor cursor) {
+        return evaluate(cursor);
+    }
+
+    private Boolean evaluate(Cursor cursor) {
+        int index = cursor.index;
+        cursor.index = (index + 1) % CASES;
+        RandomQueries.Case testCase = cases.get(index);
+        try {
+            if (path.equals("compiled")) {
+                return executor.execute(compiledQueries.get(index), testCase.parameters,
+                        testCase.dataSet);
+            }
+            return executor.execute(testCase.query, testCase.parameters, testCase.dataSet);
+        } catch (QueryException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.androidx.identity_credential.query;
+
+import co.nstant.in.cbor.model.Array;
+import co.nstant.in.cbor.model.DataItem;
+
+import java.util.Map;
+
+import static com.androidx.identity_credential.query.ICQueryExecutor.*;
+
+/** A string data element compared for equality with a parameter. */
+public class StringEqualityBenchmark extends QueryBenchmark {
+
+    @Override
+    protected Array createQuery() {
+        return new QueryBuilder().data("issuing_country").param(TYPE_STRING, "country")
+                                 .op(EQUAL).build();
+    }
+
+    @Override
+    protected ParameterSet createParameters() {
+        return new ParameterSetBuilder().add("country", "US").build();
+    }
+
+    @Override
+    protected Map<DataItem, DataItem> createDataSet() {
+        return new DataSetBuilder().add("issuing_country", "US").build();
+    }
+}
@@ -0,0 +1,14 @@
+package com.androidx.identity_credential.query;
+
+import co.nstant.in.cbor.model.DataItem;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A {@link DataSet} whose elements arrive asynchronously, for stores that sit behind IPC or
+ * other slow transports.  The future completes with the element, or with {@code null} if the
+ * data set has no such element.
+ */
+public interface AsyncDataSet {
+    CompletableFuture<DataItem> getDataElement(DataItem entry);
+}
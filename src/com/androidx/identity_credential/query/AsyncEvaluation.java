@@ -0,0 +1,211 @@
+package com.androidx.identity_credential.query;
+
+import co.nstant.in.cbor.model.DataItem;
+import co.nstant.in.cbor.model.SimpleValue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static com.androidx.identity_credential.query.ICQueryExecutor.*;
+
+/**
+ * Evaluates a {@link CompiledQuery} against an {@link AsyncDataSet} without blocking.
+ *
+ * <p>Every distinct data element is requested as soon as evaluation starts, and each operator
+ * is applied on whichever thread completes its last operand.  {@code AND} and {@code OR}
+ * complete as soon as their first operand decides the result, ignoring the outcome of the
+ * second, so results and errors are the same as for synchronous evaluation of the compiled
+ * query.
+ *
+ * <p>The query's nodes are laid out in evaluation order, each after its operands, and linked to
+ * the operator that consumes them.  A settled entry is passed up those links in a loop rather
+ * than through a chain of futures, since queries may nest arbitrarily deep.
+ */
+final class AsyncEvaluation {
+
+    private final ParameterSet parameters;
+    private final CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+    // The nodes in evaluation order, with the entries of each one's operands, or -1, and the
+    // entry of the operator consuming it, or -1 for the root.
+    private final List<QueryNode> nodes = new ArrayList<>();
+    private final List<int[]> operands = new ArrayList<>();
+    private int[] parents;
+
+    // Guarded by this.  The value or failure of each entry, once it is settled.
+    private boolean[] settled;
+    private DataItem[] values;
+    private Throwable[] failures;
+
+    private AsyncEvaluation(ParameterSet parameters) {
+        this.parameters = parameters;
+    }
+
+    static CompletableFuture<Boolean> evaluate(CompiledQuery query, ParameterSet parameters,
+                                               AsyncDataSet dataSet) {
+        Map<DataItem, CompletableFuture<DataItem>> dataElements = new HashMap<>();
+        for (DataItem reference : query.dataReferences) {
+            dataElements.put(reference, dataSet.getDataElement(reference));
+        }
+        AsyncEvaluation evaluation = new AsyncEvaluation(parameters);
+        evaluation.layOut(query.root);
+        evaluation.start(dataElements);
+        return evaluation.result;
+    }
+
+    /** Adds the nodes of the tree under {@code root} in evaluation order. */
+    private void layOut(QueryNode root) {
+        Deque<Frame> frames = new ArrayDeque<>();
+        frames.push(new Frame(root));
+        while (!frames.isEmpty()) {
+            Frame frame = frames.peek();
+            QueryNode[] children = frame.node.operands;
+            if (children != null && frame.next < children.length) {
+                frames.push(new Frame(children[frame.next++]));
+                continue;
+            }
+            frames.pop();
+            int entry = nodes.size();
+            nodes.add(frame.node);
+            operands.add(frame.operands);
+            if (!frames.isEmpty()) {
+                Frame parent = frames.peek();
+                parent.operands[parent.next - 1] = entry;
+            }
+        }
+
+        parents = new int[nodes.size()];
+        parents[parents.length - 1] = -1;
+        for (int entry = 0; entry < parents.length; entry++) {
+            for (int operand : operands.get(entry)) {
+                if (operand >= 0) {
+                    parents[operand] = entry;
+                }
+            }
+        }
+        settled = new boolean[parents.length];
+        values = new DataItem[parents.length];
+        failures = new Throwable[parents.length];
+    }
+
+    /** Settles the leaves that need no data element, then waits for the others. */
+    private void start(Map<DataItem, CompletableFuture<DataItem>> dataElements) {
+        for (int entry = 0; entry < nodes.size(); entry++) {
+            QueryNode node = nodes.get(entry);
+            if (node.kind == PARAM_REF) {
+                try {
+                    settle(entry, parameters.getParameter(node.parameterName,
+                            node.parameterType, node.parameterTag), null);
+                } catch (QueryException e) {
+                    settle(entry, null, e);
+                }
+            } else if (node.kind == QueryNode.CONSTANT) {
+                settle(entry, node.constant, null);
+            }
+        }
+        for (int entry = 0; entry < nodes.size(); entry++) {
+            QueryNode node = nodes.get(entry);
+            if (node.kind == DATA_REF) {
+                int dataEntry = entry;
+                dataElements.get(node.dataReference).whenComplete((element, failure) -> {
+                    if (failure != null) {
+                        settle(dataEntry, null, failure);
+                        return;
+                    }
+                    try {
+                        settle(dataEntry, checkDataElement(node.dataReference, element), null);
+                    } catch (QueryException e) {
+                        settle(dataEntry, null, e);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Records the value or failure of {@code entry}, and applies each operator above it whose
+     * operands are now settled.  Completes the result once the root is settled.
+     */
+    private void settle(int entry, DataItem value, Throwable failure) {
+        synchronized (this) {
+            while (true) {
+                settled[entry] = true;
+                values[entry] = value;
+                failures[entry] = failure;
+                int parent = parents[entry];
+                // A short-circuited operator settled before its second operand.
+                if (parent < 0 || settled[parent]) {
+                    break;
+                }
+
+                QueryNode node = nodes.get(parent);
+                int first = operands.get(parent)[0];
+                if (!settled[first]) {
+                    return;
+                }
+                if (failures[first] != null) {
+                    failure = failures[first];
+                    value = null;
+                } else if (node.operator == UNARY_NOT) {
+                    try {
+                        value = applyUnaryNot(values[first]);
+                    } catch (QueryException e) {
+                        failure = e;
+                        value = null;
+                    }
+                } else if ((node.operator == AND && SimpleValue.FALSE.equals(values[first])) ||
+                           (node.operator == OR && SimpleValue.TRUE.equals(values[first]))) {
+                    value = values[first];
+                } else {
+                    int second = operands.get(parent)[1];
+                    if (!settled[second]) {
+                        return;
+                    }
+                    failure = failures[second];
+                    value = null;
+                    if (failure == null) {
+                        try {
+                            value = applyBinaryOperator(node.operator, node.operatorTag,
+                                    values[first], values[second]);
+                        } catch (QueryException e) {
+                            failure = e;
+                        }
+                    }
+                }
+                entry = parent;
+            }
+            if (parents[entry] >= 0) {
+                return;
+            }
+        }
+
+        // The root is settled only once, and the result is completed outside the lock.
+        if (failure != null) {
+            result.completeExceptionally(failure);
+            return;
+        }
+        try {
+            result.complete(toResult(value));
+        } catch (QueryException e) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    private static final class Frame {
+
+        final QueryNode node;
+        // The entries of the node's operands, filled in as each is laid out.
+        final int[] operands;
+        int next;
+
+        Frame(QueryNode node) {
+            this.node = node;
+            this.operands = new int[(node.operands != null) ? node.operands.length : 0];
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.androidx.identity_credential.query;
+
+import co.nstant.in.cbor.model.Array;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Evaluates one query against many {@link DataSet}s in parallel on a {@link ForkJoinPool}.
+ *
+ * <p>The query is compiled once per batch, and each fork-join leaf evaluates its range of data
+ * sets with a single {@link ExecutionContext}.  Per-item results are exactly those of calling
+ * {@link ICQueryExecutor#evaluate(CompiledQuery, ParameterSet, DataSet)} serially, and a failing
+ * item costs no exception unless its {@link BatchResult.ItemError} is asked for one.
+ */
+public class BatchQueryExecutor implements AutoCloseable {
+
+    private static final int MIN_ITEMS_PER_TASK = 64;
+
+    private final ICQueryExecutor executor;
+    private final ForkJoinPool pool;
+    private final boolean ownsPool;
+
+    public BatchQueryExecutor(ICQueryExecutor executor, int parallelism) {
+        this(executor, new ForkJoinPool(parallelism), true);
+    }
+
+    public BatchQueryExecutor(ICQueryExecutor executor, ForkJoinPool pool) {
+        this(executor, pool, false);
+    }
+
+    private BatchQueryExecutor(ICQueryExecutor executor, ForkJoinPool pool, boolean ownsPool) {
+        this.executor = executor;
+        this.pool = pool;
+        this.ownsPool = ownsPool;
+    }
+
+    public BatchResult execute(Array query, ParameterSet parameters,
+                               List<? extends DataSet> dataSets) throws QueryException {
+        return execute(executor.compile(query), parameters, dataSets);
+    }
+
+    public BatchResult execute(CompiledQuery query, ParameterSet parameters,
+                               Stream<? extends DataSet> dataSets) {
+        return execute(query, parameters, dataSets.collect(Collectors.toList()));
+    }
+
+    public BatchResult execute(CompiledQuery query, ParameterSet parameters,
+                               List<? extends DataSet> dataSets) {
+        int size = dataSets.size();
+        QueryResult[] results = new QueryResult[size];
+
+        int threshold = Math.max(MIN_ITEMS_PER_TASK, size / (pool.getParallelism() * 4));
+        pool.invoke(new EvaluateRange(query, parameters, dataSets, results, 0, size, threshold));
+
+        BitSet matchSet = new BitSet(size);
+        List<BatchResult.ItemError> errorList = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            if (results[i].isTrue()) {
+                matchSet.set(i);
+            } else if (results[i].isError()) {
+                errorList.add(new BatchResult.ItemError(i, results[i], query));
+            }
+        }
+        return new BatchResult(size, matchSet, errorList);
+    }
+
+    @Override
+    public void close() {
+        if (ownsPool) {
+            pool.shutdown();
+        }
+    }
+
+    private class EvaluateRange extends RecursiveAction {
+        private final CompiledQuery query;
+        private final ParameterSet parameters;
+        private final List<? extends DataSet> dataSets;
+        private final QueryResult[] results;
+        private final int from;
+        private final int to;
+        private final int threshold;
+
+        EvaluateRange(CompiledQuery query, ParameterSet parameters,
+                      List<? extends DataSet> dataSets, QueryResult[] results, int from, int to,
+                      int threshold) {
+            this.query = query;
+            this.parameters = parameters;
+            this.dataSets = dataSets;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > threshold) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new EvaluateRange(query, parameters, dataSets, results, from, middle,
+                                threshold),
+                        new EvaluateRange(query, parameters, dataSets, results, middle, to,
+                                threshold));
+                return;
+            }
+
+            ExecutionContext context = new ExecutionContext();
+            for (int i = from; i < to; i++) {
+                results[i] = executor.evaluate(query, parameters, dataSets.get(i), context);
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.androidx.identity_credential.query;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of evaluating one query against a batch of {@link DataSet}s.  Bit {@code i} of
+ * {@link #getMatches()} is set when the query evaluated to true for the {@code i}th data set;
+ * items whose evaluation failed are clear in the bitmap and listed in {@link #getErrors()}.
+ */
+public final class BatchResult {
+
+    private final int size;
+    private final BitSet matches;
+    private final List<ItemError> errors;
+
+    BatchResult(int size, BitSet matches, List<ItemError> errors) {
+        this.size = size;
+        this.matches = matches;
+        this.errors = Collections.unmodifiableList(errors);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public BitSet getMatches() {
+        return (BitSet) matches.clone();
+    }
+
+    public boolean matches(int index) {
+        return matches.get(index);
+    }
+
+    public List<ItemError> getErrors() {
+        return errors;
+    }
+
+    /**
+     * A data set whose evaluation failed, with the error and the query entry that caused it.  No
+     * exception is built unless {@link #getException()} is called.
+     */
+    public static final class ItemError {
+        private final int index;
+        private final QueryError error;
+        private final int entryIndex;
+        private final CompiledQuery query;
+
+        ItemError(int index, QueryResult result, CompiledQuery query) {
+            this.index = index;
+            this.error = result.getError();
+            this.entryIndex = result.getEntryIndex();
+            this.query = query;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public QueryError getError() {
+            return error;
+        }
+
+        /** Returns the index of the query entry that caused the error, or -1. */
+        public int getEntryIndex() {
+            return entryIndex;
+        }
+
+        /**
+         * Returns the exception {@link ICQueryExecutor#execute} throws for this data set.  A new
+         * exception is built on each call.
+         */
+        public QueryException getException() {
+            return QueryResult.error(error, entryIndex).toException(query);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.androidx.identity_credential.query;
+
+/**
+ * Parameter values resolved against a {@link ParameterLayout} by {@link ParameterLayout#bind}.
+ *
+ * <p>All lookups and type checks happen when binding, so an instance can be evaluated any number
+ * of times, from any number of threads, with queries compiled to an equal layout.  Later changes
+ * to the source {@link ParameterSet} are not reflected.
+ */
+public final class BoundParameters {
+
+    final ParameterLayout layout;
+    final TypedValues values;
+
+    BoundParameters(ParameterLayout layout, TypedValues values) {
+        this.layout = layout;
+        this.values = values;
+    }
+
+    public ParameterLayout getLayout() {
+        return layout;
+    }
+}
@@ -0,0 +1,173 @@
+package com.androidx.identity_credential.query;
+
+import co.nstant.in.cbor.CborBuilder;
+import co.nstant.in.cbor.CborEncoder;
+import co.nstant.in.cbor.CborException;
+import co.nstant.in.cbor.model.Array;
+import co.nstant.in.cbor.model.DataItem;
+import co.nstant.in.cbor.model.Map;
+import co.nstant.in.cbor.model.SimpleValue;
+import co.nstant.in.cbor.model.UnicodeString;
+import co.nstant.in.cbor.model.UnsignedInteger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.Random;
+
+import static com.androidx.identity_credential.query.ICQueryExecutor.*;
+import static com.androidx.identity_credential.query.ParameterSet.DATE_TAG;
+
+/**
+ * Writes files of synthetic records for {@link BulkVerifier}, so that its throughput can be
+ * measured locally.
+ *
+ * <p>Each record is one of a few age, residency and birth date queries, with random parameters
+ * and a random data set.  About one record in a hundred lacks a data element its query reads,
+ * and is rejected.  The same seed always gives the same file.
+ */
+public final class BulkRecordGenerator {
+
+    private static final String NAMESPACE = "org.iso.18013.5.1";
+    private static final String[] COUNTRIES = {"US", "CA", "DE", "NL", "JP"};
+    private static final String[] ELEMENTS =
+            {"age_in_years", "resident_country", "birth_date", "issuing_country", "age_over_18"};
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private BulkRecordGenerator() {}
+
+    /** Writes {@code records} records to {@code file}, replacing it, chosen by {@code seed}. */
+    public static void write(Path file, long records, long seed) throws IOException {
+        Random random = new Random(seed);
+        Array[] queries = queries();
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        CborEncoder encoder = new CborEncoder(encoded);
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for (long i = 0; i < records; i++) {
+                Array record = new Array();
+                record.add(queries[random.nextInt(queries.length)]);
+                record.add(parameters(random));
+                record.add(dataSet(random));
+                encoded.reset();
+                try {
+                    encoder.encode(record);
+                } catch (CborException e) {
+                    throw new IOException("Cannot encode record " + i, e);
+                }
+
+                byte[] bytes = encoded.toByteArray();
+                if (buffer.remaining() < 4 + bytes.length) {
+                    flush(channel, buffer);
+                }
+                buffer.putInt(bytes.length).put(bytes);
+            }
+            flush(channel, buffer);
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static Array[] queries() {
+        Array ageOver = new Array();
+        addComparison(ageOver, "age_in_years", TYPE_INTEGER, "min_age", GREATER_OR_EQUAL);
+
+        Array residentAdult = new Array();
+        addComparison(residentAdult, "resident_country", TYPE_STRING, "country", EQUAL);
+        residentAdult.add(dataReference("age_over_18"));
+        residentAdult.add(operator(AND));
+
+        Array bornBeforeOrForeign = new Array();
+        bornBeforeOrForeign.add(dataReference("birth_date"));
+        DataItem cutoff = new CborBuilder().addArray().add("cutoff").add(TYPE_STRING)
+                                           .tagged(DATE_TAG).end().build().get(0);
+        cutoff.setTag(PARAM_REF);
+        bornBeforeOrForeign.add(cutoff);
+        bornBeforeOrForeign.add(new CborBuilder().add(LESS_OR_EQUAL).tagged(DATE_TAG)
+                                                 .tagged(OPERATOR).build().get(0));
+        addComparison(bornBeforeOrForeign, "issuing_country", TYPE_STRING, "country", EQUAL);
+        bornBeforeOrForeign.add(operator(UNARY_NOT));
+        bornBeforeOrForeign.add(operator(OR));
+
+        return new Array[]{ageOver, residentAdult, bornBeforeOrForeign};
+    }
+
+    private static void addComparison(Array query, String element, int type, String parameter,
+                                      int op) {
+        query.add(dataReference(element));
+        DataItem parameterReference = new CborBuilder().addArray().add(parameter).add(type).end()
+                                                       .build().get(0);
+        parameterReference.setTag(PARAM_REF);
+        query.add(parameterReference);
+        query.add(operator(op));
+    }
+
+    private static DataItem dataReference(String element) {
+        DataItem reference = new CborBuilder().addArray().add(NAMESPACE).add(element).end()
+                                              .build().get(0);
+        reference.setTag(DATA_REF);
+        return reference;
+    }
+
+    private static DataItem operator(int op) {
+        return new CborBuilder().add(op).tagged(OPERATOR).build().get(0);
+    }
+
+    private static Map parameters(Random random) {
+        Map parameters = new Map();
+        parameters.put(new UnicodeString("min_age"), new UnsignedInteger(16 + random.nextInt(6)));
+        parameters.put(new UnicodeString("country"),
+                new UnicodeString(COUNTRIES[random.nextInt(COUNTRIES.length)]));
+        parameters.put(new UnicodeString("cutoff"), date(random));
+        return parameters;
+    }
+
+    private static Map dataSet(Random random) {
+        int age = 10 + random.nextInt(70);
+        DataItem[] values = {
+                new UnsignedInteger(age),
+                new UnicodeString(COUNTRIES[random.nextInt(COUNTRIES.length)]),
+                date(random),
+                new UnicodeString(COUNTRIES[random.nextInt(COUNTRIES.length)]),
+                (age >= 18) ? SimpleValue.TRUE : SimpleValue.FALSE,
+        };
+        int missing = (random.nextInt(100) == 0) ? random.nextInt(ELEMENTS.length) : -1;
+        Map dataSet = new Map();
+        for (int i = 0; i < ELEMENTS.length; i++) {
+            if (i != missing) {
+                dataSet.put(dataReference(ELEMENTS[i]), values[i]);
+            }
+        }
+        return dataSet;
+    }
+
+    private static DataItem date(Random random) {
+        String date = String.format(Locale.ROOT, "%04d-%02d-%02d", 1940 + random.nextInt(70),
+                1 + random.nextInt(12), 1 + random.nextInt(28));
+        return new CborBuilder().add(date).tagged(DATE_TAG).build().get(0);
+    }
+
+    /** Usage: {@code BulkRecordGenerator <output> <records> [seed]}. */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("Usage: BulkRecordGenerator <output> <records> [seed]");
+            System.exit(2);
+        }
+        long records = Long.parseLong(args[1]);
+        long seed = (args.length == 3) ? Long.parseLong(args[2]) : 0;
+        write(Paths.get(args[0]), records, seed);
+    }
+}
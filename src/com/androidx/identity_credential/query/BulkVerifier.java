@@ -0,0 +1,465 @@
+package com.androidx.identity_credential.query;
+
+import co.nstant.in.cbor.CborDecoder;
+import co.nstant.in.cbor.CborException;
+import co.nstant.in.cbor.model.Array;
+import co.nstant.in.cbor.model.DataItem;
+import co.nstant.in.cbor.model.UnicodeString;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.androidx.identity_credential.query.CborReader.MAJOR_ARRAY;
+
+/**
+ * Evaluates a file of (query, parameters, data set) records and writes the results to another
+ * file, for offline re-verification and load testing.
+ *
+ * <p>Each input record is a 4-byte big-endian length followed by that many bytes: a CBOR array
+ * of the query, a map of parameter names to values, and a map of data references, as they appear
+ * in queries, to data elements.  Each output record is the record's 8-byte big-endian index and
+ * a status byte: {@link #STATUS_FALSE}, {@link #STATUS_TRUE}, {@link #STATUS_MALFORMED_RECORD},
+ * or the {@link QueryError} a query was rejected with, as {@link #status(QueryError)}.  Results
+ * are written in input order.
+ *
+ * <p>The input is read through a {@link FileChannel} into batches of records held in large
+ * reusable buffers.  Each batch is evaluated as a whole by one of a fixed pool of worker threads,
+ * and at most two batches per worker are in flight, so reading waits for the oldest batch when
+ * the workers fall behind.  Queries are evaluated from their encoding, with
+ * {@link ICQueryExecutor#evaluate(ByteBuffer, ParameterSet, DataSet)}, so a rejected record
+ * costs no exception.
+ *
+ * <p>{@link #main} runs the pipeline from the command line, on a file written by
+ * {@link BulkRecordGenerator} for example.
+ */
+public final class BulkVerifier {
+
+    public static final int STATUS_FALSE = 0;
+    public static final int STATUS_TRUE = 1;
+    /** The record is not a query, parameters and data set. */
+    public static final int STATUS_MALFORMED_RECORD = 0xff;
+
+    static final int RESULT_SIZE = 9;
+
+    private static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+    private final ICQueryExecutor executor;
+    private final int threads;
+    private final int bufferSize;
+
+    public BulkVerifier(ICQueryExecutor executor, int threads) {
+        this(executor, threads, DEFAULT_BUFFER_SIZE);
+    }
+
+    BulkVerifier(ICQueryExecutor executor, int threads, int bufferSize) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Thread count must be positive");
+        }
+        if (bufferSize < 8) {
+            throw new IllegalArgumentException("Buffers must hold at least a record length");
+        }
+        this.executor = executor;
+        this.threads = threads;
+        this.bufferSize = bufferSize;
+    }
+
+    /** Returns the status byte for a query rejected with {@code error}. */
+    public static int status(QueryError error) {
+        return 2 + error.ordinal();
+    }
+
+    /** Returns the error a status byte stands for, or null for the other statuses. */
+    public static QueryError error(int status) {
+        int ordinal = status - 2;
+        QueryError[] errors = QueryError.values();
+        return (ordinal >= 0 && ordinal < errors.length) ? errors[ordinal] : null;
+    }
+
+    /**
+     * Evaluates every record in {@code input}, writing the results to {@code output}.
+     *
+     * @throws IOException if a file cannot be read or written, or {@code input} ends inside a
+     *                     record or has a record with a negative length.
+     */
+    public Report run(Path input, Path output) throws IOException {
+        Report report = new Report();
+        long start = System.nanoTime();
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            Pipeline pipeline = new Pipeline(in, out, workers, report);
+            pipeline.run();
+        } finally {
+            workers.shutdownNow();
+        }
+        report.elapsedNanos = System.nanoTime() - start;
+        return report;
+    }
+
+    /** The reading, dispatching and writing of one {@link #run}, on the calling thread. */
+    private final class Pipeline {
+
+        private final FileChannel in;
+        private final FileChannel out;
+        private final ExecutorService workers;
+        private final Report report;
+
+        private final ArrayDeque<Batch> free = new ArrayDeque<>();
+        private final ArrayDeque<Batch> inFlight = new ArrayDeque<>();
+        private int batches;
+        // The start of a record that did not fit in the last batch, which begins the next one.
+        private byte[] carry = new byte[0];
+        private int carryLength;
+        private long nextIndex;
+        private ByteBuffer results = ByteBuffer.allocate(0);
+
+        Pipeline(FileChannel in, FileChannel out, ExecutorService workers, Report report) {
+            this.in = in;
+            this.out = out;
+            this.workers = workers;
+            this.report = report;
+        }
+
+        void run() throws IOException {
+            boolean end = false;
+            while (!end || carryLength > 0) {
+                Batch batch = takeBatch();
+                end = fill(batch, end);
+                if (batch.count == 0) {
+                    if (end && carryLength > 0) {
+                        throw new IOException("Truncated record " + nextIndex);
+                    }
+                    free.push(batch);
+                    continue;
+                }
+                batch.future = workers.submit(() -> evaluate(batch));
+                inFlight.add(batch);
+            }
+            while (!inFlight.isEmpty()) {
+                write(inFlight.poll());
+            }
+        }
+
+        /** Returns a free batch, waiting for the oldest in flight if there are enough already. */
+        private Batch takeBatch() throws IOException {
+            if (!free.isEmpty()) {
+                return free.pop();
+            }
+            if (batches < 2 * threads) {
+                batches++;
+                return new Batch(bufferSize);
+            }
+            write(inFlight.poll());
+            return free.pop();
+        }
+
+        /**
+         * Fills {@code batch} with the carried bytes and as much of the input as fits, and finds
+         * the complete records in it.  Returns true once the input is exhausted.
+         */
+        private boolean fill(Batch batch, boolean end) throws IOException {
+            ByteBuffer buffer = batch.buffer;
+            if (buffer.capacity() < carryLength) {
+                // The carried bytes came from a batch that was grown for a large record.
+                buffer = ByteBuffer.allocate(2 * carryLength);
+                batch.buffer = buffer;
+            }
+            buffer.clear();
+            buffer.put(carry, 0, carryLength);
+            while (!end && buffer.hasRemaining()) {
+                end = in.read(buffer) < 0;
+            }
+            buffer.flip();
+
+            batch.count = 0;
+            batch.firstIndex = nextIndex;
+            int position = 0;
+            int limit = buffer.limit();
+            while (limit - position >= 4) {
+                int length = buffer.getInt(position);
+                if (length < 0) {
+                    throw new IOException("Malformed length of record " + nextIndex);
+                }
+                if (limit - position - 4 < length) {
+                    if (position == 0 && 4 + length > buffer.capacity()) {
+                        // A record larger than the buffer gets a buffer of its own size.
+                        batch.buffer = ByteBuffer.allocate(4 + length);
+                    }
+                    break;
+                }
+                batch.add(position + 4, length);
+                position += 4 + length;
+                nextIndex++;
+            }
+
+            carryLength = limit - position;
+            if (carry.length < carryLength) {
+                carry = new byte[Math.max(carryLength, 2 * carry.length)];
+            }
+            ByteBuffer tail = buffer.duplicate();
+            tail.position(position);
+            tail.get(carry, 0, carryLength);
+            return end;
+        }
+
+        /** Waits for {@code batch} to be evaluated, and writes and counts its results. */
+        private void write(Batch batch) throws IOException {
+            try {
+                batch.future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for batch " +
+                                                 batch.firstIndex);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Evaluation failed", e.getCause());
+            }
+
+            int size = RESULT_SIZE * batch.count;
+            if (results.capacity() < size) {
+                results = ByteBuffer.allocate(Math.max(size, 2 * results.capacity()));
+            }
+            results.clear();
+            for (int i = 0; i < batch.count; i++) {
+                int status = batch.statuses[i] & 0xff;
+                results.putLong(batch.firstIndex + i).put((byte) status);
+                report.count(status);
+                report.latency.record(batch.latencies[i]);
+            }
+            results.flip();
+            while (results.hasRemaining()) {
+                out.write(results);
+            }
+            batch.future = null;
+            free.push(batch);
+        }
+    }
+
+    /** Evaluates every record in {@code batch}, on a worker thread. */
+    private void evaluate(Batch batch) {
+        for (int i = 0; i < batch.count; i++) {
+            long start = System.nanoTime();
+            ByteBuffer record = batch.buffer.duplicate();
+            record.limit(batch.offsets[i] + batch.lengths[i]).position(batch.offsets[i]);
+            batch.statuses[i] = (byte) evaluate(record);
+            batch.latencies[i] = System.nanoTime() - start;
+        }
+    }
+
+    /** Returns the status of the record in the remaining bytes of {@code record}. */
+    int evaluate(ByteBuffer record) {
+        CborReader reader = new CborReader(record);
+        if (!reader.readHead() || reader.major != MAJOR_ARRAY || reader.indefinite ||
+            reader.argument != 3) {
+            return evaluateDecoded(record);
+        }
+        int queryStart = reader.position;
+        if (!reader.skipItem(0)) {
+            return evaluateDecoded(record);
+        }
+        int parametersStart = reader.position;
+        if (!reader.skipItem(0)) {
+            return evaluateDecoded(record);
+        }
+        int dataSetStart = reader.position;
+        if (!reader.skipItem(0) || reader.position != reader.limit) {
+            return evaluateDecoded(record);
+        }
+
+        ParameterSet parameters = toParameterSet(decode(reader.bytes(parametersStart,
+                dataSetStart)));
+        DataSet dataSet = toDataSet(decode(reader.bytes(dataSetStart, reader.limit)));
+        if (parameters == null || dataSet == null) {
+            return STATUS_MALFORMED_RECORD;
+        }
+        ByteBuffer query = record.duplicate();
+        query.limit(parametersStart).position(queryStart);
+        return status(executor.evaluate(query, parameters, dataSet));
+    }
+
+    /** Evaluates a record that {@link CborReader} does not read, such as one with floats. */
+    private int evaluateDecoded(ByteBuffer record) {
+        byte[] bytes = new byte[record.remaining()];
+        record.duplicate().get(bytes);
+        DataItem item = decode(bytes);
+        if (!(item instanceof Array) || ((Array) item).getDataItems().size() != 3) {
+            return STATUS_MALFORMED_RECORD;
+        }
+        List<DataItem> items = ((Array) item).getDataItems();
+        ParameterSet parameters = toParameterSet(items.get(1));
+        DataSet dataSet = toDataSet(items.get(2));
+        if (!(items.get(0) instanceof Array) || parameters == null || dataSet == null) {
+            return STATUS_MALFORMED_RECORD;
+        }
+        return status(executor.evaluate((Array) items.get(0), parameters, dataSet));
+    }
+
+    private static int status(QueryResult result) {
+        if (result.isError()) {
+            return status(result.getError());
+        }
+        return result.isTrue() ? STATUS_TRUE : STATUS_FALSE;
+    }
+
+    /** Decodes a single data item, or returns null if {@code bytes} are not one. */
+    private static DataItem decode(byte[] bytes) {
+        try {
+            List<DataItem> items = CborDecoder.decode(bytes);
+            return (items.size() == 1) ? items.get(0) : null;
+        } catch (CborException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static ParameterSet toParameterSet(DataItem item) {
+        if (!(item instanceof co.nstant.in.cbor.model.Map)) {
+            return null;
+        }
+        co.nstant.in.cbor.model.Map map = (co.nstant.in.cbor.model.Map) item;
+        ParameterSet parameters = new ParameterSet();
+        for (DataItem name : map.getKeys()) {
+            if (!(name instanceof UnicodeString)) {
+                return null;
+            }
+            parameters.put(((UnicodeString) name).getString(), map.get(name));
+        }
+        return parameters;
+    }
+
+    private static DataSet toDataSet(DataItem item) {
+        if (!(item instanceof co.nstant.in.cbor.model.Map)) {
+            return null;
+        }
+        co.nstant.in.cbor.model.Map map = (co.nstant.in.cbor.model.Map) item;
+        HashMap<DataItem, DataItem> elements = new HashMap<>();
+        for (DataItem reference : map.getKeys()) {
+            elements.put(reference, map.get(reference));
+        }
+        return elements::get;
+    }
+
+    /** The records read into one buffer, and their results once evaluated. */
+    private static final class Batch {
+
+        ByteBuffer buffer;
+        long firstIndex;
+        int count;
+        int[] offsets = new int[256];
+        int[] lengths = new int[256];
+        byte[] statuses = new byte[256];
+        long[] latencies = new long[256];
+        Future<?> future;
+
+        Batch(int bufferSize) {
+            buffer = ByteBuffer.allocate(bufferSize);
+        }
+
+        void add(int offset, int length) {
+            if (count == offsets.length) {
+                int capacity = 2 * count;
+                offsets = Arrays.copyOf(offsets, capacity);
+                lengths = Arrays.copyOf(lengths, capacity);
+                statuses = Arrays.copyOf(statuses, capacity);
+                latencies = Arrays.copyOf(latencies, capacity);
+            }
+            offsets[count] = offset;
+            lengths[count] = length;
+            count++;
+        }
+    }
+
+    /** The outcome of a {@link #run}: counts by status, throughput and record latencies. */
+    public static final class Report {
+
+        private long matched;
+        private long notMatched;
+        private long rejected;
+        private long malformed;
+        private long elapsedNanos;
+        // From reading a record's bytes in a batch to its status, on a worker.
+        private final QueryMetrics.LatencyHistogram latency = new QueryMetrics.LatencyHistogram();
+
+        private void count(int status) {
+            if (status == STATUS_TRUE) {
+                matched++;
+            } else if (status == STATUS_FALSE) {
+                notMatched++;
+            } else if (status == STATUS_MALFORMED_RECORD) {
+                malformed++;
+            } else {
+                rejected++;
+            }
+        }
+
+        public long getRecordCount() {
+            return matched + notMatched + rejected + malformed;
+        }
+
+        public long getMatchedCount() {
+            return matched;
+        }
+
+        public long getNotMatchedCount() {
+            return notMatched;
+        }
+
+        public long getRejectedCount() {
+            return rejected;
+        }
+
+        public long getMalformedCount() {
+            return malformed;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public double getRecordsPerSecond() {
+            return getRecordCount() * 1e9 / Math.max(elapsedNanos, 1);
+        }
+
+        public QueryMetrics.LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%d records in %.3f s: %d matched, %d not matched, " +
+                                 "%d rejected, %d malformed%n" +
+                                 "%.0f records/s%n" +
+                                 "latency p50 <= %d ns, p90 <= %d ns, p99 <= %d ns, " +
+                                 "p99.9 <= %d ns",
+                    getRecordCount(), elapsedNanos / 1e9, matched, notMatched, rejected,
+                    malformed, getRecordsPerSecond(), latency.getPercentileNanos(50),
+                    latency.getPercentileNanos(90), latency.getPercentileNanos(99),
+                    latency.getPercentileNanos(99.9));
+        }
+    }
+
+    /** Usage: {@code BulkVerifier <input> <output> [threads]}. */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("Usage: BulkVerifier <input> <output> [threads]");
+            System.exit(2);
+        }
+        int threads = (args.length == 3) ? Integer.parseInt(args[2]) :
+                      Runtime.getRuntime().availableProcessors();
+        BulkVerifier verifier = new BulkVerifier(new ICQueryExecutor(), threads);
+        System.out.println(verifier.run(Paths.get(args[0]), Paths.get(args[1])));
+    }
+}
@@ -0,0 +1,161 @@
+package com.androidx.identity_credential.query;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the heads of CBOR data items from a buffer, without creating objects for them.
+ *
+ * <p>Only the subset of CBOR that queries use is read: integers, definite-length strings and
+ * maps, arrays of either length, tags and simple values.  Anything else, including items that are
+ * truncated or nested more than {@link #MAX_DEPTH} deep, makes {@link #readHead} or
+ * {@link #skip} return false, and the caller falls back to a full decoder.
+ */
+final class CborReader {
+
+    static final int MAJOR_UNSIGNED_INTEGER = 0;
+    static final int MAJOR_NEGATIVE_INTEGER = 1;
+    static final int MAJOR_BYTE_STRING = 2;
+    static final int MAJOR_TEXT_STRING = 3;
+    static final int MAJOR_ARRAY = 4;
+    static final int MAJOR_MAP = 5;
+    static final int MAJOR_TAG = 6;
+    static final int MAJOR_SIMPLE = 7;
+
+    static final int MAX_DEPTH = 256;
+
+    private static final int BREAK = 0xff;
+
+    private final ByteBuffer buffer;
+    final int limit;
+    int position;
+
+    // The head read last: its major type, its argument as an unsigned long, and whether it
+    // starts an indefinite-length array.
+    int major;
+    long argument;
+    boolean indefinite;
+
+    /** Reads the remaining bytes of {@code buffer}, without changing its position. */
+    CborReader(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.limit = buffer.limit();
+        this.position = buffer.position();
+    }
+
+    boolean readHead() {
+        if (position >= limit) {
+            return false;
+        }
+        int initial = buffer.get(position++) & 0xff;
+        major = initial >>> 5;
+        int info = initial & 0x1f;
+        indefinite = false;
+        if (info < 24) {
+            argument = info;
+        } else if (info <= 27) {
+            int length = 1 << (info - 24);
+            if (limit - position < length) {
+                return false;
+            }
+            long value = 0;
+            for (int i = 0; i < length; i++) {
+                value = (value << 8) | (buffer.get(position++) & 0xff);
+            }
+            argument = value;
+        } else if (info == 31 && major == MAJOR_ARRAY) {
+            indefinite = true;
+            argument = 0;
+        } else {
+            // Reserved values, other indefinite-length items and unexpected breaks.
+            return false;
+        }
+        // Floating-point numbers and one-byte simple values are left to the decoder.
+        return major != MAJOR_SIMPLE || info < 24;
+    }
+
+    boolean skipItem(int depth) {
+        return readHead() && skip(depth);
+    }
+
+    /** Moves past the rest of the item whose head was read last, including any tagged item. */
+    boolean skip(int depth) {
+        while (major == MAJOR_TAG) {
+            if (!readHead()) {
+                return false;
+            }
+        }
+        switch (major) {
+            case MAJOR_BYTE_STRING:
+            case MAJOR_TEXT_STRING:
+                if (Long.compareUnsigned(argument, limit - position) > 0) {
+                    return false;
+                }
+                position += (int) argument;
+                return true;
+
+            case MAJOR_ARRAY:
+            case MAJOR_MAP: {
+                if (depth >= MAX_DEPTH) {
+                    return false;
+                }
+                if (indefinite) {
+                    while (!atBreak()) {
+                        if (!skipItem(depth + 1)) {
+                            return false;
+                        }
+                    }
+                    position++;
+                    return true;
+                }
+                // Every item takes at least a byte, which bounds the count.
+                if (Long.compareUnsigned(argument, limit - position) > 0) {
+                    return false;
+                }
+                long items = (major == MAJOR_MAP) ? 2 * argument : argument;
+                for (long i = 0; i < items; i++) {
+                    if (!skipItem(depth + 1)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            default:
+                return true;
+        }
+    }
+
+    boolean atBreak() {
+        return position < limit && (buffer.get(position) & 0xff) == BREAK;
+    }
+
+    boolean isInteger() {
+        return major == MAJOR_UNSIGNED_INTEGER || major == MAJOR_NEGATIVE_INTEGER;
+    }
+
+    /** Returns the low 32 bits of the integer read last, as {@code BigInteger.intValue} does. */
+    int intValue() {
+        // A negative integer is -1 - argument, which is ~argument in two's complement.
+        return (int) ((major == MAJOR_NEGATIVE_INTEGER) ? ~argument : argument);
+    }
+
+    /** Returns the text string whose head was read last, which is known to be complete. */
+    String readText() {
+        int length = (int) argument;
+        String text = buffer.hasArray() ?
+                      new String(buffer.array(), buffer.arrayOffset() + position, length,
+                              StandardCharsets.UTF_8) :
+                      new String(bytes(position, position + length), StandardCharsets.UTF_8);
+        position += length;
+        return text;
+    }
+
+    byte[] bytes(int start, int end) {
+        byte[] bytes = new byte[end - start];
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(start);
+        slice.get(bytes);
+        return bytes;
+    }
+}
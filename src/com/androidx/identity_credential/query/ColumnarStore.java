@@ -0,0 +1,322 @@
+package com.androidx.identity_credential.query;
+
+import co.nstant.in.cbor.CborDecoder;
+import co.nstant.in.cbor.CborException;
+import co.nstant.in.cbor.model.DataItem;
+import co.nstant.in.cbor.model.NegativeInteger;
+import co.nstant.in.cbor.model.SimpleValue;
+import co.nstant.in.cbor.model.Tag;
+import co.nstant.in.cbor.model.UnicodeString;
+import co.nstant.in.cbor.model.UnsignedInteger;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A read-only file of records, each a {@link DataSet}, stored one column per data element and
+ * read through a memory mapping.
+ *
+ * <p>A column keeps a kind for every record, and its value in a fixed-width section for that
+ * kind: untagged integers as longs, dates as epoch-day ints, booleans as bits, and untagged
+ * strings as ids into the column's dictionary of distinct values.  Any other value is kept as
+ * its CBOR encoding.  Files are written by {@link ColumnarStoreWriter}.
+ *
+ * <p>A column with few distinct strings, such as country codes, has them decoded and added to
+ * the {@link StringDictionary} when the store is opened, so comparing them with query constants
+ * compares ids.  A larger dictionary stays as UTF-8 bytes in the mapping, which are compared
+ * without being decoded.
+ *
+ * <p>A {@link Cursor} is a {@link DataSet} positioned on one record.  Evaluating a
+ * {@link CompiledQuery} against it reads the columns directly, without creating a
+ * {@link DataItem} for integer, date, boolean or string elements; {@link #execute} evaluates a
+ * query against every record that way.  The mapping is limited to 2 GB, and is released when the
+ * store is garbage collected.  A store may be shared between threads, each with its own cursor.
+ */
+public final class ColumnarStore {
+
+    static final int MAGIC = 0x49435153;  // "ICQS"
+    static final int VERSION = 1;
+
+    // The kind of each record's value in a column.
+    static final byte MISSING = 0;
+    static final byte LONG = 1;
+    static final byte DATE = 2;
+    static final byte BOOLEAN = 3;
+    static final byte STRING = 4;
+    static final byte ENCODED = 5;
+
+    // Each column starts with the offsets of its sections, 0 for a section it does not need.
+    static final int KINDS_SECTION = 0;
+    static final int LONGS_SECTION = 1;
+    static final int DATES_SECTION = 2;
+    static final int BOOLEANS_SECTION = 3;
+    static final int STRING_IDS_SECTION = 4;
+    static final int DICTIONARY_SECTION = 5;
+    static final int ENCODED_SECTION = 6;
+    static final int SECTION_COUNT = 8;
+
+    // The most distinct strings a column may have for them to be added to the StringDictionary.
+    static final int MAX_INTERNED_STRINGS = 256;
+
+    private final ByteBuffer buffer;
+    private final int size;
+    private final List<DataItem> references;
+    private final Map<DataItem, Integer> columnIndices = new HashMap<>();
+    private final Column[] columns;
+    private final Tag dateTag = new Tag(ParameterSet.DATE_TAG);
+
+    private ColumnarStore(ByteBuffer buffer, Path file) throws IOException {
+        this.buffer = buffer;
+        if (buffer.limit() < 16 || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a columnar store: " + file);
+        }
+        size = buffer.getInt(8);
+        columns = new Column[buffer.getInt(12)];
+        List<DataItem> references = new ArrayList<>();
+        int position = 16;
+        try {
+            for (int i = 0; i < columns.length; i++) {
+                byte[] encoded = new byte[buffer.getInt(position)];
+                ByteBuffer slice = buffer.duplicate();
+                slice.position(position + 4);
+                slice.get(encoded);
+                DataItem reference = CborDecoder.decode(encoded).get(0);
+                columns[i] = new Column(buffer.getInt(position + 4 + encoded.length));
+                position += 8 + encoded.length;
+                references.add(reference);
+                columnIndices.put(reference, i);
+            }
+        } catch (CborException | RuntimeException e) {
+            throw new IOException("Corrupt columnar store: " + file, e);
+        }
+        this.references = Collections.unmodifiableList(references);
+    }
+
+    public static ColumnarStore open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Columnar store larger than 2 GB: " + file);
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new ColumnarStore(buffer.order(ByteOrder.LITTLE_ENDIAN), file);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Returns the data references of the stored columns, in the order they were written. */
+    public List<DataItem> getDataReferences() {
+        return references;
+    }
+
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Evaluates {@code query} against every record.  Per-record results are exactly those of
+     * evaluating it against a {@link Cursor} on each record in turn.
+     */
+    public BatchResult execute(ICQueryExecutor executor, CompiledQuery query,
+                               ParameterSet parameters) {
+        BitSet matches = new BitSet(size);
+        List<BatchResult.ItemError> errors = new ArrayList<>();
+        ExecutionContext context = new ExecutionContext();
+        Cursor cursor = new Cursor();
+        for (int row = 0; row < size; row++) {
+            cursor.moveTo(row);
+            QueryResult result = executor.evaluate(query, parameters, cursor, context);
+            if (result.isTrue()) {
+                matches.set(row);
+            } else if (result.isError()) {
+                errors.add(new BatchResult.ItemError(row, result, query));
+            }
+        }
+        return new BatchResult(size, matches, errors);
+    }
+
+    /** A {@link DataSet} view of one record at a time.  Not thread-safe. */
+    public final class Cursor extends DirectDataSet {
+
+        private int row;
+
+        // The column of each data reference of the last query evaluated, or -1.
+        private CompiledQuery query;
+        private int[] queryColumns;
+
+        private Cursor() {}
+
+        public void moveTo(int row) {
+            if (row < 0 || row >= size) {
+                throw new IndexOutOfBoundsException("Record " + row + " of " + size);
+            }
+            this.row = row;
+        }
+
+        public int getRow() {
+            return row;
+        }
+
+        @Override
+        public DataItem getDataElement(DataItem entry) {
+            Integer column = columnIndices.get(entry);
+            return (column == null) ? null : columns[column].get(row);
+        }
+
+        @Override
+        QueryError pushDataElement(CompiledQuery query, int reference, OperandStack stack) {
+            if (query != this.query) {
+                int[] queryColumns = new int[query.dataReferences.length];
+                for (int i = 0; i < queryColumns.length; i++) {
+                    Integer column = columnIndices.get(query.dataReferences[i]);
+                    queryColumns[i] = (column == null) ? -1 : column;
+                }
+                this.queryColumns = queryColumns;
+                this.query = query;
+            }
+            int column = queryColumns[reference];
+            if (column < 0) {
+                return QueryError.UNKNOWN_DATA_ELEMENT;
+            }
+            return columns[column].push(row, stack);
+        }
+    }
+
+    /** The section offsets of one column, and its dictionary of distinct strings. */
+    private final class Column {
+
+        private final int kinds;
+        private final int longs;
+        private final int dates;
+        private final int booleans;
+        private final int stringIds;
+        private final int encoded;
+        // Strings, or Utf8Strings for a large dictionary, with their StringDictionary ids.
+        private final Object[] dictionary;
+        private final int[] dictionaryIds;
+
+        Column(int offset) {
+            kinds = buffer.getInt(offset + 4 * KINDS_SECTION);
+            longs = buffer.getInt(offset + 4 * LONGS_SECTION);
+            dates = buffer.getInt(offset + 4 * DATES_SECTION);
+            booleans = buffer.getInt(offset + 4 * BOOLEANS_SECTION);
+            stringIds = buffer.getInt(offset + 4 * STRING_IDS_SECTION);
+            encoded = buffer.getInt(offset + 4 * ENCODED_SECTION);
+
+            // The dictionary is a count, count + 1 offsets into the UTF-8 bytes, and the bytes.
+            int dictionaryOffset = buffer.getInt(offset + 4 * DICTIONARY_SECTION);
+            dictionary = new Object[(dictionaryOffset == 0) ? 0 : buffer.getInt(dictionaryOffset)];
+            dictionaryIds = new int[dictionary.length];
+            boolean intern = dictionary.length <= MAX_INTERNED_STRINGS;
+            int bytes = dictionaryOffset + 4 * (dictionary.length + 2);
+            for (int i = 0; i < dictionary.length; i++) {
+                int start = bytes + buffer.getInt(dictionaryOffset + 4 * (i + 1));
+                int end = bytes + buffer.getInt(dictionaryOffset + 4 * (i + 2));
+                if (intern) {
+                    String string = new String(bytes(start, end - start), StandardCharsets.UTF_8);
+                    dictionary[i] = string;
+                    dictionaryIds[i] = StringDictionary.intern(string);
+                } else {
+                    dictionary[i] = new Utf8String(buffer, start, end - start);
+                    dictionaryIds[i] = StringDictionary.NO_ID;
+                }
+            }
+        }
+
+        QueryError push(int row, OperandStack stack) {
+            switch (buffer.get(kinds + row)) {
+                case LONG:
+                    stack.pushLong(buffer.getLong(longs + 8 * row));
+                    return null;
+
+                case DATE:
+                    stack.pushDate(dateTag, buffer.getInt(dates + 4 * row));
+                    return null;
+
+                case BOOLEAN:
+                    stack.pushBoolean(getBoolean(row));
+                    return null;
+
+                case STRING: {
+                    int id = buffer.getInt(stringIds + 4 * row);
+                    stack.pushString(dictionary[id], dictionaryIds[id]);
+                    return null;
+                }
+
+                case ENCODED:
+                    return stack.push(decode(row));
+
+                default:
+                    return QueryError.UNKNOWN_DATA_ELEMENT;
+            }
+        }
+
+        DataItem get(int row) {
+            switch (buffer.get(kinds + row)) {
+                case LONG: {
+                    long value = buffer.getLong(longs + 8 * row);
+                    return (value < 0) ? new NegativeInteger(BigInteger.valueOf(value)) :
+                           new UnsignedInteger(value);
+                }
+
+                case DATE: {
+                    DataItem date = new UnicodeString(
+                            Dates.toString(buffer.getInt(dates + 4 * row)));
+                    date.setTag(ParameterSet.DATE_TAG);
+                    return date;
+                }
+
+                case BOOLEAN:
+                    return getBoolean(row) ? SimpleValue.TRUE : SimpleValue.FALSE;
+
+                case STRING:
+                    return new UnicodeString(
+                            dictionary[buffer.getInt(stringIds + 4 * row)].toString());
+
+                case ENCODED:
+                    return decode(row);
+
+                default:
+                    return null;
+            }
+        }
+
+        private boolean getBoolean(int row) {
+            return (buffer.getLong(booleans + 8 * (row >>> 6)) & (1L << row)) != 0;
+        }
+
+        /** Decodes an encoded value, stored as size + 1 offsets into the bytes that follow. */
+        private DataItem decode(int row) {
+            int start = buffer.getInt(encoded + 4 * row);
+            int end = buffer.getInt(encoded + 4 * (row + 1));
+            try {
+                return CborDecoder.decode(bytes(encoded + 4 * (size + 1) + start, end - start))
+                                  .get(0);
+            } catch (CborException e) {
+                throw new IllegalStateException("Corrupt value in columnar store", e);
+            }
+        }
+
+        private byte[] bytes(int offset, int length) {
+            byte[] bytes = new byte[length];
+            ByteBuffer slice = buffer.duplicate();
+            slice.position(offset);
+            slice.get(bytes);
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package com.androidx.identity_credential.query;
+
+import co.nstant.in.cbor.CborEncoder;
+import co.nstant.in.cbor.CborException;
+import co.nstant.in.cbor.model.DataItem;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.androidx.identity_credential.query.ColumnarStore.*;
+import static com.androidx.identity_credential.query.TypedValues.*;
+
+/**
+ * Converts {@link DataSet}s to the file format read by {@link ColumnarStore}.
+ *
+ * <p>The file starts with a header of the record count and, for every column, its data
+ * reference's CBOR encoding and the offset of the column.  A column starts with the offsets of
+ * its sections, each aligned to 8 bytes, followed by the sections themselves.  All numbers are
+ * little-endian.
+ */
+public final class ColumnarStoreWriter {
+
+    private ColumnarStoreWriter() {}
+
+    /**
+     * Writes the data elements named by {@code references}, data reference entries as they appear
+     * in queries, of every one of {@code dataSets} to {@code file}.  Other elements are not
+     * stored.
+     */
+    public static void write(Path file, List<DataItem> references,
+                             Iterable<? extends DataSet> dataSets) throws IOException {
+        List<DataItem> prefetch = new ArrayList<>(references);
+        ColumnBuilder[] columns = new ColumnBuilder[references.size()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = new ColumnBuilder();
+        }
+        TypedValues value = new TypedValues(1);
+        int size = 0;
+        for (DataSet dataSet : dataSets) {
+            dataSet.prefetch(prefetch);
+            for (int i = 0; i < columns.length; i++) {
+                columns[i].add(dataSet.getDataElement(references.get(i)), value);
+            }
+            size++;
+        }
+
+        List<byte[]> encodedReferences = new ArrayList<>();
+        int headerSize = 16;
+        for (DataItem reference : references) {
+            byte[] encoded = encode(reference);
+            encodedReferences.add(encoded);
+            headerSize += 8 + encoded.length;
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            Output out = new Output(channel, headerSize);
+            int[] columnOffsets = new int[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                columnOffsets[i] = columns[i].write(out, size);
+            }
+            out.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(headerSize).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(size).putInt(columns.length);
+            for (int i = 0; i < columns.length; i++) {
+                byte[] encoded = encodedReferences.get(i);
+                header.putInt(encoded.length).put(encoded).putInt(columnOffsets[i]);
+            }
+            header.flip();
+            writeFully(channel, header, 0);
+        }
+    }
+
+    private static byte[] encode(DataItem item) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            new CborEncoder(out).encode(item);
+        } catch (CborException e) {
+            throw new IOException("Cannot encode " + item, e);
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /** One column's values, held in memory until every record has been read. */
+    private static final class ColumnBuilder {
+
+        private byte[] kinds = new byte[64];
+        // The integer, epoch day, boolean, dictionary id or encoded length, depending on kind.
+        private long[] values = new long[64];
+        private int size;
+        private final boolean[] present = new boolean[ENCODED + 1];
+        private final Map<String, Integer> dictionary = new LinkedHashMap<>();
+        private final ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+
+        void add(DataItem element, TypedValues value) throws IOException {
+            if (size == kinds.length) {
+                kinds = Arrays.copyOf(kinds, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            byte kind = classify(element, value);
+            switch (kind) {
+                case LONG:
+                case DATE:
+                    values[size] = value.longs[0];
+                    break;
+
+                case BOOLEAN:
+                    values[size] = value.booleans[0] ? 1 : 0;
+                    break;
+
+                case STRING: {
+                    String string = (String) value.refs[0];
+                    Integer id = dictionary.get(string);
+                    if (id == null) {
+                        id = dictionary.size();
+                        dictionary.put(string, id);
+                    }
+                    values[size] = id;
+                    break;
+                }
+
+                case ENCODED: {
+                    byte[] bytes = encode(element);
+                    encoded.write(bytes);
+                    values[size] = bytes.length;
+                    break;
+                }
+
+                default:
+                    break;
+            }
+            kinds[size++] = kind;
+            present[kind] = true;
+        }
+
+        /** Returns how {@code element} is stored, leaving its value in {@code value}. */
+        private static byte classify(DataItem element, TypedValues value) {
+            if (element == null) {
+                return MISSING;
+            }
+            if (value.set(0, element) != null) {
+                // A malformed date, which is rejected when it is read.
+                return ENCODED;
+            }
+            switch (value.kinds[0]) {
+                case KIND_LONG:
+                    return (value.tags[0] == null) ? LONG : ENCODED;
+
+                case KIND_DATE:
+                    // Dates are re-created with only the date tag.
+                    return (value.tags[0].getTag() == null) ? DATE : ENCODED;
+
+                case KIND_BOOLEAN:
+                    return BOOLEAN;
+
+                case KIND_STRING:
+                    return (value.tags[0] == null) ? STRING : ENCODED;
+
+                default:
+                    return ENCODED;
+            }
+        }
+
+        /** Writes the column and returns its offset. */
+        int write(Output out, int rows) throws IOException {
+            int[] sections = new int[SECTION_COUNT];
+            int start = out.align();
+            for (int i = 0; i < SECTION_COUNT; i++) {
+                out.putInt(0);
+            }
+
+            sections[KINDS_SECTION] = out.align();
+            for (int row = 0; row < rows; row++) {
+                out.put(kinds[row]);
+            }
+            if (present[LONG]) {
+                sections[LONGS_SECTION] = out.align();
+                for (int row = 0; row < rows; row++) {
+                    out.putLong(kinds[row] == LONG ? values[row] : 0);
+                }
+            }
+            if (present[DATE]) {
+                sections[DATES_SECTION] = out.align();
+                for (int row = 0; row < rows; row++) {
+                    out.putInt(kinds[row] == DATE ? (int) values[row] : 0);
+                }
+            }
+            if (present[BOOLEAN]) {
+                sections[BOOLEANS_SECTION] = out.align();
+                for (int word = 0; word < rows; word += 64) {
+                    long bits = 0;
+                    for (int row = word; row < Math.min(word + 64, rows); row++) {
+                        if (kinds[row] == BOOLEAN && values[row] != 0) {
+                            bits |= 1L << row;
+                        }
+                    }
+                    out.putLong(bits);
+                }
+            }
+            if (present[STRING]) {
+                sections[STRING_IDS_SECTION] = out.align();
+                for (int row = 0; row < rows; row++) {
+                    out.putInt(kinds[row] == STRING ? (int) values[row] : 0);
+                }
+
+                sections[DICTIONARY_SECTION] = out.align();
+                List<byte[]> strings = new ArrayList<>();
+                for (String string : dictionary.keySet()) {
+                    strings.add(string.getBytes(StandardCharsets.UTF_8));
+                }
+                out.putInt(strings.size());
+                int offset = 0;
+                out.putInt(offset);
+                for (byte[] string : strings) {
+                    offset += string.length;
+                    out.putInt(offset);
+                }
+                for (byte[] string : strings) {
+                    out.put(string);
+                }
+            }
+            if (present[ENCODED]) {
+                sections[ENCODED_SECTION] = out.align();
+                int offset = 0;
+                out.putInt(offset);
+                for (int row = 0; row < rows; row++) {
+                    if (kinds[row] == ENCODED) {
+                        offset += (int) values[row];
+                    }
+                    out.putInt(offset);
+                }
+                out.put(encoded.toByteArray());
+            }
+
+            out.flush();
+            ByteBuffer header = ByteBuffer.allocate(4 * SECTION_COUNT)
+                                          .order(ByteOrder.LITTLE_ENDIAN);
+            for (int section : sections) {
+                header.putInt(section);
+            }
+            header.flip();
+            writeFully(out.channel, header, start);
+            return start;
+        }
+    }
+
+    /** Buffered sequential writes to a channel, from a given position. */
+    private static final class Output {
+
+        final FileChannel channel;
+        private final ByteBuffer buffer =
+                ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        private long position;
+
+        Output(FileChannel channel, long position) {
+            this.channel = channel;
+            this.position = position;
+        }
+
+        /** Pads to a multiple of 8 bytes and returns the position. */
+        int align() throws IOException {
+            while (position % 8 != 0) {
+                put((byte) 0);
+            }
+            if (position > Integer.MAX_VALUE) {
+                throw new IOException("Columnar store larger than 2 GB");
+            }
+            return (int) position;
+        }
+
+        void put(byte value) throws IOException {
+            ensure(1);
+            buffer.put(value);
+            position++;
+        }
+
+        void putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+            position += 4;
+        }
+
+        void putLong(long value) throws IOException {
+            ensure(8);
+            buffer.putLong(value);
+            position += 8;
+        }
+
+        void put(byte[] bytes) throws IOException {
+            for (int i = 0; i < bytes.length; ) {
+                ensure(1);
+                int length = Math.min(buffer.remaining(), bytes.length - i);
+                buffer.put(bytes, i, length);
+                i += length;
+                position += length;
+            }
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            long start = position - buffer.remaining();
+            writeFully(channel, buffer, start);
+            buffer.clear();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.androidx.identity_credential.query;
+
+import co.nstant.in.cbor.model.DataItem;
+import co.nstant.in.cbor.model.Tag;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A query that has been validated and flattened by {@link ICQueryExecutor#compile}.
+ *
+ * <p>Each query entry becomes one instruction: an opcode plus an int operand that indexes the
+ * data reference table, a {@link ParameterLayout} slot or, in a query rewritten by
+ * {@link ICQueryExecutor#optimize}, the constant table.  Operator opcodes use the operator
+ * values from {@link ICQueryExecutor} and carry the operator's tag in {@code operatorTags}.
+ * {@code AND} and {@code OR} are preceded by a conditional jump whose operand is the instruction
+ * following the operator; {@code skippedDataReferences} records how many data lookups taking the
+ * jump avoids.  {@code entryIndices} maps each instruction back to its entry in the source query,
+ * for error reporting.  {@code verified} marks the operators that {@link QueryVerifier} has
+ * shown always apply to their operands, so evaluation skips their type and tag checks.
+ * Instances are immutable once built.
+ */
+public final class CompiledQuery {
+
+    static final int OP_DATA_REF = 9;
+    static final int OP_PARAM_REF = 10;
+    static final int OP_JUMP_IF_FALSE = 11;
+    static final int OP_JUMP_IF_TRUE = 12;
+    static final int OP_CONST = 13;
+
+    final int[] opcodes;
+    final int[] operands;
+    final Tag[] operatorTags;
+    final int[] skippedDataReferences;
+    final int[] entryIndices;
+    final boolean[] verified;
+
+    final DataItem[] dataReferences;
+    final List<DataItem> dataReferenceList;
+
+    final TypedValues constants;
+
+    final ParameterLayout parameterLayout;
+
+    final int maxStackDepth;
+
+    // The number of instructions other than jumps, which is the number of entries in the
+    // query the program was compiled from, for ExecutionLimits.
+    final int entryCount;
+
+    // The expression tree the program was emitted from, for evaluators that are not a single
+    // pass over the instructions.
+    final QueryNode root;
+
+    // The same program as a tree of predicates, if ICQueryExecutor.compilePredicates built one.
+    final PredicateQuery predicates;
+
+    CompiledQuery(int[] opcodes, int[] operands, Tag[] operatorTags, int[] skippedDataReferences,
+                  int[] entryIndices, boolean[] verified, DataItem[] dataReferences,
+                  TypedValues constants, ParameterLayout parameterLayout, int maxStackDepth,
+                  QueryNode root) {
+        this.opcodes = opcodes;
+        this.operands = operands;
+        this.operatorTags = operatorTags;
+        this.skippedDataReferences = skippedDataReferences;
+        this.entryIndices = entryIndices;
+        this.verified = verified;
+        this.dataReferences = dataReferences;
+        this.dataReferenceList = Collections.unmodifiableList(Arrays.asList(dataReferences));
+        this.constants = constants;
+        this.parameterLayout = parameterLayout;
+        this.maxStackDepth = maxStackDepth;
+        this.entryCount = countEntries(opcodes);
+        this.root = root;
+        this.predicates = null;
+    }
+
+    private CompiledQuery(CompiledQuery query, PredicateQuery predicates) {
+        this.opcodes = query.opcodes;
+        this.operands = query.operands;
+        this.operatorTags = query.operatorTags;
+        this.skippedDataReferences = query.skippedDataReferences;
+        this.entryIndices = query.entryIndices;
+        this.verified = query.verified;
+        this.dataReferences = query.dataReferences;
+        this.dataReferenceList = query.dataReferenceList;
+        this.constants = query.constants;
+        this.parameterLayout = query.parameterLayout;
+        this.maxStackDepth = query.maxStackDepth;
+        this.entryCount = query.entryCount;
+        this.root = query.root;
+        this.predicates = predicates;
+    }
+
+    /**
+     * Returns a copy of this query that also holds its program as a {@link PredicateQuery}, or
+     * this query if it is too deep for one.
+     */
+    CompiledQuery withPredicates() {
+        PredicateQuery predicates = PredicateQuery.compile(this);
+        return (predicates != null) ? new CompiledQuery(this, predicates) : this;
+    }
+
+    private static int countEntries(int[] opcodes) {
+        int count = 0;
+        for (int opcode : opcodes) {
+            if (opcode != OP_JUMP_IF_FALSE && opcode != OP_JUMP_IF_TRUE) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public int getInstructionCount() {
+        return opcodes.length;
+    }
+
+    /** Returns the exact maximum number of values on the stack while the query is evaluated. */
+    public int getMaxStackDepth() {
+        return maxStackDepth;
+    }
+
+    /** Returns the distinct data references in the query, in order of first use. */
+    public List<DataItem> getDataReferences() {
+        return dataReferenceList;
+    }
+
+    /**
+     * Returns true if this query was returned by {@link ICQueryExecutor#compilePredicates} with a
+     * predicate tree.
+     */
+    public boolean hasPredicates() {
+        return predicates != null;
+    }
+
+    public ParameterLayout getParameterLayout() {
+        return parameterLayout;
+    }
+
+    /**
+     * Rough heap footprint of the program tables, not counting the data reference items, which
+     * are shared with the source query.
+     */
+    long estimateSize() {
+        return 96 + 25L * opcodes.length + 8L * dataReferences.length +
+               48L * constants.kinds.length +
+               parameterLayout.estimateSize();
+    }
+}
@@ -0,0 +1,286 @@
+package com.androidx.identity_credential.query;
+
+import co.nstant.in.cbor.CborEncoder;
+import co.nstant.in.cbor.CborException;
+import co.nstant.in.cbor.model.Array;
+import co.nstant.in.cbor.model.UnicodeString;
+
+import java.io.ByteArrayOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe LRU cache of compiled queries, keyed by the SHA-256 hash of the query's canonical
+ * CBOR encoding: the encoder's output, which uses definite lengths and the shortest form of every
+ * integer.
+ *
+ * <p>Queries received as bytes are first looked up by the bytes as received, so a repeated query
+ * from a canonical sender costs one hash and one map lookup.  Other encodings of the same query
+ * miss that lookup, and are decoded and looked up again by their canonical encoding; they share
+ * one entry and are compiled once, but pay for decoding on every call.  Queries specialized for a
+ * {@link ParameterSet} are keyed by the query and the parameters' names and values as well.
+ * Queries that fail to compile or specialize are cached as well, and the same
+ * {@link QueryException} error is reported again without re-parsing.  Bytes that fail to decode
+ * have no canonical encoding and are cached by the bytes as received, so each such input takes
+ * an entry of its own.  The cache is bounded both by entry count and by an estimate of the memory
+ * held by its entries; the least recently used entries are evicted first.
+ */
+public class CompiledQueryCache {
+
+    private static final int ENTRY_OVERHEAD = 128;
+
+    // Prefixed to every digest, so that no query's key equals a specialized query's key.
+    private static final byte KIND_QUERY = 0;
+    private static final byte KIND_SPECIALIZED = 1;
+
+    private static final ThreadLocal<MessageDigest> DIGESTS = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    });
+
+    private final ICQueryExecutor executor;
+    private final int maxEntries;
+    private final long maxBytes;
+
+    // Guarded by "this".
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public CompiledQueryCache(ICQueryExecutor executor, int maxEntries, long maxBytes) {
+        if (maxEntries <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("Cache limits must be positive");
+        }
+        this.executor = executor;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    public CompiledQuery get(byte[] encodedQuery) throws QueryException {
+        Key key = key(KIND_QUERY, encodedQuery);
+        Entry entry = lookup(key, false);
+        if (entry != null) {
+            hits.increment();
+            return entry.get();
+        }
+        Array query = EncodedQuery.decode(encodedQuery);
+        if (query == null) {
+            misses.increment();
+            entry = new Entry(null, QueryError.MALFORMED_QUERY,
+                    "Invalid query: not a well-formed CBOR array",
+                    ENTRY_OVERHEAD + encodedQuery.length);
+            insert(key, entry);
+            return entry.get();
+        }
+        // Counted by the canonical lookup, which for canonical senders is under the same key.
+        return get(query, true);
+    }
+
+    public CompiledQuery get(Array query) throws QueryException {
+        return get(query, true);
+    }
+
+    /**
+     * Returns {@code query} specialized for {@code parameters} by
+     * {@link ICQueryExecutor#specialize}.  Later changes to {@code parameters} are looked up as a
+     * different entry.
+     */
+    public CompiledQuery getSpecialized(Array query, ParameterSet parameters)
+            throws QueryException {
+        byte[] encodedQuery = encode(query);
+        byte[] encodedParameters = encode(parameters);
+        // Both encodings are self-delimiting, so their concatenation is unambiguous.
+        Key key = key(KIND_SPECIALIZED, encodedQuery, encodedParameters);
+        Entry entry = lookup(key, true);
+        if (entry == null) {
+            entry = specialize(query, parameters,
+                    encodedQuery.length + encodedParameters.length);
+            insert(key, entry);
+        }
+        return entry.get();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getEstimatedBytes() {
+        return bytes;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Looks up {@code query}, compiling and inserting it on a miss.  Only lookups made for the
+     * caller are counted in the statistics, not those made on the way to another entry.
+     */
+    private CompiledQuery get(Array query, boolean counted) throws QueryException {
+        byte[] encodedQuery = encode(query);
+        Key key = key(KIND_QUERY, encodedQuery);
+        Entry entry = lookup(key, counted);
+        if (entry == null) {
+            entry = compile(query, encodedQuery.length);
+            insert(key, entry);
+        }
+        return entry.get();
+    }
+
+    private synchronized Entry lookup(Key key, boolean counted) {
+        Entry entry = entries.get(key);
+        if (counted) {
+            if (entry == null) {
+                misses.increment();
+            } else {
+                hits.increment();
+            }
+        }
+        return entry;
+    }
+
+    private synchronized void insert(Key key, Entry entry) {
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            bytes -= previous.size;
+        }
+        bytes += entry.size;
+
+        // Never evict the entry just inserted, even if it alone exceeds the memory budget.
+        Iterator<Map.Entry<Key, Entry>> eldest = entries.entrySet().iterator();
+        while (entries.size() > 1 && (entries.size() > maxEntries || bytes > maxBytes)) {
+            Entry evicted = eldest.next().getValue();
+            eldest.remove();
+            bytes -= evicted.size;
+            evictions.increment();
+        }
+    }
+
+    private Entry compile(Array query, int encodedLength) {
+        long size = ENTRY_OVERHEAD + encodedLength;
+        try {
+            CompiledQuery compiled = executor.compile(query);
+            return new Entry(compiled, null, null, size + compiled.estimateSize());
+        } catch (QueryException e) {
+            return new Entry(null, e.getError(), e.getMessage(),
+                    size + 2L * e.getMessage().length());
+        }
+    }
+
+    private Entry specialize(Array query, ParameterSet parameters, int encodedLength) {
+        long size = ENTRY_OVERHEAD + encodedLength;
+        try {
+            CompiledQuery specialized = executor.specialize(get(query, false), parameters);
+            return new Entry(specialized, null, null, size + specialized.estimateSize());
+        } catch (QueryException e) {
+            return new Entry(null, e.getError(), e.getMessage(),
+                    size + 2L * e.getMessage().length());
+        }
+    }
+
+    private static Key key(byte kind, byte[]... encodings) {
+        MessageDigest digest = DIGESTS.get();
+        digest.update(kind);
+        for (byte[] encoding : encodings) {
+            digest.update(encoding);
+        }
+        return new Key(digest.digest());
+    }
+
+    private static byte[] encode(Array query) throws QueryException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            new CborEncoder(out).encode(query);
+        } catch (CborException e) {
+            throw new QueryException(QueryError.MALFORMED_QUERY,
+                    "Invalid query: cannot encode query: " + e.getMessage());
+        }
+        return out.toByteArray();
+    }
+
+    /** Encodes the parameters as a map, sorted by name so that the encoding is canonical. */
+    private static byte[] encode(ParameterSet parameters) throws QueryException {
+        List<String> names = new ArrayList<>(parameters.keySet());
+        Collections.sort(names);
+        co.nstant.in.cbor.model.Map map = new co.nstant.in.cbor.model.Map();
+        for (String name : names) {
+            map.put(new UnicodeString(name), parameters.get(name));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            new CborEncoder(out).encode(map);
+        } catch (CborException e) {
+            throw new QueryException(QueryError.OTHER,
+                    "Invalid parameters: cannot encode parameters: " + e.getMessage());
+        }
+        return out.toByteArray();
+    }
+
+    private static final class Key {
+        private final byte[] digest;
+        private final int hashCode;
+
+        Key(byte[] digest) {
+            this.digest = digest;
+            this.hashCode = Arrays.hashCode(digest);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && Arrays.equals(digest, ((Key) other).digest);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    private static final class Entry {
+        private final CompiledQuery query;
+        private final QueryError error;
+        private final String message;
+        private final long size;
+
+        Entry(CompiledQuery query, QueryError error, String message, long size) {
+            this.query = query;
+            this.error = error;
+            this.message = message;
+            this.size = size;
+        }
+
+        CompiledQuery get() throws QueryException {
+            if (query == null) {
+                throw new QueryException(error, message);
+            }
+            return query;
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package com.androidx.identity_credential.query;
+
+import co.nstant.in.cbor.model.DataItem;
+
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Deque;
+
+import static com.androidx.identity_credential.query.ICQueryExecutor.*;
+import static com.androidx.identity_credential.query.TypedValues.*;
+
+/**
+ * Evaluates a parsed query over all records of a {@link DataSetCorpus} at once, using its
+ * indexes.
+ *
+ * <p>Every node evaluates to a pair of bitmaps: the records for which it is certainly true and
+ * those for which it is certainly false.  A record in neither is undecided, either because no
+ * index covers it or because its evaluation may fail, and is left for the caller to evaluate.
+ * Operators combine the bitmaps with the short-circuit rules of {@link CompiledQuery}: the first
+ * operand of {@code AND} being false decides it whatever the second operand is, and a record for
+ * which the first operand is undecided stays undecided.  A decided record therefore has exactly
+ * the result evaluating the query against it would return.
+ */
+final class CorpusPlanner {
+
+    private final DataSetCorpus corpus;
+    private final ParameterSet parameters;
+    private final TypedValues constant = new TypedValues(1);
+
+    CorpusPlanner(DataSetCorpus corpus, ParameterSet parameters) {
+        this.corpus = corpus;
+        this.parameters = parameters;
+    }
+
+    /**
+     * Plans the tree bottom up.  The tree is walked with an explicit stack of frames, since
+     * queries may nest arbitrarily deep.
+     */
+    Truth plan(QueryNode root) {
+        Deque<Frame> frames = new ArrayDeque<>();
+        Deque<Truth> truths = new ArrayDeque<>();
+        frames.push(new Frame(root));
+        while (!frames.isEmpty()) {
+            Frame frame = frames.peek();
+            QueryNode node = frame.node;
+            if (!isLogical(node)) {
+                frames.pop();
+                truths.push(planValue(node));
+                continue;
+            }
+            if (frame.next < node.operands.length) {
+                frames.push(new Frame(node.operands[frame.next++]));
+                continue;
+            }
+            frames.pop();
+            truths.push(combine(node.operator, truths));
+        }
+        return truths.pop();
+    }
+
+    private static boolean isLogical(QueryNode node) {
+        return node.kind == OPERATOR &&
+               (node.operator == UNARY_NOT || node.operator == AND || node.operator == OR);
+    }
+
+    /** Plans a node whose operands, if any, are not planned on their own. */
+    private Truth planValue(QueryNode node) {
+        switch (node.kind) {
+            case OPERATOR:
+                return planComparison(node);
+
+            case DATA_REF:
+                // Booleans are not indexed.
+                return Truth.undecided();
+
+            default:
+                return resolve(node) && constant.kinds[0] == KIND_BOOLEAN ?
+                       Truth.constant(constant.booleans[0], corpus.size()) : Truth.undecided();
+        }
+    }
+
+    /** Pops the truths of the operands of {@code operator} and returns its own. */
+    private static Truth combine(int operator, Deque<Truth> truths) {
+        if (operator == UNARY_NOT) {
+            Truth a = truths.pop();
+            return new Truth(a.falseRows, a.trueRows);
+        }
+        Truth b = truths.pop();
+        Truth a = truths.pop();
+        if (operator == AND) {
+            BitSet falseRows = (BitSet) a.trueRows.clone();
+            falseRows.and(b.falseRows);
+            falseRows.or(a.falseRows);
+            a.trueRows.and(b.trueRows);
+            return new Truth(a.trueRows, falseRows);
+        }
+        BitSet trueRows = (BitSet) a.falseRows.clone();
+        trueRows.and(b.trueRows);
+        trueRows.or(a.trueRows);
+        a.falseRows.and(b.falseRows);
+        return new Truth(trueRows, a.falseRows);
+    }
+
+    /**
+     * Plans a comparison between a data element and a value known without reading any record,
+     * which is the only kind the indexes can answer.
+     */
+    private Truth planComparison(QueryNode node) {
+        QueryNode data = node.operands[0];
+        QueryNode value = node.operands[1];
+        int operator = node.operator;
+        if (data.kind != DATA_REF) {
+            data = node.operands[1];
+            value = node.operands[0];
+            operator = reverse(operator);
+        }
+        if (data.kind != DATA_REF || value.kind == DATA_REF || value.kind == OPERATOR ||
+            !resolve(value)) {
+            return Truth.undecided();
+        }
+
+        int kind = constant.kinds[0];
+        if (kind == KIND_STRING && constant.tags[0] == null &&
+            (operator == EQUAL || operator == NOT_EQUAL)) {
+            DataSetCorpus.HashIndex index = corpus.getHashIndex(data.dataReference);
+            if (index == null) {
+                return Truth.undecided();
+            }
+            BitSet equal = index.select((String) constant.refs[0]);
+            return Truth.within(index.domain, equal, operator == EQUAL);
+        }
+
+        DataSetCorpus.SortedIndex index = corpus.getSortedIndex(data.dataReference);
+        if (index == null || operator > GREATER_OR_EQUAL) {
+            return Truth.undecided();
+        }
+        if (kind == KIND_LONG && constant.tags[0] == null) {
+            return Truth.within(index.longs.domain,
+                    index.longs.select(operator, constant.longs[0]), true);
+        }
+        if (kind == KIND_DATE && OperandStack.compareTags(node.operatorTag, constant.tags[0])) {
+            return Truth.within(index.dates.domain,
+                    index.dates.select(operator, constant.longs[0]), true);
+        }
+        return Truth.undecided();
+    }
+
+    /** Stores the value of a parameter reference or constant, or returns false if it fails. */
+    private boolean resolve(QueryNode node) {
+        DataItem value;
+        if (node.kind == QueryNode.CONSTANT) {
+            value = node.constant;
+        } else {
+            try {
+                value = parameters.getParameter(node.parameterName, node.parameterType,
+                        node.parameterTag);
+            } catch (QueryException e) {
+                return false;
+            }
+        }
+        return constant.set(0, value) == null;
+    }
+
+    /** Returns the operator that gives the same result with its operands swapped. */
+    private static int reverse(int operator) {
+        switch (operator) {
+            case LESS_THAN:
+                return GREATER_THAN;
+
+            case LESS_OR_EQUAL:
+                return GREATER_OR_EQUAL;
+
+            case GREATER_THAN:
+                return LESS_THAN;
+
+            case GREATER_OR_EQUAL:
+                return LESS_OR_EQUAL;
+
+            default:
+                return operator;
+        }
+    }
+
+    /** A logical operator being planned, with its next operand. */
+    private static final class Frame {
+
+        final QueryNode node;
+        int next;
+
+        Frame(QueryNode node) {
+            this.node = node;
+        }
+    }
+
+    /** The records for which a node is certainly true, and those for which it is false. */
+    static final class Truth {
+
+        final BitSet trueRows;
+        final BitSet falseRows;
+
+        Truth(BitSet trueRows, BitSet falseRows) {
+            this.trueRows = trueRows;
+            this.falseRows = falseRows;
+        }
+
+        static Truth undecided() {
+            return new Truth(new BitSet(), new BitSet());
+        }
+
+        static Truth constant(boolean value, int size) {
+            BitSet all = new BitSet(size);
+            all.set(0, size);
+            return value ? new Truth(all, new BitSet()) : new Truth(new BitSet(), all);
+        }
+
+        /** Splits {@code domain} into {@code rows} and the rest, true if {@code holds}. */
+        static Truth within(BitSet domain, BitSet rows, boolean holds) {
+            BitSet rest = (BitSet) domain.clone();
+            rest.andNot(rows);
+            return holds ? new Truth(rows, rest) : new Truth(rest, rows);
+        }
+    }
+}
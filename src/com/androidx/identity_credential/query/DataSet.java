@@ -2,6 +2,25 @@ package com.androidx.identity_credential.query;
 
 import co.nstant.in.cbor.model.DataItem;
 
+import java.util.List;
+
 public interface DataSet {
     DataItem getDataElement(DataItem entry);
+
+    /**
+     * Called once before a query is evaluated with the distinct data references it contains, so
+     * that stores with a per-call cost can fetch them together.  Elements are still read with
+     * {@link #getDataElement} afterwards, and short-circuiting may leave some of them unread.
+     * The list must not be modified or retained.  The default does nothing.
+     */
+    default void prefetch(List<DataItem> entries) {}
+
+    /**
+     * Returns the relative cost of reading {@code entry}, which {@link ICQueryExecutor#optimize}
+     * uses to evaluate the cheaper operands of {@code AND} and {@code OR} first.  The default
+     * gives every element the same cost.
+     */
+    default double getLookupCost(DataItem entry) {
+        return 1;
+    }
 }
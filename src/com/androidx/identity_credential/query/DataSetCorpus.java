@@ -0,0 +1,278 @@
+package com.androidx.identity_credential.query;
+
+import co.nstant.in.cbor.model.Array;
+import co.nstant.in.cbor.model.DataItem;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.androidx.identity_credential.query.ICQueryExecutor.*;
+import static com.androidx.identity_credential.query.TypedValues.*;
+
+/**
+ * A fixed collection of {@link DataSet}s, one per record, that can be queried as a whole with the
+ * help of secondary indexes on individual data elements.
+ *
+ * <p>A sorted index keeps a data element's integer values, and separately its date values as
+ * epoch days, in order, so the ordering operators become range scans.  A hash index keeps a data
+ * element's string values, so {@code EQUAL} and {@code NOT_EQUAL} become bucket probes.  Each
+ * index also records which records it holds a value for; a record whose element is missing, or
+ * of another type, is never decided by the index.
+ *
+ * <p>{@link #select} plans the query over the indexes and evaluates the remaining records one by
+ * one, so its result is exactly that of executing the query against every record in turn.
+ * Indexes must be added before the corpus is shared between threads; after that {@link #select}
+ * may be called concurrently.
+ */
+public final class DataSetCorpus {
+
+    private final ICQueryExecutor executor;
+    private final List<DataSet> records;
+    private final Map<DataItem, SortedIndex> sortedIndexes = new HashMap<>();
+    private final Map<DataItem, HashIndex> hashIndexes = new HashMap<>();
+
+    public DataSetCorpus(ICQueryExecutor executor, List<? extends DataSet> records) {
+        this.executor = executor;
+        this.records = new ArrayList<>(records);
+    }
+
+    public int size() {
+        return records.size();
+    }
+
+    /**
+     * Indexes the integer and date values of the data element {@code reference}, a data
+     * reference entry as it appears in queries, for the ordering operators.
+     */
+    public void addSortedIndex(DataItem reference) {
+        TypedValues value = new TypedValues(1);
+        SortedIndex.Builder longs = new SortedIndex.Builder();
+        SortedIndex.Builder dates = new SortedIndex.Builder();
+        for (int row = 0; row < records.size(); row++) {
+            if (!read(reference, row, value)) {
+                continue;
+            }
+            if (value.kinds[0] == KIND_LONG && value.tags[0] == null) {
+                longs.add(value.longs[0], row);
+            } else if (value.kinds[0] == KIND_DATE) {
+                dates.add(value.longs[0], row);
+            }
+        }
+        sortedIndexes.put(reference, new SortedIndex(longs.build(), dates.build()));
+    }
+
+    /**
+     * Indexes the untagged string values of the data element {@code reference} for
+     * {@code EQUAL} and {@code NOT_EQUAL}.
+     */
+    public void addHashIndex(DataItem reference) {
+        TypedValues value = new TypedValues(1);
+        HashIndex index = new HashIndex();
+        for (int row = 0; row < records.size(); row++) {
+            if (read(reference, row, value) && value.kinds[0] == KIND_STRING &&
+                value.tags[0] == null) {
+                index.add((String) value.refs[0], row);
+            }
+        }
+        hashIndexes.put(reference, index);
+    }
+
+    private boolean read(DataItem reference, int row, TypedValues value) {
+        DataItem element = records.get(row).getDataElement(reference);
+        return element != null && value.set(0, element) == null;
+    }
+
+    public BatchResult select(Array query, ParameterSet parameters) throws QueryException {
+        return select(executor.compile(query), parameters);
+    }
+
+    /**
+     * Returns the records {@code query} matches.  Records the indexes decide are not read again;
+     * the rest, including every record whose evaluation fails, are evaluated individually.
+     */
+    public BatchResult select(CompiledQuery query, ParameterSet parameters) {
+        int size = records.size();
+        BitSet matches = new BitSet(size);
+        BitSet undecided = new BitSet(size);
+        undecided.set(0, size);
+        if (query.root != null) {
+            CorpusPlanner.Truth truth = new CorpusPlanner(this, parameters).plan(query.root);
+            matches.or(truth.trueRows);
+            undecided.andNot(truth.trueRows);
+            undecided.andNot(truth.falseRows);
+        }
+
+        List<BatchResult.ItemError> errors = new ArrayList<>();
+        ExecutionContext context = new ExecutionContext();
+        for (int i = undecided.nextSetBit(0); i >= 0; i = undecided.nextSetBit(i + 1)) {
+            QueryResult result = executor.evaluate(query, parameters, records.get(i), context);
+            if (result.isTrue()) {
+                matches.set(i);
+            } else if (result.isError()) {
+                errors.add(new BatchResult.ItemError(i, result, query));
+            }
+        }
+        return new BatchResult(size, matches, errors);
+    }
+
+    SortedIndex getSortedIndex(DataItem reference) {
+        return sortedIndexes.get(reference);
+    }
+
+    HashIndex getHashIndex(DataItem reference) {
+        return hashIndexes.get(reference);
+    }
+
+    /** Integer and date values of one data element, each sorted by value. */
+    static final class SortedIndex {
+
+        final SortedKeys longs;
+        final SortedKeys dates;
+
+        SortedIndex(SortedKeys longs, SortedKeys dates) {
+            this.longs = longs;
+            this.dates = dates;
+        }
+
+        static final class Builder {
+
+            private long[] keys = new long[16];
+            private int[] rows = new int[16];
+            private int size;
+
+            void add(long key, int row) {
+                if (size == keys.length) {
+                    keys = Arrays.copyOf(keys, size * 2);
+                    rows = Arrays.copyOf(rows, size * 2);
+                }
+                keys[size] = key;
+                rows[size++] = row;
+            }
+
+            SortedKeys build() {
+                Integer[] order = new Integer[size];
+                for (int i = 0; i < size; i++) {
+                    order[i] = i;
+                }
+                Arrays.sort(order, Comparator.comparingLong(i -> keys[i]));
+
+                long[] sortedKeys = new long[size];
+                int[] sortedRows = new int[size];
+                BitSet domain = new BitSet();
+                for (int i = 0; i < size; i++) {
+                    sortedKeys[i] = keys[order[i]];
+                    sortedRows[i] = rows[order[i]];
+                    domain.set(sortedRows[i]);
+                }
+                return new SortedKeys(sortedKeys, sortedRows, domain);
+            }
+        }
+    }
+
+    /** Keys in ascending order, with the row each came from. */
+    static final class SortedKeys {
+
+        final long[] keys;
+        final int[] rows;
+        // The rows with a key.
+        final BitSet domain;
+
+        SortedKeys(long[] keys, int[] rows, BitSet domain) {
+            this.keys = keys;
+            this.rows = rows;
+            this.domain = domain;
+        }
+
+        /** Returns the rows whose key satisfies {@code key operator value}. */
+        BitSet select(int operator, long value) {
+            switch (operator) {
+                case LESS_THAN:
+                    return rows(0, lowerBound(value));
+
+                case LESS_OR_EQUAL:
+                    return rows(0, upperBound(value));
+
+                case EQUAL:
+                    return rows(lowerBound(value), upperBound(value));
+
+                case NOT_EQUAL: {
+                    BitSet result = (BitSet) domain.clone();
+                    result.andNot(rows(lowerBound(value), upperBound(value)));
+                    return result;
+                }
+
+                case GREATER_THAN:
+                    return rows(upperBound(value), keys.length);
+
+                default:
+                    return rows(lowerBound(value), keys.length);
+            }
+        }
+
+        private BitSet rows(int from, int to) {
+            BitSet result = new BitSet();
+            for (int i = from; i < to; i++) {
+                result.set(rows[i]);
+            }
+            return result;
+        }
+
+        /** Returns the index of the first key not less than {@code value}. */
+        private int lowerBound(long value) {
+            int low = 0;
+            int high = keys.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (keys[middle] < value) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        /** Returns the index of the first key greater than {@code value}. */
+        private int upperBound(long value) {
+            int low = 0;
+            int high = keys.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (keys[middle] <= value) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+
+    /** Untagged string values of one data element, bucketed by value. */
+    static final class HashIndex {
+
+        final Map<String, BitSet> buckets = new HashMap<>();
+        // The rows with a string value.
+        final BitSet domain = new BitSet();
+
+        void add(String value, int row) {
+            BitSet bucket = buckets.get(value);
+            if (bucket == null) {
+                bucket = new BitSet();
+                buckets.put(value, bucket);
+            }
+            bucket.set(row);
+            domain.set(row);
+        }
+
+        BitSet select(String value) {
+            BitSet bucket = buckets.get(value);
+            return (bucket == null) ? new BitSet() : (BitSet) bucket.clone();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.androidx.identity_credential.query;
+
+import java.util.Locale;
+
+/**
+ * Conversion of {@link ParameterSet#DATE_TAG} values, full-date strings of the form
+ * {@code yyyy-MM-dd}, to a count of days since 1970-01-01, and back.
+ *
+ * <p>Parsing is strict: the string must be exactly ten characters, zero padded, and name a day
+ * that exists in the proleptic Gregorian calendar.  Nothing is allocated, so values can be
+ * converted on the evaluation path.
+ */
+final class Dates {
+
+    static final long INVALID = Long.MIN_VALUE;
+
+    private static final int DAYS_0000_TO_1970 = (146097 * 5) - (30 * 365 + 7);
+
+    private Dates() {}
+
+    /** Returns the epoch day of {@code date}, or {@link #INVALID} if it is malformed. */
+    static long toEpochDay(CharSequence date) {
+        if (date.length() != 10 || date.charAt(4) != '-' || date.charAt(7) != '-') {
+            return INVALID;
+        }
+        int year = digits(date, 0, 4);
+        int month = digits(date, 5, 2);
+        int day = digits(date, 8, 2);
+        return toEpochDay(year, month, day);
+    }
+
+    static long toEpochDay(CharSequence date, String description) throws QueryException {
+        long epochDay = toEpochDay(date);
+        if (epochDay == INVALID) {
+            throw new QueryException(QueryError.MALFORMED_DATE,
+                    "Invalid query: malformed date " + date + " in " + description);
+        }
+        return epochDay;
+    }
+
+    private static int digits(CharSequence s, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    static long toEpochDay(int year, int month, int day) {
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month)) {
+            return INVALID;
+        }
+
+        // Same arithmetic as java.time.LocalDate.toEpochDay().
+        long total = 365L * year;
+        total += (year + 3) / 4 - (year + 99) / 100 + (year + 399) / 400;
+        total += (367 * month - 362) / 12;
+        total += day - 1;
+        if (month > 2) {
+            total--;
+            if (!isLeapYear(year)) {
+                total--;
+            }
+        }
+        return total - DAYS_0000_TO_1970;
+    }
+
+    /** Returns the full-date string of a valid {@code epochDay}, the inverse of toEpochDay. */
+    static String toString(long epochDay) {
+        // Same arithmetic as java.time.LocalDate.ofEpochDay(), counting from 0000-03-01.
+        long zeroDay = epochDay + DAYS_0000_TO_1970 - 60;
+        long adjust = 0;
+        if (zeroDay < 0) {
+            long adjustCycles = (zeroDay + 1) / 146097 - 1;
+            adjust = adjustCycles * 400;
+            zeroDay -= adjustCycles * 146097;
+        }
+        long year = (400 * zeroDay + 591) / 146097;
+        long dayOfYear = zeroDay - (365 * year + year / 4 - year / 100 + year / 400);
+        if (dayOfYear < 0) {
+            year--;
+            dayOfYear = zeroDay - (365 * year + year / 4 - year / 100 + year / 400);
+        }
+        int marchMonth = ((int) dayOfYear * 5 + 2) / 153;
+        int month = (marchMonth + 2) % 12 + 1;
+        int day = (int) dayOfYear - (marchMonth * 306 + 5) / 10 + 1;
+        year += adjust + marchMonth / 10;
+        return String.format(Locale.ROOT, "%04d-%02d-%02d", year, month, day);
+    }
+
+    private static int lengthOfMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                return isLeapYear(year) ? 29 : 28;
+
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+
+            default:
+                return 31;
+        }
+    }
+
+    private static boolean isLeapYear(int year) {
+        return (year % 4 == 0) && (year % 100 != 0 || year % 400 == 0);
+    }
+}
@@ -0,0 +1,17 @@
+package com.androidx.identity_credential.query;
+
+/**
+ * A {@link DataSet} that pushes its elements straight onto the operand stack, without creating a
+ * {@link co.nstant.in.cbor.model.DataItem} for each.  {@link ICQueryExecutor} uses it in place of
+ * {@link DataSet#getDataElement} when evaluating a {@link CompiledQuery}; every other path still
+ * reads elements through the {@link DataSet} methods, which must agree with it.  It is a class
+ * rather than an interface so that the method stays package-private.
+ */
+abstract class DirectDataSet implements DataSet {
+
+    /**
+     * Pushes the element {@code query.dataReferences[reference]} onto {@code stack}, or returns
+     * why it cannot be pushed: {@link QueryError#UNKNOWN_DATA_ELEMENT} if there is none.
+     */
+    abstract QueryError pushDataElement(CompiledQuery query, int reference, OperandStack stack);
+}
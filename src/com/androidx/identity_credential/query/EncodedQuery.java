@@ -0,0 +1,297 @@
+package com.androidx.identity_credential.query;
+
+import co.nstant.in.cbor.CborDecoder;
+import co.nstant.in.cbor.CborException;
+import co.nstant.in.cbor.model.Array;
+import co.nstant.in.cbor.model.DataItem;
+import co.nstant.in.cbor.model.Number;
+import co.nstant.in.cbor.model.Tag;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static com.androidx.identity_credential.query.CborReader.*;
+import static com.androidx.identity_credential.query.ICQueryExecutor.*;
+
+/**
+ * The entries of a query in the shape the interpreter in {@link ICQueryExecutor} reads them,
+ * either read in one pass from its CBOR encoding by a {@link CborReader}, or taken from a decoded
+ * {@link Array}.
+ *
+ * <p>For every entry this keeps what the interpreter needs from its {@link DataItem}: the tag
+ * that selects the kind of entry, an operator's value and type tag, and a parameter reference's
+ * name, type and type tag.  Data references are kept as items, as they are the keys of a
+ * {@link DataSet}, and so are parameter references of any shape other than a name and an
+ * integer type with at most one tag, which are left to {@link ParameterSet#getParameter}.  Those
+ * of a decoded query are always kept as items.
+ */
+final class EncodedQuery {
+
+    int size;
+    // Whether each entry has a tag, and the tag the interpreter switches on if so.
+    boolean[] tagged;
+    long[] tags;
+    // An operator's integer value, or a parameter reference's type.
+    boolean[] integers;
+    int[] values;
+    // An operator's innermost tag, or a parameter reference's type tag.
+    Tag[] valueTags;
+    String[] names;
+    // Data references and parameter references read as items.
+    DataItem[] items;
+    // The distinct data references, in order, that the interpreter prefetches.
+    List<DataItem> references;
+
+    private final List<Tag> tagCache = new ArrayList<>();
+
+    private EncodedQuery(int capacity) {
+        tagged = new boolean[capacity];
+        tags = new long[capacity];
+        integers = new boolean[capacity];
+        values = new int[capacity];
+        valueTags = new Tag[capacity];
+        names = new String[capacity];
+        items = new DataItem[capacity];
+    }
+
+    /**
+     * Reads the remaining bytes of {@code buffer}, without changing its position, or returns
+     * null if they are not a single array of the CBOR that {@link CborReader} reads.
+     */
+    static EncodedQuery read(ByteBuffer buffer) {
+        CborReader reader = new CborReader(buffer);
+        if (!reader.readHead() || reader.major != MAJOR_ARRAY) {
+            return null;
+        }
+        boolean indefinite = reader.indefinite;
+        if (Long.compareUnsigned(reader.argument, reader.limit - reader.position) > 0) {
+            return null;
+        }
+        long count = reader.argument;
+        EncodedQuery query = new EncodedQuery(indefinite ? 8 : (int) count);
+        Set<DataItem> references = new LinkedHashSet<>();
+        while (indefinite ? !reader.atBreak() : query.size < count) {
+            if (!query.readEntry(reader, references)) {
+                return null;
+            }
+        }
+        if (indefinite) {
+            if (reader.position == reader.limit) {
+                return null;
+            }
+            reader.position++;
+        }
+        if (reader.position != reader.limit) {
+            return null;
+        }
+        query.references = new ArrayList<>(references);
+        return query;
+    }
+
+    /** Returns the entries of {@code query}, which has already been decoded. */
+    static EncodedQuery of(Array query) {
+        List<DataItem> entries = query.getDataItems();
+        EncodedQuery encoded = new EncodedQuery(entries.size());
+        Set<DataItem> references = new LinkedHashSet<>();
+        for (DataItem entry : entries) {
+            int index = encoded.size++;
+            Tag tag = entry.getTag();
+            if (tag == null) {
+                continue;
+            }
+            // As in the encoding, an operator's type tag is inside the tag that marks it.
+            if (tag.getTag() != null) {
+                tag = tag.getTag();
+            }
+            encoded.tagged[index] = true;
+            encoded.tags[index] = tag.getValue();
+            switch ((int) tag.getValue()) {
+                case DATA_REF:
+                    encoded.items[index] = entry;
+                    if (tag.getValue() == DATA_REF) {
+                        references.add(entry);
+                    }
+                    break;
+
+                case PARAM_REF:
+                    encoded.items[index] = entry;
+                    break;
+
+                case OPERATOR:
+                    if (entry instanceof Number) {
+                        encoded.integers[index] = true;
+                        encoded.values[index] = ((Number) entry).getValue().intValue();
+                        encoded.valueTags[index] = entry.getTag();
+                    }
+                    break;
+
+                default:
+                    break;
+            }
+        }
+        encoded.references = new ArrayList<>(references);
+        return encoded;
+    }
+
+    private boolean readEntry(CborReader reader, Set<DataItem> references) {
+        if (size == tags.length) {
+            grow();
+        }
+        int entry = size++;
+        int start = reader.position;
+        int item = start;
+        if (!reader.readHead()) {
+            return false;
+        }
+        int tagCount = 0;
+        long innerTag = 0;
+        long outerTag = 0;
+        while (reader.major == MAJOR_TAG) {
+            outerTag = innerTag;
+            innerTag = reader.argument;
+            tagCount++;
+            item = reader.position;
+            if (!reader.readHead()) {
+                return false;
+            }
+        }
+        if (!reader.skip(1)) {
+            return false;
+        }
+        if (tagCount == 0) {
+            return true;
+        }
+        // As in the interpreter, an operator's type tag is inside the tag that marks it.
+        long tag = (tagCount >= 2) ? outerTag : innerTag;
+        tagged[entry] = true;
+        tags[entry] = tag;
+        int end = reader.position;
+        switch ((int) tag) {
+            case DATA_REF:
+                items[entry] = decode(reader, start, end);
+                if (items[entry] == null) {
+                    return false;
+                }
+                // The interpreter prefetches by the full tag value, but switches on its low bits.
+                if (tag == DATA_REF) {
+                    references.add(items[entry]);
+                }
+                return true;
+
+            case PARAM_REF: {
+                reader.position = item;
+                boolean regular = readParameterReference(reader, entry);
+                reader.position = end;
+                if (!regular) {
+                    items[entry] = decode(reader, start, end);
+                    return items[entry] != null;
+                }
+                return true;
+            }
+
+            case OPERATOR:
+                reader.position = item;
+                reader.readHead();
+                integers[entry] = reader.isInteger();
+                values[entry] = reader.intValue();
+                valueTags[entry] = tag(innerTag);
+                reader.position = end;
+                return true;
+
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Reads a parameter reference of a name and an integer type with at most one tag, which is
+     * known to be well-formed, or returns false if it has another shape.
+     */
+    private boolean readParameterReference(CborReader reader, int entry) {
+        reader.readHead();
+        if (reader.major != MAJOR_ARRAY || reader.indefinite || reader.argument != 2) {
+            return false;
+        }
+        reader.readHead();
+        while (reader.major == MAJOR_TAG) {
+            reader.readHead();
+        }
+        if (reader.major != MAJOR_TEXT_STRING) {
+            return false;
+        }
+        String name = reader.readText();
+
+        reader.readHead();
+        Tag typeTag = null;
+        if (reader.major == MAJOR_TAG) {
+            typeTag = tag(reader.argument);
+            reader.readHead();
+        }
+        if (!reader.isInteger()) {
+            return false;
+        }
+        names[entry] = name;
+        values[entry] = reader.intValue();
+        valueTags[entry] = typeTag;
+        return true;
+    }
+
+    /**
+     * Returns a shared tag with {@code value}.  The tags read here are only compared and printed,
+     * so one instance stands for every occurrence of a value.
+     */
+    private Tag tag(long value) {
+        for (Tag tag : tagCache) {
+            if (tag.getValue() == value) {
+                return tag;
+            }
+        }
+        Tag tag = new Tag(value);
+        tagCache.add(tag);
+        return tag;
+    }
+
+    private void grow() {
+        int capacity = Math.max(8, 2 * tags.length);
+        tagged = Arrays.copyOf(tagged, capacity);
+        tags = Arrays.copyOf(tags, capacity);
+        integers = Arrays.copyOf(integers, capacity);
+        values = Arrays.copyOf(values, capacity);
+        valueTags = Arrays.copyOf(valueTags, capacity);
+        names = Arrays.copyOf(names, capacity);
+        items = Arrays.copyOf(items, capacity);
+    }
+
+    private static DataItem decode(CborReader reader, int start, int end) {
+        try {
+            List<DataItem> items = CborDecoder.decode(reader.bytes(start, end));
+            return (items.size() == 1) ? items.get(0) : null;
+        } catch (CborException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /** Decodes the remaining bytes of {@code buffer}, without changing its position. */
+    static Array decode(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return decode(bytes);
+    }
+
+    /** Decodes a whole query, or returns null if it is not a single well-formed CBOR array. */
+    static Array decode(byte[] encodedQuery) {
+        try {
+            List<DataItem> items = CborDecoder.decode(encodedQuery);
+            if (items.size() == 1 && items.get(0) instanceof Array) {
+                return (Array) items.get(0);
+            }
+        } catch (CborException | RuntimeException e) {
+            // Reported by the caller.
+        }
+        return null;
+    }
+}
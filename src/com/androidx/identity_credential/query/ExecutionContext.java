@@ -0,0 +1,37 @@
+package com.androidx.identity_credential.query;
+
+/**
+ * Per-call working state for evaluating a {@link CompiledQuery}.
+ *
+ * <p>A context may be reused for any number of evaluations, but only by one thread at a time.
+ * {@link ICQueryExecutor} keeps one per thread for callers that don't supply their own.  After
+ * an evaluation the context reports how many entries and data element lookups it performed, and
+ * how many lookups were skipped by short-circuiting {@code AND} and {@code OR}.
+ */
+public final class ExecutionContext {
+
+    final OperandStack stack = new OperandStack();
+
+    int entriesExecuted;
+    int dataLookups;
+    int skippedDataLookups;
+
+    void reset(int stackDepth) {
+        stack.reset(stackDepth);
+        entriesExecuted = 0;
+        dataLookups = 0;
+        skippedDataLookups = 0;
+    }
+
+    public int getEntriesExecutedCount() {
+        return entriesExecuted;
+    }
+
+    public int getDataLookupCount() {
+        return dataLookups;
+    }
+
+    public int getSkippedDataLookupCount() {
+        return skippedDataLookups;
+    }
+}
@@ -0,0 +1,213 @@
+package com.androidx.identity_credential.query;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caps on the work one evaluation may do, for executing queries that come from untrusted relying
+ * parties.  An {@link ICQueryExecutor} created with limits rejects any query that would exceed
+ * them, with an error code of its own for each limit.
+ *
+ * <p>The number of entries and the stack depth are static limits: {@link ICQueryExecutor#compile}
+ * rejects a query that exceeds them before any data element is touched, and evaluating a
+ * {@link CompiledQuery} checks them again before it starts.  The numbers of data element and
+ * parameter lookups, the length in UTF-8 bytes of strings compared, and the time taken are
+ * dynamic limits, checked as evaluation proceeds; it stops at the entry that would exceed one,
+ * before doing the work.  The deadline is checked before each data element lookup, which are the
+ * only entries that can take long, and the rest of a query is bounded by its number of entries.
+ *
+ * <p>Every limit defaults to none.  Instances are immutable and may be shared between executors.
+ */
+public final class ExecutionLimits {
+
+    /** Limits that allow everything, which executors use by default. */
+    public static final ExecutionLimits NONE = new Builder().build();
+
+    private static final int UNLIMITED = Integer.MAX_VALUE;
+    private static final long NO_TIMEOUT = Long.MAX_VALUE;
+
+    final int maxEntries;
+    final int maxStackDepth;
+    final int maxDataLookups;
+    final int maxParameterLookups;
+    final int maxStringLength;
+    final long timeoutNanos;
+
+    private ExecutionLimits(Builder builder) {
+        this.maxEntries = builder.maxEntries;
+        this.maxStackDepth = builder.maxStackDepth;
+        this.maxDataLookups = builder.maxDataLookups;
+        this.maxParameterLookups = builder.maxParameterLookups;
+        this.maxStringLength = builder.maxStringLength;
+        this.timeoutNanos = builder.timeoutNanos;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public int getMaxStackDepth() {
+        return maxStackDepth;
+    }
+
+    public int getMaxDataLookups() {
+        return maxDataLookups;
+    }
+
+    public int getMaxParameterLookups() {
+        return maxParameterLookups;
+    }
+
+    public int getMaxStringLength() {
+        return maxStringLength;
+    }
+
+    /** Returns the time one evaluation may take, or {@link Long#MAX_VALUE} for no limit. */
+    public long getTimeout(TimeUnit unit) {
+        return (timeoutNanos == NO_TIMEOUT) ? NO_TIMEOUT : unit.convert(timeoutNanos,
+                TimeUnit.NANOSECONDS);
+    }
+
+    boolean isUnlimited() {
+        return maxEntries == UNLIMITED && maxStackDepth == UNLIMITED &&
+               maxDataLookups == UNLIMITED && maxParameterLookups == UNLIMITED &&
+               maxStringLength == UNLIMITED && timeoutNanos == NO_TIMEOUT;
+    }
+
+    /** Returns why a query of {@code entries} entries is rejected, or null if it is not. */
+    QueryError checkEntries(int entries) {
+        return (entries > maxEntries) ? QueryError.TOO_MANY_ENTRIES : null;
+    }
+
+    /** Returns why a compiled query is rejected by the static limits, or null if it is not. */
+    QueryError checkQuery(CompiledQuery query) {
+        if (query.entryCount > maxEntries) {
+            return QueryError.TOO_MANY_ENTRIES;
+        }
+        return (query.maxStackDepth > maxStackDepth) ? QueryError.STACK_TOO_DEEP : null;
+    }
+
+    /** Returns the deadline for an evaluation that starts at {@code start}, in nanoTime terms. */
+    long deadline(long start) {
+        return (timeoutNanos == NO_TIMEOUT) ? 0 : start + timeoutNanos;
+    }
+
+    /**
+     * Returns why an evaluation that has made {@code lookups} data element lookups may not make
+     * another before {@code deadline}, or null if it may.
+     */
+    QueryError checkDataLookup(int lookups, long deadline) {
+        if (lookups >= maxDataLookups) {
+            return QueryError.TOO_MANY_DATA_LOOKUPS;
+        }
+        if (timeoutNanos != NO_TIMEOUT && System.nanoTime() - deadline > 0) {
+            return QueryError.DEADLINE_EXCEEDED;
+        }
+        return null;
+    }
+
+    QueryError checkParameterLookup(int lookups) {
+        return (lookups >= maxParameterLookups) ? QueryError.TOO_MANY_PARAMETER_LOOKUPS : null;
+    }
+
+    /** Returns true if {@code value}, a String or {@link Utf8String}, may be compared. */
+    boolean allowsString(Object value) {
+        if (maxStringLength == UNLIMITED) {
+            return true;
+        }
+        if (value instanceof Utf8String) {
+            return ((Utf8String) value).length() <= maxStringLength;
+        }
+        // A char takes one to three bytes, so the exact length is rarely needed.
+        String string = (String) value;
+        if (string.length() > maxStringLength) {
+            return false;
+        }
+        return 3L * string.length() <= maxStringLength ||
+               Utf8String.encodedLength(string) <= maxStringLength;
+    }
+
+    /** Returns the message of the exception thrown for an error from these limits. */
+    static String describe(QueryError error) {
+        switch (error) {
+            case TOO_MANY_ENTRIES:
+                return "Query rejected: too many entries";
+
+            case STACK_TOO_DEEP:
+                return "Query rejected: stack too deep";
+
+            case TOO_MANY_DATA_LOOKUPS:
+                return "Query rejected: too many data element lookups";
+
+            case TOO_MANY_PARAMETER_LOOKUPS:
+                return "Query rejected: too many parameter lookups";
+
+            case STRING_TOO_LONG:
+                return "Query rejected: compared string too long";
+
+            default:
+                return "Query rejected: deadline exceeded";
+        }
+    }
+
+    /** Builds {@link ExecutionLimits}.  Limits that are not set allow everything. */
+    public static final class Builder {
+
+        private int maxEntries = UNLIMITED;
+        private int maxStackDepth = UNLIMITED;
+        private int maxDataLookups = UNLIMITED;
+        private int maxParameterLookups = UNLIMITED;
+        private int maxStringLength = UNLIMITED;
+        private long timeoutNanos = NO_TIMEOUT;
+
+        /** Sets the most entries a query may have. */
+        public Builder setMaxEntries(int maxEntries) {
+            this.maxEntries = checkLimit(maxEntries);
+            return this;
+        }
+
+        /** Sets the most values a query may hold on the stack at once. */
+        public Builder setMaxStackDepth(int maxStackDepth) {
+            this.maxStackDepth = checkLimit(maxStackDepth);
+            return this;
+        }
+
+        /** Sets the most data element lookups one evaluation may make. */
+        public Builder setMaxDataLookups(int maxDataLookups) {
+            this.maxDataLookups = checkLimit(maxDataLookups);
+            return this;
+        }
+
+        /** Sets the most parameter lookups one evaluation may make. */
+        public Builder setMaxParameterLookups(int maxParameterLookups) {
+            this.maxParameterLookups = checkLimit(maxParameterLookups);
+            return this;
+        }
+
+        /** Sets the longest string, in UTF-8 bytes, that an operator may compare. */
+        public Builder setMaxStringLength(int maxStringLength) {
+            this.maxStringLength = checkLimit(maxStringLength);
+            return this;
+        }
+
+        /** Sets the longest time one evaluation may take. */
+        public Builder setTimeout(long timeout, TimeUnit unit) {
+            if (timeout <= 0) {
+                throw new IllegalArgumentException("Timeout must be positive");
+            }
+            // Capped so that deadlines compare correctly across nanoTime overflow.
+            this.timeoutNanos = Math.min(unit.toNanos(timeout), Long.MAX_VALUE / 2);
+            return this;
+        }
+
+        public ExecutionLimits build() {
+            return new ExecutionLimits(this);
+        }
+
+        private static int checkLimit(int limit) {
+            if (limit < 0) {
+                throw new IllegalArgumentException("Limits must not be negative");
+            }
+            return limit;
+        }
+    }
+}
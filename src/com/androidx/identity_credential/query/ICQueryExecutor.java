@@ -3,8 +3,12 @@ package com.androidx.identity_credential.query;
 import co.nstant.in.cbor.model.Number;
 import co.nstant.in.cbor.model.*;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.Deque;
-import java.util.LinkedList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import static com.androidx.identity_credential.query.ParameterSet.DATE_TAG;
 
@@ -28,52 +32,617 @@ public class ICQueryExecutor {
     public static final int OR = 7;
     public static final int UNARY_NOT = 8;
 
-    private final Deque<DataItem> stack = new LinkedList<>();
+    // Bound to an empty layout, for evaluating queries that read no parameters.
+    private static final BoundParameters NO_PARAMETERS = new BoundParameters(
+            new ParameterLayout(new String[0], new int[0], new Tag[0]), new TypedValues(0));
+
+    // Executors hold no per-call state of their own, so a single instance can be shared between
+    // threads.  Compiled queries evaluate in an ExecutionContext, which is either supplied by
+    // the caller or taken from this thread-local.
+    private final ThreadLocal<ExecutionContext> contexts =
+            ThreadLocal.withInitial(ExecutionContext::new);
+
+    // May be null, in which case no events are reported.
+    private final QueryExecutionListener listener;
+
+    private final ExecutionLimits limits;
+    // False for ExecutionLimits that allow everything, which need no checks.
+    private final boolean limited;
+
+    public ICQueryExecutor() {
+        this(null);
+    }
+
+    /** Creates an executor that reports every evaluation to {@code listener}, if not null. */
+    public ICQueryExecutor(QueryExecutionListener listener) {
+        this(listener, ExecutionLimits.NONE);
+    }
+
+    /**
+     * Creates an executor that rejects queries exceeding {@code limits}, and reports every
+     * evaluation to {@code listener}, if not null.  The limits apply to queries this executor
+     * compiles, executes and evaluates, but not to {@link QueryGroup}s or {@link #executeAsync}.
+     */
+    public ICQueryExecutor(QueryExecutionListener listener, ExecutionLimits limits) {
+        this.listener = listener;
+        this.limits = limits;
+        this.limited = !limits.isUnlimited();
+    }
+
+    public ExecutionLimits getLimits() {
+        return limits;
+    }
 
     public boolean execute(Array query, ParameterSet parameters, DataSet dataElements)
             throws QueryException {
-        stack.clear();
+        return execute(EncodedQuery.of(query), parameters, dataElements);
+    }
+
+    /**
+     * Executes a query given as its CBOR encoding.  The result, errors and listener events are
+     * those of decoding it and calling {@link #execute(Array, ParameterSet, DataSet)}, and an
+     * encoding that is not a single well-formed array is rejected with
+     * {@link QueryError#MALFORMED_QUERY}.
+     *
+     * <p>Tags, operators and parameter references are read from the bytes in one pass, without
+     * creating {@link DataItem}s for them.  Only data references, which are {@link DataSet} keys,
+     * are decoded.
+     */
+    public boolean execute(byte[] query, ParameterSet parameters, DataSet dataElements)
+            throws QueryException {
+        return execute(ByteBuffer.wrap(query), parameters, dataElements);
+    }
+
+    /** Executes the query encoded in the remaining bytes of {@code query}, leaving its position. */
+    public boolean execute(ByteBuffer query, ParameterSet parameters, DataSet dataElements)
+            throws QueryException {
+        EncodedQuery encoded = EncodedQuery.read(query);
+        if (encoded == null) {
+            // Encodings the reader does not handle, valid or not, are left to the decoder.
+            Array decoded = EncodedQuery.decode(query);
+            if (decoded == null) {
+                throw new QueryException(QueryError.MALFORMED_QUERY,
+                        "Invalid query: not a well-formed CBOR array");
+            }
+            encoded = EncodedQuery.of(decoded);
+        }
+        return execute(encoded, parameters, dataElements);
+    }
+
+    /**
+     * Interprets {@code query} entry by entry, for both {@link #execute(Array, ParameterSet,
+     * DataSet)} and {@link #execute(ByteBuffer, ParameterSet, DataSet)}.
+     */
+    private boolean execute(EncodedQuery query, ParameterSet parameters, DataSet dataElements)
+            throws QueryException {
+        long start = 0;
+        if (listener != null) {
+            listener.onQueryStart();
+            start = System.nanoTime();
+        }
+        int executed = 0;
+        try {
+            if (limited) {
+                checkLimit(limits.checkEntries(query.size));
+            }
+            if (!query.references.isEmpty() &&
+                query.references.size() <= limits.maxDataLookups) {
+                dataElements.prefetch(query.references);
+            }
+            Deque<DataItem> stack = new ArrayDeque<>();
+            long deadline = limited ? limits.deadline(System.nanoTime()) : 0;
+            int dataLookups = 0;
+            int parameterLookups = 0;
+
+            // An operator's entry is tagged both as an operator and, optionally, with the type
+            // its operands need; EncodedQuery keeps the outer tag to switch on.
+            for (int entry = 0; entry < query.size; entry++) {
+                if (!query.tagged[entry]) {
+                    throw new QueryException(QueryError.MISSING_TAG,
+                            "Invalid query entry: missing tag.");
+                }
 
-        for (DataItem entry : query.getDataItems()) {
-            Tag tag = entry.getTag();
-            if (tag == null) {
-                throw new QueryException("Invalid query entry: missing tag.");
+                DataItem newStackEntry;
+                switch ((int) query.tags[entry]) {
+                    case DATA_REF:
+                        if (limited) {
+                            checkPush(stack);
+                            checkLimit(limits.checkDataLookup(dataLookups++, deadline));
+                        }
+                        newStackEntry = checkDataElement(query.items[entry],
+                                findDataElement(dataElements, query.items[entry], listener));
+                        break;
+
+                    case PARAM_REF:
+                        if (limited) {
+                            checkPush(stack);
+                            checkLimit(limits.checkParameterLookup(parameterLookups++));
+                        }
+                        if (listener != null) {
+                            listener.onParameterLookup();
+                        }
+                        newStackEntry = (query.names[entry] == null) ?
+                                        parameters.getParameter(query.items[entry]) :
+                                        parameters.getParameter(query.names[entry],
+                                                query.values[entry], query.valueTags[entry]);
+                        break;
+
+                    case OPERATOR:
+                        if (!query.integers[entry]) {
+                            throw nonIntegerOperator();
+                        }
+                        if (limited && query.values[entry] != UNARY_NOT) {
+                            checkStrings(stack);
+                        }
+                        newStackEntry = applyOperator(stack, query.values[entry],
+                                query.valueTags[entry]);
+                        break;
+
+                    default:
+                        throw new QueryException(QueryError.INVALID_TAG,
+                                "Invalid query entry: invalid tag.");
+                }
+
+                stack.push(newStackEntry);
+                executed++;
             }
 
-            // Operators can have both a tag on their type (indicating the required operand type)
-            // as well as the tag specifying that the entry is an operator.  Get the outermost
-            // tag in this case.
-            if (tag.getTag() != null) {
-                tag = tag.getTag();
+            if (stack.size() != 1) {
+                throw new QueryException(QueryError.UNBALANCED_STACK,
+                        ("Invalid query: " + stack.size() + " stack elements " + "remaining"));
+            }
+            boolean result = toResult(stack.pop());
+            if (listener != null) {
+                listener.onQueryEnd(System.nanoTime() - start, executed, result);
+            }
+            return result;
+        } catch (QueryException e) {
+            if (listener != null) {
+                listener.onQueryRejected(e.getError(), System.nanoTime() - start, executed);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Compiles {@code query}, rejecting it if it has more entries or a deeper stack than this
+     * executor's {@link ExecutionLimits} allow.
+     */
+    public CompiledQuery compile(Array query) throws QueryException {
+        if (!limited) {
+            return QueryCompiler.compile(query);
+        }
+        checkLimit(limits.checkEntries(query.getDataItems().size()));
+        CompiledQuery compiled = QueryCompiler.compile(query);
+        checkLimit(limits.checkQuery(compiled));
+        return compiled;
+    }
+
+    public boolean execute(CompiledQuery query, ParameterSet parameters, DataSet dataElements)
+            throws QueryException {
+        return execute(query, parameters, dataElements, contexts.get());
+    }
+
+    /**
+     * Returns {@code query} rewritten for {@code parameters}: parameter references and the
+     * operators that depend only on them are folded into constants, decided {@code AND} and
+     * {@code OR} operators and double negations are removed, and the operands of {@code AND}
+     * and {@code OR} are ordered by the lookup costs {@code costModel} reports, if not null.
+     *
+     * <p>The result reads no parameters, so it may be executed with a {@link DataSet} alone.
+     * Whenever the interpreter returns a result for the original query, the rewritten query
+     * returns the same one.  It may skip an operand the interpreter would have rejected, as
+     * short-circuiting does.
+     *
+     * @throws QueryException if a parameter is missing or does not match its reference.
+     */
+    public CompiledQuery optimize(CompiledQuery query, ParameterSet parameters, DataSet costModel)
+            throws QueryException {
+        return QueryCompiler.compile(QueryOptimizer.optimize(query.root, parameters, costModel));
+    }
+
+    /**
+     * Returns the residual of {@code query} once {@code parameters} are substituted and folded,
+     * which is evaluated with a {@link DataSet} alone.  Like any compiled query, the result is
+     * immutable and may be cached and shared between threads.
+     *
+     * @throws QueryException if a parameter is missing or does not match its reference.
+     */
+    public CompiledQuery specialize(CompiledQuery query, ParameterSet parameters)
+            throws QueryException {
+        return optimize(query, parameters, null);
+    }
+
+    /**
+     * Returns {@code query} with its program also compiled to a tree of predicate objects, with a
+     * class of its own for each common shape of comparison, such as an integer data element
+     * against a parameter.  HotSpot can inline such a tree far better than the instruction loop,
+     * which suits a few very hot queries.
+     *
+     * <p>The tree is used when the query is evaluated with {@link BoundParameters}, or reads no
+     * parameters, by an executor without a listener, against any data set other than a
+     * {@link ColumnarStore} cursor.  Otherwise the instructions are interpreted as before.  Either
+     * way the results, errors and {@link ExecutionContext} counts are the same.
+     *
+     * <p>The tree is evaluated recursively, so a query that nests operators more than 256 deep
+     * gets none, and this returns {@code query} itself.
+     */
+    public CompiledQuery compilePredicates(CompiledQuery query) {
+        return query.hasPredicates() ? query : query.withPredicates();
+    }
+
+    /**
+     * Gives each of {@code values} a process-wide id, so that string constants and parameters
+     * equal to one are compared with {@link ColumnarStore} columns by id.  Meant for small, trusted
+     * domains known in advance, such as country codes: ids are never freed, and once 65536 strings
+     * have one no more are added.  Queries compiled earlier keep comparing those values as strings.
+     */
+    public static void registerStrings(Iterable<String> values) {
+        for (String value : values) {
+            StringDictionary.intern(value);
+        }
+    }
+
+    /** Executes a query that reads no parameters, such as one returned by {@link #specialize}. */
+    public boolean execute(CompiledQuery query, DataSet dataElements) throws QueryException {
+        return execute(query, NO_PARAMETERS, dataElements, contexts.get());
+    }
+
+    /**
+     * Evaluates a query that reads no parameters, such as one returned by {@link #specialize}.
+     * A query that does read parameters is rejected with
+     * {@link QueryError#PARAMETER_LAYOUT_MISMATCH}.
+     */
+    public QueryResult evaluate(CompiledQuery query, DataSet dataElements) {
+        return evaluate(query, NO_PARAMETERS, dataElements, contexts.get());
+    }
+
+    public QueryResult evaluate(CompiledQuery query, DataSet dataElements,
+                                ExecutionContext context) {
+        return evaluate(query, NO_PARAMETERS, dataElements, context);
+    }
+
+    /**
+     * Compiles and evaluates {@code query}, reporting a malformed query or a failed evaluation as
+     * an error result instead of throwing.
+     */
+    public QueryResult evaluate(Array query, ParameterSet parameters, DataSet dataElements) {
+        if (limited && limits.checkEntries(query.getDataItems().size()) != null) {
+            return QueryResult.error(QueryError.TOO_MANY_ENTRIES, -1);
+        }
+        QueryCompiler compiler = new QueryCompiler(query);
+        CompiledQuery compiled = compiler.compile();
+        if (compiled == null) {
+            return QueryResult.error(compiler.error, compiler.errorEntry);
+        }
+        return evaluate(compiled, parameters, dataElements);
+    }
+
+    /**
+     * Evaluates the query encoded in the remaining bytes of {@code query}, leaving its position,
+     * as {@link #evaluate(Array, ParameterSet, DataSet)} evaluates the decoded query.  An encoding
+     * that is not a single well-formed array is rejected with {@link QueryError#MALFORMED_QUERY}.
+     */
+    public QueryResult evaluate(ByteBuffer query, ParameterSet parameters,
+                                DataSet dataElements) {
+        Array decoded = EncodedQuery.decode(query);
+        if (decoded == null) {
+            return QueryResult.error(QueryError.MALFORMED_QUERY, -1);
+        }
+        return evaluate(decoded, parameters, dataElements);
+    }
+
+    public QueryResult evaluate(CompiledQuery query, ParameterSet parameters,
+                                DataSet dataElements) {
+        return evaluate(query, parameters, dataElements, contexts.get());
+    }
+
+    public QueryResult evaluate(CompiledQuery query, ParameterSet parameters, DataSet dataElements,
+                                ExecutionContext context) {
+        return evaluate(query, parameters, null, dataElements, context);
+    }
+
+    public QueryResult evaluate(CompiledQuery query, BoundParameters parameters,
+                                DataSet dataElements) {
+        return evaluate(query, parameters, dataElements, contexts.get());
+    }
+
+    public QueryResult evaluate(CompiledQuery query, BoundParameters parameters,
+                                DataSet dataElements, ExecutionContext context) {
+        if (parameters.layout != query.parameterLayout &&
+            !parameters.layout.equals(query.parameterLayout)) {
+            return QueryResult.error(QueryError.PARAMETER_LAYOUT_MISMATCH, -1);
+        }
+        return evaluate(query, null, parameters, dataElements, context);
+    }
+
+    /**
+     * Evaluates {@code query} without blocking on {@code dataElements}.  All of the query's data
+     * elements are requested at once, and the returned future completes with the result, or
+     * exceptionally with a {@link QueryException}, once enough of them have arrived.
+     */
+    public CompletableFuture<Boolean> executeAsync(CompiledQuery query, ParameterSet parameters,
+                                                   AsyncDataSet dataElements) {
+        return AsyncEvaluation.evaluate(query, parameters, dataElements);
+    }
+
+    public QueryGroup compileGroup(List<Array> queries) throws QueryException {
+        return QueryGroup.compile(queries);
+    }
+
+    /**
+     * Evaluates every query in {@code queries}, returning one result per query in the order they
+     * were compiled.  A query that fails does not affect the results of the others.
+     */
+    public QueryResult[] evaluate(QueryGroup queries, ParameterSet parameters,
+                                  DataSet dataElements) {
+        return queries.evaluate(parameters, dataElements);
+    }
+
+    public boolean execute(CompiledQuery query, ParameterSet parameters, DataSet dataElements,
+                           ExecutionContext context) throws QueryException {
+        return check(query, evaluate(query, parameters, dataElements, context));
+    }
+
+    public boolean execute(CompiledQuery query, BoundParameters parameters, DataSet dataElements)
+            throws QueryException {
+        return execute(query, parameters, dataElements, contexts.get());
+    }
+
+    public boolean execute(CompiledQuery query, BoundParameters parameters, DataSet dataElements,
+                           ExecutionContext context) throws QueryException {
+        return check(query, evaluate(query, parameters, dataElements, context));
+    }
+
+    private static boolean check(CompiledQuery query, QueryResult result) throws QueryException {
+        if (result.isError()) {
+            throw result.toException(query);
+        }
+        return result == QueryResult.TRUE;
+    }
+
+    /** Evaluates {@code query} with exactly one of {@code parameters} and {@code bound} set. */
+    private QueryResult evaluate(CompiledQuery query, ParameterSet parameters,
+                                 BoundParameters bound, DataSet dataElements,
+                                 ExecutionContext context) {
+        if (listener == null) {
+            return run(query, parameters, bound, dataElements, context);
+        }
+        listener.onQueryStart();
+        long start = System.nanoTime();
+        QueryResult result = run(query, parameters, bound, dataElements, context);
+        long elapsed = System.nanoTime() - start;
+        if (result.isError()) {
+            listener.onQueryRejected(result.getError(), elapsed, context.entriesExecuted);
+        } else {
+            listener.onQueryEnd(elapsed, context.entriesExecuted, result == QueryResult.TRUE);
+        }
+        return result;
+    }
+
+    private QueryResult run(CompiledQuery query, ParameterSet parameters, BoundParameters bound,
+                            DataSet dataElements, ExecutionContext context) {
+        context.reset(query.maxStackDepth);
+        OperandStack stack = context.stack;
+        if (limited) {
+            // The static limits, for queries that another executor compiled.
+            QueryError error = limits.checkQuery(query);
+            if (error != null) {
+                return QueryResult.error(error, -1);
             }
+        }
+        // A query that may not look up all of its data references does not request them all.
+        if (query.dataReferences.length > 0 &&
+            query.dataReferences.length <= limits.maxDataLookups) {
+            dataElements.prefetch(query.dataReferenceList);
+        }
+
+        if (query.predicates != null && listener == null && !limited &&
+            (bound != null || query.parameterLayout.names.length == 0) &&
+            !(dataElements instanceof DirectDataSet)) {
+            return query.predicates.evaluate((bound != null) ? bound.values : null,
+                    dataElements, context);
+        }
+
+        // The compiler has already checked the structure and stack balance of the query, and the
+        // types of operators that do not depend on data elements, so only the remaining operand
+        // values need to be checked here.  Errors are returned rather than thrown.
+        DirectDataSet direct = (dataElements instanceof DirectDataSet) ?
+                               (DirectDataSet) dataElements : null;
+        int[] opcodes = query.opcodes;
+        int pc = 0;
+        int executed = 0;
+        int parameterLookups = 0;
+        long deadline = limited ? limits.deadline(System.nanoTime()) : 0;
+        QueryError error = null;
+        while (pc < opcodes.length) {
+            int opcode = opcodes[pc];
+            int operand = query.operands[pc];
+            switch (opcode) {
+                case CompiledQuery.OP_DATA_REF: {
+                    if (limited) {
+                        error = limits.checkDataLookup(context.dataLookups, deadline);
+                        if (error != null) {
+                            break;
+                        }
+                    }
+                    context.dataLookups++;
+                    if (direct != null) {
+                        error = pushDataElement(direct, query, operand, stack, listener);
+                        break;
+                    }
+                    DataItem element = findDataElement(dataElements,
+                            query.dataReferences[operand], listener);
+                    error = (element == null) ? QueryError.UNKNOWN_DATA_ELEMENT :
+                            stack.push(element);
+                    break;
+                }
 
-            DataItem newStackEntry;
-            switch ((int) tag.getValue()) {
-                case DATA_REF:
-                    newStackEntry = dataElements.getDataElement(entry);
+                case CompiledQuery.OP_PARAM_REF:
+                    if (limited) {
+                        error = limits.checkParameterLookup(parameterLookups++);
+                        if (error != null) {
+                            break;
+                        }
+                    }
+                    if (listener != null) {
+                        listener.onParameterLookup();
+                    }
+                    if (bound != null) {
+                        stack.push(bound.values, operand);
+                    } else {
+                        error = pushParameter(stack, parameters, query.parameterLayout, operand);
+                    }
                     break;
 
-                case PARAM_REF:
-                    newStackEntry = parameters.getParameter(entry);
+                case CompiledQuery.OP_CONST:
+                    stack.push(query.constants, operand);
                     break;
 
-                case OPERATOR:
-                    newStackEntry = applyOperator(entry);
+                case CompiledQuery.OP_JUMP_IF_FALSE:
+                case CompiledQuery.OP_JUMP_IF_TRUE:
+                    // The first operand is left on the stack as the result.  Anything other than a
+                    // deciding boolean falls through to the operator, which reports type errors.
+                    if (stack.isTopBoolean(opcode == CompiledQuery.OP_JUMP_IF_TRUE)) {
+                        context.skippedDataLookups += query.skippedDataReferences[pc];
+                        pc = operand;
+                        continue;
+                    }
+                    pc++;
+                    continue;
+
+                case UNARY_NOT:
+                    if (query.verified[pc]) {
+                        stack.applyVerifiedUnaryNot();
+                    } else {
+                        error = stack.applyUnaryNot();
+                    }
                     break;
 
                 default:
-                    throw new QueryException("Invalid query entry: invalid tag.");
+                    if (limited && !stack.allowsOperands(limits)) {
+                        error = QueryError.STRING_TOO_LONG;
+                    } else if (query.verified[pc]) {
+                        stack.applyVerifiedBinaryOperator(opcode);
+                    } else {
+                        error = stack.applyBinaryOperator(opcode, query.operatorTags[pc]);
+                    }
+                    break;
             }
+            if (error != null) {
+                context.entriesExecuted = executed;
+                return QueryResult.error(error, query.entryIndices[pc]);
+            }
+            executed++;
+            pc++;
+        }
+        context.entriesExecuted = executed;
+        return stack.result(query.entryIndices[opcodes.length - 1]);
+    }
 
-            stack.push(newStackEntry);
+    private static void checkLimit(QueryError error) throws QueryException {
+        if (error != null) {
+            throw new QueryException(error, ExecutionLimits.describe(error));
         }
+    }
+
+    /** Checks that the interpreter may push another value onto {@code stack}. */
+    private void checkPush(Deque<DataItem> stack) throws QueryException {
+        if (stack.size() >= limits.maxStackDepth) {
+            checkLimit(QueryError.STACK_TOO_DEEP);
+        }
+    }
 
-        if (stack.size() != 1) {
-            throw new QueryException(
-                    ("Invalid query: " + stack.size() + " stack elements " + "remaining"));
+    /**
+     * Checks the lengths of the top two values on {@code stack}, the operands of a binary
+     * operator, if both are strings.  Dates are not compared as strings.
+     */
+    private void checkStrings(Deque<DataItem> stack) throws QueryException {
+        if (stack.size() < 2) {
+            return;
         }
-        if (stack.peek() instanceof SimpleValue) {
-            SimpleValue result = (SimpleValue) stack.pop();
+        Iterator<DataItem> operands = stack.iterator();
+        DataItem operandB = operands.next();
+        DataItem operandA = operands.next();
+        if (isComparedString(operandA) && isComparedString(operandB) &&
+            (!limits.allowsString(((UnicodeString) operandA).getString()) ||
+             !limits.allowsString(((UnicodeString) operandB).getString()))) {
+            checkLimit(QueryError.STRING_TOO_LONG);
+        }
+    }
+
+    private static boolean isComparedString(DataItem value) {
+        return value instanceof UnicodeString &&
+               (value.getTag() == null || value.getTag().getValue() != DATE_TAG);
+    }
+
+    private static QueryError pushParameter(OperandStack stack, ParameterSet parameters,
+                                            ParameterLayout layout, int slot) {
+        DataItem parameter = parameters.get(layout.names[slot]);
+        if (parameter == null) {
+            return QueryError.UNKNOWN_PARAMETER;
+        }
+        QueryError error = ParameterSet.checkParameter(parameter, layout.types[slot],
+                layout.tags[slot]);
+        if (error != null) {
+            return error;
+        }
+        if (!layout.isDate[slot]) {
+            return stack.push(parameter);
+        }
+        long epochDay = parameters.getEpochDay(layout.names[slot], parameter);
+        if (epochDay == Dates.INVALID) {
+            return QueryError.MALFORMED_DATE;
+        }
+        stack.pushDate(layout.tags[slot], epochDay);
+        return null;
+    }
+
+    /** Returns the element, or null if there is none, timing the lookup for a listener. */
+    private static DataItem findDataElement(DataSet dataElements, DataItem entry,
+                                            QueryExecutionListener listener) {
+        if (listener == null) {
+            return dataElements.getDataElement(entry);
+        }
+        long start = System.nanoTime();
+        try {
+            return dataElements.getDataElement(entry);
+        } finally {
+            listener.onDataLookup(System.nanoTime() - start);
+        }
+    }
+
+    private static QueryError pushDataElement(DirectDataSet dataElements, CompiledQuery query,
+                                              int reference, OperandStack stack,
+                                              QueryExecutionListener listener) {
+        if (listener == null) {
+            return dataElements.pushDataElement(query, reference, stack);
+        }
+        long start = System.nanoTime();
+        try {
+            return dataElements.pushDataElement(query, reference, stack);
+        } finally {
+            listener.onDataLookup(System.nanoTime() - start);
+        }
+    }
+
+    static DataItem getDataElement(DataSet dataElements, DataItem entry)
+            throws QueryException {
+        return checkDataElement(entry, dataElements.getDataElement(entry));
+    }
+
+    static DataItem checkDataElement(DataItem entry, DataItem dataElement)
+            throws QueryException {
+        if (dataElement == null) {
+            throw new QueryException(QueryError.UNKNOWN_DATA_ELEMENT,
+                    "Invalid query entry: unknown data element " + entry);
+        }
+        return dataElement;
+    }
+
+    static boolean toResult(DataItem value) throws QueryException {
+        if (value instanceof SimpleValue) {
+            SimpleValue result = (SimpleValue) value;
             if (result.getSimpleValueType().equals(SimpleValueType.TRUE)) {
                 return true;
             }
@@ -81,95 +650,110 @@ public class ICQueryExecutor {
                 return false;
             }
         }
-        throw new QueryException(("Invalid query:  result is not boolean"));
+        throw new QueryException(QueryError.RESULT_NOT_BOOLEAN,
+                ("Invalid query:  result is not boolean"));
     }
 
-    private DataItem applyOperator(DataItem operator) throws QueryException {
-        if (!(operator instanceof Number)) {
-            throw new QueryException("Invalid query: non-integer operator");
+    private static DataItem applyOperator(Deque<DataItem> stack, int op, Tag opTag)
+            throws QueryException {
+        int arity = (op == UNARY_NOT) ? 1 : 2;
+        if (stack.size() < arity) {
+            throw new QueryException(QueryError.MISSING_OPERANDS,
+                    "Invalid query: operator is missing operands");
         }
-        Number op = (Number) operator;
-
-        if (op.getValue().intValue() == UNARY_NOT) {
-            return handleUnaryOperator(op);
+        if (arity == 1) {
+            return handleUnaryOperator(stack, op);
         }
-        return handleBinaryOperator(op);
+        return handleBinaryOperator(stack, op, opTag);
     }
 
-    private DataItem handleBinaryOperator(Number op) throws QueryException {
+    private static QueryException nonIntegerOperator() {
+        return new QueryException(QueryError.INVALID_OPERATOR,
+                "Invalid query: non-integer operator");
+    }
+
+    private static DataItem handleBinaryOperator(Deque<DataItem> stack, int op, Tag opTag)
+            throws QueryException {
         DataItem operandB = stack.pop();
         DataItem operandA = stack.pop();
+        return applyBinaryOperator(op, opTag, operandA, operandB);
+    }
 
+    static DataItem applyBinaryOperator(int op, Tag opTag, DataItem operandA, DataItem operandB)
+            throws QueryException {
         if (!compareTags(operandA.getTag(), operandB.getTag())) {
-            throw new QueryException(
+            throw new QueryException(QueryError.OPERAND_TAG_MISMATCH,
                     "Invalid query:  Operands have different tags: " + operandA.getTag() + " and " +
                     operandB.getTag());
         }
-        if (operandA.getTag() != null && !compareTags(op.getTag(), operandA.getTag())) {
-            throw new QueryException(
+        if (operandA.getTag() != null && !compareTags(opTag, operandA.getTag())) {
+            throw new QueryException(QueryError.OPERATOR_TAG_MISMATCH,
                     "Invalid query:  Operands and operator have different type " + "tags: " +
-                    op.getTag() + " and " + operandA.getTag());
+                    opTag + " and " + operandA.getTag());
         }
 
         boolean result = false;
         if (operandA instanceof Number) {
             if (!(operandB instanceof Number)) {
-                throw new QueryException(
+                throw new QueryException(QueryError.OPERAND_TYPE_MISMATCH,
                         "Invalid query:  Operands are different types: " + operandA + " and " +
                         operandB);
             }
             result = operateOnNumbers(op, (Number) operandA, (Number) operandB);
         } else if (isBoolean(operandA)) {
             if (!isBoolean(operandB)) {
-                throw new QueryException(
+                throw new QueryException(QueryError.OPERAND_TYPE_MISMATCH,
                         "Invalid query:  Operands are different types: " + operandA + " and " +
                         operandB);
             }
             result = operateOnBooleans(op, operandA, operandB);
         } else if (operandA instanceof UnicodeString) {
             if (!(operandB instanceof UnicodeString)) {
-                throw new QueryException(
+                throw new QueryException(QueryError.OPERAND_TYPE_MISMATCH,
                         "Invalid query:  Operands are different types: " + operandA + " and " +
                         operandB);
             }
             result = operateOnStrings(op, (UnicodeString) operandA, (UnicodeString) operandB);
         } else {
-            throw new QueryException("Invalid query:  Unsupported operand type");
+            throw new QueryException(QueryError.UNSUPPORTED_OPERAND_TYPE,
+                    "Invalid query:  Unsupported operand type");
         }
         return result ? SimpleValue.TRUE : SimpleValue.FALSE;
     }
 
-    private SimpleValue handleUnaryOperator(Number op) throws QueryException {
-        switch (op.getValue().intValue()) {
-            case UNARY_NOT: {
-                SimpleValue result;
-                DataItem operand = stack.pop();
-                if (!isBoolean(operand)) {
-                    throw new QueryException(
-                            "Invalid query:  Applying unary not to non-boolean " + "operand");
-                }
-                if (operand.equals(SimpleValue.TRUE)) {
-                    result = SimpleValue.FALSE;
-                } else {
-                    result = SimpleValue.TRUE;
-                }
-                return result;
-            }
+    private static SimpleValue handleUnaryOperator(Deque<DataItem> stack, int op)
+            throws QueryException {
+        switch (op) {
+            case UNARY_NOT:
+                return applyUnaryNot(stack.pop());
 
             default:
-                throw new QueryException("Invalid query:  Unknown unary operator");
+                throw new QueryException(QueryError.INVALID_OPERATOR,
+                        "Invalid query:  Unknown unary operator");
+        }
+    }
+
+    static SimpleValue applyUnaryNot(DataItem operand) throws QueryException {
+        if (!isBoolean(operand)) {
+            throw new QueryException(QueryError.OPERAND_TYPE_MISMATCH,
+                    "Invalid query:  Applying unary not to non-boolean " + "operand");
+        }
+        if (operand.equals(SimpleValue.TRUE)) {
+            return SimpleValue.FALSE;
         }
+        return SimpleValue.TRUE;
     }
 
-    private boolean operateOnStrings(Number op, UnicodeString operandA, UnicodeString operandB)
+    private static boolean operateOnStrings(int op, UnicodeString operandA, UnicodeString operandB)
             throws QueryException {
         if (operandA.getTag() != null && operandA.getTag().getValue() == DATE_TAG) {
-            return evaluateOrderingOperation(op,
-                    operandA.getString().compareTo(operandB.getString()));
+            return evaluateOrderingOperation(op, Long.compare(
+                    Dates.toEpochDay(operandA.getString(), "operand"),
+                    Dates.toEpochDay(operandB.getString(), "operand")));
         }
 
         boolean comparisonResult = operandA.equals(operandB);
-        switch (op.getValue().intValue()) {
+        switch (op) {
             case EQUAL:
                 return comparisonResult;
 
@@ -177,13 +761,14 @@ public class ICQueryExecutor {
                 return !comparisonResult;
 
             default:
-                throw new QueryException("Invalid query:  Non-equality operator applied to others");
+                throw new QueryException(QueryError.OPERATOR_TYPE_MISMATCH,
+                        "Invalid query:  Non-equality operator applied to others");
         }
     }
 
-    private boolean operateOnBooleans(Number op, DataItem operandA, DataItem operandB)
+    private static boolean operateOnBooleans(int op, DataItem operandA, DataItem operandB)
             throws QueryException {
-        switch (op.getValue().intValue()) {
+        switch (op) {
             case AND:
                 return toBoolean(operandA) && toBoolean(operandB);
 
@@ -191,18 +776,18 @@ public class ICQueryExecutor {
                 return toBoolean(operandA) || toBoolean(operandB);
 
             default:
-                throw new QueryException(
+                throw new QueryException(QueryError.OPERATOR_TYPE_MISMATCH,
                         "Invalid query:  Non-boolean operator applied to " + "booleans");
         }
     }
 
-    private boolean operateOnNumbers(Number op, Number numberA, Number numberB)
+    private static boolean operateOnNumbers(int op, Number numberA, Number numberB)
             throws QueryException {
         return evaluateOrderingOperation(op, numberA.getValue().compareTo(numberB.getValue()));
     }
 
-    private boolean evaluateOrderingOperation(Number op, int ordering) throws QueryException {
-        switch (op.getValue().intValue()) {
+    private static boolean evaluateOrderingOperation(int op, int ordering) throws QueryException {
+        switch (op) {
             case LESS_THAN:
                 return (ordering < 0);
 
@@ -222,11 +807,12 @@ public class ICQueryExecutor {
                 return (ordering >= 0);
 
             default:
-                throw new QueryException("Invalid query:  Non-numeric operator applied to numbers");
+                throw new QueryException(QueryError.OPERATOR_TYPE_MISMATCH,
+                        "Invalid query:  Non-numeric operator applied to numbers");
         }
     }
 
-    private boolean isBoolean(DataItem value) {
+    private static boolean isBoolean(DataItem value) {
         if (!(value instanceof SimpleValue)) {
             return false;
         }
@@ -234,12 +820,12 @@ public class ICQueryExecutor {
         return (simpleValue.equals(SimpleValue.TRUE) || simpleValue.equals(SimpleValue.FALSE));
     }
 
-    private boolean toBoolean(DataItem value) {
+    private static boolean toBoolean(DataItem value) {
         SimpleValue simpleValue = (SimpleValue) value;
         return (simpleValue.equals(SimpleValue.TRUE));
     }
 
-    private boolean compareTags(Tag a, Tag b) {
+    private static boolean compareTags(Tag a, Tag b) {
         if (a == null) {
             return b == null;
         }
@@ -0,0 +1,257 @@
+package com.androidx.identity_credential.query;
+
+import co.nstant.in.cbor.model.DataItem;
+import co.nstant.in.cbor.model.SimpleValue;
+import co.nstant.in.cbor.model.SimpleValueType;
+import co.nstant.in.cbor.model.Tag;
+
+import java.math.BigInteger;
+
+import static com.androidx.identity_credential.query.ICQueryExecutor.*;
+
+/**
+ * Fixed-size operand stack used to evaluate {@link CompiledQuery} programs.
+ *
+ * <p>Values are held in {@link TypedValues} slots, so pushing, comparing and popping values does
+ * not allocate.  Once the arrays have grown to the largest query seen, evaluation is
+ * allocation-free.  The operator semantics are the same as the {@link DataItem} interpreter in
+ * {@link ICQueryExecutor}.
+ */
+final class OperandStack extends TypedValues {
+
+    private int size;
+
+    OperandStack() {
+        super(0);
+    }
+
+    void reset(int capacity) {
+        ensureCapacity(capacity);
+        size = 0;
+    }
+
+    QueryError push(DataItem item) {
+        return set(size++, item);
+    }
+
+    void pushLong(long value) {
+        setLong(size++, value);
+    }
+
+    void pushBoolean(boolean value) {
+        setBoolean(size++, value);
+    }
+
+    void pushString(Object value, int id) {
+        setString(size++, value, id);
+    }
+
+    void pushDate(Tag tag, long epochDay) {
+        setDate(size++, tag, epochDay);
+    }
+
+    void push(TypedValues values, int slot) {
+        copy(size++, values, slot);
+    }
+
+    boolean isTopBoolean(boolean value) {
+        int slot = size - 1;
+        return kinds[slot] == KIND_BOOLEAN && booleans[slot] == value;
+    }
+
+    boolean popBoolean() {
+        return booleans[--size];
+    }
+
+    QueryError applyUnaryNot() {
+        if (kinds[size - 1] != KIND_BOOLEAN) {
+            return QueryError.OPERAND_TYPE_MISMATCH;
+        }
+        applyVerifiedUnaryNot();
+        return null;
+    }
+
+    /** Negates the top value, which {@link QueryVerifier} has shown to be a boolean. */
+    void applyVerifiedUnaryNot() {
+        int slot = size - 1;
+        booleans[slot] = !booleans[slot];
+    }
+
+    /**
+     * Returns false if the top two values, the operands of a binary operator, are strings and
+     * either is longer than {@code limits} allow to be compared.
+     */
+    boolean allowsOperands(ExecutionLimits limits) {
+        int b = size - 1;
+        int a = b - 1;
+        return kinds[a] != KIND_STRING || kinds[b] != KIND_STRING ||
+               (limits.allowsString(refs[a]) && limits.allowsString(refs[b]));
+    }
+
+    /**
+     * Replaces the top two values with the result of {@code op}, or returns why it does not
+     * apply to them.  The checks are made in the same order as the interpreter's.
+     */
+    QueryError applyBinaryOperator(int op, Tag opTag) {
+        int b = size - 1;
+        int a = b - 1;
+
+        if (!compareTags(tags[a], tags[b])) {
+            return QueryError.OPERAND_TAG_MISMATCH;
+        }
+        if (tags[a] != null && !compareTags(opTag, tags[a])) {
+            return QueryError.OPERATOR_TAG_MISMATCH;
+        }
+        int kind = typeOf(kinds[a]);
+        if (kind == KIND_OTHER) {
+            return QueryError.UNSUPPORTED_OPERAND_TYPE;
+        }
+        if (typeOf(kinds[b]) != kind) {
+            return QueryError.OPERAND_TYPE_MISMATCH;
+        }
+        if (!appliesTo(op, kind)) {
+            return QueryError.OPERATOR_TYPE_MISMATCH;
+        }
+        applyVerifiedBinaryOperator(op);
+        return null;
+    }
+
+    /**
+     * Replaces the top two values with the result of {@code op}, which either
+     * {@link #applyBinaryOperator} or {@link QueryVerifier} has shown applies to them.
+     */
+    void applyVerifiedBinaryOperator(int op) {
+        int b = --size;
+        int a = b - 1;
+
+        boolean result;
+        switch (kinds[a]) {
+            case KIND_BOOLEAN:
+                result = (op == AND) ? booleans[a] && booleans[b] : booleans[a] || booleans[b];
+                break;
+
+            case KIND_STRING:
+                result = equalStrings(a, b) == (op == EQUAL);
+                break;
+
+            case KIND_DATE:
+                result = evaluateOrderingOperation(op, Long.compare(longs[a], longs[b]));
+                break;
+
+            default:
+                result = evaluateOrderingOperation(op, compareNumbers(a, b));
+                break;
+        }
+
+        kinds[a] = KIND_BOOLEAN;
+        booleans[a] = result;
+        refs[a] = null;
+        refs[b] = null;
+        tags[a] = null;
+    }
+
+    /**
+     * Returns true if {@code op} applies to two operands of {@code kind}, with
+     * {@link #KIND_LONG} standing for either kind of integer.
+     */
+    static boolean appliesTo(int op, int kind) {
+        switch (kind) {
+            case KIND_LONG:
+            case KIND_DATE:
+                return op <= GREATER_OR_EQUAL;
+
+            case KIND_BOOLEAN:
+                return op == AND || op == OR;
+
+            case KIND_STRING:
+                return op == EQUAL || op == NOT_EQUAL;
+
+            default:
+                return false;
+        }
+    }
+
+    /** Returns the single remaining value as a result, attributing errors to {@code entry}. */
+    QueryResult result(int entry) {
+        if (size != 1) {
+            return QueryResult.error(QueryError.UNBALANCED_STACK, entry);
+        }
+        if (kinds[0] == KIND_BOOLEAN) {
+            return QueryResult.of(booleans[0]);
+        }
+        // Tagged simple values are not booleans to the operators, but the interpreter still
+        // accepts them as the overall result.
+        if (kinds[0] == KIND_OTHER && refs[0] instanceof SimpleValue) {
+            SimpleValueType type = ((SimpleValue) refs[0]).getSimpleValueType();
+            if (type.equals(SimpleValueType.TRUE)) {
+                return QueryResult.TRUE;
+            }
+            if (type.equals(SimpleValueType.FALSE)) {
+                return QueryResult.FALSE;
+            }
+        }
+        return QueryResult.error(QueryError.RESULT_NOT_BOOLEAN, entry);
+    }
+
+    private boolean equalStrings(int a, int b) {
+        // Ids are unique, so they decide equality whenever both strings have one.
+        if (stringIds[a] != StringDictionary.NO_ID && stringIds[b] != StringDictionary.NO_ID) {
+            return stringIds[a] == stringIds[b];
+        }
+        return Utf8String.equal(refs[a], refs[b]);
+    }
+
+    private int compareNumbers(int a, int b) {
+        boolean aIsLong = kinds[a] == KIND_LONG;
+        boolean bIsLong = kinds[b] == KIND_LONG;
+        if (aIsLong && bIsLong) {
+            return Long.compare(longs[a], longs[b]);
+        }
+        // A value stored as a BigInteger is always outside the range of a long, so its sign
+        // decides the comparison against any long.
+        if (aIsLong) {
+            return -((BigInteger) refs[b]).signum();
+        }
+        if (bIsLong) {
+            return ((BigInteger) refs[a]).signum();
+        }
+        return ((BigInteger) refs[a]).compareTo((BigInteger) refs[b]);
+    }
+
+    private static int typeOf(int kind) {
+        return (kind == KIND_BIG_INTEGER) ? KIND_LONG : kind;
+    }
+
+    private static boolean evaluateOrderingOperation(int op, int ordering) {
+        switch (op) {
+            case LESS_THAN:
+                return (ordering < 0);
+
+            case LESS_OR_EQUAL:
+                return (ordering <= 0);
+
+            case EQUAL:
+                return (ordering == 0);
+
+            case NOT_EQUAL:
+                return (ordering != 0);
+
+            case GREATER_THAN:
+                return (ordering > 0);
+
+            default:
+                // GREATER_OR_EQUAL; the other operators do not apply to ordered values.
+                return (ordering >= 0);
+        }
+    }
+
+    static boolean compareTags(Tag a, Tag b) {
+        if (a == null) {
+            return b == null;
+        }
+        if (b == null) {
+            return false;
+        }
+        return a.getValue() == b.getValue();
+    }
+}
@@ -0,0 +1,102 @@
+package com.androidx.identity_credential.query;
+
+import co.nstant.in.cbor.model.Tag;
+
+import java.util.Arrays;
+
+import static com.androidx.identity_credential.query.ICQueryExecutor.TYPE_STRING;
+import static com.androidx.identity_credential.query.ParameterSet.DATE_TAG;
+
+/**
+ * The parameters a {@link CompiledQuery} refers to, one slot per distinct (name, type, tag)
+ * reference, in order of first use.
+ *
+ * <p>{@link #bind} resolves and checks every slot against a {@link ParameterSet} once, so that
+ * evaluating the query with the resulting {@link BoundParameters} reads each parameter with a
+ * single array access.  Layouts are immutable and compare equal when they describe the same
+ * slots.
+ */
+public final class ParameterLayout {
+
+    final String[] names;
+    final int[] types;
+    final Tag[] tags;
+    final boolean[] isDate;
+
+    ParameterLayout(String[] names, int[] types, Tag[] tags) {
+        this.names = names;
+        this.types = types;
+        this.tags = tags;
+        this.isDate = new boolean[tags.length];
+        for (int i = 0; i < tags.length; i++) {
+            isDate[i] = types[i] == TYPE_STRING && tags[i] != null &&
+                        tags[i].getValue() == DATE_TAG;
+        }
+    }
+
+    public int getSlotCount() {
+        return names.length;
+    }
+
+    public String getName(int slot) {
+        return names[slot];
+    }
+
+    public int getType(int slot) {
+        return types[slot];
+    }
+
+    public Tag getTag(int slot) {
+        return tags[slot];
+    }
+
+    /**
+     * Looks up and type checks every parameter in the layout.  Unlike evaluation with a
+     * {@link ParameterSet}, every slot must resolve, even one that short-circuiting would skip.
+     */
+    public BoundParameters bind(ParameterSet parameters) throws QueryException {
+        TypedValues values = new TypedValues(names.length);
+        for (int i = 0; i < names.length; i++) {
+            if (isDate[i]) {
+                values.setDate(i, tags[i], parameters.getEpochDay(names[i], types[i], tags[i]));
+            } else {
+                QueryError error =
+                        values.set(i, parameters.getParameter(names[i], types[i], tags[i]));
+                if (error != null) {
+                    throw new QueryException(error, "Invalid parameter " + names[i]);
+                }
+                if (values.kinds[i] == TypedValues.KIND_STRING) {
+                    values.stringIds[i] = StringDictionary.lookup((String) values.refs[i]);
+                }
+            }
+        }
+        return new BoundParameters(this, values);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ParameterLayout)) {
+            return false;
+        }
+        ParameterLayout other = (ParameterLayout) o;
+        return Arrays.equals(names, other.names) && Arrays.equals(types, other.types) &&
+               Arrays.equals(tags, other.tags);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(names) + Arrays.hashCode(types);
+    }
+
+    /** Rough heap footprint of the slot tables. */
+    long estimateSize() {
+        long size = 64 + 13L * names.length;
+        for (String name : names) {
+            size += 48 + 2L * name.length();
+        }
+        return size;
+    }
+}
@@ -4,6 +4,7 @@ import co.nstant.in.cbor.model.Number;
 import co.nstant.in.cbor.model.*;
 
 import java.util.HashMap;
+import java.util.Map;
 import java.util.Objects;
 
 import static com.androidx.identity_credential.query.ICQueryExecutor.*;
@@ -12,21 +13,113 @@ public class ParameterSet extends HashMap<String, DataItem> {
 
     public static int DATE_TAG = 18013;  // Placeholder until real value is registered.
 
+    // Date parameters are converted to epoch days when they are put, or, once deserialized, when
+    // a date is first read.  A malformed date is cached as Dates.INVALID and rejected with
+    // MALFORMED_DATE by the query that reads it.  Each cached value remembers the item it came
+    // from, so a parameter replaced by some other Map method is simply converted again when it is
+    // read.  A rebuilt cache is published whole, so concurrent readers of a set that is no longer
+    // modified never see a partial one, and a clone has a cache of its own.
+    private transient volatile HashMap<String, EpochDay> epochDays = new HashMap<>();
+
+    @Override
+    public DataItem put(String name, DataItem value) {
+        HashMap<String, EpochDay> cache = epochDays;
+        if (cache != null) {
+            if (isDate(value)) {
+                cache.put(name, new EpochDay(value));
+            } else {
+                cache.remove(name);
+            }
+        }
+        return super.put(name, value);
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ? extends DataItem> parameters) {
+        for (Map.Entry<? extends String, ? extends DataItem> entry : parameters.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public DataItem remove(Object name) {
+        HashMap<String, EpochDay> cache = epochDays;
+        if (cache != null) {
+            cache.remove(name);
+        }
+        return super.remove(name);
+    }
+
+    @Override
+    public void clear() {
+        HashMap<String, EpochDay> cache = epochDays;
+        if (cache != null) {
+            cache.clear();
+        }
+        super.clear();
+    }
+
+    @Override
+    public Object clone() {
+        // The copy builds its own cache when a date is first read, instead of sharing this one.
+        ParameterSet copy = (ParameterSet) super.clone();
+        copy.epochDays = null;
+        return copy;
+    }
+
     public DataItem getParameter(DataItem queryEntry) throws QueryException {
         if (!(queryEntry instanceof Array)) {
-            throw new QueryException(("Invalid parameter reference, must be an array"));
+            throw new QueryException(QueryError.INVALID_PARAMETER_REFERENCE,
+                    ("Invalid parameter reference, must be an array"));
         }
         Array queryEntryArr = (Array) queryEntry;
 
         if (queryEntryArr.getDataItems().size() != 2) {
-            throw new QueryException("Invalid parameter reference, must contain two data items");
+            throw new QueryException(QueryError.INVALID_PARAMETER_REFERENCE,
+                    "Invalid parameter reference, must contain two data items");
+        }
+        DataItem name = queryEntryArr.getDataItems().get(0);
+        DataItem type = queryEntryArr.getDataItems().get(1);
+        if (!(name instanceof UnicodeString) || !(type instanceof Number)) {
+            throw new QueryException(QueryError.INVALID_PARAMETER_REFERENCE,
+                    "Invalid parameter reference, must contain a name and a type specifier");
         }
-        UnicodeString name = (UnicodeString) queryEntryArr.getDataItems().get(0);
-        Number type = (Number) queryEntryArr.getDataItems().get(1);
 
-        DataItem parameter = super.get(name.getString());
+        return getParameter(((UnicodeString) name).getString(),
+                ((Number) type).getValue().intValue(), type.getTag());
+    }
+
+    public DataItem getParameter(String name, int type, Tag typeTag) throws QueryException {
+        DataItem parameter = super.get(name);
+        if (parameter == null) {
+            throw new QueryException(QueryError.UNKNOWN_PARAMETER,
+                    "Invalid parameter reference, no parameter named " + name);
+        }
+
+        QueryError error = checkParameter(parameter, type, typeTag);
+        if (error == QueryError.INVALID_PARAMETER_REFERENCE) {
+            throw new QueryException(error,
+                    "Invalid parameter reference, unknown type specifier " + type);
+        }
+        if (error == QueryError.PARAMETER_TAG_MISMATCH) {
+            throw new QueryException(error,
+                    "Invalid parameter reference, query type tag does not match " +
+                    "parameter type tag");
+        }
+        if (error == QueryError.PARAMETER_TYPE_MISMATCH) {
+            throw new QueryException(error,
+                    "Invalid parameter reference, query type does not match " + "parameter type");
+        }
+        return parameter;
+    }
+
+    /**
+     * Returns why {@code parameter} does not satisfy a reference with the given type and tag, or
+     * null if it does.
+     */
+    static QueryError checkParameter(DataItem parameter, int type, Tag typeTag) {
         boolean typeMatched = false;
-        switch (type.getValue().intValue()) {
+        switch (type) {
             case TYPE_INTEGER:
                 typeMatched = parameter instanceof Number;
                 break;
@@ -41,23 +134,65 @@ public class ParameterSet extends HashMap<String, DataItem> {
                 break;
 
             default:
-                throw new QueryException(
-                        "Invalid parameter reference, unknown type specifier " + type.getValue());
+                return QueryError.INVALID_PARAMETER_REFERENCE;
         }
 
         // Tags must match as well, if present.
-        Tag paramRefTag = type.getTag();
         Tag paramValueTag = parameter.getTag();
-        if (!Objects.equals(paramRefTag, paramValueTag)) {
-            throw new QueryException("Invalid parameter reference, query type tag does not match " +
-                                     "parameter type tag");
+        if (!Objects.equals(typeTag, paramValueTag)) {
+            return QueryError.PARAMETER_TAG_MISMATCH;
         }
 
         if (!typeMatched) {
-            throw new QueryException(
-                    "Invalid parameter reference, query type does not match " + "parameter type");
+            return QueryError.PARAMETER_TYPE_MISMATCH;
         }
+        return null;
+    }
 
-        return parameter;
+    long getEpochDay(String name, int type, Tag typeTag) throws QueryException {
+        DataItem parameter = getParameter(name, type, typeTag);
+        long epochDay = getEpochDay(name, parameter);
+        if (epochDay == Dates.INVALID) {
+            throw new QueryException(QueryError.MALFORMED_DATE,
+                    "Invalid query: malformed date " + parameter + " in parameter " + name);
+        }
+        return epochDay;
+    }
+
+    /**
+     * Returns the epoch day of the date {@code parameter}, the current value of {@code name}, or
+     * {@link Dates#INVALID} if it is malformed.
+     */
+    long getEpochDay(String name, DataItem parameter) {
+        HashMap<String, EpochDay> cache = epochDays;
+        if (cache == null) {
+            cache = new HashMap<>();
+            for (Map.Entry<String, DataItem> entry : entrySet()) {
+                if (isDate(entry.getValue())) {
+                    cache.put(entry.getKey(), new EpochDay(entry.getValue()));
+                }
+            }
+            epochDays = cache;
+        }
+        EpochDay cached = cache.get(name);
+        if (cached != null && cached.item == parameter) {
+            return cached.epochDay;
+        }
+        return Dates.toEpochDay(((UnicodeString) parameter).getString());
+    }
+
+    static boolean isDate(DataItem value) {
+        return value instanceof UnicodeString && value.getTag() != null &&
+               value.getTag().getValue() == DATE_TAG;
+    }
+
+    private static final class EpochDay {
+        final DataItem item;
+        final long epochDay;
+
+        EpochDay(DataItem item) {
+            this.item = item;
+            this.epochDay = Dates.toEpochDay(((UnicodeString) item).getString());
+        }
     }
 }
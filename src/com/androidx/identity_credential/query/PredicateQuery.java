@@ -0,0 +1,625 @@
+package com.androidx.identity_credential.query;
+
+import co.nstant.in.cbor.model.DataItem;
+import co.nstant.in.cbor.model.Number;
+import co.nstant.in.cbor.model.Tag;
+import co.nstant.in.cbor.model.UnicodeString;
+
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import static com.androidx.identity_credential.query.ICQueryExecutor.*;
+import static com.androidx.identity_credential.query.ParameterSet.DATE_TAG;
+import static com.androidx.identity_credential.query.TypedValues.*;
+
+/**
+ * A {@link CompiledQuery} compiled further by {@link ICQueryExecutor#compilePredicates} into a
+ * tree of small predicate objects, each specialized for one shape of operation.
+ *
+ * <p>A comparison of a data element with a parameter or constant becomes a node of its own class
+ * for integers, dates or strings, which compares the element with the other operand's primitive
+ * value directly.  {@code AND}, {@code OR} and {@code UNARY_NOT} over boolean operands call their
+ * operands' {@link Predicate#test} and nothing else.  There is no dispatch on opcodes or value
+ * kinds, so for a few hot queries each call site sees few receiver classes and HotSpot can inline
+ * most of the tree into the root.  Any other operation, and any operand value a specialized node
+ * does not expect, is evaluated on the {@link OperandStack} with the instruction loop's checks.
+ *
+ * <p>The tree evaluates operands in instruction order and short-circuits at the same points.
+ * It counts entries and lookups in the {@link ExecutionContext} as it goes, so results, errors
+ * and counts are those of the instruction loop.
+ *
+ * <p>Each node evaluates its operands by calling them, so the thread stack grows with the depth
+ * of the tree.  No tree is built for a query that nests more than {@link #MAX_DEPTH} operators
+ * deep; such a query keeps using the instruction loop.
+ */
+final class PredicateQuery {
+
+    /** The deepest tree {@link #compile} builds. */
+    static final int MAX_DEPTH = 256;
+
+    final Node root;
+    private final int resultEntry;
+
+    private PredicateQuery(Node root, int resultEntry) {
+        this.root = root;
+        this.resultEntry = resultEntry;
+    }
+
+    /**
+     * Builds the tree from the program of {@code query}, which uses its tables, or returns null if
+     * the tree would be deeper than {@link #MAX_DEPTH}.
+     */
+    static PredicateQuery compile(CompiledQuery query) {
+        if (depth(query) > MAX_DEPTH) {
+            return null;
+        }
+        Deque<Node> nodes = new ArrayDeque<>();
+        Deque<Integer> jumps = new ArrayDeque<>();
+        int[] opcodes = query.opcodes;
+        for (int pc = 0; pc < opcodes.length; pc++) {
+            int operand = query.operands[pc];
+            int entry = query.entryIndices[pc];
+            switch (opcodes[pc]) {
+                case CompiledQuery.OP_DATA_REF:
+                    nodes.push(new DataLeaf(entry, query.dataReferences[operand]));
+                    break;
+
+                case CompiledQuery.OP_PARAM_REF:
+                    nodes.push(new SlotLeaf(entry, null, operand));
+                    break;
+
+                case CompiledQuery.OP_CONST:
+                    nodes.push(new SlotLeaf(entry, query.constants, operand));
+                    break;
+
+                case CompiledQuery.OP_JUMP_IF_FALSE:
+                case CompiledQuery.OP_JUMP_IF_TRUE:
+                    jumps.push(pc);
+                    break;
+
+                case UNARY_NOT: {
+                    Node a = nodes.pop();
+                    Predicate predicate = asPredicate(query, a);
+                    nodes.push((query.verified[pc] && predicate != null) ?
+                               new Not(entry, predicate) :
+                               new StackOperator(entry, UNARY_NOT, null, query.verified[pc], a,
+                                       null));
+                    break;
+                }
+
+                default: {
+                    Node b = nodes.pop();
+                    Node a = nodes.pop();
+                    if (opcodes[pc] == AND || opcodes[pc] == OR) {
+                        int skipped = query.skippedDataReferences[jumps.pop()];
+                        nodes.push(logical(query, pc, skipped, a, b));
+                    } else {
+                        nodes.push(comparison(query, pc, a, b));
+                    }
+                    break;
+                }
+            }
+        }
+        return new PredicateQuery(nodes.pop(), query.entryIndices[opcodes.length - 1]);
+    }
+
+    /** Returns the depth of the operators in the program of {@code query}. */
+    private static int depth(CompiledQuery query) {
+        // The depth of each value on the stack, as the program would leave it.
+        int[] depths = new int[query.maxStackDepth];
+        int top = 0;
+        int max = 0;
+        for (int opcode : query.opcodes) {
+            switch (opcode) {
+                case CompiledQuery.OP_DATA_REF:
+                case CompiledQuery.OP_PARAM_REF:
+                case CompiledQuery.OP_CONST:
+                    depths[top++] = 0;
+                    break;
+
+                case CompiledQuery.OP_JUMP_IF_FALSE:
+                case CompiledQuery.OP_JUMP_IF_TRUE:
+                    break;
+
+                case UNARY_NOT:
+                    depths[top - 1]++;
+                    max = Math.max(max, depths[top - 1]);
+                    break;
+
+                default:
+                    top--;
+                    depths[top - 1] = Math.max(depths[top - 1], depths[top]) + 1;
+                    max = Math.max(max, depths[top - 1]);
+                    break;
+            }
+        }
+        return max;
+    }
+
+    QueryResult evaluate(TypedValues parameters, DataSet dataElements, ExecutionContext context) {
+        try {
+            if (root instanceof Predicate) {
+                return QueryResult.of(((Predicate) root).test(context, parameters, dataElements));
+            }
+            root.push(context, parameters, dataElements);
+            return context.stack.result(resultEntry);
+        } catch (Rejection rejection) {
+            return QueryResult.error(rejection.error, rejection.entry);
+        }
+    }
+
+    private static Node logical(CompiledQuery query, int pc, int skipped, Node a, Node b) {
+        int op = query.opcodes[pc];
+        int entry = query.entryIndices[pc];
+        Predicate predicateA = asPredicate(query, a);
+        Predicate predicateB = asPredicate(query, b);
+        if (!query.verified[pc] || predicateA == null || predicateB == null) {
+            return new StackLogical(entry, op, query.operatorTags[pc], query.verified[pc],
+                    skipped, a, b);
+        }
+        return (op == AND) ? new And(entry, skipped, predicateA, predicateB) :
+               new Or(entry, skipped, predicateA, predicateB);
+    }
+
+    private static Node comparison(CompiledQuery query, int pc, Node a, Node b) {
+        int op = query.opcodes[pc];
+        int entry = query.entryIndices[pc];
+        Tag opTag = query.operatorTags[pc];
+        boolean dataFirst = a instanceof DataLeaf && b instanceof SlotLeaf;
+        if (!dataFirst && !(b instanceof DataLeaf && a instanceof SlotLeaf)) {
+            return new StackOperator(entry, op, opTag, query.verified[pc], a, b);
+        }
+        DataLeaf data = (DataLeaf) (dataFirst ? a : b);
+        SlotLeaf other = (SlotLeaf) (dataFirst ? b : a);
+
+        int kind;
+        Tag tag;
+        if (other.constants != null) {
+            kind = other.constants.kinds[other.slot];
+            tag = other.constants.tags[other.slot];
+        } else {
+            ParameterLayout layout = query.parameterLayout;
+            kind = (layout.types[other.slot] == TYPE_INTEGER) ? KIND_LONG :
+                   (layout.types[other.slot] == TYPE_STRING) ?
+                   (layout.isDate[other.slot] ? KIND_DATE : KIND_STRING) : KIND_BOOLEAN;
+            tag = layout.tags[other.slot];
+        }
+
+        if ((kind == KIND_LONG || kind == KIND_BIG_INTEGER) && tag == null) {
+            return new DataLongComparison(entry, op, opTag, data, other, dataFirst);
+        }
+        if (kind == KIND_DATE && opTag != null && opTag.getValue() == DATE_TAG) {
+            return new DataDateComparison(entry, op, opTag, data, other, dataFirst);
+        }
+        if (kind == KIND_STRING && tag == null && (op == EQUAL || op == NOT_EQUAL)) {
+            return new DataStringComparison(entry, op, opTag, data, other, dataFirst);
+        }
+        return new StackOperator(entry, op, opTag, query.verified[pc], a, b);
+    }
+
+    /** Returns {@code node} as a predicate if its value is always a boolean, or null. */
+    private static Predicate asPredicate(CompiledQuery query, Node node) {
+        if (node instanceof Predicate) {
+            return (Predicate) node;
+        }
+        if (!(node instanceof SlotLeaf)) {
+            return null;
+        }
+        SlotLeaf leaf = (SlotLeaf) node;
+        boolean isBoolean = (leaf.constants != null) ?
+                            leaf.constants.kinds[leaf.slot] == KIND_BOOLEAN :
+                            query.parameterLayout.types[leaf.slot] == TYPE_BOOLEAN &&
+                            query.parameterLayout.tags[leaf.slot] == null;
+        return isBoolean ? new BooleanSlot(leaf) : null;
+    }
+
+    /** An error, thrown to the root without a stack trace. */
+    private static final class Rejection extends Exception {
+
+        final QueryError error;
+        final int entry;
+
+        Rejection(QueryError error, int entry) {
+            super(null, null, false, false);
+            this.error = error;
+            this.entry = entry;
+        }
+    }
+
+    /** A subexpression, whose value can be pushed on the stack for generic operators. */
+    abstract static class Node {
+
+        final int entry;
+
+        Node(int entry) {
+            this.entry = entry;
+        }
+
+        abstract void push(ExecutionContext context, TypedValues parameters,
+                           DataSet dataElements) throws Rejection;
+    }
+
+    /** A subexpression whose value, if it has one, is always a boolean. */
+    abstract static class Predicate extends Node {
+
+        Predicate(int entry) {
+            super(entry);
+        }
+
+        abstract boolean test(ExecutionContext context, TypedValues parameters,
+                              DataSet dataElements) throws Rejection;
+
+        @Override
+        final void push(ExecutionContext context, TypedValues parameters, DataSet dataElements)
+                throws Rejection {
+            boolean value = test(context, parameters, dataElements);
+            context.stack.pushBoolean(value);
+        }
+    }
+
+    static final class DataLeaf extends Node {
+
+        final DataItem reference;
+
+        DataLeaf(int entry, DataItem reference) {
+            super(entry);
+            this.reference = reference;
+        }
+
+        @Override
+        void push(ExecutionContext context, TypedValues parameters, DataSet dataElements)
+                throws Rejection {
+            context.dataLookups++;
+            DataItem element = dataElements.getDataElement(reference);
+            if (element == null) {
+                throw new Rejection(QueryError.UNKNOWN_DATA_ELEMENT, entry);
+            }
+            QueryError error = context.stack.push(element);
+            if (error != null) {
+                throw new Rejection(error, entry);
+            }
+            context.entriesExecuted++;
+        }
+    }
+
+    /** A parameter slot, if {@code constants} is null, or else a constant slot. */
+    static final class SlotLeaf extends Node {
+
+        final TypedValues constants;
+        final int slot;
+
+        SlotLeaf(int entry, TypedValues constants, int slot) {
+            super(entry);
+            this.constants = constants;
+            this.slot = slot;
+        }
+
+        @Override
+        void push(ExecutionContext context, TypedValues parameters, DataSet dataElements) {
+            context.stack.push((constants != null) ? constants : parameters, slot);
+            context.entriesExecuted++;
+        }
+    }
+
+    static final class BooleanSlot extends Predicate {
+
+        private final TypedValues constants;
+        private final int slot;
+
+        BooleanSlot(SlotLeaf leaf) {
+            super(leaf.entry);
+            this.constants = leaf.constants;
+            this.slot = leaf.slot;
+        }
+
+        @Override
+        boolean test(ExecutionContext context, TypedValues parameters, DataSet dataElements) {
+            context.entriesExecuted++;
+            return ((constants != null) ? constants : parameters).booleans[slot];
+        }
+    }
+
+    static final class And extends Predicate {
+
+        private final int skippedDataLookups;
+        private final Predicate a;
+        private final Predicate b;
+
+        And(int entry, int skippedDataLookups, Predicate a, Predicate b) {
+            super(entry);
+            this.skippedDataLookups = skippedDataLookups;
+            this.a = a;
+            this.b = b;
+        }
+
+        @Override
+        boolean test(ExecutionContext context, TypedValues parameters, DataSet dataElements)
+                throws Rejection {
+            if (!a.test(context, parameters, dataElements)) {
+                context.skippedDataLookups += skippedDataLookups;
+                return false;
+            }
+            boolean result = b.test(context, parameters, dataElements);
+            context.entriesExecuted++;
+            return result;
+        }
+    }
+
+    static final class Or extends Predicate {
+
+        private final int skippedDataLookups;
+        private final Predicate a;
+        private final Predicate b;
+
+        Or(int entry, int skippedDataLookups, Predicate a, Predicate b) {
+            super(entry);
+            this.skippedDataLookups = skippedDataLookups;
+            this.a = a;
+            this.b = b;
+        }
+
+        @Override
+        boolean test(ExecutionContext context, TypedValues parameters, DataSet dataElements)
+                throws Rejection {
+            if (a.test(context, parameters, dataElements)) {
+                context.skippedDataLookups += skippedDataLookups;
+                return true;
+            }
+            boolean result = b.test(context, parameters, dataElements);
+            context.entriesExecuted++;
+            return result;
+        }
+    }
+
+    static final class Not extends Predicate {
+
+        private final Predicate a;
+
+        Not(int entry, Predicate a) {
+            super(entry);
+            this.a = a;
+        }
+
+        @Override
+        boolean test(ExecutionContext context, TypedValues parameters, DataSet dataElements)
+                throws Rejection {
+            boolean result = !a.test(context, parameters, dataElements);
+            context.entriesExecuted++;
+            return result;
+        }
+    }
+
+    /** Any operator, applied on the stack exactly as the instruction loop applies it. */
+    static final class StackOperator extends Predicate {
+
+        private final int op;
+        private final Tag opTag;
+        private final boolean verified;
+        private final Node a;
+        // Null for UNARY_NOT.
+        private final Node b;
+
+        StackOperator(int entry, int op, Tag opTag, boolean verified, Node a, Node b) {
+            super(entry);
+            this.op = op;
+            this.opTag = opTag;
+            this.verified = verified;
+            this.a = a;
+            this.b = b;
+        }
+
+        @Override
+        boolean test(ExecutionContext context, TypedValues parameters, DataSet dataElements)
+                throws Rejection {
+            a.push(context, parameters, dataElements);
+            if (b != null) {
+                b.push(context, parameters, dataElements);
+            }
+            return apply(context, op, opTag, verified, b == null, entry);
+        }
+    }
+
+    /** {@code AND} or {@code OR} with an operand that may not be a boolean. */
+    static final class StackLogical extends Predicate {
+
+        private final int op;
+        private final Tag opTag;
+        private final boolean verified;
+        private final int skippedDataLookups;
+        private final Node a;
+        private final Node b;
+
+        StackLogical(int entry, int op, Tag opTag, boolean verified, int skippedDataLookups,
+                     Node a, Node b) {
+            super(entry);
+            this.op = op;
+            this.opTag = opTag;
+            this.verified = verified;
+            this.skippedDataLookups = skippedDataLookups;
+            this.a = a;
+            this.b = b;
+        }
+
+        @Override
+        boolean test(ExecutionContext context, TypedValues parameters, DataSet dataElements)
+                throws Rejection {
+            a.push(context, parameters, dataElements);
+            if (context.stack.isTopBoolean(op == OR)) {
+                context.skippedDataLookups += skippedDataLookups;
+                return context.stack.popBoolean();
+            }
+            b.push(context, parameters, dataElements);
+            return apply(context, op, opTag, verified, false, entry);
+        }
+    }
+
+    /** Applies an operator to the operands on top of the stack, and pops its result. */
+    private static boolean apply(ExecutionContext context, int op, Tag opTag, boolean verified,
+                                 boolean unary, int entry) throws Rejection {
+        OperandStack stack = context.stack;
+        if (verified) {
+            if (unary) {
+                stack.applyVerifiedUnaryNot();
+            } else {
+                stack.applyVerifiedBinaryOperator(op);
+            }
+        } else {
+            QueryError error = unary ? stack.applyUnaryNot() : stack.applyBinaryOperator(op, opTag);
+            if (error != null) {
+                throw new Rejection(error, entry);
+            }
+        }
+        context.entriesExecuted++;
+        return stack.popBoolean();
+    }
+
+    /**
+     * A comparison of a data element with a parameter or constant.  Subclasses compare the
+     * values they expect directly, and leave any others to {@link #applyOnStack}.
+     */
+    abstract static class DataComparison extends Predicate {
+
+        final int op;
+        final Tag opTag;
+        final DataItem reference;
+        final int dataEntry;
+        final TypedValues constants;
+        final int slot;
+        // Whether the data element is the first operand.
+        final boolean dataFirst;
+        // The result for each ordering of the first operand against the second.
+        private final boolean less;
+        private final boolean equal;
+        private final boolean greater;
+
+        DataComparison(int entry, int op, Tag opTag, DataLeaf data, SlotLeaf other,
+                       boolean dataFirst) {
+            super(entry);
+            this.op = op;
+            this.opTag = opTag;
+            this.reference = data.reference;
+            this.dataEntry = data.entry;
+            this.constants = other.constants;
+            this.slot = other.slot;
+            this.dataFirst = dataFirst;
+            less = op == LESS_THAN || op == LESS_OR_EQUAL || op == NOT_EQUAL;
+            equal = op == LESS_OR_EQUAL || op == EQUAL || op == GREATER_OR_EQUAL;
+            greater = op == GREATER_THAN || op == GREATER_OR_EQUAL || op == NOT_EQUAL;
+        }
+
+        final DataItem getDataElement(ExecutionContext context, DataSet dataElements)
+                throws Rejection {
+            context.dataLookups++;
+            DataItem element = dataElements.getDataElement(reference);
+            if (element == null) {
+                // A first operand that is not the element has already been pushed.
+                context.entriesExecuted += dataFirst ? 0 : 1;
+                throw new Rejection(QueryError.UNKNOWN_DATA_ELEMENT, dataEntry);
+            }
+            return element;
+        }
+
+        final TypedValues values(TypedValues parameters) {
+            return (constants != null) ? constants : parameters;
+        }
+
+        /** Returns the result for the data element comparing as {@code ordering} to the other. */
+        final boolean decide(int ordering) {
+            if (!dataFirst) {
+                ordering = -ordering;
+            }
+            return (ordering < 0) ? less : (ordering == 0) ? equal : greater;
+        }
+
+        final boolean applyOnStack(ExecutionContext context, TypedValues values,
+                                   DataItem element) throws Rejection {
+            OperandStack stack = context.stack;
+            if (!dataFirst) {
+                stack.push(values, slot);
+            }
+            QueryError error = stack.push(element);
+            if (error != null) {
+                context.entriesExecuted += dataFirst ? 0 : 1;
+                throw new Rejection(error, dataEntry);
+            }
+            if (dataFirst) {
+                stack.push(values, slot);
+            }
+            context.entriesExecuted += 2;
+            return apply(context, op, opTag, false, false, entry);
+        }
+    }
+
+    /** An ordering of an integer data element against an untagged integer. */
+    static final class DataLongComparison extends DataComparison {
+
+        DataLongComparison(int entry, int op, Tag opTag, DataLeaf data, SlotLeaf other,
+                           boolean dataFirst) {
+            super(entry, op, opTag, data, other, dataFirst);
+        }
+
+        @Override
+        boolean test(ExecutionContext context, TypedValues parameters, DataSet dataElements)
+                throws Rejection {
+            DataItem element = getDataElement(context, dataElements);
+            TypedValues values = values(parameters);
+            if (element instanceof Number && element.getTag() == null &&
+                values.kinds[slot] == KIND_LONG) {
+                BigInteger value = ((Number) element).getValue();
+                if (value.bitLength() < Long.SIZE) {
+                    context.entriesExecuted += 3;
+                    return decide(Long.compare(value.longValue(), values.longs[slot]));
+                }
+            }
+            return applyOnStack(context, values, element);
+        }
+    }
+
+    /** An ordering of a date data element against a date, under a date operator tag. */
+    static final class DataDateComparison extends DataComparison {
+
+        DataDateComparison(int entry, int op, Tag opTag, DataLeaf data, SlotLeaf other,
+                           boolean dataFirst) {
+            super(entry, op, opTag, data, other, dataFirst);
+        }
+
+        @Override
+        boolean test(ExecutionContext context, TypedValues parameters, DataSet dataElements)
+                throws Rejection {
+            DataItem element = getDataElement(context, dataElements);
+            TypedValues values = values(parameters);
+            if (ParameterSet.isDate(element) && values.kinds[slot] == KIND_DATE) {
+                long epochDay = Dates.toEpochDay(((UnicodeString) element).getString());
+                if (epochDay != Dates.INVALID) {
+                    context.entriesExecuted += 3;
+                    return decide(Long.compare(epochDay, values.longs[slot]));
+                }
+            }
+            return applyOnStack(context, values, element);
+        }
+    }
+
+    /** An {@code EQUAL} or {@code NOT_EQUAL} of a string data element and an untagged string. */
+    static final class DataStringComparison extends DataComparison {
+
+        DataStringComparison(int entry, int op, Tag opTag, DataLeaf data, SlotLeaf other,
+                             boolean dataFirst) {
+            super(entry, op, opTag, data, other, dataFirst);
+        }
+
+        @Override
+        boolean test(ExecutionContext context, TypedValues parameters, DataSet dataElements)
+                throws Rejection {
+            DataItem element = getDataElement(context, dataElements);
+            TypedValues values = values(parameters);
+            if (element instanceof UnicodeString && element.getTag() == null &&
+                values.kinds[slot] == KIND_STRING) {
+                context.entriesExecuted += 3;
+                return decide(Utf8String.equal(values.refs[slot],
+                        ((UnicodeString) element).getString()) ? 0 : 1);
+            }
+            return applyOnStack(context, values, element);
+        }
+    }
+}
@@ -0,0 +1,404 @@
+package com.androidx.identity_credential.query;
+
+import co.nstant.in.cbor.model.Array;
+import co.nstant.in.cbor.model.DataItem;
+import co.nstant.in.cbor.model.Number;
+import co.nstant.in.cbor.model.Tag;
+import co.nstant.in.cbor.model.UnicodeString;
+
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import static com.androidx.identity_credential.query.ICQueryExecutor.*;
+
+/**
+ * Translates a query {@link Array} into a {@link CompiledQuery}, performing all of the structural
+ * checks that the interpreter otherwise repeats on every execution.
+ *
+ * <p>Compilation runs in three steps: the postfix entries are parsed into a tree of
+ * {@link QueryNode}s, the tree is type checked by a {@link QueryVerifier}, then it is emitted as
+ * a flat program.  {@code AND} and {@code OR} are emitted with a conditional jump after their
+ * first operand, so that the second operand is not evaluated once the first has decided the
+ * result.
+ */
+final class QueryCompiler {
+
+    private static final BigInteger MAX_OPERATOR = BigInteger.valueOf(UNARY_NOT);
+
+    private final Array query;
+
+    // Parse results: the root of the tree and its verifier, or else the reason the query was
+    // rejected, the offending entry and a value for the message.
+    private QueryNode root;
+    private final QueryVerifier verifier = new QueryVerifier();
+    QueryError error;
+    int errorEntry;
+    private Object errorDetail;
+
+    private int[] opcodes;
+    private int[] operands;
+    private Tag[] operatorTags;
+    private int[] skippedDataReferences;
+    private int[] entryIndices;
+    private boolean[] verified;
+    private int size;
+
+    private final List<DataItem> dataReferences = new ArrayList<>();
+    private final Map<DataItem, Integer> dataReferenceIndices = new HashMap<>();
+
+    private final List<DataItem> constants = new ArrayList<>();
+    private final Map<DataItem, Integer> constantIndices = new HashMap<>();
+
+    private final List<String> parameterNames = new ArrayList<>();
+    private final List<Integer> parameterTypes = new ArrayList<>();
+    private final List<Tag> parameterTags = new ArrayList<>();
+
+    QueryCompiler(Array query) {
+        this.query = query;
+    }
+
+    static CompiledQuery compile(Array query) throws QueryException {
+        QueryCompiler compiler = new QueryCompiler(query);
+        CompiledQuery compiled = compiler.compile();
+        if (compiled == null) {
+            throw compiler.toException();
+        }
+        return compiled;
+    }
+
+    /** Compiles a tree that has already been parsed, and possibly rewritten. */
+    static CompiledQuery compile(QueryNode root) throws QueryException {
+        QueryCompiler compiler = new QueryCompiler(null);
+        compiler.root = root;
+        if (!compiler.verify()) {
+            throw compiler.toException();
+        }
+        return compiler.emitProgram(8);
+    }
+
+    static QueryNode parse(Array query) throws QueryException {
+        QueryCompiler compiler = new QueryCompiler(query);
+        if (!compiler.parse() || !compiler.verify()) {
+            throw compiler.toException();
+        }
+        return compiler.root;
+    }
+
+    /**
+     * Compiles the query, or returns null and sets {@link #error} and {@link #errorEntry} if it
+     * is malformed or ill-typed.  No exception is constructed either way.
+     */
+    CompiledQuery compile() {
+        if (!parse() || !verify()) {
+            return null;
+        }
+        return emitProgram(query.getDataItems().size());
+    }
+
+    private CompiledQuery emitProgram(int capacity) {
+        opcodes = new int[capacity];
+        operands = new int[capacity];
+        operatorTags = new Tag[capacity];
+        skippedDataReferences = new int[capacity];
+        entryIndices = new int[capacity];
+        verified = new boolean[capacity];
+        emit(root);
+        return build();
+    }
+
+    /** Parses the query into a tree, checking its structure but not its types. */
+    private boolean parse() {
+        List<DataItem> entries = query.getDataItems();
+        Deque<QueryNode> stack = new ArrayDeque<>();
+        for (int i = 0; i < entries.size(); i++) {
+            DataItem entry = entries.get(i);
+            Tag tag = entry.getTag();
+            if (tag == null) {
+                return fail(QueryError.MISSING_TAG, i, null);
+            }
+
+            // Same outermost-tag rule as the interpreter: operators may carry a type tag inside
+            // the OPERATOR tag.
+            if (tag.getTag() != null) {
+                tag = tag.getTag();
+            }
+
+            switch ((int) tag.getValue()) {
+                case DATA_REF:
+                    stack.push(QueryNode.dataReference(i, entry));
+                    break;
+
+                case PARAM_REF: {
+                    QueryNode node = parseParameterReference(i, entry);
+                    if (node == null) {
+                        return false;
+                    }
+                    stack.push(node);
+                    break;
+                }
+
+                case OPERATOR: {
+                    if (!(entry instanceof Number)) {
+                        return fail(QueryError.INVALID_OPERATOR, i, null);
+                    }
+                    BigInteger value = ((Number) entry).getValue();
+                    if (value.signum() < 0 || value.compareTo(MAX_OPERATOR) > 0) {
+                        return fail(QueryError.INVALID_OPERATOR, i, value);
+                    }
+                    int operator = value.intValue();
+                    int arity = (operator == UNARY_NOT) ? 1 : 2;
+                    if (stack.size() < arity) {
+                        return fail(QueryError.MISSING_OPERANDS, i, null);
+                    }
+                    if (arity == 1) {
+                        stack.push(QueryNode.operator(i, operator, entry.getTag(), stack.pop()));
+                    } else {
+                        QueryNode operandB = stack.pop();
+                        QueryNode operandA = stack.pop();
+                        stack.push(QueryNode.operator(i, operator, entry.getTag(), operandA,
+                                operandB));
+                    }
+                    break;
+                }
+
+                default:
+                    return fail(QueryError.INVALID_TAG, i, null);
+            }
+        }
+
+        if (stack.size() != 1) {
+            return fail(QueryError.UNBALANCED_STACK, entries.size() - 1, stack.size());
+        }
+        root = stack.pop();
+        return true;
+    }
+
+    private boolean verify() {
+        if (!verifier.verify(root)) {
+            return fail(verifier.error, verifier.errorEntry, null);
+        }
+        return true;
+    }
+
+    private QueryNode parseParameterReference(int entryIndex, DataItem entry) {
+        if (!(entry instanceof Array)) {
+            fail(QueryError.INVALID_PARAMETER_REFERENCE, entryIndex, "must be an array");
+            return null;
+        }
+        List<DataItem> items = ((Array) entry).getDataItems();
+        if (items.size() != 2) {
+            fail(QueryError.INVALID_PARAMETER_REFERENCE, entryIndex,
+                    "must contain two data items");
+            return null;
+        }
+        if (!(items.get(0) instanceof UnicodeString) || !(items.get(1) instanceof Number)) {
+            fail(QueryError.INVALID_PARAMETER_REFERENCE, entryIndex,
+                    "must contain a name and a type specifier");
+            return null;
+        }
+
+        Number type = (Number) items.get(1);
+        int typeValue = type.getValue().intValue();
+        if (typeValue != TYPE_INTEGER && typeValue != TYPE_STRING && typeValue != TYPE_BOOLEAN) {
+            fail(QueryError.INVALID_PARAMETER_REFERENCE, entryIndex, type.getValue());
+            return null;
+        }
+        return QueryNode.parameterReference(entryIndex, ((UnicodeString) items.get(0)).getString(),
+                typeValue, type.getTag());
+    }
+
+    private boolean fail(QueryError error, int entryIndex, Object detail) {
+        this.error = error;
+        this.errorEntry = entryIndex;
+        this.errorDetail = detail;
+        return false;
+    }
+
+    QueryException toException() {
+        if (verifier.error != null) {
+            return verifier.toException();
+        }
+        String message;
+        switch (error) {
+            case MISSING_TAG:
+                message = "Invalid query entry: missing tag.";
+                break;
+
+            case INVALID_TAG:
+                message = "Invalid query entry: invalid tag.";
+                break;
+
+            case INVALID_OPERATOR:
+                message = (errorDetail == null) ? "Invalid query: non-integer operator" :
+                          "Invalid query: unknown operator " + errorDetail;
+                break;
+
+            case MISSING_OPERANDS:
+                message = "Invalid query: operator at entry " + errorEntry +
+                          " is missing operands";
+                break;
+
+            case UNBALANCED_STACK:
+                message = "Invalid query: " + errorDetail + " stack elements remaining";
+                break;
+
+            default:
+                message = (errorDetail instanceof String) ?
+                          "Invalid parameter reference, " + errorDetail :
+                          "Invalid parameter reference, unknown type specifier " + errorDetail;
+                break;
+        }
+        return new QueryException(error, message);
+    }
+
+    /**
+     * Emits the tree in postfix order.  The tree is walked with an explicit stack of frames, since
+     * queries may nest arbitrarily deep.
+     */
+    private void emit(QueryNode root) {
+        Deque<Frame> frames = new ArrayDeque<>();
+        frames.push(new Frame(root));
+        while (!frames.isEmpty()) {
+            Frame frame = frames.peek();
+            QueryNode node = frame.node;
+            if (node.kind != OPERATOR) {
+                frames.pop();
+                emitValue(node);
+                continue;
+            }
+
+            boolean logical = node.operator == AND || node.operator == OR;
+            if (frame.next < node.operands.length) {
+                if (logical && frame.next == 1) {
+                    frame.jump = append(node.operator == AND ? CompiledQuery.OP_JUMP_IF_FALSE :
+                                        CompiledQuery.OP_JUMP_IF_TRUE, 0, null, node.entryIndex);
+                }
+                frames.push(new Frame(node.operands[frame.next++]));
+                continue;
+            }
+            frames.pop();
+            appendOperator(node);
+            if (logical) {
+                operands[frame.jump] = size;
+                skippedDataReferences[frame.jump] = node.operands[1].dataReferenceCount;
+            }
+        }
+    }
+
+    private void emitValue(QueryNode node) {
+        switch (node.kind) {
+            case DATA_REF:
+                append(CompiledQuery.OP_DATA_REF, addDataReference(node.dataReference), null,
+                        node.entryIndex);
+                break;
+
+            case PARAM_REF:
+                append(CompiledQuery.OP_PARAM_REF, addParameterReference(node), null,
+                        node.entryIndex);
+                break;
+
+            default:
+                append(CompiledQuery.OP_CONST, addConstant(node.constant), null, node.entryIndex);
+                break;
+        }
+    }
+
+    private void appendOperator(QueryNode node) {
+        int index = append(node.operator, 0, node.operatorTag, node.entryIndex);
+        verified[index] = verifier.isVerified(node);
+    }
+
+    private int append(int opcode, int operand, Tag operatorTag, int entryIndex) {
+        if (size == opcodes.length) {
+            int capacity = Math.max(8, size * 2);
+            opcodes = Arrays.copyOf(opcodes, capacity);
+            operands = Arrays.copyOf(operands, capacity);
+            operatorTags = Arrays.copyOf(operatorTags, capacity);
+            skippedDataReferences = Arrays.copyOf(skippedDataReferences, capacity);
+            entryIndices = Arrays.copyOf(entryIndices, capacity);
+            verified = Arrays.copyOf(verified, capacity);
+        }
+        opcodes[size] = opcode;
+        operands[size] = operand;
+        operatorTags[size] = operatorTag;
+        entryIndices[size] = entryIndex;
+        return size++;
+    }
+
+    private int addDataReference(DataItem entry) {
+        Integer index = dataReferenceIndices.get(entry);
+        if (index == null) {
+            index = dataReferences.size();
+            dataReferences.add(entry);
+            dataReferenceIndices.put(entry, index);
+        }
+        return index;
+    }
+
+    private int addConstant(DataItem value) {
+        Integer index = constantIndices.get(value);
+        if (index == null) {
+            index = constants.size();
+            constants.add(value);
+            constantIndices.put(value, index);
+        }
+        return index;
+    }
+
+    private int addParameterReference(QueryNode node) {
+        for (int i = 0; i < parameterNames.size(); i++) {
+            if (parameterNames.get(i).equals(node.parameterName) &&
+                parameterTypes.get(i) == node.parameterType &&
+                Objects.equals(parameterTags.get(i), node.parameterTag)) {
+                return i;
+            }
+        }
+        parameterNames.add(node.parameterName);
+        parameterTypes.add(node.parameterType);
+        parameterTags.add(node.parameterTag);
+        return parameterNames.size() - 1;
+    }
+
+    private CompiledQuery build() {
+        int[] types = new int[parameterTypes.size()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = parameterTypes.get(i);
+        }
+        // Constants come from parameters whose dates were checked as they were folded.
+        TypedValues constantValues = new TypedValues(constants.size());
+        for (int i = 0; i < constants.size(); i++) {
+            constantValues.set(i, constants.get(i));
+            // Folded parameters may be specific to one request, so they only look up ids.
+            if (constantValues.kinds[i] == TypedValues.KIND_STRING) {
+                constantValues.stringIds[i] =
+                        StringDictionary.lookup((String) constantValues.refs[i]);
+            }
+        }
+        return new CompiledQuery(Arrays.copyOf(opcodes, size), Arrays.copyOf(operands, size),
+                Arrays.copyOf(operatorTags, size), Arrays.copyOf(skippedDataReferences, size),
+                Arrays.copyOf(entryIndices, size), Arrays.copyOf(verified, size),
+                dataReferences.toArray(new DataItem[0]), constantValues,
+                new ParameterLayout(parameterNames.toArray(new String[0]), types,
+                        parameterTags.toArray(new Tag[0])),
+                verifier.getMaxDepth(), root);
+    }
+
+    /** A node being emitted, with its next operand and the jump emitted after its first. */
+    private static final class Frame {
+
+        final QueryNode node;
+        int next;
+        int jump;
+
+        Frame(QueryNode node) {
+            this.node = node;
+        }
+    }
+}
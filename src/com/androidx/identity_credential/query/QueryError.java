@@ -0,0 +1,65 @@
+package com.androidx.identity_credential.query;
+
+/**
+ * Stable reason codes for rejected queries, carried by {@link QueryException}.  Messages may
+ * change between releases; these codes do not.
+ */
+public enum QueryError {
+    /** Not otherwise classified. */
+    OTHER,
+
+    /** The query could not be decoded or encoded as a CBOR array. */
+    MALFORMED_QUERY,
+    /** An entry has no tag. */
+    MISSING_TAG,
+    /** An entry's tag is not a data reference, parameter reference or operator. */
+    INVALID_TAG,
+    /** An operator entry is not an integer or names no known operator. */
+    INVALID_OPERATOR,
+    /** An operator has fewer operands on the stack than it takes. */
+    MISSING_OPERANDS,
+    /** The query leaves other than exactly one value on the stack. */
+    UNBALANCED_STACK,
+
+    /** A parameter reference is not a name and a known type specifier. */
+    INVALID_PARAMETER_REFERENCE,
+    /** A parameter reference names no parameter in the {@link ParameterSet}. */
+    UNKNOWN_PARAMETER,
+    /** A parameter's value is not of the type the query declares. */
+    PARAMETER_TYPE_MISMATCH,
+    /** A parameter's tag is not the tag the query declares. */
+    PARAMETER_TAG_MISMATCH,
+    /** {@link BoundParameters} were bound to a different layout than the query's. */
+    PARAMETER_LAYOUT_MISMATCH,
+
+    /** A data reference names no element in the {@link DataSet}. */
+    UNKNOWN_DATA_ELEMENT,
+
+    /** The two operands of an operator have different tags. */
+    OPERAND_TAG_MISMATCH,
+    /** The operands' tag differs from the operator's type tag. */
+    OPERATOR_TAG_MISMATCH,
+    /** The operands of an operator are of different types, or not the type it requires. */
+    OPERAND_TYPE_MISMATCH,
+    /** The operator does not apply to operands of this type. */
+    OPERATOR_TYPE_MISMATCH,
+    /** No operator applies to operands of this type. */
+    UNSUPPORTED_OPERAND_TYPE,
+    /** A date value is not a well-formed full-date. */
+    MALFORMED_DATE,
+    /** The query's result is not a boolean. */
+    RESULT_NOT_BOOLEAN,
+
+    /** The query has more entries than its {@link ExecutionLimits} allow. */
+    TOO_MANY_ENTRIES,
+    /** Evaluating the query would hold more values on the stack than its limits allow. */
+    STACK_TOO_DEEP,
+    /** The query would look up more data elements than its limits allow. */
+    TOO_MANY_DATA_LOOKUPS,
+    /** The query would look up more parameters than its limits allow. */
+    TOO_MANY_PARAMETER_LOOKUPS,
+    /** An operator would compare a string longer than the limits allow. */
+    STRING_TOO_LONG,
+    /** The evaluation did not finish within the time its limits allow. */
+    DEADLINE_EXCEEDED,
+}
@@ -1,7 +1,18 @@
 package com.androidx.identity_credential.query;
 
 public class QueryException extends Exception {
+    private final QueryError error;
+
     public QueryException(String message) {
+        this(QueryError.OTHER, message);
+    }
+
+    public QueryException(QueryError error, String message) {
         super(message);
+        this.error = error;
+    }
+
+    public QueryError getError() {
+        return error;
     }
 }
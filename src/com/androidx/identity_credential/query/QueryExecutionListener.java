@@ -0,0 +1,27 @@
+package com.androidx.identity_credential.query;
+
+/**
+ * Receives per-query events from an {@link ICQueryExecutor} it was constructed with.
+ *
+ * <p>Callbacks are made synchronously on the evaluating thread, possibly from many threads at
+ * once, so implementations must be thread-safe and should be cheap.  Every method defaults to
+ * doing nothing.  An executor without a listener does not read the clock or make any of these
+ * calls.
+ *
+ * <p>Each evaluation reports {@link #onQueryStart}, then any lookups, then exactly one of
+ * {@link #onQueryEnd} or {@link #onQueryRejected}.  Entry counts include only the entries that
+ * completed, not one that failed or any skipped by short-circuiting.
+ */
+public interface QueryExecutionListener {
+
+    default void onQueryStart() {}
+
+    default void onQueryEnd(long elapsedNanos, int entriesExecuted, boolean result) {}
+
+    default void onQueryRejected(QueryError reason, long elapsedNanos, int entriesExecuted) {}
+
+    /** Called after each {@link DataSet#getDataElement} call, whether or not it succeeded. */
+    default void onDataLookup(long elapsedNanos) {}
+
+    default void onParameterLookup() {}
+}
@@ -0,0 +1,331 @@
+package com.androidx.identity_credential.query;
+
+import co.nstant.in.cbor.model.Array;
+import co.nstant.in.cbor.model.DataItem;
+import co.nstant.in.cbor.model.SimpleValue;
+import co.nstant.in.cbor.model.Tag;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.androidx.identity_credential.query.ICQueryExecutor.*;
+
+/**
+ * A set of queries that are evaluated together against the same parameters and data set.
+ *
+ * <p>The queries are merged into one expression graph in which structurally identical
+ * subexpressions, including data and parameter references, are a single node.  Each node is
+ * evaluated at most once per call, so every distinct data element is fetched from the
+ * {@link DataSet} at most once however many queries refer to it.  {@code AND} and {@code OR}
+ * short-circuit in the same way as {@link CompiledQuery}.  Each query has a result of its own, so
+ * a query that fails, for example because a data element it reads is missing, does not prevent
+ * the others from being answered.
+ */
+public final class QueryGroup {
+
+    private final int[] kinds;
+    private final int[] operators;
+    private final Tag[] operatorTags;
+    private final int[] leftOperands;
+    private final int[] rightOperands;
+    private final DataItem[] dataReferences;
+    private final List<DataItem> distinctDataReferences;
+    private final String[] parameterNames;
+    private final int[] parameterTypes;
+    private final Tag[] parameterTags;
+    private final int[] roots;
+    // For each query, the node of each of its entries, to report where an error arose.
+    private final int[][] entryNodes;
+
+    private QueryGroup(Builder builder, int[] roots, int[][] entryNodes) {
+        int size = builder.kinds.size();
+        kinds = new int[size];
+        operators = new int[size];
+        leftOperands = new int[size];
+        rightOperands = new int[size];
+        parameterTypes = new int[size];
+        List<DataItem> references = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            kinds[i] = builder.kinds.get(i);
+            operators[i] = builder.operators.get(i);
+            leftOperands[i] = builder.leftOperands.get(i);
+            rightOperands[i] = builder.rightOperands.get(i);
+            parameterTypes[i] = builder.parameterTypes.get(i);
+            if (kinds[i] == DATA_REF) {
+                references.add(builder.dataReferences.get(i));
+            }
+        }
+        operatorTags = builder.operatorTags.toArray(new Tag[0]);
+        dataReferences = builder.dataReferences.toArray(new DataItem[0]);
+        parameterNames = builder.parameterNames.toArray(new String[0]);
+        parameterTags = builder.parameterTags.toArray(new Tag[0]);
+        distinctDataReferences = Collections.unmodifiableList(references);
+        this.roots = roots;
+        this.entryNodes = entryNodes;
+    }
+
+    static QueryGroup compile(List<Array> queries) throws QueryException {
+        Builder builder = new Builder();
+        int[] roots = new int[queries.size()];
+        int[][] entryNodes = new int[queries.size()][];
+        for (int i = 0; i < roots.length; i++) {
+            entryNodes[i] = new int[queries.get(i).getDataItems().size()];
+            roots[i] = builder.add(QueryCompiler.parse(queries.get(i)), entryNodes[i]);
+        }
+        return new QueryGroup(builder, roots, entryNodes);
+    }
+
+    public int getQueryCount() {
+        return roots.length;
+    }
+
+    /** Returns the number of distinct subexpressions across all of the queries. */
+    public int getNodeCount() {
+        return kinds.length;
+    }
+
+    /** Returns the result of each query, in the order they were compiled. */
+    QueryResult[] evaluate(ParameterSet parameters, DataSet dataElements) {
+        if (!distinctDataReferences.isEmpty()) {
+            dataElements.prefetch(distinctDataReferences);
+        }
+        Evaluation evaluation = new Evaluation(parameters, dataElements);
+        QueryResult[] results = new QueryResult[roots.length];
+        for (int i = 0; i < roots.length; i++) {
+            int root = roots[i];
+            evaluation.evaluate(root);
+            if (evaluation.errors[root] == null) {
+                try {
+                    results[i] = QueryResult.of(toResult(evaluation.values[root]));
+                    continue;
+                } catch (QueryException e) {
+                    evaluation.fail(root, e.getError(), root);
+                }
+            }
+            results[i] = QueryResult.error(evaluation.errors[root],
+                    entryIndex(i, evaluation.errorNodes[root]));
+        }
+        return results;
+    }
+
+    /** Returns the first entry of query {@code query} that is {@code node}. */
+    private int entryIndex(int query, int node) {
+        int[] nodes = entryNodes[query];
+        for (int i = 0; i < nodes.length; i++) {
+            if (nodes[i] == node) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private class Evaluation {
+        private final ParameterSet parameters;
+        private final DataSet dataElements;
+        private final DataItem[] values = new DataItem[kinds.length];
+        // The error of each node that failed, and the node it arose at.
+        private final QueryError[] errors = new QueryError[kinds.length];
+        private final int[] errorNodes = new int[kinds.length];
+
+        Evaluation(ParameterSet parameters, DataSet dataElements) {
+            this.parameters = parameters;
+            this.dataElements = dataElements;
+        }
+
+        /**
+         * Evaluates {@code root}, unless this call already has, leaving its value or error in
+         * {@link #values} or {@link #errors}.  The graph is walked with an explicit stack of
+         * frames, since queries may nest arbitrarily deep.
+         */
+        void evaluate(int root) {
+            Deque<Frame> frames = new ArrayDeque<>();
+            frames.push(new Frame(root));
+            while (!frames.isEmpty()) {
+                Frame frame = frames.peek();
+                int node = frame.node;
+                if (isDone(node)) {
+                    frames.pop();
+                    continue;
+                }
+                if (kinds[node] != OPERATOR) {
+                    frames.pop();
+                    computeValue(node);
+                    continue;
+                }
+
+                // Each operand is evaluated in turn, stopping at the first that fails.
+                int operand = (frame.next == 0) ? leftOperands[node] : rightOperands[node];
+                if (!isDone(operand)) {
+                    frames.push(new Frame(operand));
+                    continue;
+                }
+                if (errors[operand] != null) {
+                    frames.pop();
+                    fail(node, errors[operand], errorNodes[operand]);
+                    continue;
+                }
+                if (frame.next == 0 && needsSecondOperand(node)) {
+                    frame.next = 1;
+                    continue;
+                }
+                frames.pop();
+                computeOperator(node);
+            }
+        }
+
+        private boolean isDone(int node) {
+            return values[node] != null || errors[node] != null;
+        }
+
+        private void fail(int node, QueryError error, int errorNode) {
+            errors[node] = error;
+            errorNodes[node] = errorNode;
+        }
+
+        /** Returns whether the first operand of {@code node} leaves its result undecided. */
+        private boolean needsSecondOperand(int node) {
+            DataItem operandA = values[leftOperands[node]];
+            switch (operators[node]) {
+                case UNARY_NOT:
+                    return false;
+
+                case AND:
+                    return !SimpleValue.FALSE.equals(operandA);
+
+                case OR:
+                    return !SimpleValue.TRUE.equals(operandA);
+
+                default:
+                    return true;
+            }
+        }
+
+        private void computeValue(int node) {
+            try {
+                values[node] = (kinds[node] == DATA_REF) ?
+                               getDataElement(dataElements, dataReferences[node]) :
+                               parameters.getParameter(parameterNames[node],
+                                       parameterTypes[node], parameterTags[node]);
+            } catch (QueryException e) {
+                fail(node, e.getError(), node);
+            }
+        }
+
+        /** Applies the operator of {@code node} to the operands it has evaluated. */
+        private void computeOperator(int node) {
+            DataItem operandA = values[leftOperands[node]];
+            try {
+                if (operators[node] == UNARY_NOT) {
+                    values[node] = applyUnaryNot(operandA);
+                } else if (!needsSecondOperand(node)) {
+                    values[node] = operandA;
+                } else {
+                    values[node] = applyBinaryOperator(operators[node], operatorTags[node],
+                            operandA, values[rightOperands[node]]);
+                }
+            } catch (QueryException e) {
+                fail(node, e.getError(), node);
+            }
+        }
+    }
+
+    /** A node being evaluated, with the operand it is waiting for. */
+    private static final class Frame {
+
+        final int node;
+        int next;
+
+        Frame(int node) {
+            this.node = node;
+        }
+    }
+
+    /** Assigns node indices, reusing the index of any structurally identical node. */
+    private static class Builder {
+        private final Map<List<Object>, Integer> nodeIndices = new HashMap<>();
+
+        private final List<Integer> kinds = new ArrayList<>();
+        private final List<Integer> operators = new ArrayList<>();
+        private final List<Tag> operatorTags = new ArrayList<>();
+        private final List<Integer> leftOperands = new ArrayList<>();
+        private final List<Integer> rightOperands = new ArrayList<>();
+        private final List<DataItem> dataReferences = new ArrayList<>();
+        private final List<String> parameterNames = new ArrayList<>();
+        private final List<Integer> parameterTypes = new ArrayList<>();
+        private final List<Tag> parameterTags = new ArrayList<>();
+
+        /**
+         * Adds the tree rooted at {@code root} bottom up, recording the node of each entry in
+         * {@code entryNodes}, and returns the index of its root.  The tree is walked with an
+         * explicit stack, since queries may nest arbitrarily deep.
+         */
+        int add(QueryNode root, int[] entryNodes) {
+            Deque<QueryNode> pending = new ArrayDeque<>();
+            Deque<Integer> next = new ArrayDeque<>();
+            Deque<Integer> indices = new ArrayDeque<>();
+            pending.push(root);
+            next.push(0);
+            while (!pending.isEmpty()) {
+                QueryNode node = pending.peek();
+                int operand = next.peek();
+                if (node.kind == OPERATOR && operand < node.operands.length) {
+                    next.push(next.pop() + 1);
+                    pending.push(node.operands[operand]);
+                    next.push(0);
+                    continue;
+                }
+                pending.pop();
+                next.pop();
+                int right = (node.kind == OPERATOR && node.operands.length > 1) ?
+                            indices.pop() : -1;
+                int left = (node.kind == OPERATOR) ? indices.pop() : -1;
+                int index = intern(node, left, right);
+                entryNodes[node.entryIndex] = index;
+                indices.push(index);
+            }
+            return indices.pop();
+        }
+
+        private int intern(QueryNode node, int left, int right) {
+            List<Object> key;
+            switch (node.kind) {
+                case DATA_REF:
+                    key = Arrays.asList(DATA_REF, node.dataReference);
+                    break;
+
+                case PARAM_REF:
+                    key = Arrays.asList(PARAM_REF, node.parameterName, node.parameterType,
+                            node.parameterTag);
+                    break;
+
+                default:
+                    key = Arrays.asList(OPERATOR, node.operator, node.operatorTag, left, right);
+                    break;
+            }
+
+            Integer existing = nodeIndices.get(key);
+            if (existing != null) {
+                return existing;
+            }
+
+            int index = kinds.size();
+            nodeIndices.put(key, index);
+            kinds.add(node.kind);
+            operators.add(node.operator);
+            operatorTags.add(node.operatorTag);
+            leftOperands.add(left);
+            rightOperands.add(right);
+            dataReferences.add(node.dataReference);
+            parameterNames.add(node.parameterName);
+            parameterTypes.add(node.parameterType);
+            parameterTags.add(node.parameterTag);
+            return index;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.androidx.identity_credential.query;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link QueryExecutionListener} that aggregates counts and latencies.  All updates are
+ * lock-free, so one instance can be shared by every thread using an executor, and read at any
+ * time.  Reads taken while queries are running are not an atomic snapshot.
+ */
+public class QueryMetrics implements QueryExecutionListener {
+
+    private final LongAdder matched = new LongAdder();
+    private final LongAdder notMatched = new LongAdder();
+    private final LongAdder[] rejected = new LongAdder[QueryError.values().length];
+    private final LongAdder entriesExecuted = new LongAdder();
+    private final LongAdder parameterLookups = new LongAdder();
+    private final LatencyHistogram queryLatency = new LatencyHistogram();
+    private final LatencyHistogram dataLookupLatency = new LatencyHistogram();
+
+    public QueryMetrics() {
+        for (int i = 0; i < rejected.length; i++) {
+            rejected[i] = new LongAdder();
+        }
+    }
+
+    @Override
+    public void onQueryEnd(long elapsedNanos, int entriesExecuted, boolean result) {
+        (result ? matched : notMatched).increment();
+        this.entriesExecuted.add(entriesExecuted);
+        queryLatency.record(elapsedNanos);
+    }
+
+    @Override
+    public void onQueryRejected(QueryError reason, long elapsedNanos, int entriesExecuted) {
+        rejected[reason.ordinal()].increment();
+        this.entriesExecuted.add(entriesExecuted);
+        queryLatency.record(elapsedNanos);
+    }
+
+    @Override
+    public void onDataLookup(long elapsedNanos) {
+        dataLookupLatency.record(elapsedNanos);
+    }
+
+    @Override
+    public void onParameterLookup() {
+        parameterLookups.increment();
+    }
+
+    /** Returns the number of completed evaluations, whether they matched or were rejected. */
+    public long getQueryCount() {
+        return queryLatency.getCount();
+    }
+
+    public long getMatchedCount() {
+        return matched.sum();
+    }
+
+    public long getNotMatchedCount() {
+        return notMatched.sum();
+    }
+
+    public long getRejectedCount() {
+        long total = 0;
+        for (LongAdder count : rejected) {
+            total += count.sum();
+        }
+        return total;
+    }
+
+    public long getRejectedCount(QueryError reason) {
+        return rejected[reason.ordinal()].sum();
+    }
+
+    public long getEntriesExecuted() {
+        return entriesExecuted.sum();
+    }
+
+    public long getDataLookupCount() {
+        return dataLookupLatency.getCount();
+    }
+
+    public long getParameterLookupCount() {
+        return parameterLookups.sum();
+    }
+
+    public LatencyHistogram getQueryLatency() {
+        return queryLatency;
+    }
+
+    public LatencyHistogram getDataLookupLatency() {
+        return dataLookupLatency;
+    }
+
+    /**
+     * Counts latencies in power-of-two buckets of nanoseconds, so percentiles are accurate to
+     * within a factor of two.
+     */
+    public static final class LatencyHistogram {
+
+        private final LongAdder[] buckets = new LongAdder[Long.SIZE];
+        private final LongAdder totalNanos = new LongAdder();
+
+        LatencyHistogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long nanos) {
+            // Bucket i holds values from 2^i up to 2^(i+1); non-positive values, from a clock
+            // that did not advance, go in bucket 0.
+            buckets[nanos <= 0 ? 0 : Long.SIZE - Long.numberOfLeadingZeros(nanos) - 1]
+                    .increment();
+            totalNanos.add(Math.max(nanos, 0));
+        }
+
+        public long getCount() {
+            long count = 0;
+            for (LongAdder bucket : buckets) {
+                count += bucket.sum();
+            }
+            return count;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos.sum();
+        }
+
+        /**
+         * Returns an upper bound on the given percentile, between 0 and 100, or 0 if nothing has
+         * been recorded.
+         */
+        public long getPercentileNanos(double percentile) {
+            long[] counts = new long[buckets.length];
+            long total = 0;
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = buckets[i].sum();
+                total += counts[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(total * Math.min(Math.max(percentile, 0), 100) / 100);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= Math.max(rank, 1)) {
+                    return i == Long.SIZE - 1 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.androidx.identity_credential.query;
+
+import co.nstant.in.cbor.model.DataItem;
+import co.nstant.in.cbor.model.Tag;
+
+import static com.androidx.identity_credential.query.ICQueryExecutor.*;
+
+/**
+ * One node of the expression tree that {@link QueryCompiler} recovers from a postfix query.
+ *
+ * <p>{@code kind} is the entry's tag: {@link ICQueryExecutor#DATA_REF},
+ * {@link ICQueryExecutor#PARAM_REF} or {@link ICQueryExecutor#OPERATOR}, or {@link #CONSTANT}
+ * for a value that {@link QueryOptimizer} has folded.  {@code entryIndex} is the position of the
+ * entry in the original query.
+ */
+final class QueryNode {
+
+    static final int CONSTANT = -1;
+
+    final int kind;
+    final int entryIndex;
+
+    // DATA_REF
+    final DataItem dataReference;
+
+    // CONSTANT
+    final DataItem constant;
+
+    // PARAM_REF
+    final String parameterName;
+    final int parameterType;
+    final Tag parameterTag;
+
+    // OPERATOR
+    final int operator;
+    final Tag operatorTag;
+    final QueryNode[] operands;
+
+    // The number of data references in this subtree, counted once as the tree is built.
+    final int dataReferenceCount;
+
+    private QueryNode(int kind, int entryIndex, DataItem dataReference, DataItem constant,
+                      String parameterName, int parameterType, Tag parameterTag, int operator,
+                      Tag operatorTag, QueryNode[] operands) {
+        this.kind = kind;
+        this.entryIndex = entryIndex;
+        this.dataReference = dataReference;
+        this.constant = constant;
+        this.parameterName = parameterName;
+        this.parameterType = parameterType;
+        this.parameterTag = parameterTag;
+        this.operator = operator;
+        this.operatorTag = operatorTag;
+        this.operands = operands;
+        int count = (kind == DATA_REF) ? 1 : 0;
+        if (operands != null) {
+            for (QueryNode operand : operands) {
+                count += operand.dataReferenceCount;
+            }
+        }
+        this.dataReferenceCount = count;
+    }
+
+    static QueryNode dataReference(int entryIndex, DataItem reference) {
+        return new QueryNode(DATA_REF, entryIndex, reference, null, null, 0, null, 0, null,
+                null);
+    }
+
+    static QueryNode constant(int entryIndex, DataItem value) {
+        return new QueryNode(CONSTANT, entryIndex, null, value, null, 0, null, 0, null, null);
+    }
+
+    static QueryNode parameterReference(int entryIndex, String name, int type, Tag tag) {
+        return new QueryNode(PARAM_REF, entryIndex, null, null, name, type, tag, 0, null, null);
+    }
+
+    static QueryNode operator(int entryIndex, int operator, Tag operatorTag,
+                              QueryNode... operands) {
+        return new QueryNode(OPERATOR, entryIndex, null, null, null, 0, null, operator,
+                operatorTag, operands);
+    }
+}
@@ -0,0 +1,256 @@
+package com.androidx.identity_credential.query;
+
+import co.nstant.in.cbor.model.DataItem;
+import co.nstant.in.cbor.model.SimpleValue;
+import co.nstant.in.cbor.model.Tag;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.androidx.identity_credential.query.ICQueryExecutor.*;
+
+/**
+ * Rewrites a parsed query for a fixed {@link ParameterSet}.
+ *
+ * <p>Every parameter reference is replaced by its value, and every operator whose operands are
+ * all constants is folded into its result.  {@code NOT NOT x} becomes {@code x}, an {@code AND}
+ * or {@code OR} with an operand that decides it becomes that constant, and an operand that
+ * cannot decide it is dropped.  Chains of {@code AND} or {@code OR} are then flattened and their
+ * operands ordered by the lookup cost the {@link DataSet} reports, cheapest first, so that
+ * short-circuiting skips the most expensive reads.
+ *
+ * <p>Whenever the interpreter in {@link ICQueryExecutor}, which evaluates every entry, returns a
+ * result, the rewritten query returns the same result, and it reports an error only if the
+ * interpreter does.  Because it evaluates operands in a different order, the rewritten query may
+ * return a result where the original reports an error.  {@code x} is only substituted for
+ * {@code NOT NOT x}, or {@code x AND true}, when {@code x} is an operator, so that a data
+ * element of the wrong type is still rejected.
+ */
+final class QueryOptimizer {
+
+    private final ParameterSet parameters;
+    private final DataSet costModel;
+
+    // The cost of each operator in the rewritten tree, which is only ever built by operator(),
+    // so that sorting a chain never walks the subtrees of its operands again.
+    private final Map<QueryNode, Double> costs = new IdentityHashMap<>();
+
+    private QueryOptimizer(ParameterSet parameters, DataSet costModel) {
+        this.parameters = parameters;
+        this.costModel = costModel;
+    }
+
+    /**
+     * Returns the rewritten tree, or throws if a parameter is missing or does not match its
+     * reference, in which case the interpreter would reject the query too.
+     */
+    static QueryNode optimize(QueryNode root, ParameterSet parameters, DataSet costModel)
+            throws QueryException {
+        return new QueryOptimizer(parameters, costModel).rewrite(root);
+    }
+
+    /**
+     * Rewrites the tree bottom up.  The tree is walked with an explicit stack of frames, since
+     * queries may nest arbitrarily deep.
+     */
+    private QueryNode rewrite(QueryNode root) throws QueryException {
+        Deque<Frame> frames = new ArrayDeque<>();
+        QueryNode rewritten = enter(root, frames);
+        while (!frames.isEmpty()) {
+            Frame frame = frames.peek();
+            if (rewritten != null) {
+                frame.rewritten.add(rewritten);
+                rewritten = null;
+            }
+            if (frame.next < frame.operands.size()) {
+                rewritten = enter(frame.operands.get(frame.next++), frames);
+                continue;
+            }
+            frames.pop();
+            rewritten = rewriteOperator(frame.node, frame.rewritten);
+        }
+        return rewritten;
+    }
+
+    /** Returns the rewritten leaf, or pushes a frame for an operator and returns null. */
+    private QueryNode enter(QueryNode node, Deque<Frame> frames) throws QueryException {
+        switch (node.kind) {
+            case PARAM_REF:
+                return QueryNode.constant(node.entryIndex, parameterValue(node));
+
+            case OPERATOR:
+                frames.push(new Frame(node));
+                return null;
+
+            default:
+                return node;
+        }
+    }
+
+    /** Rewrites {@code node} once the operands in its frame have been rewritten. */
+    private QueryNode rewriteOperator(QueryNode node, List<QueryNode> rewritten)
+            throws QueryException {
+        if (node.operator == AND || node.operator == OR) {
+            return rewriteLogical(node, rewritten);
+        }
+        QueryNode operandA = rewritten.get(0);
+        if (node.operator == UNARY_NOT) {
+            if (operandA.kind == QueryNode.CONSTANT) {
+                return QueryNode.constant(node.entryIndex, applyUnaryNot(operandA.constant));
+            }
+            if (operandA.kind == OPERATOR && operandA.operator == UNARY_NOT &&
+                operandA.operands[0].kind == OPERATOR) {
+                return operandA.operands[0];
+            }
+            return operator(node.entryIndex, UNARY_NOT, node.operatorTag, operandA);
+        }
+
+        QueryNode operandB = rewritten.get(1);
+        if (operandA.kind == QueryNode.CONSTANT && operandB.kind == QueryNode.CONSTANT) {
+            return QueryNode.constant(node.entryIndex, applyBinaryOperator(node.operator,
+                    node.operatorTag, operandA.constant, operandB.constant));
+        }
+        return operator(node.entryIndex, node.operator, node.operatorTag, operandA,
+                operandB);
+    }
+
+    private DataItem parameterValue(QueryNode node) throws QueryException {
+        DataItem value = parameters.getParameter(node.parameterName, node.parameterType,
+                node.parameterTag);
+        if (ParameterSet.isDate(value)) {
+            // Checks the date, which the constant table relies on.
+            parameters.getEpochDay(node.parameterName, node.parameterType, node.parameterTag);
+        }
+        return value;
+    }
+
+    /**
+     * Rewrites a chain of {@code AND} or {@code OR}, given the rewritten operands of the whole
+     * chain.
+     */
+    private QueryNode rewriteLogical(QueryNode node, List<QueryNode> rewritten) {
+        // A rewritten operand, such as NOT NOT (a AND b), can join the chain too.
+        List<QueryNode> terms = new ArrayList<>();
+        for (QueryNode operand : rewritten) {
+            addTerms(operand, node.operator, terms);
+        }
+
+        // The value that decides the operator on its own; the other value never affects it.
+        SimpleValue deciding = (node.operator == AND) ? SimpleValue.FALSE : SimpleValue.TRUE;
+        SimpleValue neutral = (node.operator == AND) ? SimpleValue.TRUE : SimpleValue.FALSE;
+        List<QueryNode> remaining = new ArrayList<>();
+        QueryNode neutralTerm = null;
+        for (QueryNode term : terms) {
+            if (term.kind == QueryNode.CONSTANT && deciding.equals(term.constant)) {
+                return QueryNode.constant(node.entryIndex, deciding);
+            }
+            if (term.kind == QueryNode.CONSTANT && neutral.equals(term.constant)) {
+                neutralTerm = term;
+            } else {
+                remaining.add(term);
+            }
+        }
+
+        if (remaining.isEmpty()) {
+            return neutralTerm;
+        }
+        if (remaining.size() == 1) {
+            if (remaining.get(0).kind == OPERATOR) {
+                return remaining.get(0);
+            }
+            // Keep one neutral operand, so the operator still checks that a data element is a
+            // boolean.
+            remaining.add(neutralTerm);
+        }
+
+        final double[] costs = new double[remaining.size()];
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < remaining.size(); i++) {
+            costs[i] = cost(remaining.get(i));
+            order.add(i);
+        }
+        // A stable sort, so that operands of equal cost keep the order they were written in.
+        Collections.sort(order, Comparator.comparingDouble(i -> costs[i]));
+
+        QueryNode result = remaining.get(order.get(0));
+        for (int i = 1; i < order.size(); i++) {
+            result = operator(node.entryIndex, node.operator, node.operatorTag, result,
+                    remaining.get(order.get(i)));
+        }
+        return result;
+    }
+
+    /**
+     * Adds the operands of the chain of {@code operator}s rooted at {@code node}, in order, or
+     * {@code node} itself if it is not such an operator.
+     */
+    private static void addTerms(QueryNode node, int operator, List<QueryNode> terms) {
+        Deque<QueryNode> pending = new ArrayDeque<>();
+        pending.push(node);
+        while (!pending.isEmpty()) {
+            QueryNode term = pending.pop();
+            if (term.kind == OPERATOR && term.operator == operator) {
+                for (int i = term.operands.length - 1; i >= 0; i--) {
+                    pending.push(term.operands[i]);
+                }
+            } else {
+                terms.add(term);
+            }
+        }
+    }
+
+    /** Builds an operator of the rewritten tree, recording its cost from its operands'. */
+    private QueryNode operator(int entryIndex, int operator, Tag operatorTag,
+                               QueryNode... operands) {
+        QueryNode node = QueryNode.operator(entryIndex, operator, operatorTag, operands);
+        double cost = 0;
+        for (QueryNode operand : operands) {
+            cost += cost(operand);
+        }
+        costs.put(node, cost);
+        return node;
+    }
+
+    /** Returns the total lookup cost of the data references in a subtree of the rewritten tree. */
+    private double cost(QueryNode node) {
+        switch (node.kind) {
+            case DATA_REF:
+                return (costModel == null) ? 1 : costModel.getLookupCost(node.dataReference);
+
+            case OPERATOR:
+                return costs.get(node);
+
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * An operator being rewritten.  The operands of a chain of {@code AND} or {@code OR} are
+     * gathered into one frame, so the chain is rewritten as a whole.
+     */
+    private static final class Frame {
+
+        final QueryNode node;
+        final List<QueryNode> operands;
+        final List<QueryNode> rewritten = new ArrayList<>();
+        int next;
+
+        Frame(QueryNode node) {
+            this.node = node;
+            if (node.operator == AND || node.operator == OR) {
+                operands = new ArrayList<>();
+                addTerms(node, node.operator, operands);
+            } else {
+                operands = Arrays.asList(node.operands);
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.androidx.identity_credential.query;
+
+/**
+ * The outcome of {@link ICQueryExecutor#evaluate}: {@link #TRUE}, {@link #FALSE}, or an error
+ * code with the index of the query entry that caused it.
+ *
+ * <p>Evaluating to a result rather than throwing means a rejected query costs no stack trace and
+ * no message formatting.  Successful results are the two shared instances, so they can be
+ * compared by identity.
+ */
+public final class QueryResult {
+
+    public static final QueryResult TRUE = new QueryResult(null, -1);
+    public static final QueryResult FALSE = new QueryResult(null, -1);
+
+    private final QueryError error;
+    private final int entryIndex;
+
+    private QueryResult(QueryError error, int entryIndex) {
+        this.error = error;
+        this.entryIndex = entryIndex;
+    }
+
+    static QueryResult of(boolean value) {
+        return value ? TRUE : FALSE;
+    }
+
+    static QueryResult error(QueryError error, int entryIndex) {
+        return new QueryResult(error, entryIndex);
+    }
+
+    public boolean isError() {
+        return error != null;
+    }
+
+    /** Returns true only for {@link #TRUE}; errors are not true. */
+    public boolean isTrue() {
+        return this == TRUE;
+    }
+
+    /** Returns the reason for an error result, or null for {@link #TRUE} and {@link #FALSE}. */
+    public QueryError getError() {
+        return error;
+    }
+
+    /**
+     * Returns the index in the query of the entry that caused an error, or -1 if the error
+     * concerns the query as a whole or the result is not an error.
+     */
+    public int getEntryIndex() {
+        return entryIndex;
+    }
+
+    /** Builds the exception {@link ICQueryExecutor#execute} throws for this error result. */
+    QueryException toException(CompiledQuery query) {
+        int pc = -1;
+        for (int i = 0; i < query.entryIndices.length; i++) {
+            if (query.entryIndices[i] == entryIndex) {
+                pc = i;
+                break;
+            }
+        }
+
+        String message;
+        switch (error) {
+            case UNKNOWN_DATA_ELEMENT:
+                message = "Invalid query entry: unknown data element " +
+                          query.dataReferences[query.operands[pc]];
+                break;
+
+            case UNKNOWN_PARAMETER:
+                message = "Invalid parameter reference, no parameter named " +
+                          query.parameterLayout.names[query.operands[pc]];
+                break;
+
+            case PARAMETER_TYPE_MISMATCH:
+                message = "Invalid parameter reference, query type does not match parameter " +
+                          "type";
+                break;
+
+            case PARAMETER_TAG_MISMATCH:
+                message = "Invalid parameter reference, query type tag does not match " +
+                          "parameter type tag";
+                break;
+
+            case PARAMETER_LAYOUT_MISMATCH:
+                message = "Invalid parameters: bound to a different parameter layout than the " +
+                          "query";
+                break;
+
+            case OPERAND_TAG_MISMATCH:
+                message = "Invalid query:  Operands have different tags";
+                break;
+
+            case OPERATOR_TAG_MISMATCH:
+                message = "Invalid query:  Operands and operator have different type tags";
+                break;
+
+            case OPERAND_TYPE_MISMATCH:
+                message = "Invalid query:  Operands are different types";
+                break;
+
+            case OPERATOR_TYPE_MISMATCH:
+                message = "Invalid query:  Operator does not apply to operands of this type";
+                break;
+
+            case UNSUPPORTED_OPERAND_TYPE:
+                message = "Invalid query:  Unsupported operand type";
+                break;
+
+            case MALFORMED_DATE:
+                message = "Invalid query: malformed date";
+                break;
+
+            case RESULT_NOT_BOOLEAN:
+                message = "Invalid query:  result is not boolean";
+                break;
+
+            case TOO_MANY_ENTRIES:
+            case STACK_TOO_DEEP:
+            case TOO_MANY_DATA_LOOKUPS:
+            case TOO_MANY_PARAMETER_LOOKUPS:
+            case STRING_TOO_LONG:
+            case DEADLINE_EXCEEDED:
+                message = ExecutionLimits.describe(error);
+                break;
+
+            default:
+                message = "Invalid query: " + error;
+                break;
+        }
+        if (entryIndex >= 0) {
+            message += " at entry " + entryIndex;
+        }
+        return new QueryException(error, message);
+    }
+
+    @Override
+    public String toString() {
+        if (this == TRUE) {
+            return "TRUE";
+        }
+        if (this == FALSE) {
+            return "FALSE";
+        }
+        return error + " at entry " + entryIndex;
+    }
+}
@@ -0,0 +1,288 @@
+package com.androidx.identity_credential.query;
+
+import co.nstant.in.cbor.model.DataItem;
+import co.nstant.in.cbor.model.Number;
+import co.nstant.in.cbor.model.SimpleValue;
+import co.nstant.in.cbor.model.Tag;
+import co.nstant.in.cbor.model.UnicodeString;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import static com.androidx.identity_credential.query.ICQueryExecutor.*;
+import static com.androidx.identity_credential.query.ParameterSet.DATE_TAG;
+import static com.androidx.identity_credential.query.TypedValues.*;
+
+/**
+ * Type checks a parsed query without evaluating it, by computing the static type of every value
+ * on the stack.
+ *
+ * <p>A parameter reference declares its type and tag, and a parameter that does not match the
+ * declaration is rejected when it is read, so its value always has that type.  A constant folded
+ * by {@link QueryOptimizer} has the type of its value, and every operator produces an untagged
+ * boolean.  Only data elements are unknown until they are read, so an operator with a data
+ * element operand is left for evaluation to check.  Any other operator is checked here with the
+ * same rules, in the same order, as {@link OperandStack}: an ill-typed one rejects the query, and
+ * a well-typed one is recorded as verified so evaluation can skip its checks.
+ *
+ * <p>The verifier also computes the exact maximum depth of the evaluation stack.
+ */
+final class QueryVerifier {
+
+    // The static type of a data element, or of a boolean parameter reference with a tag, which
+    // no value satisfies.  Both are left to evaluation.
+    private static final int KIND_UNKNOWN = -1;
+
+    private static final String[] OPERATOR_NAMES = {"LESS_THAN", "LESS_OR_EQUAL", "EQUAL",
+            "NOT_EQUAL", "GREATER_THAN", "GREATER_OR_EQUAL", "AND", "OR", "UNARY_NOT"};
+
+    private final Set<QueryNode> verified =
+            Collections.newSetFromMap(new IdentityHashMap<QueryNode, Boolean>());
+    private int maxDepth;
+
+    // Set if the query is rejected, along with the operand types for the message.
+    QueryError error;
+    int errorEntry;
+    private QueryNode errorNode;
+    private Type errorA;
+    private Type errorB;
+
+    /** Returns false and sets {@link #error} if {@code root} is ill-typed. */
+    boolean verify(QueryNode root) {
+        Type type = check(root);
+        if (type == null) {
+            return false;
+        }
+        if (type.kind != KIND_UNKNOWN && type.kind != KIND_BOOLEAN) {
+            return fail(QueryError.RESULT_NOT_BOOLEAN, root, type, null);
+        }
+        return true;
+    }
+
+    int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /** Returns true if {@code operator} always succeeds, so evaluation need not check it. */
+    boolean isVerified(QueryNode operator) {
+        return verified.contains(operator);
+    }
+
+    /**
+     * Returns the type of {@code root}, or null if it is ill-typed.  The tree is walked in
+     * evaluation order with an explicit stack, since queries may nest arbitrarily deep.
+     */
+    private Type check(QueryNode root) {
+        Deque<Frame> frames = new ArrayDeque<>();
+        Deque<Type> types = new ArrayDeque<>();
+        push(frames, root, 0);
+        while (!frames.isEmpty()) {
+            Frame frame = frames.peek();
+            QueryNode node = frame.node;
+            if (node.kind == OPERATOR && frame.next < node.operands.length) {
+                // The second operand is evaluated with the first already on the stack.
+                push(frames, node.operands[frame.next], frame.depth + frame.next);
+                frame.next++;
+                continue;
+            }
+            frames.pop();
+
+            Type type;
+            if (node.kind != OPERATOR) {
+                type = valueType(node);
+            } else if (node.operator == UNARY_NOT) {
+                type = checkUnary(node, types.pop());
+            } else {
+                Type b = types.pop();
+                type = checkBinary(node, types.pop(), b);
+            }
+            if (type == null) {
+                return null;
+            }
+            types.push(type);
+        }
+        return types.pop();
+    }
+
+    private void push(Deque<Frame> frames, QueryNode node, int depth) {
+        maxDepth = Math.max(maxDepth, depth + 1);
+        frames.push(new Frame(node, depth));
+    }
+
+    private static Type valueType(QueryNode node) {
+        switch (node.kind) {
+            case DATA_REF:
+                return Type.UNKNOWN;
+
+            case PARAM_REF:
+                return parameterType(node);
+
+            default:
+                return constantType(node.constant);
+        }
+    }
+
+    private Type checkUnary(QueryNode node, Type a) {
+        if (a.kind == KIND_UNKNOWN) {
+            return Type.BOOLEAN;
+        }
+        if (a.kind != KIND_BOOLEAN) {
+            fail(QueryError.OPERAND_TYPE_MISMATCH, node, a, null);
+            return null;
+        }
+        verified.add(node);
+        return Type.BOOLEAN;
+    }
+
+    private Type checkBinary(QueryNode node, Type a, Type b) {
+        if (a.kind == KIND_UNKNOWN || b.kind == KIND_UNKNOWN) {
+            return Type.BOOLEAN;
+        }
+        QueryError mismatch = null;
+        if (!OperandStack.compareTags(a.tag, b.tag)) {
+            mismatch = QueryError.OPERAND_TAG_MISMATCH;
+        } else if (a.tag != null && !OperandStack.compareTags(node.operatorTag, a.tag)) {
+            mismatch = QueryError.OPERATOR_TAG_MISMATCH;
+        } else if (a.kind != b.kind) {
+            mismatch = QueryError.OPERAND_TYPE_MISMATCH;
+        } else if (!OperandStack.appliesTo(node.operator, a.kind)) {
+            mismatch = QueryError.OPERATOR_TYPE_MISMATCH;
+        }
+        if (mismatch != null) {
+            fail(mismatch, node, a, b);
+            return null;
+        }
+        verified.add(node);
+        return Type.BOOLEAN;
+    }
+
+    private static Type parameterType(QueryNode node) {
+        Tag tag = node.parameterTag;
+        switch (node.parameterType) {
+            case TYPE_INTEGER:
+                return new Type(KIND_LONG, tag);
+
+            case TYPE_STRING:
+                return new Type(tag != null && tag.getValue() == DATE_TAG ? KIND_DATE :
+                                KIND_STRING, tag);
+
+            default:
+                // A boolean parameter is only ever an untagged simple value.
+                return (tag == null) ? Type.BOOLEAN : Type.UNKNOWN;
+        }
+    }
+
+    private static Type constantType(DataItem value) {
+        if (value instanceof Number) {
+            return new Type(KIND_LONG, value.getTag());
+        }
+        if (ParameterSet.isDate(value)) {
+            return new Type(KIND_DATE, value.getTag());
+        }
+        if (value instanceof UnicodeString) {
+            return new Type(KIND_STRING, value.getTag());
+        }
+        if (value.equals(SimpleValue.TRUE) || value.equals(SimpleValue.FALSE)) {
+            return Type.BOOLEAN;
+        }
+        return Type.UNKNOWN;
+    }
+
+    private boolean fail(QueryError error, QueryNode node, Type a, Type b) {
+        this.error = error;
+        this.errorEntry = node.entryIndex;
+        this.errorNode = node;
+        this.errorA = a;
+        this.errorB = b;
+        return false;
+    }
+
+    QueryException toException() {
+        String operator = (errorNode.kind == OPERATOR) ?
+                          OPERATOR_NAMES[errorNode.operator] + " at entry " + errorEntry : null;
+        String message;
+        switch (error) {
+            case OPERAND_TAG_MISMATCH:
+                message = "Invalid query: operands of " + operator + " have different tags: " +
+                          errorA + " and " + errorB;
+                break;
+
+            case OPERATOR_TAG_MISMATCH:
+                message = "Invalid query: operands of " + operator + " are " + errorA +
+                          ", which does not match the operator's type tag";
+                break;
+
+            case OPERAND_TYPE_MISMATCH:
+                message = (errorB == null) ?
+                          "Invalid query: " + operator + " applied to " + errorA :
+                          "Invalid query: operands of " + operator + " are different types: " +
+                          errorA + " and " + errorB;
+                break;
+
+            case OPERATOR_TYPE_MISMATCH:
+                message = "Invalid query: " + operator + " does not apply to " + errorA +
+                          " operands";
+                break;
+
+            default:
+                message = "Invalid query: result at entry " + errorEntry + " is " + errorA +
+                          ", not boolean";
+                break;
+        }
+        return new QueryException(error, message);
+    }
+
+    /** A node being checked, with the stack depth it starts at and its next operand. */
+    private static final class Frame {
+
+        final QueryNode node;
+        final int depth;
+        int next;
+
+        Frame(QueryNode node, int depth) {
+            this.node = node;
+            this.depth = depth;
+        }
+    }
+
+    /** A value's kind, one of the {@link TypedValues} kinds, and its tag. */
+    private static final class Type {
+
+        static final Type UNKNOWN = new Type(KIND_UNKNOWN, null);
+        static final Type BOOLEAN = new Type(KIND_BOOLEAN, null);
+
+        final int kind;
+        final Tag tag;
+
+        Type(int kind, Tag tag) {
+            this.kind = kind;
+            this.tag = tag;
+        }
+
+        @Override
+        public String toString() {
+            String name;
+            switch (kind) {
+                case KIND_LONG:
+                    name = "integer";
+                    break;
+
+                case KIND_STRING:
+                    name = "string";
+                    break;
+
+                case KIND_DATE:
+                    name = "date";
+                    break;
+
+                default:
+                    name = "boolean";
+                    break;
+            }
+            return (tag == null) ? name : name + " tagged " + tag.getValue();
+        }
+    }
+}
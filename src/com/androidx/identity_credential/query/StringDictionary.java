@@ -0,0 +1,44 @@
+package com.androidx.identity_credential.query;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Process-wide ids for strings from small, heavily repeated domains, such as country codes or
+ * document types, so that two strings with ids compare as ints.
+ *
+ * <p>Only values from trusted sources are added: the small dictionaries of {@link ColumnarStore}
+ * columns and strings registered with {@link ICQueryExecutor#registerStrings}.  The constants of
+ * compiled queries and bound parameters only look up ids that already exist, so that queries from
+ * relying parties and values specific to one request never fill the dictionary.  Once it holds
+ * {@link #CAPACITY} strings no more are added, and a value without an id is compared as a string.
+ * Ids are never reused, so two values with ids are equal exactly when their ids are.
+ */
+final class StringDictionary {
+
+    static final int NO_ID = -1;
+    static final int CAPACITY = 1 << 16;
+
+    private static final ConcurrentHashMap<String, Integer> IDS = new ConcurrentHashMap<>();
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+    private StringDictionary() {}
+
+    /** Returns the id of {@code value}, adding it if there is room, or {@link #NO_ID}. */
+    static int intern(String value) {
+        Integer id = IDS.get(value);
+        if (id != null) {
+            return id;
+        }
+        if (IDS.size() >= CAPACITY) {
+            return NO_ID;
+        }
+        return IDS.computeIfAbsent(value, v -> NEXT_ID.getAndIncrement());
+    }
+
+    /** Returns the id of {@code value}, or {@link #NO_ID} if it has none. */
+    static int lookup(String value) {
+        Integer id = IDS.get(value);
+        return (id == null) ? NO_ID : id;
+    }
+}
@@ -0,0 +1,132 @@
+package com.androidx.identity_credential.query;
+
+import co.nstant.in.cbor.model.DataItem;
+import co.nstant.in.cbor.model.Number;
+import co.nstant.in.cbor.model.SimpleValue;
+import co.nstant.in.cbor.model.Tag;
+import co.nstant.in.cbor.model.UnicodeString;
+
+import java.math.BigInteger;
+
+/**
+ * Query values stored in parallel arrays, one slot per value.
+ *
+ * <p>Each slot records the kind of value it holds and keeps the value itself in a primitive
+ * array (integers that fit in 64 bits, dates as epoch days, booleans) or a reference array
+ * (strings, larger integers, and any other item, which no operator accepts).  The slot's tag
+ * is kept alongside for the operators' tag checks, and a string's {@link StringDictionary} id,
+ * if it has one, for {@code EQUAL} and {@code NOT_EQUAL}.  A string is a {@link String} or a
+ * {@link Utf8String}.
+ */
+class TypedValues {
+
+    static final int KIND_LONG = 0;
+    static final int KIND_BIG_INTEGER = 1;
+    static final int KIND_BOOLEAN = 2;
+    static final int KIND_STRING = 3;
+    static final int KIND_DATE = 4;
+    static final int KIND_OTHER = 5;
+
+    int[] kinds;
+    long[] longs;
+    boolean[] booleans;
+    Object[] refs;
+    Tag[] tags;
+    int[] stringIds;
+
+    TypedValues(int capacity) {
+        kinds = new int[capacity];
+        longs = new long[capacity];
+        booleans = new boolean[capacity];
+        refs = new Object[capacity];
+        tags = new Tag[capacity];
+        stringIds = new int[capacity];
+    }
+
+    final void ensureCapacity(int capacity) {
+        if (kinds.length < capacity) {
+            kinds = new int[capacity];
+            longs = new long[capacity];
+            booleans = new boolean[capacity];
+            refs = new Object[capacity];
+            tags = new Tag[capacity];
+            stringIds = new int[capacity];
+        }
+    }
+
+    /** Stores {@code item} in {@code slot}, or returns why it cannot be, without throwing. */
+    final QueryError set(int slot, DataItem item) {
+        tags[slot] = item.getTag();
+        refs[slot] = null;
+
+        if (item instanceof Number) {
+            BigInteger value = ((Number) item).getValue();
+            if (value.bitLength() < Long.SIZE) {
+                kinds[slot] = KIND_LONG;
+                longs[slot] = value.longValue();
+            } else {
+                kinds[slot] = KIND_BIG_INTEGER;
+                refs[slot] = value;
+            }
+        } else if (ParameterSet.isDate(item)) {
+            long epochDay = Dates.toEpochDay(((UnicodeString) item).getString());
+            if (epochDay == Dates.INVALID) {
+                return QueryError.MALFORMED_DATE;
+            }
+            kinds[slot] = KIND_DATE;
+            longs[slot] = epochDay;
+        } else if (item instanceof UnicodeString) {
+            kinds[slot] = KIND_STRING;
+            refs[slot] = ((UnicodeString) item).getString();
+            stringIds[slot] = StringDictionary.NO_ID;
+        } else if (item.equals(SimpleValue.TRUE)) {
+            // Like the interpreter, only untagged simple values count as booleans.
+            kinds[slot] = KIND_BOOLEAN;
+            booleans[slot] = true;
+        } else if (item.equals(SimpleValue.FALSE)) {
+            kinds[slot] = KIND_BOOLEAN;
+            booleans[slot] = false;
+        } else {
+            kinds[slot] = KIND_OTHER;
+            refs[slot] = item;
+        }
+        return null;
+    }
+
+    final void setLong(int slot, long value) {
+        kinds[slot] = KIND_LONG;
+        longs[slot] = value;
+        refs[slot] = null;
+        tags[slot] = null;
+    }
+
+    final void setBoolean(int slot, boolean value) {
+        kinds[slot] = KIND_BOOLEAN;
+        booleans[slot] = value;
+        refs[slot] = null;
+        tags[slot] = null;
+    }
+
+    final void setString(int slot, Object value, int id) {
+        kinds[slot] = KIND_STRING;
+        refs[slot] = value;
+        tags[slot] = null;
+        stringIds[slot] = id;
+    }
+
+    final void setDate(int slot, Tag tag, long epochDay) {
+        kinds[slot] = KIND_DATE;
+        longs[slot] = epochDay;
+        refs[slot] = null;
+        tags[slot] = tag;
+    }
+
+    final void copy(int slot, TypedValues source, int sourceSlot) {
+        kinds[slot] = source.kinds[sourceSlot];
+        longs[slot] = source.longs[sourceSlot];
+        booleans[slot] = source.booleans[sourceSlot];
+        refs[slot] = source.refs[sourceSlot];
+        tags[slot] = source.tags[sourceSlot];
+        stringIds[slot] = source.stringIds[sourceSlot];
+    }
+}
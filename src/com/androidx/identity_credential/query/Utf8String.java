@@ -0,0 +1,120 @@
+package com.androidx.identity_credential.query;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A string value held as valid UTF-8 bytes in a buffer, such as a memory-mapped
+ * {@link ColumnarStore}, which is compared without being decoded.
+ *
+ * <p>String operands on the {@link OperandStack} are either a {@link String} or a
+ * {@code Utf8String}, and are compared with {@link #equal}.
+ */
+final class Utf8String {
+
+    private final ByteBuffer buffer;
+    private final int offset;
+    private final int length;
+
+    Utf8String(ByteBuffer buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /** Returns the length in bytes. */
+    int length() {
+        return length;
+    }
+
+    /** Returns the length of the UTF-8 encoding of {@code string}. */
+    static int encodedLength(String string) {
+        int length = 0;
+        for (int i = 0; i < string.length(); i++) {
+            char ch = string.charAt(i);
+            if (ch < 0x80) {
+                length++;
+            } else if (ch < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(ch) && i + 1 < string.length() &&
+                       Character.isLowSurrogate(string.charAt(i + 1))) {
+                // A supplementary code point takes four bytes for its two chars.
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /** Returns true if {@code a} and {@code b}, each a String or Utf8String, are equal. */
+    static boolean equal(Object a, Object b) {
+        if (a instanceof String) {
+            return (b instanceof String) ? a.equals(b) : ((Utf8String) b).equalTo((String) a);
+        }
+        Utf8String utf8 = (Utf8String) a;
+        return (b instanceof String) ? utf8.equalTo((String) b) : utf8.equalTo((Utf8String) b);
+    }
+
+    private boolean equalTo(Utf8String other) {
+        if (length != other.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(offset + i) != other.buffer.get(other.offset + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Encodes {@code string} one code point at a time, comparing as it goes. */
+    private boolean equalTo(String string) {
+        int position = offset;
+        int end = offset + length;
+        for (int i = 0; i < string.length(); i++) {
+            char ch = string.charAt(i);
+            int c = ch;
+            if (Character.isSurrogate(ch)) {
+                if (!Character.isHighSurrogate(ch) || i + 1 == string.length() ||
+                    !Character.isLowSurrogate(string.charAt(i + 1))) {
+                    // Valid UTF-8 never decodes to an unpaired surrogate.
+                    return false;
+                }
+                c = Character.toCodePoint(ch, string.charAt(++i));
+            }
+
+            int count = (c < 0x80) ? 1 : (c < 0x800) ? 2 : (c < 0x10000) ? 3 : 4;
+            if (end - position < count) {
+                return false;
+            }
+            if (count == 1) {
+                if (buffer.get(position++) != (byte) c) {
+                    return false;
+                }
+                continue;
+            }
+            // The lead byte holds the high bits, and each continuation byte 6 more.
+            int lead = (0xF00 >> count) & 0xFF;
+            if (buffer.get(position++) != (byte) (lead | (c >> (6 * (count - 1))))) {
+                return false;
+            }
+            for (int shift = 6 * (count - 2); shift >= 0; shift -= 6) {
+                if (buffer.get(position++) != (byte) (0x80 | ((c >> shift) & 0x3F))) {
+                    return false;
+                }
+            }
+        }
+        return position == end;
+    }
+
+    @Override
+    public String toString() {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(offset + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,209 @@
+package com.androidx.identity_credential.query;
+
+import co.nstant.in.cbor.model.DataItem;
+import co.nstant.in.cbor.model.SimpleValue;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.androidx.identity_credential.query.ICQueryExecutor.*;
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AsyncExecutionTest {
+
+    private ICQueryExecutor mExecutor = new ICQueryExecutor();
+
+    /** Serves elements from a {@link DataSet} after a fixed delay. */
+    private static class DelayedDataSet implements AsyncDataSet {
+        private final DataSet dataSet;
+        private final ScheduledExecutorService scheduler;
+        private final long delayMillis;
+
+        DelayedDataSet(DataSet dataSet, ScheduledExecutorService scheduler, long delayMillis) {
+            this.dataSet = dataSet;
+            this.scheduler = scheduler;
+            this.delayMillis = delayMillis;
+        }
+
+        @Override
+        public CompletableFuture<DataItem> getDataElement(DataItem entry) {
+            CompletableFuture<DataItem> future = new CompletableFuture<>();
+            scheduler.schedule(() -> future.complete(dataSet.getDataElement(entry)), delayMillis,
+                    TimeUnit.MILLISECONDS);
+            return future;
+        }
+    }
+
+    /** Leaves every lookup pending until the test completes it. */
+    private static class ManualDataSet implements AsyncDataSet {
+        final Map<DataItem, CompletableFuture<DataItem>> requests = new LinkedHashMap<>();
+
+        @Override
+        public synchronized CompletableFuture<DataItem> getDataElement(DataItem entry) {
+            return requests.computeIfAbsent(entry, e -> new CompletableFuture<>());
+        }
+    }
+
+    @Test
+    void matchesSynchronousExecution() throws Exception {
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+        try {
+            Random random = new Random(11);
+            for (int i = 0; i < 500; i++) {
+                RandomQueries.Case testCase = RandomQueries.generate(random, 4, 0.1);
+                CompiledQuery query = mExecutor.compile(testCase.query);
+
+                Boolean expected;
+                try {
+                    expected = mExecutor.execute(query, testCase.parameters, testCase.dataSet);
+                } catch (QueryException e) {
+                    expected = null;
+                }
+
+                Boolean actual;
+                try {
+                    actual = mExecutor.executeAsync(query, testCase.parameters,
+                            new DelayedDataSet(testCase.dataSet, scheduler, 0)).get();
+                } catch (ExecutionException e) {
+                    assertThat(e.getCause(), instanceOf(QueryException.class));
+                    actual = null;
+                }
+                assertEquals(expected, actual, testCase.query.toString());
+            }
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    void requestsAllElementsAtOnce() throws Exception {
+        CompiledQuery query = mExecutor.compile(
+                new QueryBuilder().data("age").param(TYPE_INTEGER, "min").op(GREATER_OR_EQUAL)
+                                  .data("country").param(TYPE_STRING, "country").op(EQUAL)
+                                  .data("age").param(TYPE_INTEGER, "max").op(LESS_THAN)
+                                  .op(AND).op(AND).build());
+        ParameterSet params = new ParameterSetBuilder().add("min", 21).add("max", 65)
+                                                       .add("country", "US").build();
+        DataSetBuilder.MapDataSet values = new DataSetBuilder().add("age", 30)
+                                                               .add("country", "US").build();
+        ManualDataSet dataSet = new ManualDataSet();
+
+        CompletableFuture<Boolean> result = mExecutor.executeAsync(query, params, dataSet);
+        assertEquals(query.getDataReferences(), new ArrayList<>(dataSet.requests.keySet()));
+        assertFalse(result.isDone());
+
+        // Completing out of order only finishes the query once both elements are in.
+        List<DataItem> references = query.getDataReferences();
+        dataSet.requests.get(references.get(1)).complete(
+                values.getDataElement(references.get(1)));
+        assertFalse(result.isDone());
+        dataSet.requests.get(references.get(0)).complete(
+                values.getDataElement(references.get(0)));
+        assertTrue(result.get());
+    }
+
+    @Test
+    void shortCircuitDoesNotWaitForSecondOperand() throws Exception {
+        CompiledQuery query = mExecutor.compile(
+                new QueryBuilder().data("age").param(TYPE_INTEGER, "min").op(GREATER_OR_EQUAL)
+                                  .data("country").op(AND).build());
+        ParameterSet params = new ParameterSetBuilder().add("min", 21).build();
+        ManualDataSet dataSet = new ManualDataSet();
+
+        CompletableFuture<Boolean> result = mExecutor.executeAsync(query, params, dataSet);
+        dataSet.requests.get(QueryBuilder.dataRef("age")).complete(
+                new DataSetBuilder().add("age", 18).build().get(QueryBuilder.dataRef("age")));
+        assertFalse(result.get());
+        assertFalse(dataSet.requests.get(QueryBuilder.dataRef("country")).isDone());
+    }
+
+    @Test
+    void reportsMissingElements() throws Exception {
+        CompiledQuery query = mExecutor.compile(
+                new QueryBuilder().data("age").param(TYPE_INTEGER, "min").op(GREATER_OR_EQUAL)
+                                  .build());
+        ParameterSet params = new ParameterSetBuilder().add("min", 21).build();
+        ManualDataSet dataSet = new ManualDataSet();
+
+        CompletableFuture<Boolean> result = mExecutor.executeAsync(query, params, dataSet);
+        dataSet.requests.get(QueryBuilder.dataRef("age")).complete(null);
+        try {
+            result.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertThat(e.getCause().getMessage(), containsString("unknown data element"));
+        }
+    }
+
+    @Test
+    void evaluatesDeepQueries() throws Exception {
+        // Deep enough to overflow the thread stack if the tree were walked recursively.
+        int depth = 100000;
+        QueryBuilder chain = new QueryBuilder().data("t");
+        QueryBuilder alternating = new QueryBuilder();
+        for (int i = 1; i < depth; i++) {
+            chain.data("t").op(AND);
+            alternating.data((i % 3 == 0) ? "f" : "t");
+        }
+        chain.param(TYPE_BOOLEAN, "strict").op(UNARY_NOT).op(AND);
+        alternating.param(TYPE_BOOLEAN, "strict");
+        for (int i = 1; i < depth; i++) {
+            alternating.op((i % 2 == 0) ? AND : OR);
+        }
+        ParameterSet params = new ParameterSetBuilder().build();
+        params.put("strict", SimpleValue.FALSE);
+        DataSet values = new DataSetBuilder().add("t", true).add("f", false).build();
+
+        for (QueryBuilder builder : new QueryBuilder[]{chain, alternating}) {
+            CompiledQuery query = mExecutor.compile(builder.build());
+            ManualDataSet dataSet = new ManualDataSet();
+            CompletableFuture<Boolean> result = mExecutor.executeAsync(query, params, dataSet);
+            // The elements arrive only once the whole graph waits on them.
+            for (DataItem reference : query.getDataReferences()) {
+                dataSet.requests.get(reference).complete(values.getDataElement(reference));
+            }
+            assertEquals((Boolean) mExecutor.execute(query, params, values), result.get());
+        }
+    }
+
+    @Test
+    void keepsManyQueriesInFlight() throws Exception {
+        CompiledQuery query = mExecutor.compile(
+                new QueryBuilder().data("age").param(TYPE_INTEGER, "min").op(GREATER_OR_EQUAL)
+                                  .data("country").param(TYPE_STRING, "country").op(EQUAL)
+                                  .op(AND).build());
+        ParameterSet params = new ParameterSetBuilder().add("min", 21).add("country", "US")
+                                                       .build();
+        DataSet values = new DataSetBuilder().add("age", 30).add("country", "US").build();
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+        try {
+            AsyncDataSet dataSet = new DelayedDataSet(values, scheduler, 50);
+            long start = System.nanoTime();
+            List<CompletableFuture<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 2000; i++) {
+                results.add(mExecutor.executeAsync(query, params, dataSet));
+            }
+            for (CompletableFuture<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            // Two threads blocking on each 50ms lookup would take 100 seconds.
+            assertTrue(elapsedMillis < 10000, "Took " + elapsedMillis + "ms");
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.androidx.identity_credential.query;
+
+import co.nstant.in.cbor.model.Array;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.androidx.identity_credential.query.ICQueryExecutor.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BatchQueryExecutorTest {
+
+    private ICQueryExecutor mExecutor = new ICQueryExecutor();
+
+    @Test
+    void matchesSerialExecution() throws QueryException {
+        Random random = new Random(5);
+        List<DataSet> dataSets = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            dataSets.add(RandomQueries.dataSet(random));
+        }
+
+        for (int parallelism : new int[]{1, 4}) {
+            try (BatchQueryExecutor batch = new BatchQueryExecutor(mExecutor, parallelism)) {
+                for (int q = 0; q < 20; q++) {
+                    RandomQueries.Case testCase = RandomQueries.generate(random, 4, 0.2);
+                    CompiledQuery query = mExecutor.compile(testCase.query);
+                    BatchResult result = batch.execute(query, testCase.parameters, dataSets);
+                    assertSerialResult(query, testCase.parameters, dataSets, result);
+
+                    BatchResult streamed =
+                            batch.execute(query, testCase.parameters, dataSets.stream());
+                    assertEquals(result.getMatches(), streamed.getMatches());
+                    assertEquals(result.getErrors().size(), streamed.getErrors().size());
+                }
+            }
+        }
+    }
+
+    @Test
+    void reportsErrorsByIndex() throws QueryException {
+        Array query = new QueryBuilder().data("age").param(TYPE_INTEGER, "min")
+                                        .op(GREATER_OR_EQUAL).build();
+        ParameterSet params = new ParameterSetBuilder().add("min", 21).build();
+        List<DataSet> dataSets = new ArrayList<>();
+        dataSets.add(new DataSetBuilder().add("age", 30).build());
+        dataSets.add(new DataSetBuilder().add("age", "thirty").build());
+        dataSets.add(new DataSetBuilder().add("age", 18).build());
+        dataSets.add(new DataSetBuilder().build());
+
+        try (BatchQueryExecutor batch = new BatchQueryExecutor(mExecutor, 2)) {
+            BatchResult result = batch.execute(query, params, dataSets);
+            assertEquals(4, result.size());
+            assertTrue(result.matches(0));
+            assertFalse(result.matches(1));
+            assertFalse(result.matches(2));
+            assertFalse(result.matches(3));
+            assertEquals(2, result.getErrors().size());
+            assertEquals(1, result.getErrors().get(0).getIndex());
+            assertEquals(3, result.getErrors().get(1).getIndex());
+        }
+    }
+
+    private void assertSerialResult(CompiledQuery query, ParameterSet params,
+                                    List<DataSet> dataSets, BatchResult result) {
+        int errorIndex = 0;
+        for (int i = 0; i < dataSets.size(); i++) {
+            QueryResult expected = mExecutor.evaluate(query, params, dataSets.get(i));
+            assertEquals(expected.isTrue(), result.matches(i));
+            if (expected.isError()) {
+                BatchResult.ItemError error = result.getErrors().get(errorIndex++);
+                assertEquals(i, error.getIndex());
+                assertEquals(expected.getError(), error.getError());
+                assertEquals(expected.getEntryIndex(), error.getEntryIndex());
+                assertEquals(expected.toException(query).getMessage(),
+                        error.getException().getMessage());
+            }
+        }
+        assertEquals(errorIndex, result.getErrors().size());
+    }
+}
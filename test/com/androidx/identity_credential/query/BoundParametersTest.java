@@ -0,0 +1,167 @@
+package com.androidx.identity_credential.query;
+
+import co.nstant.in.cbor.model.DataItem;
+import co.nstant.in.cbor.model.SimpleValue;
+import co.nstant.in.cbor.model.UnsignedInteger;
+import com.sun.management.ThreadMXBean;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.GregorianCalendar;
+import java.util.Random;
+
+import static com.androidx.identity_credential.query.ICQueryExecutor.*;
+import static com.androidx.identity_credential.query.ParameterSet.DATE_TAG;
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BoundParametersTest {
+
+    private ICQueryExecutor mExecutor = new ICQueryExecutor();
+
+    @Test
+    void assignsOneSlotPerDistinctReference() throws QueryException {
+        CompiledQuery query = mExecutor.compile(
+                new QueryBuilder().param(TYPE_INTEGER, "a").param(TYPE_INTEGER, "b").op(LESS_THAN)
+                                  .param(TYPE_INTEGER, "a").param(TYPE_INTEGER, "c").op(LESS_THAN)
+                                  .op(AND).data("birth_date").param(DATE_TAG, TYPE_STRING, "a")
+                                  .op(DATE_TAG, LESS_THAN).op(AND).build());
+        ParameterLayout layout = query.getParameterLayout();
+        assertEquals(4, layout.getSlotCount());
+        assertEquals("a", layout.getName(0));
+        assertEquals("b", layout.getName(1));
+        assertEquals("c", layout.getName(2));
+        assertEquals("a", layout.getName(3));
+        assertEquals(DATE_TAG, layout.getTag(3).getValue());
+    }
+
+    @Test
+    void rejectsParametersWhenBinding() throws QueryException {
+        ParameterLayout layout = mExecutor.compile(
+                new QueryBuilder().param(TYPE_BOOLEAN, "flag").param(TYPE_INTEGER, "a")
+                                  .param(TYPE_INTEGER, "b").op(EQUAL).op(AND).build())
+                                          .getParameterLayout();
+        ParameterSet params = new ParameterSetBuilder().add("a", 1).add("b", "two").build();
+        params.put("flag", SimpleValue.FALSE);
+        assertBindFails(layout, params, "query type does not match");
+
+        params.remove("b");
+        assertBindFails(layout, params, "no parameter named b");
+
+        params.put("b", new UnsignedInteger(2));
+        assertNotNull(layout.bind(params));
+    }
+
+    @Test
+    void requiresMatchingLayout() throws QueryException {
+        CompiledQuery query = mExecutor.compile(
+                new QueryBuilder().param(TYPE_INTEGER, "a").param(TYPE_INTEGER, "b").op(LESS_THAN)
+                                  .build());
+        CompiledQuery sameLayout = mExecutor.compile(
+                new QueryBuilder().param(TYPE_INTEGER, "a").param(TYPE_INTEGER, "b")
+                                  .op(GREATER_THAN).build());
+        CompiledQuery otherLayout = mExecutor.compile(
+                new QueryBuilder().param(TYPE_INTEGER, "b").param(TYPE_INTEGER, "a").op(LESS_THAN)
+                                  .build());
+        BoundParameters bound = query.getParameterLayout().bind(
+                new ParameterSetBuilder().add("a", 1).add("b", 2).build());
+
+        assertEquals(query.getParameterLayout(), sameLayout.getParameterLayout());
+        assertTrue(mExecutor.execute(query, bound, null));
+        assertFalse(mExecutor.execute(sameLayout, bound, null));
+        try {
+            mExecutor.execute(otherLayout, bound, null);
+            fail();
+        } catch (QueryException e) {
+            assertThat(e.getMessage(), containsString("different parameter layout"));
+        }
+    }
+
+    @Test
+    void bindingTakesASnapshot() throws QueryException {
+        CompiledQuery query = mExecutor.compile(
+                new QueryBuilder().param(DATE_TAG, TYPE_STRING, "from")
+                                  .param(DATE_TAG, TYPE_STRING, "to").op(DATE_TAG, LESS_THAN)
+                                  .build());
+        ParameterSet params = new ParameterSetBuilder()
+                .add("from", new GregorianCalendar(2019, 0, 1).getTime())
+                .add("to", new GregorianCalendar(2020, 0, 1).getTime()).build();
+        BoundParameters bound = query.getParameterLayout().bind(params);
+
+        params.put("to", params.get("from"));
+        assertFalse(mExecutor.execute(query, params, null));
+        assertTrue(mExecutor.execute(query, bound, null));
+    }
+
+    @Test
+    void matchesParameterSetOnRandomQueries() throws QueryException {
+        Random random = new Random(18013);
+        for (int i = 0; i < 2000; i++) {
+            RandomQueries.Case testCase = RandomQueries.generate(random, 4, 0.05);
+            CompiledQuery query = mExecutor.compile(testCase.query);
+            BoundParameters bound;
+            try {
+                bound = query.getParameterLayout().bind(testCase.parameters);
+            } catch (QueryException e) {
+                // Binding checks every slot, including ones short-circuiting would skip.
+                continue;
+            }
+            assertEquals(evaluate(query, testCase.parameters, testCase.dataSet),
+                    evaluate(query, bound, testCase.dataSet), testCase.query.toString());
+        }
+    }
+
+    @Test
+    void evaluationDoesNotAllocate() throws QueryException {
+        DataItem ageRef = QueryBuilder.dataRef("age");
+        CompiledQuery query = mExecutor.compile(
+                new QueryBuilder().add(ageRef).param(TYPE_INTEGER, "min").op(GREATER_OR_EQUAL)
+                                  .param(TYPE_STRING, "country").param(TYPE_STRING, "expected")
+                                  .op(EQUAL).op(AND).build());
+        BoundParameters bound = query.getParameterLayout().bind(
+                new ParameterSetBuilder().add("min", 21).add("country", "US")
+                                         .add("expected", "US").build());
+        DataItem age = new UnsignedInteger(30);
+        DataSet dataSet = entry -> age;
+
+        for (int i = 0; i < 20000; i++) {
+            assertTrue(mExecutor.execute(query, bound, dataSet));
+        }
+
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 10000; i++) {
+            mExecutor.execute(query, bound, dataSet);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        assertTrue(allocated < 1024, "Allocated " + allocated + " bytes");
+    }
+
+    private void assertBindFails(ParameterLayout layout, ParameterSet params, String message) {
+        try {
+            layout.bind(params);
+            fail();
+        } catch (QueryException e) {
+            assertThat(e.getMessage(), containsString(message));
+        }
+    }
+
+    private Object evaluate(CompiledQuery query, ParameterSet params, DataSet dataSet) {
+        try {
+            return mExecutor.execute(query, params, dataSet);
+        } catch (QueryException e) {
+            return e.getMessage();
+        }
+    }
+
+    private Object evaluate(CompiledQuery query, BoundParameters bound, DataSet dataSet) {
+        try {
+            return mExecutor.execute(query, bound, dataSet);
+        } catch (QueryException e) {
+            return e.getMessage();
+        }
+    }
+}
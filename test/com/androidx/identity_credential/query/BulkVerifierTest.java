@@ -0,0 +1,185 @@
+package com.androidx.identity_credential.query;
+
+import co.nstant.in.cbor.CborBuilder;
+import co.nstant.in.cbor.CborDecoder;
+import co.nstant.in.cbor.CborEncoder;
+import co.nstant.in.cbor.CborException;
+import co.nstant.in.cbor.model.Array;
+import co.nstant.in.cbor.model.DataItem;
+import co.nstant.in.cbor.model.Map;
+import co.nstant.in.cbor.model.UnicodeString;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import static com.androidx.identity_credential.query.ICQueryExecutor.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BulkVerifierTest {
+
+    private ICQueryExecutor mExecutor = new ICQueryExecutor();
+    private Path mInput;
+    private Path mOutput;
+
+    @BeforeEach
+    void createFiles() throws IOException {
+        mInput = Files.createTempFile("bulk", ".records");
+        mOutput = Files.createTempFile("bulk", ".results");
+    }
+
+    @AfterEach
+    void deleteFiles() throws IOException {
+        Files.deleteIfExists(mInput);
+        Files.deleteIfExists(mOutput);
+    }
+
+    @Test
+    void matchesDirectEvaluation() throws IOException, CborException {
+        BulkRecordGenerator.write(mInput, 3000, 24);
+        List<Integer> expected = expectedStatuses(Files.readAllBytes(mInput));
+
+        BulkVerifier.Report report = new BulkVerifier(mExecutor, 3, 4096).run(mInput, mOutput);
+        assertEquals(expected, statuses(Files.readAllBytes(mOutput)));
+        assertEquals(3000, report.getRecordCount());
+        assertEquals(3000, report.getLatency().getCount());
+        assertTrue(report.getMatchedCount() > 0);
+        assertTrue(report.getNotMatchedCount() > 0);
+        assertTrue(report.getRejectedCount() > 0);
+        assertEquals(0, report.getMalformedCount());
+        assertTrue(report.getRecordsPerSecond() > 0);
+
+        // One thread and one large buffer write the same results.
+        byte[] results = Files.readAllBytes(mOutput);
+        new BulkVerifier(mExecutor, 1).run(mInput, mOutput);
+        assertArrayEquals(results, Files.readAllBytes(mOutput));
+    }
+
+    @Test
+    void handlesIrregularRecords() throws IOException, CborException {
+        Array query = new QueryBuilder().data("name").param(TYPE_STRING, "name").op(EQUAL)
+                                        .build();
+        char[] longName = new char[300];
+        Arrays.fill(longName, 'n');
+        Map parameters = new Map();
+        parameters.put(new UnicodeString("name"), new UnicodeString(new String(longName)));
+        Map dataSet = new Map();
+        dataSet.put(QueryBuilder.dataRef("name"), new UnicodeString(new String(longName)));
+
+        List<byte[]> records = new ArrayList<>();
+        records.add(encode(record(query, parameters, dataSet)));
+        records.add(new byte[]{1, 2, 3});
+        records.add(encode(record(query, new Map(), dataSet)));
+        records.add(encode(record(query, new UnicodeString("name"), dataSet)));
+        Array dateQuery = new QueryBuilder().data("name")
+                                            .param(ParameterSet.DATE_TAG, TYPE_STRING, "name")
+                                            .op(ParameterSet.DATE_TAG, LESS_OR_EQUAL).build();
+        Map malformedDate = new Map();
+        malformedDate.put(new UnicodeString("name"), new CborBuilder().add("2019-02-30")
+                .tagged(ParameterSet.DATE_TAG).build().get(0));
+        Map dateDataSet = new Map();
+        dateDataSet.put(QueryBuilder.dataRef("name"), new CborBuilder().add("2019-02-01")
+                .tagged(ParameterSet.DATE_TAG).build().get(0));
+        records.add(encode(record(dateQuery, malformedDate, dateDataSet)));
+        records.add(new byte[0]);
+        // An indefinite-length record array, which the decoder reads.
+        byte[] definite = encode(record(query, parameters, new Map()));
+        byte[] indefinite = Arrays.copyOf(definite, definite.length + 1);
+        indefinite[0] = (byte) 0x9f;
+        indefinite[definite.length] = (byte) 0xff;
+        records.add(indefinite);
+        Files.write(mInput, frame(records));
+
+        new BulkVerifier(mExecutor, 2, 64).run(mInput, mOutput);
+        assertEquals(Arrays.asList(BulkVerifier.STATUS_TRUE,
+                BulkVerifier.STATUS_MALFORMED_RECORD,
+                BulkVerifier.status(QueryError.UNKNOWN_PARAMETER),
+                BulkVerifier.STATUS_MALFORMED_RECORD,
+                BulkVerifier.status(QueryError.MALFORMED_DATE),
+                BulkVerifier.STATUS_MALFORMED_RECORD,
+                BulkVerifier.status(QueryError.UNKNOWN_DATA_ELEMENT)),
+                statuses(Files.readAllBytes(mOutput)));
+        assertEquals(QueryError.UNKNOWN_PARAMETER,
+                BulkVerifier.error(BulkVerifier.status(QueryError.UNKNOWN_PARAMETER)));
+        assertNull(BulkVerifier.error(BulkVerifier.STATUS_MALFORMED_RECORD));
+
+        // A file that ends inside a record.
+        byte[] framed = frame(records);
+        Files.write(mInput, Arrays.copyOf(framed, framed.length - 1));
+        assertThrows(IOException.class, () -> new BulkVerifier(mExecutor, 2, 64).run(mInput,
+                mOutput));
+        Files.write(mInput, new byte[]{(byte) 0x80, 0, 0, 0});
+        assertThrows(IOException.class, () -> new BulkVerifier(mExecutor, 2, 64).run(mInput,
+                mOutput));
+    }
+
+    /** Returns the status of each framed record, from evaluating its decoded query directly. */
+    private List<Integer> expectedStatuses(byte[] input) throws CborException {
+        List<Integer> statuses = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.wrap(input);
+        while (buffer.hasRemaining()) {
+            byte[] record = new byte[buffer.getInt()];
+            buffer.get(record);
+            List<DataItem> items = ((Array) CborDecoder.decode(record).get(0)).getDataItems();
+            ParameterSet parameters = new ParameterSet();
+            Map encodedParameters = (Map) items.get(1);
+            for (DataItem name : encodedParameters.getKeys()) {
+                parameters.put(((UnicodeString) name).getString(), encodedParameters.get(name));
+            }
+            Map encodedDataSet = (Map) items.get(2);
+            HashMap<DataItem, DataItem> elements = new HashMap<>();
+            for (DataItem reference : encodedDataSet.getKeys()) {
+                elements.put(reference, encodedDataSet.get(reference));
+            }
+            QueryResult result = mExecutor.evaluate((Array) items.get(0), parameters,
+                    elements::get);
+            statuses.add(result.isError() ? BulkVerifier.status(result.getError()) :
+                         result.isTrue() ? BulkVerifier.STATUS_TRUE : BulkVerifier.STATUS_FALSE);
+        }
+        return statuses;
+    }
+
+    /** Returns the statuses in a results file, checking that the indices are in order. */
+    private static List<Integer> statuses(byte[] output) {
+        assertEquals(0, output.length % BulkVerifier.RESULT_SIZE);
+        List<Integer> statuses = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.wrap(output);
+        while (buffer.hasRemaining()) {
+            assertEquals(statuses.size(), buffer.getLong());
+            statuses.add(buffer.get() & 0xff);
+        }
+        return statuses;
+    }
+
+    private static Array record(Array query, DataItem parameters, DataItem dataSet) {
+        Array record = new Array();
+        record.add(query);
+        record.add(parameters);
+        record.add(dataSet);
+        return record;
+    }
+
+    private static byte[] frame(List<byte[]> records) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] record : records) {
+            out.write(ByteBuffer.allocate(4).putInt(record.length).array(), 0, 4);
+            out.write(record, 0, record.length);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] encode(DataItem item) throws CborException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new CborEncoder(out).encode(item);
+        return out.toByteArray();
+    }
+}
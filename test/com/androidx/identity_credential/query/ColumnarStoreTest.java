@@ -0,0 +1,160 @@
+package com.androidx.identity_credential.query;
+
+import co.nstant.in.cbor.CborBuilder;
+import co.nstant.in.cbor.model.DataItem;
+import co.nstant.in.cbor.model.UnicodeString;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static com.androidx.identity_credential.query.ICQueryExecutor.*;
+import static com.androidx.identity_credential.query.ParameterSet.DATE_TAG;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ColumnarStoreTest {
+
+    private static final List<String> NAMES =
+            Arrays.asList("int", "big", "string", "date", "bool");
+
+    private ICQueryExecutor mExecutor = new ICQueryExecutor();
+    private Path mFile;
+
+    @BeforeEach
+    void createFile() throws IOException {
+        mFile = Files.createTempFile("columnar", ".store");
+    }
+
+    @AfterEach
+    void deleteFile() throws IOException {
+        Files.deleteIfExists(mFile);
+    }
+
+    @Test
+    void storesEveryKindOfValue() throws IOException {
+        List<DataSet> records = new ArrayList<>();
+        records.add(new DataSetBuilder().add("int", -5).add("big", Long.MIN_VALUE)
+                                        .add("string", "h\u00e9llo")
+                                        .add("date", date("2019-02-28")).add("bool", true)
+                                        .build());
+        records.add(new DataSetBuilder()
+                .add("int", new CborBuilder().add(BigInteger.ONE.shiftLeft(63)).build().get(0))
+                .add("big", new CborBuilder().add(7).tagged(24).build().get(0))
+                .add("string", new CborBuilder().add("x").tagged(32).build().get(0))
+                .add("date", date("2019-02-30"))
+                .add("bool", new CborBuilder().addArray().add(1).end().build().get(0))
+                .build());
+        records.add(new DataSetBuilder().add("bool", false).build());
+        for (int i = 0; i < 100; i++) {
+            records.add(new DataSetBuilder().add("int", i).add("string", "s" + i % 3)
+                                            .add("bool", i % 5 == 0).build());
+        }
+        ColumnarStoreWriter.write(mFile, references(), records);
+
+        ColumnarStore store = ColumnarStore.open(mFile);
+        assertEquals(records.size(), store.size());
+        assertEquals(references(), store.getDataReferences());
+        ColumnarStore.Cursor cursor = store.cursor();
+        for (int row = 0; row < records.size(); row++) {
+            cursor.moveTo(row);
+            for (DataItem reference : references()) {
+                assertEquals(records.get(row).getDataElement(reference),
+                        cursor.getDataElement(reference), "record " + row + " " + reference);
+            }
+        }
+        assertNull(cursor.getDataElement(QueryBuilder.dataRef("other")));
+    }
+
+    @Test
+    void rejectsOtherFiles() throws IOException {
+        Files.write(mFile, new byte[]{1, 2, 3});
+        assertThrows(IOException.class, () -> ColumnarStore.open(mFile));
+    }
+
+    @Test
+    void matchesDataSetEvaluation() throws IOException, QueryException {
+        Random random = new Random(19);
+        List<DataSet> records = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            DataSetBuilder.MapDataSet record = RandomQueries.dataSet(random);
+            if (random.nextInt(10) == 0) {
+                record.remove(QueryBuilder.dataRef(NAMES.get(random.nextInt(NAMES.size()))));
+            }
+            if (random.nextInt(10) == 0) {
+                record.put(QueryBuilder.dataRef("int"), new UnicodeString("one"));
+            }
+            records.add(record);
+        }
+        ColumnarStoreWriter.write(mFile, references(), records);
+        ColumnarStore store = ColumnarStore.open(mFile);
+
+        for (int q = 0; q < 100; q++) {
+            RandomQueries.Case testCase = RandomQueries.generate(random, 4, 0.1);
+            CompiledQuery query = mExecutor.compile(testCase.query);
+            BatchResult result = store.execute(mExecutor, query, testCase.parameters);
+            int errorIndex = 0;
+            for (int i = 0; i < records.size(); i++) {
+                try {
+                    assertEquals(mExecutor.execute(query, testCase.parameters, records.get(i)),
+                            result.matches(i));
+                } catch (QueryException e) {
+                    BatchResult.ItemError error = result.getErrors().get(errorIndex++);
+                    assertEquals(i, error.getIndex());
+                    assertEquals(e.getError(), error.getError());
+                    assertTrue(error.getEntryIndex() >= 0);
+                    assertEquals(e.getMessage(), error.getException().getMessage());
+                }
+            }
+            assertEquals(errorIndex, result.getErrors().size());
+        }
+
+        // Elements that were not written are unknown.
+        QueryResult unknown = mExecutor.evaluate(
+                mExecutor.compile(new QueryBuilder().data("other").build()), new ParameterSet(),
+                store.cursor());
+        assertEquals(QueryError.UNKNOWN_DATA_ELEMENT, unknown.getError());
+    }
+
+    @Test
+    void comparesLargeDictionariesAsBytes() throws IOException, QueryException {
+        List<DataSet> records = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            records.add(new DataSetBuilder().add("string", "n\u00famero " + i % 600).build());
+        }
+        ColumnarStoreWriter.write(mFile, references(), records);
+        ColumnarStore store = ColumnarStore.open(mFile);
+
+        CompiledQuery query = mExecutor.compile(new QueryBuilder().data("string")
+                                                                  .param(TYPE_STRING, "name")
+                                                                  .op(EQUAL).build());
+        ParameterSet params = new ParameterSetBuilder().add("name", "n\u00famero 7").build();
+        BatchResult result = store.execute(mExecutor, query, params);
+        assertEquals(2, result.getMatches().cardinality());
+        assertTrue(result.matches(7));
+        assertTrue(result.matches(607));
+
+        // The same query specialized to a constant, which has no dictionary id.
+        result = store.execute(mExecutor, mExecutor.specialize(query, params), new ParameterSet());
+        assertEquals(2, result.getMatches().cardinality());
+    }
+
+    private static List<DataItem> references() {
+        List<DataItem> references = new ArrayList<>();
+        for (String name : NAMES) {
+            references.add(QueryBuilder.dataRef(name));
+        }
+        return references;
+    }
+
+    private static DataItem date(String date) {
+        return new CborBuilder().add(date).tagged(DATE_TAG).build().get(0);
+    }
+}
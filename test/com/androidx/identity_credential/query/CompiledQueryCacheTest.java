@@ -0,0 +1,167 @@
+package com.androidx.identity_credential.query;
+
+import co.nstant.in.cbor.CborEncoder;
+import co.nstant.in.cbor.CborException;
+import co.nstant.in.cbor.model.Array;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.androidx.identity_credential.query.ICQueryExecutor.*;
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompiledQueryCacheTest {
+
+    private ICQueryExecutor mExecutor = new ICQueryExecutor();
+
+    @Test
+    void returnsCachedQueryForSameBytes() throws Exception {
+        CompiledQueryCache cache = new CompiledQueryCache(mExecutor, 10, 1 << 20);
+        Array query = new QueryBuilder().param(TYPE_INTEGER, "a").param(TYPE_INTEGER, "b")
+                                        .op(LESS_THAN).build();
+
+        CompiledQuery first = cache.get(encode(query));
+        assertSame(first, cache.get(encode(query)));
+        assertSame(first, cache.get(query));
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.size());
+
+        ParameterSet params = new ParameterSetBuilder().add("a", 1).add("b", 2).build();
+        assertTrue(mExecutor.execute(first, params, null));
+    }
+
+    @Test
+    void sharesEntryBetweenEncodings() throws Exception {
+        CompiledQueryCache cache = new CompiledQueryCache(mExecutor, 10, 1 << 20);
+        byte[] canonical = encode(new QueryBuilder().param(TYPE_INTEGER, "a")
+                                                    .param(TYPE_INTEGER, "b").op(LESS_THAN)
+                                                    .build());
+        // The same array with its length in a non-minimal head, and with an indefinite length.
+        byte[] longHead = new byte[canonical.length + 1];
+        longHead[0] = (byte) 0x98;
+        longHead[1] = 3;
+        System.arraycopy(canonical, 1, longHead, 2, canonical.length - 1);
+        byte[] indefinite = Arrays.copyOf(canonical, canonical.length + 1);
+        indefinite[0] = (byte) 0x9f;
+        indefinite[canonical.length] = (byte) 0xff;
+
+        CompiledQuery first = cache.get(longHead);
+        assertSame(first, cache.get(indefinite));
+        assertSame(first, cache.get(canonical));
+        assertSame(first, cache.get(longHead));
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(3, cache.getHitCount());
+    }
+
+    @Test
+    void cachesMalformedQueries() throws Exception {
+        CompiledQueryCache cache = new CompiledQueryCache(mExecutor, 10, 1 << 20);
+        byte[] garbage = {(byte) 0x83, 0x01};
+        byte[] unbalanced = encode(new QueryBuilder().param(TYPE_INTEGER, "a")
+                                                     .param(TYPE_INTEGER, "b").build());
+
+        for (int i = 0; i < 3; i++) {
+            try {
+                cache.get(garbage);
+                fail();
+            } catch (QueryException e) {
+                assertThat(e.getMessage(), containsString("not a well-formed CBOR array"));
+            }
+            try {
+                cache.get(unbalanced);
+                fail();
+            } catch (QueryException e) {
+                assertThat(e.getMessage(), containsString("stack elements remaining"));
+            }
+        }
+        assertEquals(2, cache.getMissCount());
+        assertEquals(4, cache.getHitCount());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsed() throws Exception {
+        CompiledQueryCache cache = new CompiledQueryCache(mExecutor, 2, 1 << 20);
+        byte[] a = encode(new QueryBuilder().param(TYPE_BOOLEAN, "a").build());
+        byte[] b = encode(new QueryBuilder().param(TYPE_BOOLEAN, "b").build());
+        byte[] c = encode(new QueryBuilder().param(TYPE_BOOLEAN, "c").build());
+
+        CompiledQuery queryA = cache.get(a);
+        cache.get(b);
+        cache.get(a);
+        cache.get(c);
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+
+        // b was least recently used, so a is still cached and b is compiled again.
+        assertSame(queryA, cache.get(a));
+        long misses = cache.getMissCount();
+        cache.get(b);
+        assertEquals(misses + 1, cache.getMissCount());
+    }
+
+    @Test
+    void respectsMemoryBudget() throws Exception {
+        CompiledQueryCache cache = new CompiledQueryCache(mExecutor, 1000, 4096);
+        for (int i = 0; i < 200; i++) {
+            cache.get(encode(new QueryBuilder().param(TYPE_BOOLEAN, "param" + i).build()));
+            assertTrue(cache.getEstimatedBytes() <= 4096);
+        }
+        assertTrue(cache.size() < 200);
+        assertEquals(200 - cache.size(), cache.getEvictionCount());
+    }
+
+    @Test
+    void concurrentAccess() throws Exception {
+        CompiledQueryCache cache = new CompiledQueryCache(mExecutor, 16, 1 << 20);
+        List<byte[]> queries = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+            queries.add(encode(new QueryBuilder().param(TYPE_INTEGER, "a")
+                                                 .param(TYPE_INTEGER, "b" + i).op(EQUAL)
+                                                 .build()));
+        }
+        ParameterSet params = new ParameterSet();
+        params.putAll(new ParameterSetBuilder().add("a", 3).build());
+        for (int i = 0; i < 32; i++) {
+            params.putAll(new ParameterSetBuilder().add("b" + i, i).build());
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                int offset = t;
+                futures.add(pool.submit(() -> {
+                    for (int i = 0; i < 2000; i++) {
+                        int index = (i * 7 + offset) % queries.size();
+                        assertEquals(index == 3,
+                                mExecutor.execute(cache.get(queries.get(index)), params, null));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(16000, cache.getHitCount() + cache.getMissCount());
+        assertTrue(cache.size() <= 16);
+    }
+
+    private static byte[] encode(Array query) throws CborException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new CborEncoder(out).encode(query);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,337 @@
+package com.androidx.identity_credential.query;
+
+import co.nstant.in.cbor.model.Array;
+import co.nstant.in.cbor.model.DataItem;
+import co.nstant.in.cbor.model.Number;
+import co.nstant.in.cbor.model.Tag;
+import co.nstant.in.cbor.model.UnicodeString;
+import co.nstant.in.cbor.model.UnsignedInteger;
+import com.sun.management.ThreadMXBean;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Random;
+
+import static com.androidx.identity_credential.query.ICQueryExecutor.*;
+import static com.androidx.identity_credential.query.ParameterSet.DATE_TAG;
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompiledQueryTest {
+
+    private ICQueryExecutor mExecutor = new ICQueryExecutor();
+
+    @Test
+    void rejectsMalformedQueries() {
+        assertCompileFails(new Array(), "Invalid query");
+        assertCompileFails(new QueryBuilder().param(TYPE_BOOLEAN, "a").param(TYPE_BOOLEAN, "b")
+                                             .build(), "2 stack elements remaining");
+        assertCompileFails(new QueryBuilder().param(TYPE_BOOLEAN, "a").op(AND).build(),
+                "missing operands");
+        assertCompileFails(new QueryBuilder().param(TYPE_BOOLEAN, "a").op(UNARY_NOT + 1).build(),
+                "unknown operator");
+        assertCompileFails(new QueryBuilder().param(TYPE_BOOLEAN + 1, "a").build(),
+                "unknown type specifier");
+        assertCompileFails(new QueryBuilder().add(new UnsignedInteger(1)).build(), "missing tag");
+
+        UnsignedInteger badTag = new UnsignedInteger(1);
+        badTag.setTag(1000);
+        assertCompileFails(new QueryBuilder().add(badTag).build(), "invalid tag");
+    }
+
+    @Test
+    void computesStackDepth() throws QueryException {
+        CompiledQuery query = mExecutor.compile(
+                new QueryBuilder().param(TYPE_BOOLEAN, "a").param(TYPE_BOOLEAN, "b")
+                                  .param(TYPE_BOOLEAN, "c").op(AND).op(OR).build());
+        // Two operators plus a conditional jump for each.
+        assertEquals(7, query.getInstructionCount());
+        assertEquals(3, query.getMaxStackDepth());
+    }
+
+    @Test
+    void matchesInterpreterOnParameters() throws QueryException {
+        ParameterSet params = new ParameterSetBuilder().add("i1", 1).add("i2", -7)
+                                                       .add("s1", "hello").add("s2", "bob")
+                                                       .add("d1", new GregorianCalendar(2019, 12,
+                                                               10).getTime())
+                                                       .add("d2", new GregorianCalendar(1998, 12,
+                                                               10).getTime()).build();
+        for (int op = LESS_THAN; op <= GREATER_OR_EQUAL; op++) {
+            assertSameResult(new QueryBuilder().param(TYPE_INTEGER, "i1").param(TYPE_INTEGER, "i2")
+                                               .op(op).build(), params, null);
+            assertSameResult(new QueryBuilder().param(TYPE_STRING, "s1").param(TYPE_STRING, "s2")
+                                               .op(op).build(), params, null);
+            assertSameResult(new QueryBuilder().param(DATE_TAG, TYPE_STRING, "d1")
+                                               .param(DATE_TAG, TYPE_STRING, "d2")
+                                               .op(DATE_TAG, op).build(), params, null);
+        }
+    }
+
+    @Test
+    void shortCircuitSkipsDataLookups() throws QueryException {
+        CompiledQuery andQuery = mExecutor.compile(
+                new QueryBuilder().param(TYPE_INTEGER, "a").param(TYPE_INTEGER, "b").op(EQUAL)
+                                  .data("age").param(TYPE_INTEGER, "b").op(GREATER_THAN)
+                                  .data("country").param(TYPE_STRING, "country").op(EQUAL)
+                                  .op(OR).op(AND).build());
+        ParameterSet unequal = new ParameterSetBuilder().add("a", 1).add("b", 2)
+                                                        .add("country", "US").build();
+        ParameterSet equal = new ParameterSetBuilder().add("a", 2).add("b", 2)
+                                                      .add("country", "US").build();
+        ExecutionContext context = new ExecutionContext();
+
+        DataSetBuilder.MapDataSet dataSet = new DataSetBuilder().add("age", 30)
+                                                                .add("country", "CA").build();
+        assertFalse(mExecutor.execute(andQuery, unequal, dataSet, context));
+        assertEquals(0, dataSet.getLookupCount());
+        assertEquals(0, context.getDataLookupCount());
+        assertEquals(2, context.getSkippedDataLookupCount());
+
+        assertTrue(mExecutor.execute(andQuery, equal, dataSet, context));
+        assertEquals(1, dataSet.getLookupCount());
+        assertEquals(1, context.getDataLookupCount());
+        assertEquals(1, context.getSkippedDataLookupCount());
+
+        // A skipped operand is not type checked, matching the usual short-circuit rules.
+        CompiledQuery mistyped = mExecutor.compile(
+                new QueryBuilder().param(TYPE_INTEGER, "a").param(TYPE_INTEGER, "b").op(EQUAL)
+                                  .data("country").op(AND).build());
+        assertFalse(mExecutor.execute(mistyped, unequal, dataSet));
+        try {
+            mExecutor.execute(mistyped, equal, dataSet);
+            fail();
+        } catch (QueryException e) {
+            assertThat(e.getMessage(), containsString("Invalid query"));
+        }
+    }
+
+    @Test
+    void compilesDeepQueries() throws QueryException {
+        // Deep enough to overflow the thread stack if the tree were walked recursively.
+        int depth = 100000;
+        QueryBuilder leftDeep = new QueryBuilder().data("t");
+        QueryBuilder rightDeep = new QueryBuilder().data("t");
+        for (int i = 1; i < depth; i++) {
+            leftDeep.data("t").op(AND);
+            rightDeep.data("f");
+        }
+        for (int i = 1; i < depth; i++) {
+            rightDeep.op(OR);
+        }
+        DataSet dataSet = new DataSetBuilder().add("t", true).add("f", false).build();
+        ParameterSet params = new ParameterSet();
+
+        Array leftQuery = leftDeep.build();
+        assertSame(QueryResult.TRUE, mExecutor.evaluate(leftQuery, params, dataSet));
+        CompiledQuery left = new CompiledQueryCache(mExecutor, 10, 1 << 30).get(leftQuery);
+        assertEquals(2 * depth - 1 + depth - 1, left.getInstructionCount());
+        assertTrue(mExecutor.execute(left, params, dataSet));
+
+        // The first operand decides the outermost OR, which skips every other lookup.
+        ExecutionContext context = new ExecutionContext();
+        assertTrue(mExecutor.execute(mExecutor.compile(rightDeep.build()), params, dataSet,
+                context));
+        assertEquals(1, context.getDataLookupCount());
+        assertEquals(depth - 1, context.getSkippedDataLookupCount());
+    }
+
+    @Test
+    void prefetchesDistinctDataReferences() throws QueryException {
+        Array query = new QueryBuilder().data("age").param(TYPE_INTEGER, "min").op(GREATER_THAN)
+                                        .data("country").param(TYPE_STRING, "country").op(EQUAL)
+                                        .data("age").param(TYPE_INTEGER, "max").op(LESS_THAN)
+                                        .op(AND).op(AND).build();
+        ParameterSet params = new ParameterSetBuilder().add("min", 18).add("max", 65)
+                                                       .add("country", "US").build();
+        List<DataItem> expected = Arrays.asList(QueryBuilder.dataRef("age"),
+                QueryBuilder.dataRef("country"));
+
+        DataSetBuilder.MapDataSet dataSet = new DataSetBuilder().add("age", 30)
+                                                                .add("country", "US")
+                                                                .recordPrefetches().build();
+        assertTrue(mExecutor.execute(query, params, dataSet));
+        assertTrue(mExecutor.execute(mExecutor.compile(query), params, dataSet));
+        QueryGroup group = mExecutor.compileGroup(Arrays.asList(query, query));
+        assertArrayEquals(new QueryResult[] {QueryResult.TRUE, QueryResult.TRUE},
+                mExecutor.evaluate(group, params, dataSet));
+        assertEquals(Arrays.asList(expected, expected, expected), dataSet.getPrefetches());
+        assertEquals(expected, mExecutor.compile(query).getDataReferences());
+
+        // Queries without data references do not prefetch.
+        DataSetBuilder.MapDataSet unused = new DataSetBuilder().build();
+        mExecutor.execute(mExecutor.compile(new QueryBuilder().param(TYPE_INTEGER, "min")
+                                                               .param(TYPE_INTEGER, "max")
+                                                               .op(LESS_THAN).build()),
+                params, unused);
+        assertEquals(0, unused.getPrefetchCount());
+    }
+
+    @Test
+    void matchesInterpreterOnLargeIntegers() throws QueryException {
+        BigInteger[] values = {BigInteger.ONE.shiftLeft(64), BigInteger.valueOf(Long.MAX_VALUE),
+                BigInteger.valueOf(Long.MAX_VALUE).add(BigInteger.ONE), BigInteger.ZERO,
+                BigInteger.valueOf(Long.MIN_VALUE),
+                BigInteger.valueOf(Long.MIN_VALUE).subtract(BigInteger.ONE),
+                BigInteger.ONE.shiftLeft(64).negate()};
+        for (BigInteger a : values) {
+            for (BigInteger b : values) {
+                ParameterSet params = new ParameterSetBuilder().add("a", a).add("b", b).build();
+                for (int op = LESS_THAN; op <= GREATER_OR_EQUAL; op++) {
+                    assertSameResult(new QueryBuilder().param(TYPE_INTEGER, "a")
+                                                       .param(TYPE_INTEGER, "b").op(op).build(),
+                            params, null);
+                }
+            }
+        }
+    }
+
+    @Test
+    void evaluationDoesNotAllocate() throws QueryException {
+        DataItem ageRef = QueryBuilder.dataRef("age");
+        DataItem countryRef = QueryBuilder.dataRef("country");
+        CompiledQuery query = mExecutor.compile(
+                new QueryBuilder().add(ageRef).param(TYPE_INTEGER, "min").op(GREATER_OR_EQUAL)
+                                  .add(countryRef).param(TYPE_STRING, "country").op(EQUAL)
+                                  .op(AND).param(TYPE_INTEGER, "min").param(TYPE_INTEGER, "max")
+                                  .op(LESS_THAN).op(AND).op(UNARY_NOT).build());
+        ParameterSet params = new ParameterSetBuilder().add("min", 21).add("max", 100)
+                                                       .add("country", "US").build();
+        DataItem age = new UnsignedInteger(30);
+        DataItem country = new UnicodeString("US");
+        DataSet dataSet = entry -> entry == ageRef ? age : country;
+
+        for (int i = 0; i < 20000; i++) {
+            assertFalse(mExecutor.execute(query, params, dataSet));
+        }
+
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 10000; i++) {
+            mExecutor.execute(query, params, dataSet);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        // Allow for the bookkeeping of the allocation counter itself.
+        assertTrue(allocated < 1024, "Allocated " + allocated + " bytes");
+    }
+
+    @Test
+    void matchesInterpreterOnRandomQueries() throws QueryException {
+        Random random = new Random(18013);
+        for (int i = 0; i < 2000; i++) {
+            RandomQueries.Case testCase = RandomQueries.generate(random, 4, 0.05);
+            assertSameResult(testCase.query, testCase.parameters, testCase.dataSet);
+        }
+    }
+
+    private void assertCompileFails(Array query, String message) {
+        try {
+            mExecutor.compile(query);
+            fail();
+        } catch (QueryException e) {
+            assertThat(e.getMessage(), containsString(message));
+        }
+    }
+
+    private void assertSameResult(Array query, ParameterSet params, DataSet dataSet)
+            throws QueryException {
+        CompiledQuery compiled;
+        try {
+            compiled = mExecutor.compile(query);
+        } catch (QueryException e) {
+            // Only a query the interpreter rejects too may fail to compile.
+            assertNull(interpret(query.getDataItems(), params, dataSet), query.toString());
+            return;
+        }
+
+        Boolean actual;
+        try {
+            actual = mExecutor.execute(compiled, params, dataSet);
+        } catch (QueryException e) {
+            actual = null;
+        }
+        // Short-circuiting may skip an operand that the interpreter would have rejected, so the
+        // result is compared with the interpreter's on a query without the skipped operands.
+        List<DataItem> entries = query.getDataItems();
+        List<DataItem> shortCircuited = shortCircuit(entries, entries.size() - 1,
+                subtreeStarts(entries), params, dataSet);
+        assertEquals(interpret(shortCircuited, params, dataSet), actual, query.toString());
+    }
+
+    /**
+     * Returns the entries of the subtree ending at entry {@code end}, without the second operand
+     * of each {@code AND} or {@code OR} whose first operand decides its result, or the operator.
+     */
+    private List<DataItem> shortCircuit(List<DataItem> entries, int end, int[] starts,
+                                        ParameterSet params, DataSet dataSet) {
+        DataItem entry = entries.get(end);
+        int operator = operator(entry);
+        List<DataItem> result = new ArrayList<>();
+        if (operator < 0) {
+            result.add(entry);
+            return result;
+        }
+        if (operator == UNARY_NOT) {
+            result.addAll(shortCircuit(entries, end - 1, starts, params, dataSet));
+        } else {
+            // The second operand ends just before the operator, and the first just before that.
+            int endA = starts[end - 1] - 1;
+            result.addAll(shortCircuit(entries, endA, starts, params, dataSet));
+            if ((operator == AND || operator == OR) &&
+                Boolean.valueOf(operator == OR).equals(interpret(result, params, dataSet))) {
+                return result;
+            }
+            result.addAll(shortCircuit(entries, end - 1, starts, params, dataSet));
+        }
+        result.add(entry);
+        return result;
+    }
+
+    /** Returns the index of the first entry of the subtree ending at each entry. */
+    private static int[] subtreeStarts(List<DataItem> entries) {
+        int[] starts = new int[entries.size()];
+        Deque<Integer> stack = new ArrayDeque<>();
+        for (int i = 0; i < entries.size(); i++) {
+            int operator = operator(entries.get(i));
+            if (operator < 0) {
+                starts[i] = i;
+            } else if (operator == UNARY_NOT) {
+                starts[i] = stack.pop();
+            } else {
+                stack.pop();
+                starts[i] = stack.pop();
+            }
+            stack.push(starts[i]);
+        }
+        return starts;
+    }
+
+    /** Returns the operator of {@code entry}, or -1 if it is a reference. */
+    private static int operator(DataItem entry) {
+        Tag tag = (entry.getTag().getTag() != null) ? entry.getTag().getTag() : entry.getTag();
+        return (tag.getValue() == OPERATOR) ? ((Number) entry).getValue().intValue() : -1;
+    }
+
+    /** Returns the interpreter's result for {@code entries}, or null if it rejects them. */
+    private Boolean interpret(List<DataItem> entries, ParameterSet params, DataSet dataSet) {
+        Array query = new Array();
+        for (DataItem entry : entries) {
+            query.add(entry);
+        }
+        try {
+            return mExecutor.execute(query, params, dataSet);
+        } catch (QueryException e) {
+            return null;
+        }
+    }
+}
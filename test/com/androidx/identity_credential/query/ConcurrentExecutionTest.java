@@ -0,0 +1,92 @@
+package com.androidx.identity_credential.query;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConcurrentExecutionTest {
+
+    private static final int CASES = 500;
+
+    private final ICQueryExecutor mExecutor = new ICQueryExecutor();
+    private final List<RandomQueries.Case> mCases = new ArrayList<>();
+    private final List<CompiledQuery> mCompiled = new ArrayList<>();
+    private final List<Boolean> mExpected = new ArrayList<>();
+    private final List<Boolean> mExpectedCompiled = new ArrayList<>();
+
+    public ConcurrentExecutionTest() throws QueryException {
+        Random random = new Random(42);
+        ICQueryExecutor reference = new ICQueryExecutor();
+        for (int i = 0; i < CASES; i++) {
+            RandomQueries.Case testCase = RandomQueries.generate(random, 5, 0.05);
+            mCases.add(testCase);
+            mCompiled.add(mExecutor.compile(testCase.query));
+            mExpected.add(evaluate(reference, testCase, null));
+            mExpectedCompiled.add(evaluate(reference, testCase, mCompiled.get(i)));
+        }
+    }
+
+    @Test
+    void sharedExecutorUnderContention() throws Exception {
+        int threads = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+        long mismatches = run(threads, 200);
+        assertEquals(0, mismatches);
+    }
+
+    private long run(int threads, int iterations) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Callable<Long>> tasks = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int offset = t;
+                tasks.add(() -> {
+                    long mismatches = 0;
+                    for (int i = 0; i < iterations; i++) {
+                        for (int c = 0; c < CASES; c++) {
+                            int index = (c + offset * 31) % CASES;
+                            // Odd threads use the interpreter so both paths run concurrently.
+                            CompiledQuery compiled =
+                                    (offset % 2 == 0) ? mCompiled.get(index) : null;
+                            Boolean expected = (compiled != null) ? mExpectedCompiled.get(index) :
+                                               mExpected.get(index);
+                            if (!Objects.equals(evaluate(mExecutor, mCases.get(index), compiled),
+                                    expected)) {
+                                mismatches++;
+                            }
+                        }
+                    }
+                    return mismatches;
+                });
+            }
+
+            long mismatches = 0;
+            for (Future<Long> result : pool.invokeAll(tasks)) {
+                mismatches += result.get();
+            }
+            return mismatches;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static Boolean evaluate(ICQueryExecutor executor, RandomQueries.Case testCase,
+                                    CompiledQuery compiled) {
+        try {
+            if (compiled == null) {
+                return executor.execute(testCase.query, testCase.parameters, testCase.dataSet);
+            }
+            return executor.execute(compiled, testCase.parameters, testCase.dataSet);
+        } catch (QueryException e) {
+            return null;
+        }
+    }
+}
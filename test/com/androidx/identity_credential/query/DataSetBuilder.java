@@ -0,0 +1,100 @@
+package com.androidx.identity_credential.query;
+
+import co.nstant.in.cbor.CborBuilder;
+import co.nstant.in.cbor.model.DataItem;
+import co.nstant.in.cbor.model.SimpleValue;
+import co.nstant.in.cbor.model.UnicodeString;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DataSetBuilder {
+    private MapDataSet set = new MapDataSet();
+
+    public DataSetBuilder add(String name, String value) {
+        return add(name, new UnicodeString(value));
+    }
+
+    public DataSetBuilder add(String name, long value) {
+        return add(name, new CborBuilder().add(value).build().get(0));
+    }
+
+    public DataSetBuilder add(String name, boolean value) {
+        return add(name, value ? SimpleValue.TRUE : SimpleValue.FALSE);
+    }
+
+    public DataSetBuilder add(String name, Date value) {
+        return add(name, new CborBuilder().add(new SimpleDateFormat("yyyy-MM-dd").format(value))
+                                          .tagged(ParameterSet.DATE_TAG).build().get(0));
+    }
+
+    public DataSetBuilder add(String name, DataItem value) {
+        set.put(QueryBuilder.dataRef(name), value);
+        return this;
+    }
+
+    public DataSetBuilder cost(String name, double cost) {
+        set.costs.put(QueryBuilder.dataRef(name), cost);
+        return this;
+    }
+
+    /** Makes the data set keep a copy of every list it is asked to prefetch. */
+    public DataSetBuilder recordPrefetches() {
+        set.prefetches = Collections.synchronizedList(new ArrayList<>());
+        return this;
+    }
+
+    public MapDataSet build() {
+        return set;
+    }
+
+    public static class MapDataSet extends HashMap<DataItem, DataItem> implements DataSet {
+        private final AtomicInteger lookupCount = new AtomicInteger();
+        private final AtomicInteger prefetchCount = new AtomicInteger();
+        // Null unless recording was asked for, so that data sets shared between threads do not
+        // contend on the list or keep a copy of every prefetch.
+        private List<List<DataItem>> prefetches;
+        private final HashMap<DataItem, Double> costs = new HashMap<>();
+
+        @Override
+        public DataItem getDataElement(DataItem entry) {
+            lookupCount.incrementAndGet();
+            return get(entry);
+        }
+
+        @Override
+        public void prefetch(List<DataItem> entries) {
+            prefetchCount.incrementAndGet();
+            if (prefetches != null) {
+                prefetches.add(new ArrayList<>(entries));
+            }
+        }
+
+        @Override
+        public double getLookupCost(DataItem entry) {
+            return costs.getOrDefault(entry, 1.0);
+        }
+
+        public List<List<DataItem>> getPrefetches() {
+            if (prefetches == null) {
+                throw new IllegalStateException("Prefetches are not recorded");
+            }
+            synchronized (prefetches) {
+                return new ArrayList<>(prefetches);
+            }
+        }
+
+        public int getPrefetchCount() {
+            return prefetchCount.get();
+        }
+
+        public int getLookupCount() {
+            return lookupCount.get();
+        }
+    }
+}
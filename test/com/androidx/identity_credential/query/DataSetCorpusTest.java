@@ -0,0 +1,162 @@
+package com.androidx.identity_credential.query;
+
+import co.nstant.in.cbor.model.Array;
+import co.nstant.in.cbor.model.UnicodeString;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.androidx.identity_credential.query.ICQueryExecutor.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DataSetCorpusTest {
+
+    private ICQueryExecutor mExecutor = new ICQueryExecutor();
+
+    @Test
+    void readsOnlyUndecidedRecords() throws QueryException {
+        List<DataSetBuilder.MapDataSet> records = new ArrayList<>();
+        for (int age = 0; age < 100; age++) {
+            records.add(new DataSetBuilder().add("age", age).add("country", age % 2 == 0 ?
+                                                                            "US" : "CA").build());
+        }
+        records.add(new DataSetBuilder().add("age", "thirty").add("country", "US").build());
+        records.add(new DataSetBuilder().add("country", "US").build());
+        DataSetCorpus corpus = new DataSetCorpus(mExecutor, records);
+        corpus.addSortedIndex(QueryBuilder.dataRef("age"));
+        corpus.addHashIndex(QueryBuilder.dataRef("country"));
+
+        int[] lookups = lookupCounts(records);
+        Array query = new QueryBuilder().data("age").param(TYPE_INTEGER, "min")
+                                        .op(GREATER_OR_EQUAL).data("country")
+                                        .param(TYPE_STRING, "country").op(EQUAL).op(AND).build();
+        ParameterSet params = new ParameterSetBuilder().add("min", 90).add("country", "US")
+                                                       .build();
+        BatchResult result = corpus.select(query, params);
+
+        assertEquals(5, result.getMatches().cardinality());
+        assertTrue(result.matches(98));
+        assertFalse(result.matches(99));
+        assertEquals(2, result.getErrors().size());
+        assertEquals(100, result.getErrors().get(0).getIndex());
+        assertEquals(QueryError.OPERAND_TYPE_MISMATCH, result.getErrors().get(0).getError());
+        assertEquals(QueryError.UNKNOWN_DATA_ELEMENT, result.getErrors().get(1).getError());
+        assertEquals(QueryError.UNKNOWN_DATA_ELEMENT,
+                result.getErrors().get(1).getException().getError());
+
+        // Only the two records the age index holds no integer for are evaluated.
+        int[] after = lookupCounts(records);
+        for (int i = 0; i < records.size(); i++) {
+            assertEquals(i < 100 ? 0 : 1, after[i] - lookups[i], "record " + i);
+        }
+    }
+
+    @Test
+    void scansWithoutIndexes() throws QueryException {
+        List<DataSet> records = new ArrayList<>();
+        records.add(new DataSetBuilder().add("age", 30).build());
+        records.add(new DataSetBuilder().add("age", 18).build());
+        DataSetCorpus corpus = new DataSetCorpus(mExecutor, records);
+
+        BatchResult result = corpus.select(
+                new QueryBuilder().data("age").param(TYPE_INTEGER, "min").op(LESS_THAN).build(),
+                new ParameterSetBuilder().add("min", 21).build());
+        assertFalse(result.matches(0));
+        assertTrue(result.matches(1));
+        assertTrue(result.getErrors().isEmpty());
+    }
+
+    @Test
+    void plansDeepQueries() throws QueryException {
+        List<DataSet> records = new ArrayList<>();
+        for (int age = 0; age < 10; age++) {
+            records.add(new DataSetBuilder().add("age", age).add("t", true).build());
+        }
+        DataSetCorpus corpus = new DataSetCorpus(mExecutor, records);
+        corpus.addSortedIndex(QueryBuilder.dataRef("age"));
+
+        // Deep enough to overflow the thread stack if the tree were walked recursively.
+        QueryBuilder query = new QueryBuilder().data("age").param(TYPE_INTEGER, "min")
+                                               .op(GREATER_OR_EQUAL);
+        for (int i = 0; i < 100000; i++) {
+            query.data("t").op(AND);
+        }
+        BatchResult result = corpus.select(query.build(),
+                new ParameterSetBuilder().add("min", 5).build());
+        assertEquals(5, result.getMatches().cardinality());
+        assertEquals(5, result.getMatches().nextSetBit(0));
+        assertTrue(result.getErrors().isEmpty());
+    }
+
+    @Test
+    void matchesBruteForceOnRandomCorpora() throws QueryException {
+        Random random = new Random(18);
+        for (int c = 0; c < 10; c++) {
+            List<DataSet> records = new ArrayList<>();
+            for (int i = 0; i < 300; i++) {
+                DataSetBuilder.MapDataSet record = RandomQueries.dataSet(random);
+                // Some records have elements the indexes cannot hold.
+                if (random.nextInt(10) == 0) {
+                    record.remove(QueryBuilder.dataRef("date"));
+                }
+                if (random.nextInt(10) == 0) {
+                    record.put(QueryBuilder.dataRef("int"), new UnicodeString("one"));
+                }
+                if (random.nextInt(10) == 0) {
+                    record.put(QueryBuilder.dataRef("string"), QueryBuilder.dataRef("int"));
+                }
+                records.add(record);
+            }
+            DataSetCorpus corpus = new DataSetCorpus(mExecutor, records);
+            corpus.addSortedIndex(QueryBuilder.dataRef("int"));
+            corpus.addSortedIndex(QueryBuilder.dataRef("big"));
+            corpus.addSortedIndex(QueryBuilder.dataRef("date"));
+            if (c % 2 == 0) {
+                corpus.addHashIndex(QueryBuilder.dataRef("string"));
+            }
+
+            for (int q = 0; q < 50; q++) {
+                RandomQueries.Case testCase = RandomQueries.generate(random, 4, 0.1);
+                CompiledQuery query = mExecutor.compile(testCase.query);
+                assertBruteForceResult(corpus, query, testCase.parameters, records);
+
+                // A specialized query compares data elements with constants instead.
+                try {
+                    CompiledQuery specialized = mExecutor.specialize(query, testCase.parameters);
+                    assertBruteForceResult(corpus, specialized, new ParameterSet(), records);
+                } catch (QueryException e) {
+                    // The parameters do not fit the query, which the first check covered.
+                }
+            }
+        }
+    }
+
+    private void assertBruteForceResult(DataSetCorpus corpus, CompiledQuery query,
+                                        ParameterSet params, List<DataSet> records) {
+        BatchResult result = corpus.select(query, params);
+        int errorIndex = 0;
+        for (int i = 0; i < records.size(); i++) {
+            try {
+                assertEquals(mExecutor.execute(query, params, records.get(i)), result.matches(i),
+                        "record " + i);
+            } catch (QueryException e) {
+                assertFalse(result.matches(i));
+                BatchResult.ItemError error = result.getErrors().get(errorIndex++);
+                assertEquals(i, error.getIndex());
+                assertEquals(e.getError(), error.getError());
+                assertEquals(e.getMessage(), error.getException().getMessage());
+            }
+        }
+        assertEquals(errorIndex, result.getErrors().size());
+    }
+
+    private static int[] lookupCounts(List<DataSetBuilder.MapDataSet> records) {
+        int[] counts = new int[records.size()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = records.get(i).getLookupCount();
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,241 @@
+package com.androidx.identity_credential.query;
+
+import co.nstant.in.cbor.CborBuilder;
+import co.nstant.in.cbor.CborDecoder;
+import co.nstant.in.cbor.CborEncoder;
+import co.nstant.in.cbor.CborException;
+import co.nstant.in.cbor.model.Array;
+import co.nstant.in.cbor.model.DataItem;
+import co.nstant.in.cbor.model.UnicodeString;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.time.LocalDate;
+
+import static com.androidx.identity_credential.query.ICQueryExecutor.*;
+import static com.androidx.identity_credential.query.ParameterSet.DATE_TAG;
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.startsWith;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DatesTest {
+
+    private ICQueryExecutor mExecutor = new ICQueryExecutor();
+
+    @Test
+    void matchesLocalDate() {
+        for (LocalDate date = LocalDate.of(1896, 1, 1); date.getYear() < 2104;
+             date = date.plusDays(1)) {
+            assertEquals(date.toEpochDay(), Dates.toEpochDay(date.toString()));
+            assertEquals(date.toString(), Dates.toString(date.toEpochDay()));
+        }
+        assertEquals(LocalDate.of(0, 1, 1).toEpochDay(), Dates.toEpochDay("0000-01-01"));
+        assertEquals(LocalDate.of(9999, 12, 31).toEpochDay(), Dates.toEpochDay("9999-12-31"));
+        assertEquals("0000-01-01", Dates.toString(Dates.toEpochDay("0000-01-01")));
+        assertEquals("9999-12-31", Dates.toString(Dates.toEpochDay("9999-12-31")));
+    }
+
+    @Test
+    void rejectsMalformedDates() {
+        String[] malformed = {"", "2019-1-10", "2019-01-1", "19-01-10", "2019/01/10",
+                "2019-13-01", "2019-00-01", "2019-01-00", "2019-02-29", "1900-02-29",
+                "2019-04-31", "2019-01-10T00:00", "2019-0a-10", " 2019-01-10"};
+        for (String date : malformed) {
+            assertEquals(Dates.INVALID, Dates.toEpochDay(date), date);
+        }
+        assertEquals(LocalDate.of(2000, 2, 29).toEpochDay(), Dates.toEpochDay("2000-02-29"));
+    }
+
+    @Test
+    void queriesRejectMalformedDateParameters() throws QueryException {
+        Array query = new QueryBuilder().data("birth_date").param(DATE_TAG, TYPE_STRING, "cutoff")
+                                        .op(DATE_TAG, LESS_OR_EQUAL).build();
+        CompiledQuery compiled = mExecutor.compile(query);
+        DataSet dataSet = new DataSetBuilder().add("birth_date", date("2001-10-17")).build();
+
+        // A malformed date is accepted like any other value, and rejected when it is read.
+        ParameterSet params = new ParameterSet();
+        params.put("cutoff", date("2019-2-1"));
+        assertTrue(params.containsKey("cutoff"));
+        assertMalformedDate(() -> mExecutor.execute(query, params, dataSet));
+        assertMalformedDate(() -> mExecutor.execute(compiled, params, dataSet));
+        assertMalformedDate(() -> compiled.getParameterLayout().bind(params));
+        assertMalformedDate(() -> mExecutor.specialize(compiled, params));
+        assertEquals(QueryError.MALFORMED_DATE,
+                mExecutor.evaluate(compiled, params, dataSet).getError());
+
+        params.put("cutoff", date("2019-02-01"));
+        assertTrue(mExecutor.execute(compiled, params, dataSet));
+
+        // Untagged strings are not dates and are never parsed.
+        params.put("name", new UnicodeString("2019-2-1"));
+        assertTrue(mExecutor.execute(compiled, params, dataSet));
+    }
+
+    @Test
+    void clonesKeepTheirOwnDates() throws QueryException {
+        CompiledQuery query = mExecutor.compile(
+                new QueryBuilder().data("birth_date").param(DATE_TAG, TYPE_STRING, "cutoff")
+                                  .op(DATE_TAG, LESS_OR_EQUAL).build());
+        DataSet dataSet = new DataSetBuilder().add("birth_date", date("2001-10-17")).build();
+        ParameterSet base = new ParameterSet();
+        base.put("cutoff", date("2001-10-17"));
+
+        ParameterSet earlier = (ParameterSet) base.clone();
+        earlier.put("cutoff", date("1999-12-31"));
+        ParameterSet malformed = (ParameterSet) base.clone();
+        malformed.put("cutoff", date("2019-02-30"));
+        ParameterSet copy = (ParameterSet) base.clone();
+        base.remove("cutoff");
+
+        assertFalse(mExecutor.execute(query, earlier, dataSet));
+        assertMalformedDate(() -> mExecutor.execute(query, malformed, dataSet));
+        assertTrue(mExecutor.execute(query, copy, dataSet));
+        assertEquals(Dates.toEpochDay("2001-10-17"),
+                copy.getEpochDay("cutoff", copy.get("cutoff")));
+        assertFalse(base.containsKey("cutoff"));
+    }
+
+    @Test
+    void serializesDateParameters() throws Exception {
+        ParameterSet params = new ParameterSet();
+        params.put("cutoff", date("2001-10-17"));
+        params.put("malformed", date("2019-02-30"));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new CborObjectOutputStream(bytes)) {
+            out.writeObject(params);
+        }
+        ParameterSet copy;
+        try (ObjectInputStream in = new CborObjectInputStream(bytes.toByteArray())) {
+            copy = (ParameterSet) in.readObject();
+        }
+        assertEquals(params, copy);
+
+        // The deserialized set converts its dates again when they are first read.
+        CompiledQuery query = mExecutor.compile(
+                new QueryBuilder().data("birth_date").param(DATE_TAG, TYPE_STRING, "cutoff")
+                                  .op(DATE_TAG, LESS_OR_EQUAL).build());
+        assertTrue(mExecutor.execute(query, copy,
+                new DataSetBuilder().add("birth_date", date("1999-12-31")).build()));
+        assertTrue(mExecutor.execute(query, query.getParameterLayout().bind(copy),
+                new DataSetBuilder().add("birth_date", date("2001-10-17")).build()));
+        assertEquals(Dates.INVALID, copy.getEpochDay("malformed", copy.get("malformed")));
+    }
+
+    @Test
+    void comparesEpochDays() throws QueryException {
+        CompiledQuery query = mExecutor.compile(
+                new QueryBuilder().data("birth_date").param(DATE_TAG, TYPE_STRING, "cutoff")
+                                  .op(DATE_TAG, LESS_OR_EQUAL).build());
+        ParameterSet params = new ParameterSet();
+        params.put("cutoff", date("2001-10-17"));
+
+        assertTrue(mExecutor.execute(query, params,
+                new DataSetBuilder().add("birth_date", date("2001-10-17")).build()));
+        assertTrue(mExecutor.execute(query, params,
+                new DataSetBuilder().add("birth_date", date("1999-12-31")).build()));
+        assertFalse(mExecutor.execute(query, params,
+                new DataSetBuilder().add("birth_date", date("2001-10-18")).build()));
+
+        // Parameters replaced without going through put() are still converted correctly.
+        params.replace("cutoff", date("1999-01-01"));
+        assertFalse(mExecutor.execute(query, params,
+                new DataSetBuilder().add("birth_date", date("1999-12-31")).build()));
+    }
+
+    @Test
+    void rejectsMalformedDataElementDates() throws QueryException {
+        CompiledQuery query = mExecutor.compile(
+                new QueryBuilder().data("birth_date").param(DATE_TAG, TYPE_STRING, "cutoff")
+                                  .op(DATE_TAG, LESS_OR_EQUAL).build());
+        ParameterSet params = new ParameterSet();
+        params.put("cutoff", date("2001-10-17"));
+        DataSet dataSet = new DataSetBuilder().add("birth_date", date("17/10/2001")).build();
+
+        try {
+            mExecutor.execute(query, params, dataSet);
+            fail();
+        } catch (QueryException e) {
+            assertThat(e.getMessage(), containsString("malformed date"));
+        }
+        try {
+            mExecutor.execute(new QueryBuilder().data("birth_date")
+                                                .param(DATE_TAG, TYPE_STRING, "cutoff")
+                                                .op(DATE_TAG, LESS_OR_EQUAL).build(), params,
+                    dataSet);
+            fail();
+        } catch (QueryException e) {
+            assertThat(e.getMessage(), containsString("malformed date"));
+        }
+    }
+
+    private static void assertMalformedDate(Executable executable) {
+        QueryException e = assertThrows(QueryException.class, executable);
+        assertEquals(QueryError.MALFORMED_DATE, e.getError());
+        assertThat(e.getMessage(), startsWith("Invalid query: malformed date "));
+    }
+
+    private static DataItem date(String value) {
+        return new CborBuilder().add(value).tagged(DATE_TAG).build().get(0);
+    }
+
+    /** Writes data items, which need not be serializable, as their CBOR encoding. */
+    private static final class CborObjectOutputStream extends ObjectOutputStream {
+
+        CborObjectOutputStream(OutputStream out) throws IOException {
+            super(out);
+            enableReplaceObject(true);
+        }
+
+        @Override
+        protected Object replaceObject(Object object) throws IOException {
+            if (!(object instanceof DataItem)) {
+                return object;
+            }
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+            try {
+                new CborEncoder(encoded).encode((DataItem) object);
+            } catch (CborException e) {
+                throw new IOException(e);
+            }
+            return new EncodedItem(encoded.toByteArray());
+        }
+    }
+
+    private static final class CborObjectInputStream extends ObjectInputStream {
+
+        CborObjectInputStream(byte[] bytes) throws IOException {
+            super(new ByteArrayInputStream(bytes));
+            enableResolveObject(true);
+        }
+
+        @Override
+        protected Object resolveObject(Object object) throws IOException {
+            if (!(object instanceof EncodedItem)) {
+                return object;
+            }
+            try {
+                return CborDecoder.decode(((EncodedItem) object).bytes).get(0);
+            } catch (CborException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    private static final class EncodedItem implements Serializable {
+        final byte[] bytes;
+
+        EncodedItem(byte[] bytes) {
+            this.bytes = bytes;
+        }
+    }
+}
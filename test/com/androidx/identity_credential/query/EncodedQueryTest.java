@@ -0,0 +1,213 @@
+package com.androidx.identity_credential.query;
+
+import co.nstant.in.cbor.CborBuilder;
+import co.nstant.in.cbor.CborDecoder;
+import co.nstant.in.cbor.CborEncoder;
+import co.nstant.in.cbor.CborException;
+import co.nstant.in.cbor.model.Array;
+import co.nstant.in.cbor.model.DataItem;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static com.androidx.identity_credential.query.ICQueryExecutor.*;
+import static com.androidx.identity_credential.query.ParameterSet.DATE_TAG;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EncodedQueryTest {
+
+    @Test
+    void matchesDecodedEvaluation() throws CborException {
+        Random random = new Random(21);
+        for (int i = 0; i < 2000; i++) {
+            RandomQueries.Case testCase = RandomQueries.generate(random, 4, 0.1);
+            assertSameOutcome(encode(testCase.query), testCase.parameters, testCase.dataSet);
+        }
+    }
+
+    @Test
+    void matchesDecodedEvaluationOfIrregularEntries() throws CborException {
+        List<DataItem> entries = new ArrayList<>();
+        entries.add(QueryBuilder.dataRef("int"));
+        entries.add(QueryBuilder.dataRef("date"));
+        entries.add(QueryBuilder.dataRef("other"));
+        entries.add(tagged(QueryBuilder.dataRef("int"), 5));
+        DataItem wideTag = new CborBuilder().addArray().add("org.iso.18013.5.1").add("int").end()
+                                            .build().get(0);
+        wideTag.setTag((1L << 32) + DATA_REF);
+        entries.add(wideTag);
+        entries.addAll(new QueryBuilder().param(TYPE_INTEGER, "int")
+                                         .param(DATE_TAG, TYPE_STRING, "date")
+                                         .param(DATE_TAG, TYPE_INTEGER, "date")
+                                         .param(TYPE_STRING, "missing").build().getDataItems());
+        entries.add(paramRef(new CborBuilder().addArray().add("int").add((1L << 32) + TYPE_STRING)
+                                              .end()));
+        entries.add(paramRef(new CborBuilder().addArray().add("int").end()));
+        entries.add(paramRef(new CborBuilder().addArray().add(1).add(TYPE_INTEGER).end()));
+        entries.add(paramRef(new CborBuilder().addArray().add("int").add("x").end()));
+        entries.add(paramRef(new CborBuilder().addArray().add("date").add(TYPE_STRING)
+                                              .tagged(DATE_TAG).tagged(7).end()));
+        entries.add(paramRef(new CborBuilder().addArray().add("int").tagged(9).add(TYPE_INTEGER)
+                                              .end()));
+        entries.add(paramRef(new CborBuilder().add("int")));
+        entries.addAll(new QueryBuilder().op(EQUAL).op(DATE_TAG, LESS_THAN).op(UNARY_NOT).op(AND)
+                                         .op(-1).build().getDataItems());
+        entries.add(new CborBuilder().add((1L << 32) + EQUAL).tagged(OPERATOR).build().get(0));
+        entries.add(new CborBuilder().add("x").tagged(OPERATOR).build().get(0));
+        entries.add(new CborBuilder().add(EQUAL).tagged(DATE_TAG).tagged(OPERATOR).tagged(7)
+                                     .build().get(0));
+        entries.add(new CborBuilder().add(1).tagged(7).build().get(0));
+        entries.add(new CborBuilder().add(1).build().get(0));
+
+        ParameterSet parameters = RandomQueries.parameters(new Random(0));
+        DataSet dataSet = RandomQueries.dataSet(new Random(0));
+        Random random = new Random(21);
+        for (int i = 0; i < 5000; i++) {
+            Array query = new Array();
+            int length = 1 + random.nextInt(5);
+            for (int j = 0; j < length; j++) {
+                query.add(entries.get(random.nextInt(entries.size())));
+            }
+            byte[] encoded = encode(query);
+            assertSameOutcome(encoded, parameters, dataSet);
+
+            // The same entries in an indefinite-length array.
+            byte[] indefinite = Arrays.copyOf(encoded, encoded.length + 1);
+            indefinite[0] = (byte) 0x9f;
+            indefinite[encoded.length] = (byte) 0xff;
+            assertSameOutcome(indefinite, parameters, dataSet);
+        }
+    }
+
+    @Test
+    void rejectsMalformedEncodings() throws CborException {
+        byte[] query = encode(new QueryBuilder().data("int").param(TYPE_INTEGER, "int").op(EQUAL)
+                                                .build());
+        List<byte[]> encodings = new ArrayList<>();
+        encodings.add(new byte[0]);
+        encodings.add(Arrays.copyOf(query, query.length - 1));
+        encodings.add(Arrays.copyOf(query, query.length + 1));
+        encodings.add(new byte[]{0x01});
+        encodings.add(new byte[]{(byte) 0xa0});
+        encodings.add(new byte[]{(byte) 0x9f, (byte) 0xc0});
+        encodings.add(new byte[]{(byte) 0x9f});
+        encodings.add(new byte[]{(byte) 0x81, (byte) 0xff});
+        encodings.add(new byte[]{(byte) 0x81, 0x1c});
+        encodings.add(new byte[]{(byte) 0x81, (byte) 0xfa, 0, 0, 0, 0});
+        encodings.add(new byte[]{(byte) 0x9b, 0, 0, 0, 1, 0, 0, 0, 0, 0});
+        encodings.add(new byte[]{(byte) 0x81, (byte) 0x7f, 0x61, 0x61, (byte) 0xff});
+
+        ParameterSet parameters = RandomQueries.parameters(new Random(0));
+        DataSet dataSet = RandomQueries.dataSet(new Random(0));
+        for (byte[] encoding : encodings) {
+            assertSameOutcome(encoding, parameters, dataSet);
+        }
+        QueryException e = assertThrows(QueryException.class,
+                () -> new ICQueryExecutor().execute(new byte[]{0x01}, parameters, dataSet));
+        assertEquals(QueryError.MALFORMED_QUERY, e.getError());
+    }
+
+    /**
+     * Asserts that executing {@code encoded} gives the result or error, and the listener events,
+     * of decoding it and executing the {@link Array}, from byte arrays and from buffers.
+     */
+    private static void assertSameOutcome(byte[] encoded, ParameterSet parameters,
+                                          DataSet dataSet) {
+        List<String> expected = new ArrayList<>();
+        ICQueryExecutor executor = new ICQueryExecutor(new RecordingListener(expected));
+        try {
+            List<DataItem> items = CborDecoder.decode(encoded);
+            if (items.size() == 1 && items.get(0) instanceof Array) {
+                expected.add(String.valueOf(
+                        executor.execute((Array) items.get(0), parameters, dataSet)));
+            } else {
+                expected.add("MALFORMED_QUERY Invalid query: not a well-formed CBOR array");
+            }
+        } catch (CborException | RuntimeException e) {
+            expected.add("MALFORMED_QUERY Invalid query: not a well-formed CBOR array");
+        } catch (QueryException e) {
+            expected.add(e.getError() + " " + e.getMessage());
+        }
+
+        // The encoding within a larger heap buffer, and in a direct buffer.
+        ByteBuffer heap = ByteBuffer.allocate(encoded.length + 6);
+        heap.position(3);
+        heap.put(encoded);
+        heap.position(3).limit(3 + encoded.length);
+        ByteBuffer direct = ByteBuffer.allocateDirect(encoded.length);
+        direct.put(encoded);
+        direct.flip();
+
+        String message = Arrays.toString(encoded);
+        for (Object query : new Object[]{encoded, heap, direct}) {
+            List<String> actual = new ArrayList<>();
+            executor = new ICQueryExecutor(new RecordingListener(actual));
+            try {
+                actual.add(String.valueOf((query instanceof byte[]) ?
+                        executor.execute((byte[]) query, parameters, dataSet) :
+                        executor.execute((ByteBuffer) query, parameters, dataSet)));
+            } catch (QueryException e) {
+                actual.add(e.getError() + " " + e.getMessage());
+            }
+            assertEquals(expected, actual, message);
+        }
+        assertEquals(3, heap.position());
+        assertEquals(0, direct.position());
+    }
+
+    private static DataItem tagged(DataItem item, long tag) {
+        item.getOuterTaggable().setTag(tag);
+        return item;
+    }
+
+    private static DataItem paramRef(CborBuilder builder) {
+        DataItem paramRef = builder.build().get(0);
+        paramRef.getOuterTaggable().setTag(PARAM_REF);
+        return paramRef;
+    }
+
+    private static byte[] encode(Array query) throws CborException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new CborEncoder(out).encode(query);
+        return out.toByteArray();
+    }
+
+    /** Records the events of each evaluation, without their timings. */
+    private static class RecordingListener implements QueryExecutionListener {
+        private final List<String> events;
+
+        RecordingListener(List<String> events) {
+            this.events = events;
+        }
+
+        @Override
+        public void onQueryStart() {
+            events.add("start");
+        }
+
+        @Override
+        public void onQueryEnd(long elapsedNanos, int entriesExecuted, boolean result) {
+            events.add("end " + entriesExecuted + " " + result);
+        }
+
+        @Override
+        public void onQueryRejected(QueryError reason, long elapsedNanos, int entriesExecuted) {
+            events.add("rejected " + reason + " " + entriesExecuted);
+        }
+
+        @Override
+        public void onDataLookup(long elapsedNanos) {
+            events.add("data");
+        }
+
+        @Override
+        public void onParameterLookup() {
+            events.add("parameter");
+        }
+    }
+}
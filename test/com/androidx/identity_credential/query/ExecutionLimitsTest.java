@@ -0,0 +1,199 @@
+package com.androidx.identity_credential.query;
+
+import co.nstant.in.cbor.CborEncoder;
+import co.nstant.in.cbor.CborException;
+import co.nstant.in.cbor.model.Array;
+import co.nstant.in.cbor.model.DataItem;
+import co.nstant.in.cbor.model.UnicodeString;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static com.androidx.identity_credential.query.ICQueryExecutor.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ExecutionLimitsTest {
+
+    private static final ParameterSet PARAMETERS =
+            new ParameterSetBuilder().add("min", 21).add("country", "US")
+                                     .add("name", "h\u00e9llo").build();
+
+    @Test
+    void rejectsStaticLimitsBeforeLookups() throws QueryException {
+        // Four values on the stack at once, in seven entries.
+        Array query = new QueryBuilder().data("a").data("b").data("c").data("d")
+                                        .op(AND).op(AND).op(AND).build();
+        DataSetBuilder.MapDataSet dataSet = new DataSetBuilder().add("a", true).add("b", true)
+                                                                .add("c", true).add("d", true)
+                                                                .build();
+        ICQueryExecutor executor = new ICQueryExecutor(null,
+                new ExecutionLimits.Builder().setMaxEntries(6).build());
+        QueryException e = assertThrows(QueryException.class, () -> executor.compile(query));
+        assertEquals(QueryError.TOO_MANY_ENTRIES, e.getError());
+        assertRejected(executor, query, dataSet, QueryError.TOO_MANY_ENTRIES, -1, 0);
+
+        ICQueryExecutor shallow = new ICQueryExecutor(null,
+                new ExecutionLimits.Builder().setMaxEntries(7).setMaxStackDepth(3).build());
+        e = assertThrows(QueryException.class, () -> shallow.compile(query));
+        assertEquals(QueryError.STACK_TOO_DEEP, e.getError());
+        assertEquals(QueryError.STACK_TOO_DEEP,
+                shallow.evaluate(new ICQueryExecutor().compile(query), PARAMETERS, dataSet)
+                       .getError());
+        assertEquals(0, dataSet.getLookupCount());
+        assertEquals(0, dataSet.getPrefetchCount());
+
+        ICQueryExecutor deep = new ICQueryExecutor(null,
+                new ExecutionLimits.Builder().setMaxEntries(7).setMaxStackDepth(4).build());
+        assertTrue(deep.execute(deep.compile(query), PARAMETERS, dataSet));
+    }
+
+    @Test
+    void stopsAtDynamicLimits() throws QueryException {
+        Array query = new QueryBuilder().data("age").param(TYPE_INTEGER, "min")
+                                        .op(GREATER_OR_EQUAL).data("country")
+                                        .param(TYPE_STRING, "country").op(EQUAL).op(AND)
+                                        .data("nickname").param(TYPE_STRING, "name").op(EQUAL)
+                                        .op(OR).build();
+        DataSetBuilder.MapDataSet dataSet = new DataSetBuilder().add("age", 30)
+                                                                .add("country", "CA")
+                                                                .add("nickname", "h\u00e9llo")
+                                                                .build();
+
+        ICQueryExecutor lookups = new ICQueryExecutor(null,
+                new ExecutionLimits.Builder().setMaxDataLookups(2).build());
+        assertRejected(lookups, query, dataSet, QueryError.TOO_MANY_DATA_LOOKUPS, 7, 2);
+
+        ICQueryExecutor parameters = new ICQueryExecutor(null,
+                new ExecutionLimits.Builder().setMaxParameterLookups(2).build());
+        assertRejected(parameters, query, dataSet, QueryError.TOO_MANY_PARAMETER_LOOKUPS, 8, 3);
+
+        // "h\u00e9llo" is six bytes of UTF-8.
+        ICQueryExecutor strings = new ICQueryExecutor(null,
+                new ExecutionLimits.Builder().setMaxStringLength(5).build());
+        assertRejected(strings, query, dataSet, QueryError.STRING_TOO_LONG, 9, 3);
+        ICQueryExecutor longerStrings = new ICQueryExecutor(null,
+                new ExecutionLimits.Builder().setMaxStringLength(6).build());
+        assertTrue(longerStrings.execute(query, PARAMETERS, dataSet));
+
+        // Lookups that short-circuiting skips do not count.
+        dataSet.put(QueryBuilder.dataRef("country"), new UnicodeString("US"));
+        assertTrue(lookups.execute(lookups.compile(query), PARAMETERS, dataSet));
+    }
+
+    @Test
+    void stopsAtDeadline() throws QueryException {
+        Array query = new QueryBuilder().data("a").data("b").op(AND).data("c").op(AND).build();
+        DataSetBuilder.MapDataSet values = new DataSetBuilder().add("a", true).add("b", true)
+                                                               .add("c", true).build();
+        int[] lookups = new int[1];
+        DataSet slow = entry -> {
+            lookups[0]++;
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return values.getDataElement(entry);
+        };
+        ICQueryExecutor executor = new ICQueryExecutor(null,
+                new ExecutionLimits.Builder().setTimeout(10, TimeUnit.MILLISECONDS).build());
+        QueryResult result = executor.evaluate(executor.compile(query), PARAMETERS, slow);
+        assertEquals(QueryError.DEADLINE_EXCEEDED, result.getError());
+        assertEquals(1, result.getEntryIndex());
+        assertEquals(1, lookups[0]);
+
+        QueryException e = assertThrows(QueryException.class,
+                () -> executor.execute(query, PARAMETERS, slow));
+        assertEquals(QueryError.DEADLINE_EXCEEDED, e.getError());
+        assertEquals(2, lookups[0]);
+    }
+
+    @Test
+    void generousLimitsChangeNothing() throws CborException {
+        ICQueryExecutor unlimited = new ICQueryExecutor();
+        ICQueryExecutor limited = new ICQueryExecutor(null, new ExecutionLimits.Builder()
+                .setMaxEntries(1000).setMaxStackDepth(1000).setMaxDataLookups(1000)
+                .setMaxParameterLookups(1000).setMaxStringLength(1000)
+                .setTimeout(1, TimeUnit.HOURS).build());
+        Random random = new Random(23);
+        for (int i = 0; i < 1000; i++) {
+            RandomQueries.Case testCase = RandomQueries.generate(random, 4, 0.1);
+            String message = testCase.query.toString();
+            assertEquals(outcome(unlimited, testCase.query, testCase.parameters, testCase.dataSet),
+                    outcome(limited, testCase.query, testCase.parameters, testCase.dataSet),
+                    message);
+            assertEquals(String.valueOf(unlimited.evaluate(testCase.query, testCase.parameters,
+                    testCase.dataSet)), String.valueOf(limited.evaluate(testCase.query,
+                    testCase.parameters, testCase.dataSet)), message);
+        }
+    }
+
+    @Test
+    void rejectsNegativeLimits() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new ExecutionLimits.Builder().setMaxEntries(-1));
+        assertThrows(IllegalArgumentException.class,
+                () -> new ExecutionLimits.Builder().setTimeout(0, TimeUnit.SECONDS));
+        assertEquals(Long.MAX_VALUE, ExecutionLimits.NONE.getTimeout(TimeUnit.SECONDS));
+    }
+
+    /**
+     * Asserts that executing {@code query} as an array, as its encoding and compiled, is rejected
+     * with {@code error} at {@code entry} after {@code lookups} data element lookups.
+     */
+    private static void assertRejected(ICQueryExecutor executor, Array query,
+                                       DataSetBuilder.MapDataSet dataSet, QueryError error,
+                                       int entry, int lookups) throws QueryException {
+        int before = dataSet.getLookupCount();
+        QueryException e = assertThrows(QueryException.class,
+                () -> executor.execute(query, PARAMETERS, dataSet));
+        assertEquals(error, e.getError());
+        assertEquals(ExecutionLimits.describe(error), e.getMessage());
+        assertEquals(before + lookups, dataSet.getLookupCount());
+
+        e = assertThrows(QueryException.class,
+                () -> executor.execute(encode(query), PARAMETERS, dataSet));
+        assertEquals(error, e.getError());
+        assertEquals(before + 2 * lookups, dataSet.getLookupCount());
+
+        ExecutionContext context = new ExecutionContext();
+        QueryResult result = executor.evaluate(query, PARAMETERS, dataSet);
+        assertEquals(error, result.getError());
+        assertEquals(entry, result.getEntryIndex());
+        assertEquals(before + 3 * lookups, dataSet.getLookupCount());
+        if (entry >= 0) {
+            CompiledQuery compiled = executor.compile(query);
+            BoundParameters bound = compiled.getParameterLayout().bind(PARAMETERS);
+            assertEquals(result.toString(),
+                    executor.evaluate(compiled, bound, dataSet, context).toString());
+            assertEquals(lookups, context.getDataLookupCount());
+        }
+    }
+
+    private static String outcome(ICQueryExecutor executor, Array query, ParameterSet parameters,
+                                  DataSet dataSet) throws CborException {
+        StringBuilder outcome = new StringBuilder();
+        for (int i = 0; i < 2; i++) {
+            try {
+                outcome.append((i == 0) ? executor.execute(query, parameters, dataSet) :
+                               executor.execute(encode(query), parameters, dataSet));
+            } catch (QueryException e) {
+                outcome.append(e.getError()).append(' ').append(e.getMessage());
+            }
+            outcome.append('\n');
+        }
+        return outcome.toString();
+    }
+
+    private static byte[] encode(DataItem query) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            new CborEncoder(out).encode(query);
+        } catch (CborException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+}
@@ -3,6 +3,7 @@ package com.androidx.identity_credential.query;
 import co.nstant.in.cbor.CborBuilder;
 import co.nstant.in.cbor.model.UnicodeString;
 
+import java.math.BigInteger;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 
@@ -19,6 +20,11 @@ public class ParameterSetBuilder {
         return this;
     }
 
+    public ParameterSetBuilder add(String name, BigInteger value) {
+        set.put(name, new CborBuilder().add(value).build().get(0));
+        return this;
+    }
+
     public ParameterSetBuilder add(String name, Date value) {
         set.put(name, new CborBuilder().add(new SimpleDateFormat("yyyy-MM-dd").format(value))
                                        .tagged(ParameterSet.DATE_TAG).build().get(0));
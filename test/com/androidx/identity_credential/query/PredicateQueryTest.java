@@ -0,0 +1,149 @@
+package com.androidx.identity_credential.query;
+
+import co.nstant.in.cbor.CborBuilder;
+import co.nstant.in.cbor.model.DataItem;
+import co.nstant.in.cbor.model.UnicodeString;
+import org.junit.jupiter.api.Test;
+
+import java.util.GregorianCalendar;
+import java.util.Random;
+
+import static com.androidx.identity_credential.query.ICQueryExecutor.*;
+import static com.androidx.identity_credential.query.ParameterSet.DATE_TAG;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PredicateQueryTest {
+
+    private static final String[] NAMES = {"int", "big", "string", "date", "bool"};
+
+    private ICQueryExecutor mExecutor = new ICQueryExecutor();
+
+    @Test
+    void specializesComparisonsAndLogic() throws QueryException {
+        CompiledQuery query = mExecutor.compilePredicates(mExecutor.compile(
+                new QueryBuilder().data("value").param(TYPE_INTEGER, "min").op(GREATER_OR_EQUAL)
+                                  .param(DATE_TAG, TYPE_STRING, "cutoff").data("birth_date")
+                                  .op(DATE_TAG, GREATER_THAN).op(AND)
+                                  .data("country").param(TYPE_STRING, "country").op(EQUAL)
+                                  .op(UNARY_NOT).op(OR).build()));
+        assertTrue(query.hasPredicates());
+        assertSame(query, mExecutor.compilePredicates(query));
+
+        assertTrue(query.predicates.root instanceof PredicateQuery.Or);
+        assertRoot(PredicateQuery.DataLongComparison.class,
+                new QueryBuilder().param(TYPE_INTEGER, "min").data("value").op(LESS_THAN));
+        assertRoot(PredicateQuery.DataDateComparison.class,
+                new QueryBuilder().data("birth_date").param(DATE_TAG, TYPE_STRING, "cutoff")
+                                  .op(DATE_TAG, GREATER_THAN));
+        assertRoot(PredicateQuery.DataStringComparison.class,
+                new QueryBuilder().data("country").param(TYPE_STRING, "country").op(EQUAL));
+
+        ParameterSet params = new ParameterSetBuilder()
+                .add("min", 21).add("cutoff", new GregorianCalendar(2000, 0, 1).getTime())
+                .add("country", "US").build();
+        BoundParameters parameters = query.getParameterLayout().bind(params);
+        DataSet adult = new DataSetBuilder().add("value", 30).add("birth_date", date("1990-01-01"))
+                                            .add("country", "US").build();
+        assertTrue(mExecutor.execute(query, parameters, adult));
+        DataSet minor = new DataSetBuilder().add("value", 12).add("country", "US").build();
+        assertFalse(mExecutor.execute(query, parameters, minor));
+        DataSet abroad = new DataSetBuilder().add("value", 12).add("country", "CA").build();
+        assertTrue(mExecutor.execute(query, parameters, abroad));
+    }
+
+    @Test
+    void matchesInstructionLoop() throws QueryException {
+        Random random = new Random(22);
+        for (int i = 0; i < 3000; i++) {
+            RandomQueries.Case testCase = RandomQueries.generate(random, 4, 0.1);
+            DataSetBuilder.MapDataSet dataSet = testCase.dataSet;
+            switch (random.nextInt(6)) {
+                case 0:
+                    dataSet.remove(QueryBuilder.dataRef(NAMES[random.nextInt(NAMES.length)]));
+                    break;
+
+                case 1:
+                    dataSet.put(QueryBuilder.dataRef(NAMES[random.nextInt(NAMES.length)]),
+                            new UnicodeString("one"));
+                    break;
+
+                case 2:
+                    dataSet.put(QueryBuilder.dataRef("date"), date("2019-02-30"));
+                    break;
+
+                case 3:
+                    dataSet.put(QueryBuilder.dataRef(NAMES[random.nextInt(NAMES.length)]),
+                            new CborBuilder().add(1).tagged(DATE_TAG).build().get(0));
+                    break;
+
+                default:
+                    break;
+            }
+
+            CompiledQuery query = mExecutor.compile(testCase.query);
+            CompiledQuery predicates = mExecutor.compilePredicates(query);
+            String message = testCase.query.toString();
+            assertSameEvaluation(query, predicates,
+                    query.getParameterLayout().bind(testCase.parameters), dataSet, message);
+
+            CompiledQuery residual = mExecutor.specialize(query, testCase.parameters);
+            assertSameEvaluation(residual, mExecutor.compilePredicates(residual),
+                    residual.getParameterLayout().bind(new ParameterSet()), dataSet, message);
+
+            // Evaluation with a ParameterSet is interpreted.
+            assertEquals(mExecutor.evaluate(query, testCase.parameters, dataSet).toString(),
+                    mExecutor.evaluate(predicates, testCase.parameters, dataSet).toString(),
+                    message);
+        }
+    }
+
+    @Test
+    void leavesDeepQueriesToInstructionLoop() throws QueryException {
+        DataSet dataSet = new DataSetBuilder().add("t", true).add("value", 30).build();
+        for (int depth : new int[]{PredicateQuery.MAX_DEPTH, PredicateQuery.MAX_DEPTH + 1,
+                                   100000}) {
+            // A right-deep chain, each operand a comparison but the innermost one.
+            QueryBuilder chain = new QueryBuilder();
+            for (int i = 1; i < depth; i++) {
+                chain.data("value").param(TYPE_INTEGER, "min").op(GREATER_OR_EQUAL);
+            }
+            chain.data("t");
+            for (int i = 1; i < depth; i++) {
+                chain.op((i % 2 == 0) ? AND : OR);
+            }
+            CompiledQuery query = mExecutor.compile(chain.build());
+            CompiledQuery predicates = mExecutor.compilePredicates(query);
+            assertEquals(depth <= PredicateQuery.MAX_DEPTH, predicates.hasPredicates(),
+                    "depth " + depth);
+            BoundParameters parameters =
+                    query.getParameterLayout().bind(new ParameterSetBuilder().add("min", 21)
+                                                                           .build());
+            assertSameEvaluation(query, predicates, parameters, dataSet, "depth " + depth);
+        }
+    }
+
+    private void assertSameEvaluation(CompiledQuery query, CompiledQuery predicates,
+                                      BoundParameters parameters, DataSet dataSet,
+                                      String message) {
+        ExecutionContext expectedContext = new ExecutionContext();
+        QueryResult expected = mExecutor.evaluate(query, parameters, dataSet, expectedContext);
+        ExecutionContext context = new ExecutionContext();
+        QueryResult result = mExecutor.evaluate(predicates, parameters, dataSet, context);
+        assertEquals(expected.toString(), result.toString(), message);
+        assertEquals(expected.getEntryIndex(), result.getEntryIndex(), message);
+        assertEquals(expectedContext.getEntriesExecutedCount(),
+                context.getEntriesExecutedCount(), message);
+        assertEquals(expectedContext.getDataLookupCount(), context.getDataLookupCount(), message);
+        assertEquals(expectedContext.getSkippedDataLookupCount(),
+                context.getSkippedDataLookupCount(), message);
+    }
+
+    private void assertRoot(Class<?> type, QueryBuilder query) throws QueryException {
+        CompiledQuery compiled = mExecutor.compilePredicates(mExecutor.compile(query.build()));
+        assertEquals(type, compiled.predicates.root.getClass());
+    }
+
+    private static DataItem date(String date) {
+        return new CborBuilder().add(date).tagged(DATE_TAG).build().get(0);
+    }
+}
@@ -0,0 +1,58 @@
+package com.androidx.identity_credential.query;
+
+import co.nstant.in.cbor.CborBuilder;
+import co.nstant.in.cbor.model.Array;
+import co.nstant.in.cbor.model.DataItem;
+
+import static com.androidx.identity_credential.query.ICQueryExecutor.*;
+
+public class QueryBuilder {
+    private Array query = new Array();
+
+    public QueryBuilder param(int type, String name) {
+        Array paramRef =
+                (Array) new CborBuilder().addArray().add(name).add(type).end().build().get(0);
+        paramRef.setTag(PARAM_REF);
+        query.add(paramRef);
+        return this;
+    }
+
+    public QueryBuilder param(int tag, int type, String name) {
+        Array paramRef = (Array) new CborBuilder().addArray().add(name).add(type).tagged(tag)
+                                                  .end().build().get(0);
+        paramRef.setTag(PARAM_REF);
+        query.add(paramRef);
+        return this;
+    }
+
+    public QueryBuilder data(String name) {
+        query.add(dataRef(name));
+        return this;
+    }
+
+    public QueryBuilder op(int op) {
+        query.add(new CborBuilder().add(op).tagged(OPERATOR).build().get(0));
+        return this;
+    }
+
+    public QueryBuilder op(int tag, int op) {
+        query.add(new CborBuilder().add(op).tagged(tag).tagged(OPERATOR).build().get(0));
+        return this;
+    }
+
+    public QueryBuilder add(DataItem entry) {
+        query.add(entry);
+        return this;
+    }
+
+    public Array build() {
+        return query;
+    }
+
+    public static DataItem dataRef(String name) {
+        DataItem dataRef = new CborBuilder().addArray().add("org.iso.18013.5.1").add(name).end()
+                                            .build().get(0);
+        dataRef.setTag(DATA_REF);
+        return dataRef;
+    }
+}
@@ -0,0 +1,112 @@
+package com.androidx.identity_credential.query;
+
+import co.nstant.in.cbor.model.Array;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Random;
+
+import static com.androidx.identity_credential.query.ICQueryExecutor.*;
+import static com.androidx.identity_credential.query.ParameterSet.DATE_TAG;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class QueryGroupTest {
+
+    private ICQueryExecutor mExecutor = new ICQueryExecutor();
+
+    @Test
+    void sharesSubexpressionsAndLookups() throws QueryException {
+        Array adult = new QueryBuilder().data("birth_date").param(DATE_TAG, TYPE_STRING, "cutoff")
+                                        .op(DATE_TAG, LESS_OR_EQUAL).build();
+        Array adultInUs = new QueryBuilder().data("birth_date")
+                                            .param(DATE_TAG, TYPE_STRING, "cutoff")
+                                            .op(DATE_TAG, LESS_OR_EQUAL).data("issuing_country")
+                                            .param(TYPE_STRING, "country").op(EQUAL).op(AND)
+                                            .build();
+        Array usOrDriver = new QueryBuilder().data("issuing_country").param(TYPE_STRING, "country")
+                                             .op(EQUAL).data("driver").op(OR).build();
+
+        QueryGroup group = mExecutor.compileGroup(Arrays.asList(adult, adultInUs, usOrDriver));
+        assertEquals(3, group.getQueryCount());
+        // birth_date, cutoff, <=, issuing_country, country, ==, AND, driver, OR
+        assertEquals(9, group.getNodeCount());
+
+        ParameterSet params = new ParameterSetBuilder()
+                .add("cutoff", new GregorianCalendar(2000, 0, 1).getTime())
+                .add("country", "US").build();
+        DataSetBuilder.MapDataSet dataSet = new DataSetBuilder()
+                .add("birth_date", new GregorianCalendar(1990, 5, 1).getTime())
+                .add("issuing_country", "US").add("driver", false).build();
+
+        QueryResult[] results = mExecutor.evaluate(group, params, dataSet);
+        assertArrayEquals(new QueryResult[]{QueryResult.TRUE, QueryResult.TRUE, QueryResult.TRUE},
+                results);
+        // issuing_country == "US" decides the OR, so driver is never fetched.
+        assertEquals(2, dataSet.getLookupCount());
+    }
+
+    @Test
+    void answersQueriesBesideAFailingOne() throws QueryException {
+        QueryGroup group = mExecutor.compileGroup(Arrays.asList(
+                new QueryBuilder().data("driver").build(),
+                new QueryBuilder().data("driver").data("missing").op(AND).build(),
+                new QueryBuilder().data("missing").data("driver").op(OR).build(),
+                new QueryBuilder().data("driver").op(UNARY_NOT).build()));
+        QueryResult[] results = mExecutor.evaluate(group, new ParameterSet(),
+                new DataSetBuilder().add("driver", true).build());
+
+        assertSame(QueryResult.TRUE, results[0]);
+        assertEquals(QueryError.UNKNOWN_DATA_ELEMENT, results[1].getError());
+        assertEquals(1, results[1].getEntryIndex());
+        assertEquals(QueryError.UNKNOWN_DATA_ELEMENT, results[2].getError());
+        assertEquals(0, results[2].getEntryIndex());
+        assertSame(QueryResult.FALSE, results[3]);
+    }
+
+    @Test
+    void evaluatesDeepQueries() throws QueryException {
+        // Deep enough to overflow the thread stack if the graph were walked recursively.
+        QueryBuilder deep = new QueryBuilder().data("t");
+        for (int i = 1; i < 100000; i++) {
+            deep.data("t").op(AND);
+        }
+        QueryGroup group = mExecutor.compileGroup(Arrays.asList(deep.build(),
+                new QueryBuilder().data("t").data("t").op(AND).build()));
+        // t, and one AND for each depth.
+        assertEquals(100000, group.getNodeCount());
+
+        QueryResult[] results = mExecutor.evaluate(group, new ParameterSet(),
+                new DataSetBuilder().add("t", true).build());
+        assertArrayEquals(new QueryResult[]{QueryResult.TRUE, QueryResult.TRUE}, results);
+    }
+
+    @Test
+    void matchesIndividualQueries() throws QueryException {
+        Random random = new Random(6);
+        for (int i = 0; i < 200; i++) {
+            List<Array> queries = new ArrayList<>();
+            for (int q = 0; q < 5; q++) {
+                queries.add(RandomQueries.generate(random, 3, 0).query);
+            }
+            ParameterSet params = RandomQueries.parameters(random);
+            DataSetBuilder.MapDataSet dataSet = RandomQueries.dataSet(random);
+
+            QueryResult[] results = mExecutor.evaluate(mExecutor.compileGroup(queries), params,
+                    dataSet);
+            assertEquals(queries.size(), results.length);
+            for (int q = 0; q < queries.size(); q++) {
+                QueryResult expected = mExecutor.evaluate(mExecutor.compile(queries.get(q)),
+                        params, dataSet);
+                if (expected.isError()) {
+                    assertEquals(expected.getError(), results[q].getError(),
+                            queries.get(q).toString());
+                } else {
+                    assertSame(expected, results[q], queries.get(q).toString());
+                }
+            }
+        }
+    }
+}
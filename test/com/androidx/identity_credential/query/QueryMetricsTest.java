@@ -0,0 +1,185 @@
+package com.androidx.identity_credential.query;
+
+import co.nstant.in.cbor.model.Array;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.androidx.identity_credential.query.ICQueryExecutor.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class QueryMetricsTest {
+
+    private static class RecordingListener implements QueryExecutionListener {
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public void onQueryStart() {
+            events.add("start");
+        }
+
+        @Override
+        public void onQueryEnd(long elapsedNanos, int entriesExecuted, boolean result) {
+            assertTrue(elapsedNanos >= 0);
+            events.add("end " + entriesExecuted + " " + result);
+        }
+
+        @Override
+        public void onQueryRejected(QueryError reason, long elapsedNanos, int entriesExecuted) {
+            events.add("rejected " + reason + " " + entriesExecuted);
+        }
+
+        @Override
+        public void onDataLookup(long elapsedNanos) {
+            events.add("data");
+        }
+
+        @Override
+        public void onParameterLookup() {
+            events.add("param");
+        }
+    }
+
+    private final Array mQuery =
+            new QueryBuilder().param(TYPE_INTEGER, "min").param(TYPE_INTEGER, "max").op(LESS_THAN)
+                              .data("age").param(TYPE_INTEGER, "min").op(GREATER_OR_EQUAL)
+                              .op(AND).build();
+
+    @Test
+    void reportsEachEvaluation() throws QueryException {
+        RecordingListener listener = new RecordingListener();
+        ICQueryExecutor executor = new ICQueryExecutor(listener);
+        ParameterSet params = new ParameterSetBuilder().add("min", 21).add("max", 65).build();
+        DataSet dataSet = new DataSetBuilder().add("age", 30).build();
+
+        assertTrue(executor.execute(mQuery, params, dataSet));
+        assertEquals(listOf("start", "param", "param", "data", "param", "end 7 true"),
+                listener.events);
+
+        listener.events.clear();
+        ExecutionContext context = new ExecutionContext();
+        assertTrue(executor.execute(executor.compile(mQuery), params, dataSet, context));
+        assertEquals(listOf("start", "param", "param", "data", "param", "end 7 true"),
+                listener.events);
+        assertEquals(7, context.getEntriesExecutedCount());
+
+        // Short-circuiting skips the second operand of AND, and its entries aren't counted.
+        listener.events.clear();
+        ParameterSet empty = new ParameterSetBuilder().add("min", 65).add("max", 21).build();
+        assertFalse(executor.execute(executor.compile(mQuery), empty, dataSet));
+        assertEquals(listOf("start", "param", "param", "end 3 false"), listener.events);
+
+        listener.events.clear();
+        try {
+            executor.execute(mQuery, params, new DataSetBuilder().build());
+            fail();
+        } catch (QueryException e) {
+            assertEquals(QueryError.UNKNOWN_DATA_ELEMENT, e.getError());
+        }
+        assertEquals(listOf("start", "param", "param", "data", "rejected UNKNOWN_DATA_ELEMENT 3"),
+                listener.events);
+    }
+
+    @Test
+    void classifiesRejections() throws QueryException {
+        ParameterSet params = new ParameterSetBuilder().add("i", 1).add("s", "US").build();
+        DataSet dataSet = new DataSetBuilder().add("bool", true).build();
+
+        assertRejected(new QueryBuilder().param(TYPE_INTEGER, "i").build(), params, dataSet,
+                QueryError.RESULT_NOT_BOOLEAN);
+        assertRejected(new QueryBuilder().param(TYPE_INTEGER, "i").param(TYPE_STRING, "s")
+                                         .op(EQUAL).build(), params, dataSet,
+                QueryError.OPERAND_TYPE_MISMATCH);
+        assertRejected(new QueryBuilder().param(TYPE_STRING, "s").param(TYPE_STRING, "s")
+                                         .op(LESS_THAN).build(), params, dataSet,
+                QueryError.OPERATOR_TYPE_MISMATCH);
+        assertRejected(new QueryBuilder().data("bool").param(TYPE_STRING, "i").op(EQUAL).build(),
+                params, dataSet, QueryError.PARAMETER_TYPE_MISMATCH);
+        assertRejected(new QueryBuilder().param(TYPE_BOOLEAN, "x").build(), params, dataSet,
+                QueryError.UNKNOWN_PARAMETER);
+        assertRejected(new QueryBuilder().data("bool").data("bool").build(), params, dataSet,
+                QueryError.UNBALANCED_STACK);
+        assertRejected(new QueryBuilder().data("bool").op(AND).build(), params, dataSet,
+                QueryError.MISSING_OPERANDS);
+    }
+
+    @Test
+    void aggregatesCounts() throws QueryException {
+        QueryMetrics metrics = new QueryMetrics();
+        ICQueryExecutor executor = new ICQueryExecutor(metrics);
+        CompiledQuery query = executor.compile(mQuery);
+        ParameterSet params = new ParameterSetBuilder().add("min", 21).add("max", 65).build();
+
+        for (int age = 0; age < 40; age++) {
+            executor.execute(query, params, new DataSetBuilder().add("age", age).build());
+        }
+        for (int i = 0; i < 5; i++) {
+            try {
+                executor.execute(query, params, new DataSetBuilder().add("age", "old").build());
+                fail();
+            } catch (QueryException e) {
+                // Expected.
+            }
+        }
+
+        assertEquals(45, metrics.getQueryCount());
+        assertEquals(19, metrics.getMatchedCount());
+        assertEquals(21, metrics.getNotMatchedCount());
+        assertEquals(5, metrics.getRejectedCount());
+        assertEquals(5, metrics.getRejectedCount(QueryError.OPERAND_TYPE_MISMATCH));
+        assertEquals(0, metrics.getRejectedCount(QueryError.UNKNOWN_DATA_ELEMENT));
+        assertEquals(45, metrics.getDataLookupCount());
+        assertEquals(135, metrics.getParameterLookupCount());
+        assertEquals(40 * 7 + 5 * 5, metrics.getEntriesExecuted());
+        assertEquals(45, metrics.getQueryLatency().getCount());
+        assertTrue(metrics.getQueryLatency().getPercentileNanos(50) <=
+                   metrics.getQueryLatency().getPercentileNanos(99));
+    }
+
+    @Test
+    void histogramPercentiles() {
+        QueryMetrics.LatencyHistogram histogram = new QueryMetrics().getQueryLatency();
+        assertEquals(0, histogram.getPercentileNanos(50));
+        for (int i = 0; i < 90; i++) {
+            histogram.record(100);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(10000);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(90 * 100 + 10 * 10000, histogram.getTotalNanos());
+        assertEquals(127, histogram.getPercentileNanos(50));
+        assertEquals(127, histogram.getPercentileNanos(90));
+        assertEquals(16383, histogram.getPercentileNanos(99));
+    }
+
+    private void assertRejected(Array query, ParameterSet params, DataSet dataSet,
+                                QueryError expected) {
+        QueryMetrics metrics = new QueryMetrics();
+        ICQueryExecutor executor = new ICQueryExecutor(metrics);
+        try {
+            executor.execute(query, params, dataSet);
+            fail();
+        } catch (QueryException e) {
+            assertEquals(expected, e.getError(), e.getMessage());
+        }
+        assertEquals(1, metrics.getRejectedCount(expected));
+
+        // The compiler reports the same reason, whether it finds the problem or evaluation does.
+        try {
+            executor.execute(executor.compile(query), params, dataSet);
+            fail();
+        } catch (QueryException e) {
+            assertEquals(expected, e.getError(), e.getMessage());
+        }
+    }
+
+    private static List<String> listOf(String... values) {
+        List<String> list = new ArrayList<>();
+        for (String value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+}
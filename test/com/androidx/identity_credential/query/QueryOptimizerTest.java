@@ -0,0 +1,146 @@
+package com.androidx.identity_credential.query;
+
+import co.nstant.in.cbor.model.Array;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static com.androidx.identity_credential.query.ICQueryExecutor.*;
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class QueryOptimizerTest {
+
+    private ICQueryExecutor mExecutor = new ICQueryExecutor();
+
+    private final ParameterSet mParams = new ParameterSetBuilder().add("min", 21).add("max", 65)
+                                                                  .add("country", "US").build();
+
+    @Test
+    void foldsParameters() throws QueryException {
+        // (min < max) AND age >= min: the first comparison folds to true and is dropped.
+        CompiledQuery query = optimize(
+                new QueryBuilder().param(TYPE_INTEGER, "min").param(TYPE_INTEGER, "max")
+                                  .op(LESS_THAN).data("age").param(TYPE_INTEGER, "min")
+                                  .op(GREATER_OR_EQUAL).op(AND).build(), null);
+        assertEquals(3, query.getInstructionCount());
+        assertEquals(0, query.getParameterLayout().getSlotCount());
+
+        ParameterSet none = new ParameterSet();
+        assertTrue(mExecutor.execute(query, none, new DataSetBuilder().add("age", 30).build()));
+        assertFalse(mExecutor.execute(query, none, new DataSetBuilder().add("age", 20).build()));
+    }
+
+    @Test
+    void removesDecidedOperators() throws QueryException {
+        // (country == "US") OR age >= min is true without reading age.
+        CompiledQuery query = optimize(
+                new QueryBuilder().param(TYPE_STRING, "country").param(TYPE_STRING, "country")
+                                  .op(EQUAL).data("age").param(TYPE_INTEGER, "min")
+                                  .op(GREATER_OR_EQUAL).op(OR).build(), null);
+        assertEquals(1, query.getInstructionCount());
+        DataSetBuilder.MapDataSet dataSet = new DataSetBuilder().build();
+        assertTrue(mExecutor.execute(query, mParams, dataSet));
+        assertEquals(0, dataSet.getLookupCount());
+
+        // With the condition false, AND is decided and OR keeps only its other operand.
+        query = optimize(new QueryBuilder().param(TYPE_INTEGER, "min").param(TYPE_INTEGER, "max")
+                                           .op(GREATER_THAN).data("flag").op(AND).data("age")
+                                           .param(TYPE_INTEGER, "max").op(LESS_THAN).op(OR)
+                                           .build(), null);
+        assertEquals(3, query.getInstructionCount());
+    }
+
+    @Test
+    void removesDoubleNegation() throws QueryException {
+        CompiledQuery query = optimize(
+                new QueryBuilder().data("age").param(TYPE_INTEGER, "min").op(LESS_THAN)
+                                  .op(UNARY_NOT).op(UNARY_NOT).build(), null);
+        assertEquals(3, query.getInstructionCount());
+
+        // A data element must still be checked to be a boolean.
+        CompiledQuery flag = optimize(
+                new QueryBuilder().data("flag").op(UNARY_NOT).op(UNARY_NOT).build(), null);
+        assertEquals(3, flag.getInstructionCount());
+        QueryResult result = mExecutor.evaluate(flag, mParams,
+                new DataSetBuilder().add("flag", "yes").build());
+        assertEquals(QueryError.OPERAND_TYPE_MISMATCH, result.getError());
+
+        // Likewise a data element left as the only operand of AND keeps a constant partner.
+        CompiledQuery and = optimize(
+                new QueryBuilder().data("flag").param(TYPE_INTEGER, "min")
+                                  .param(TYPE_INTEGER, "max").op(LESS_THAN).op(AND).build(), null);
+        assertEquals(4, and.getInstructionCount());
+        result = mExecutor.evaluate(and, mParams, new DataSetBuilder().add("flag", 1).build());
+        assertEquals(QueryError.OPERAND_TYPE_MISMATCH, result.getError());
+    }
+
+    @Test
+    void ordersOperandsByCost() throws QueryException {
+        Array query = new QueryBuilder().data("portrait").param(TYPE_STRING, "country").op(EQUAL)
+                                        .data("age").param(TYPE_INTEGER, "min").op(LESS_THAN)
+                                        .op(AND).data("nationality")
+                                        .param(TYPE_STRING, "country").op(EQUAL).op(AND)
+                                        .build();
+        DataSetBuilder.MapDataSet costs = new DataSetBuilder().cost("portrait", 100)
+                                                              .cost("nationality", 10).build();
+        CompiledQuery optimized = optimize(query, costs);
+        assertEquals(QueryBuilder.dataRef("age"), optimized.getDataReferences().get(0));
+        assertEquals(QueryBuilder.dataRef("nationality"), optimized.getDataReferences().get(1));
+        assertEquals(QueryBuilder.dataRef("portrait"), optimized.getDataReferences().get(2));
+
+        // The cheapest operand decides the result, so the others are not read.
+        DataSetBuilder.MapDataSet dataSet = new DataSetBuilder().add("portrait", "US")
+                                                                .add("age", 40)
+                                                                .add("nationality", "US").build();
+        assertFalse(mExecutor.execute(optimized, mParams, dataSet));
+        assertEquals(1, dataSet.getLookupCount());
+    }
+
+    @Test
+    void rejectsMissingParameters() throws QueryException {
+        CompiledQuery query = mExecutor.compile(
+                new QueryBuilder().data("age").param(TYPE_INTEGER, "oldest").op(LESS_THAN)
+                                  .build());
+        try {
+            mExecutor.optimize(query, mParams, null);
+            fail();
+        } catch (QueryException e) {
+            assertEquals(QueryError.UNKNOWN_PARAMETER, e.getError());
+            assertThat(e.getMessage(), containsString("oldest"));
+        }
+    }
+
+    @Test
+    void matchesInterpreterOnRandomQueries() throws QueryException {
+        Random random = new Random(16);
+        for (int i = 0; i < 3000; i++) {
+            RandomQueries.Case testCase = RandomQueries.generate(random, 5, 0.05);
+            DataSet costs = new DataSetBuilder().cost("int", random.nextInt(4))
+                                                .cost("string", random.nextInt(4))
+                                                .cost("date", random.nextInt(4)).build();
+            CompiledQuery optimized = mExecutor.optimize(mExecutor.compile(testCase.query),
+                    testCase.parameters, costs);
+            QueryResult actual = mExecutor.evaluate(optimized, new ParameterSet(),
+                    testCase.dataSet);
+
+            Boolean expected;
+            try {
+                expected = mExecutor.execute(testCase.query, testCase.parameters,
+                        testCase.dataSet);
+            } catch (QueryException e) {
+                expected = null;
+            }
+            // The rewritten query may skip an operand that the interpreter rejects, but must
+            // otherwise agree with it.
+            if (expected != null) {
+                assertEquals(QueryResult.of(expected), actual, testCase.query.toString());
+            }
+        }
+    }
+
+    private CompiledQuery optimize(Array query, DataSet costModel) throws QueryException {
+        return mExecutor.optimize(mExecutor.compile(query), mParams, costModel);
+    }
+}
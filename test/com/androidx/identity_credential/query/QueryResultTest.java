@@ -0,0 +1,136 @@
+package com.androidx.identity_credential.query;
+
+import co.nstant.in.cbor.model.Array;
+import co.nstant.in.cbor.model.DataItem;
+import co.nstant.in.cbor.model.UnicodeString;
+import co.nstant.in.cbor.model.UnsignedInteger;
+import com.sun.management.ThreadMXBean;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import static com.androidx.identity_credential.query.ICQueryExecutor.*;
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class QueryResultTest {
+
+    private ICQueryExecutor mExecutor = new ICQueryExecutor();
+
+    private final ParameterSet mParams =
+            new ParameterSetBuilder().add("min", 21).add("country", "US").build();
+    private final DataSet mDataSet = new DataSetBuilder().add("age", 30).add("name", "Erika")
+                                                         .build();
+
+    @Test
+    void returnsSharedResults() {
+        assertSame(QueryResult.TRUE, mExecutor.evaluate(
+                new QueryBuilder().data("age").param(TYPE_INTEGER, "min").op(GREATER_THAN)
+                                  .build(), mParams, mDataSet));
+        assertSame(QueryResult.FALSE, mExecutor.evaluate(
+                new QueryBuilder().data("age").param(TYPE_INTEGER, "min").op(LESS_THAN)
+                                  .build(), mParams, mDataSet));
+        assertTrue(QueryResult.TRUE.isTrue());
+        assertFalse(QueryResult.FALSE.isTrue());
+        assertFalse(QueryResult.FALSE.isError());
+        assertNull(QueryResult.TRUE.getError());
+    }
+
+    @Test
+    void reportsErrorAndEntry() {
+        UnsignedInteger untagged = new UnsignedInteger(1);
+        assertError(new QueryBuilder().data("age").add(untagged).build(),
+                QueryError.MISSING_TAG, 1);
+        assertError(new QueryBuilder().data("age").param(TYPE_INTEGER, "min").op(UNARY_NOT + 1)
+                                      .build(), QueryError.INVALID_OPERATOR, 2);
+        assertError(new QueryBuilder().data("age").data("age").build(),
+                QueryError.UNBALANCED_STACK, 1);
+        assertError(new QueryBuilder().data("age").param(TYPE_STRING, "country").op(EQUAL)
+                                      .build(), QueryError.OPERAND_TYPE_MISMATCH, 2);
+        assertError(new QueryBuilder().data("name").param(TYPE_STRING, "country")
+                                      .op(GREATER_THAN).build(),
+                QueryError.OPERATOR_TYPE_MISMATCH, 2);
+        assertError(new QueryBuilder().data("age").param(TYPE_INTEGER, "max").op(LESS_THAN)
+                                      .build(), QueryError.UNKNOWN_PARAMETER, 1);
+        assertError(new QueryBuilder().data("name").param(TYPE_STRING, "min").op(EQUAL).build(),
+                QueryError.PARAMETER_TYPE_MISMATCH, 1);
+        assertError(new QueryBuilder().data("height").param(TYPE_INTEGER, "min").op(LESS_THAN)
+                                      .build(), QueryError.UNKNOWN_DATA_ELEMENT, 0);
+        assertError(new QueryBuilder().data("age").build(), QueryError.RESULT_NOT_BOOLEAN, 0);
+    }
+
+    @Test
+    void executeThrowsForErrors() throws QueryException {
+        CompiledQuery query = mExecutor.compile(
+                new QueryBuilder().data("age").param(TYPE_INTEGER, "min").op(GREATER_THAN)
+                                  .data("height").param(TYPE_INTEGER, "min").op(GREATER_THAN)
+                                  .op(AND).build());
+        try {
+            mExecutor.execute(query, mParams, mDataSet);
+            fail();
+        } catch (QueryException e) {
+            assertEquals(QueryError.UNKNOWN_DATA_ELEMENT, e.getError());
+            assertThat(e.getMessage(), containsString("unknown data element"));
+            assertThat(e.getMessage(), containsString("height"));
+            assertThat(e.getMessage(), containsString("at entry 3"));
+        }
+
+        CompiledQuery other = mExecutor.compile(
+                new QueryBuilder().param(TYPE_STRING, "country").param(TYPE_STRING, "country")
+                                  .op(EQUAL).build());
+        BoundParameters bound = other.getParameterLayout().bind(mParams);
+        QueryResult result = mExecutor.evaluate(query, bound, mDataSet);
+        assertEquals(QueryError.PARAMETER_LAYOUT_MISMATCH, result.getError());
+        assertEquals(-1, result.getEntryIndex());
+    }
+
+    @Test
+    void matchesExecuteOnRandomQueries() throws QueryException {
+        Random random = new Random(14);
+        for (int i = 0; i < 2000; i++) {
+            RandomQueries.Case testCase = RandomQueries.generate(random, 4, 0.1);
+            CompiledQuery query = mExecutor.compile(testCase.query);
+            QueryResult result = mExecutor.evaluate(query, testCase.parameters, testCase.dataSet);
+            try {
+                boolean expected = mExecutor.execute(query, testCase.parameters,
+                        testCase.dataSet);
+                assertEquals(QueryResult.of(expected), result, testCase.query.toString());
+            } catch (QueryException e) {
+                assertEquals(e.getError(), result.getError(), testCase.query.toString());
+            }
+        }
+    }
+
+    @Test
+    void rejectionDoesNotThrow() throws QueryException {
+        DataItem ageRef = QueryBuilder.dataRef("age");
+        CompiledQuery query = mExecutor.compile(
+                new QueryBuilder().add(ageRef).param(TYPE_INTEGER, "min").op(EQUAL).build());
+        BoundParameters bound = query.getParameterLayout().bind(mParams);
+        DataItem age = new UnicodeString("thirty");
+        DataSet dataSet = entry -> age;
+
+        for (int i = 0; i < 20000; i++) {
+            assertTrue(mExecutor.evaluate(query, bound, dataSet).isError());
+        }
+
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 10000; i++) {
+            mExecutor.evaluate(query, bound, dataSet);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        // Only the small result object is allocated; an exception would cost far more.
+        assertTrue(allocated < 10000 * 64, "Allocated " + allocated + " bytes");
+    }
+
+    private void assertError(Array query, QueryError error, int entryIndex) {
+        QueryResult result = mExecutor.evaluate(query, mParams, mDataSet);
+        assertEquals(error, result.getError(), result.toString());
+        assertEquals(entryIndex, result.getEntryIndex(), result.toString());
+    }
+}
@@ -0,0 +1,179 @@
+package com.androidx.identity_credential.query;
+
+import co.nstant.in.cbor.model.Array;
+import co.nstant.in.cbor.model.DataItem;
+import co.nstant.in.cbor.model.Number;
+import co.nstant.in.cbor.model.SimpleValue;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static com.androidx.identity_credential.query.ICQueryExecutor.*;
+import static com.androidx.identity_credential.query.ParameterSet.DATE_TAG;
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class QueryVerifierTest {
+
+    private ICQueryExecutor mExecutor = new ICQueryExecutor();
+
+    @Test
+    void reportsTypeErrors() {
+        assertRejected(new QueryBuilder().param(TYPE_INTEGER, "a").param(TYPE_STRING, "b")
+                                         .op(EQUAL).build(),
+                QueryError.OPERAND_TYPE_MISMATCH, 2,
+                "operands of EQUAL at entry 2 are different types: integer and string");
+        assertRejected(new QueryBuilder().param(TYPE_STRING, "a").param(TYPE_STRING, "b")
+                                         .op(LESS_THAN).build(),
+                QueryError.OPERATOR_TYPE_MISMATCH, 2,
+                "LESS_THAN at entry 2 does not apply to string operands");
+        assertRejected(new QueryBuilder().param(DATE_TAG, TYPE_STRING, "a")
+                                         .param(TYPE_STRING, "b").op(EQUAL).build(),
+                QueryError.OPERAND_TAG_MISMATCH, 2,
+                "different tags: date tagged 18013 and string");
+        assertRejected(new QueryBuilder().param(DATE_TAG, TYPE_STRING, "a")
+                                         .param(DATE_TAG, TYPE_STRING, "b").op(LESS_THAN).build(),
+                QueryError.OPERATOR_TAG_MISMATCH, 2,
+                "operands of LESS_THAN at entry 2 are date tagged 18013");
+        assertRejected(new QueryBuilder().param(TYPE_INTEGER, "a").op(UNARY_NOT).build(),
+                QueryError.OPERAND_TYPE_MISMATCH, 1, "UNARY_NOT at entry 1 applied to integer");
+        assertRejected(new QueryBuilder().param(TYPE_STRING, "a").build(),
+                QueryError.RESULT_NOT_BOOLEAN, 0, "result at entry 0 is string, not boolean");
+        assertRejected(new QueryBuilder().param(TYPE_BOOLEAN, "a").param(TYPE_BOOLEAN, "b")
+                                         .op(LESS_THAN).build(),
+                QueryError.OPERATOR_TYPE_MISMATCH, 2,
+                "LESS_THAN at entry 2 does not apply to boolean operands");
+    }
+
+    @Test
+    void rejectsBeforeReadingData() {
+        // The ill-typed AND is never reached at run time once the data element is false, but the
+        // query is rejected regardless, without touching the data set.
+        Array query = new QueryBuilder().data("flag").param(TYPE_INTEGER, "a")
+                                        .param(TYPE_BOOLEAN, "b").op(AND).op(AND).build();
+        DataSetBuilder.MapDataSet dataSet = new DataSetBuilder().add("flag", false).build();
+        ParameterSet params = new ParameterSetBuilder().add("a", 1).build();
+        params.put("b", SimpleValue.TRUE);
+
+        QueryResult result = mExecutor.evaluate(query, params, dataSet);
+        assertEquals(QueryError.OPERAND_TYPE_MISMATCH, result.getError());
+        assertEquals(3, result.getEntryIndex());
+        assertEquals(0, dataSet.getLookupCount());
+        assertEquals(0, dataSet.getPrefetchCount());
+    }
+
+    @Test
+    void leavesDataOperandsToEvaluation() throws QueryException {
+        CompiledQuery query = mExecutor.compile(
+                new QueryBuilder().data("age").param(TYPE_INTEGER, "min").op(GREATER_THAN)
+                                  .param(TYPE_STRING, "country").param(TYPE_STRING, "home")
+                                  .op(EQUAL).op(AND).data("member").op(UNARY_NOT).op(OR)
+                                  .build());
+        ParameterSet params = new ParameterSetBuilder().add("min", 21).add("country", "US")
+                                                       .add("home", "US").build();
+
+        // GREATER_THAN and UNARY_NOT depend on data elements; EQUAL, AND and OR do not.
+        assertVerified(query, GREATER_THAN, false);
+        assertVerified(query, EQUAL, true);
+        assertVerified(query, AND, true);
+        assertVerified(query, UNARY_NOT, false);
+        assertVerified(query, OR, true);
+
+        assertTrue(mExecutor.execute(query, params,
+                new DataSetBuilder().add("age", 30).add("member", true).build()));
+        QueryResult result = mExecutor.evaluate(query, params,
+                new DataSetBuilder().add("age", "thirty").add("member", true).build());
+        assertEquals(QueryError.OPERAND_TYPE_MISMATCH, result.getError());
+        assertEquals(2, result.getEntryIndex());
+    }
+
+    @Test
+    void computesExactStackDepth() throws QueryException {
+        QueryBuilder leftDeep = new QueryBuilder().param(TYPE_BOOLEAN, "a");
+        QueryBuilder rightDeep = new QueryBuilder();
+        for (int i = 0; i < 10; i++) {
+            leftDeep.param(TYPE_BOOLEAN, "a").op(AND);
+            rightDeep.param(TYPE_BOOLEAN, "a");
+        }
+        rightDeep.param(TYPE_BOOLEAN, "a");
+        for (int i = 0; i < 10; i++) {
+            rightDeep.op(OR);
+        }
+        assertEquals(2, mExecutor.compile(leftDeep.build()).getMaxStackDepth());
+        assertEquals(11, mExecutor.compile(rightDeep.build()).getMaxStackDepth());
+        assertEquals(1, mExecutor.compile(
+                new QueryBuilder().data("a").op(UNARY_NOT).build()).getMaxStackDepth());
+
+        Random random = new Random(15);
+        for (int i = 0; i < 500; i++) {
+            Array query = RandomQueries.generate(random, 5, 0.1).query;
+            assertEquals(simulateStackDepth(query), mExecutor.compile(query).getMaxStackDepth(),
+                    query.toString());
+        }
+    }
+
+    @Test
+    void checksDeepQueries() throws QueryException {
+        // Deep enough to overflow the thread stack if the tree were walked recursively.
+        int depth = 100000;
+        QueryBuilder rightDeep = new QueryBuilder();
+        for (int i = 0; i < depth; i++) {
+            rightDeep.param(TYPE_BOOLEAN, "a");
+        }
+        for (int i = 1; i < depth; i++) {
+            rightDeep.op(OR);
+        }
+        QueryVerifier verifier = new QueryVerifier();
+        assertTrue(verifier.verify(QueryCompiler.parse(rightDeep.build())));
+        assertEquals(depth, verifier.getMaxDepth());
+
+        QueryBuilder leftDeep = new QueryBuilder().param(TYPE_BOOLEAN, "a");
+        for (int i = 1; i < depth; i++) {
+            leftDeep.param(TYPE_BOOLEAN, "a").op(AND);
+        }
+        leftDeep.param(TYPE_INTEGER, "n").op(AND);
+        QueryException e = assertThrows(QueryException.class,
+                () -> QueryCompiler.parse(leftDeep.build()));
+        assertEquals(QueryError.OPERAND_TYPE_MISMATCH, e.getError());
+        assertThat(e.getMessage(), containsString("AND at entry " + (2 * depth)));
+    }
+
+    private void assertRejected(Array query, QueryError error, int entryIndex, String message) {
+        try {
+            mExecutor.compile(query);
+            fail();
+        } catch (QueryException e) {
+            assertEquals(error, e.getError(), e.getMessage());
+            assertThat(e.getMessage(), containsString(message));
+        }
+        QueryResult result = mExecutor.evaluate(query, new ParameterSet(), new DataSetBuilder()
+                .build());
+        assertEquals(error, result.getError());
+        assertEquals(entryIndex, result.getEntryIndex());
+    }
+
+    private static void assertVerified(CompiledQuery query, int operator, boolean verified) {
+        for (int pc = 0; pc < query.opcodes.length; pc++) {
+            if (query.opcodes[pc] == operator) {
+                assertEquals(verified, query.verified[pc], "operator " + operator);
+                return;
+            }
+        }
+        fail("no operator " + operator);
+    }
+
+    private static int simulateStackDepth(Array query) {
+        int depth = 0;
+        int maxDepth = 0;
+        for (DataItem entry : query.getDataItems()) {
+            if (entry.getTag().getTag() == null && entry.getTag().getValue() != OPERATOR) {
+                depth++;
+            } else if (((Number) entry).getValue().intValue() != UNARY_NOT) {
+                depth--;
+            }
+            maxDepth = Math.max(maxDepth, depth);
+        }
+        return maxDepth;
+    }
+}
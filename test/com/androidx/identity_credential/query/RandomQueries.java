@@ -0,0 +1,124 @@
+package com.androidx.identity_credential.query;
+
+import co.nstant.in.cbor.model.Array;
+
+import java.util.GregorianCalendar;
+import java.util.Random;
+
+import static com.androidx.identity_credential.query.ICQueryExecutor.*;
+import static com.androidx.identity_credential.query.ParameterSet.DATE_TAG;
+
+/**
+ * Generates random queries over a small fixed vocabulary of parameters and data elements, along
+ * with random bindings for them.
+ */
+public class RandomQueries {
+
+    private static final String[] STRINGS = {"US", "CA", "DE", "hello"};
+
+    public static class Case {
+        public final Array query;
+        public final ParameterSet parameters;
+        public final DataSetBuilder.MapDataSet dataSet;
+
+        Case(Array query, ParameterSet parameters, DataSetBuilder.MapDataSet dataSet) {
+            this.query = query;
+            this.parameters = parameters;
+            this.dataSet = dataSet;
+        }
+    }
+
+    public static Case generate(Random random, int depth, double errorRate) {
+        QueryBuilder builder = new QueryBuilder();
+        addBoolean(builder, random, depth, errorRate);
+        return new Case(builder.build(), parameters(random), dataSet(random));
+    }
+
+    public static ParameterSet parameters(Random random) {
+        return new ParameterSetBuilder().add("int", random.nextInt(5) - 2)
+                                        .add("string", STRINGS[random.nextInt(STRINGS.length)])
+                                        .add("date", date(random)).build();
+    }
+
+    public static DataSetBuilder.MapDataSet dataSet(Random random) {
+        return new DataSetBuilder().add("int", random.nextInt(5) - 2)
+                                   .add("big", random.nextBoolean() ? Long.MAX_VALUE :
+                                                                      Long.MIN_VALUE)
+                                   .add("string", STRINGS[random.nextInt(STRINGS.length)])
+                                   .add("date", date(random))
+                                   .add("bool", random.nextBoolean())
+                                   .build();
+    }
+
+    private static java.util.Date date(Random random) {
+        return new GregorianCalendar(1990 + random.nextInt(3), random.nextInt(2),
+                1 + random.nextInt(2)).getTime();
+    }
+
+    private static void addBoolean(QueryBuilder builder, Random random, int depth,
+                                   double errorRate) {
+        int choice = random.nextInt(depth > 0 ? 7 : 4);
+        switch (choice) {
+            case 0:
+                builder.data("bool");
+                break;
+
+            case 1:
+            case 2:
+                addComparison(builder, random, errorRate);
+                break;
+
+            case 3:
+                builder.data("bool");
+                builder.data("bool");
+                builder.op(random.nextBoolean() ? EQUAL : NOT_EQUAL);
+                break;
+
+            case 4:
+                addBoolean(builder, random, depth - 1, errorRate);
+                builder.op(UNARY_NOT);
+                break;
+
+            default:
+                addBoolean(builder, random, depth - 1, errorRate);
+                addBoolean(builder, random, depth - 1, errorRate);
+                builder.op(choice == 5 ? AND : OR);
+                break;
+        }
+    }
+
+    private static void addComparison(QueryBuilder builder, Random random, double errorRate) {
+        int op = random.nextInt(GREATER_OR_EQUAL + 1);
+        switch (random.nextInt(4)) {
+            case 0:
+                builder.data(random.nextBoolean() ? "int" : "big");
+                builder.param(TYPE_INTEGER, "int");
+                builder.op(op);
+                break;
+
+            case 1:
+                builder.data("string");
+                builder.param(TYPE_STRING, "string");
+                builder.op(random.nextBoolean() ? EQUAL : NOT_EQUAL);
+                break;
+
+            case 2:
+                builder.data("date");
+                builder.param(DATE_TAG, TYPE_STRING, "date");
+                builder.op(DATE_TAG, op);
+                break;
+
+            default:
+                builder.param(DATE_TAG, TYPE_STRING, "date");
+                builder.data("date");
+                builder.op(DATE_TAG, op);
+                break;
+        }
+
+        if (random.nextDouble() < errorRate) {
+            // Compare the boolean result against a string, which is always a type error.
+            builder.data("string");
+            builder.op(EQUAL);
+        }
+    }
+}
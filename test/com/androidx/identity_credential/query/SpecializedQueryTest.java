@@ -0,0 +1,180 @@
+package com.androidx.identity_credential.query;
+
+import co.nstant.in.cbor.CborEncoder;
+import co.nstant.in.cbor.model.Array;
+import co.nstant.in.cbor.model.SimpleValue;
+import co.nstant.in.cbor.model.UnicodeString;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.androidx.identity_credential.query.ICQueryExecutor.*;
+import static com.androidx.identity_credential.query.ParameterSet.DATE_TAG;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SpecializedQueryTest {
+
+    private ICQueryExecutor mExecutor = new ICQueryExecutor();
+
+    private final Array mQuery = new QueryBuilder().data("birth_date")
+                                                   .param(DATE_TAG, TYPE_STRING, "cutoff")
+                                                   .op(DATE_TAG, LESS_OR_EQUAL)
+                                                   .param(TYPE_BOOLEAN, "strict").op(UNARY_NOT)
+                                                   .data("verified").op(OR).op(AND).build();
+
+    @Test
+    void evaluatesWithDataSetAlone() throws QueryException {
+        CompiledQuery residual = mExecutor.specialize(mExecutor.compile(mQuery),
+                parameters(2000, false));
+
+        // NOT strict folds to true, which decides the OR.
+        assertEquals(3, residual.getInstructionCount());
+        assertEquals(0, residual.getParameterLayout().getSlotCount());
+        assertEquals(1, residual.getDataReferences().size());
+
+        assertTrue(mExecutor.execute(residual, holder(1990, false)));
+        assertFalse(mExecutor.execute(residual, holder(2005, true)));
+        assertSame(QueryResult.TRUE, mExecutor.evaluate(residual, holder(2000, false)));
+    }
+
+    @Test
+    void rejectsQueriesThatReadParameters() throws QueryException {
+        QueryResult result = mExecutor.evaluate(mExecutor.compile(mQuery), holder(1990, true));
+        assertEquals(QueryError.PARAMETER_LAYOUT_MISMATCH, result.getError());
+        try {
+            mExecutor.execute(mExecutor.compile(mQuery), holder(1990, true));
+            fail();
+        } catch (QueryException e) {
+            assertEquals(QueryError.PARAMETER_LAYOUT_MISMATCH, e.getError());
+        }
+    }
+
+    @Test
+    void sharesResidualBetweenThreads() throws Exception {
+        CompiledQuery query = mExecutor.compile(mQuery);
+        ParameterSet params = parameters(2000, true);
+        CompiledQuery residual = mExecutor.specialize(query, params);
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                long seed = t;
+                futures.add(pool.submit(() -> {
+                    Random random = new Random(seed);
+                    for (int i = 0; i < 5000; i++) {
+                        DataSet holder = holder(1980 + random.nextInt(40), random.nextBoolean());
+                        assertEquals(mExecutor.execute(query, params, holder),
+                                mExecutor.execute(residual, holder));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void cachesByQueryAndParameters() throws QueryException {
+        CompiledQueryCache cache = new CompiledQueryCache(mExecutor, 10, 1 << 20);
+        CompiledQuery first = cache.getSpecialized(mQuery, parameters(2000, false));
+        assertSame(first, cache.getSpecialized(mQuery, parameters(2000, false)));
+        assertNotSame(first, cache.getSpecialized(mQuery, parameters(2000, true)));
+        assertNotSame(first, cache.getSpecialized(mQuery, parameters(2001, false)));
+
+        // The order parameters were added in does not matter.
+        ParameterSet reordered = new ParameterSet();
+        reordered.put("strict", SimpleValue.FALSE);
+        reordered.putAll(new ParameterSetBuilder().add("cutoff", date(2000)).build());
+        assertSame(first, cache.getSpecialized(mQuery, reordered));
+
+        ParameterSet missing = new ParameterSetBuilder().add("cutoff", date(2000)).build();
+        for (int i = 0; i < 2; i++) {
+            try {
+                cache.getSpecialized(mQuery, missing);
+                fail();
+            } catch (QueryException e) {
+                assertEquals(QueryError.UNKNOWN_PARAMETER, e.getError());
+            }
+        }
+        // One lookup is counted per call, though a miss also looks up the unspecialized query.
+        assertEquals(4, cache.getMissCount());
+        assertEquals(3, cache.getHitCount());
+    }
+
+    @Test
+    void keepsSpecializedKeysApart() throws Exception {
+        CompiledQueryCache cache = new CompiledQueryCache(mExecutor, 10, 1 << 20);
+        ParameterSet params = parameters(2000, false);
+        co.nstant.in.cbor.model.Map map = new co.nstant.in.cbor.model.Map();
+        map.put(new UnicodeString("cutoff"), params.get("cutoff"));
+        map.put(new UnicodeString("strict"), params.get("strict"));
+
+        // The bytes hashed for the specialized entry, sent as a query, are not a valid query
+        // and do not poison that entry.
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new CborEncoder(out).encode(mQuery);
+        new CborEncoder(out).encode(map);
+        QueryException e = assertThrows(QueryException.class,
+                () -> cache.get(out.toByteArray()));
+        assertEquals(QueryError.MALFORMED_QUERY, e.getError());
+        assertTrue(mExecutor.execute(cache.getSpecialized(mQuery, params), holder(1990, false)));
+    }
+
+    @Test
+    void specializesDeepQueries() throws QueryException {
+        // Deep enough to overflow the thread stack if the tree were walked recursively.
+        int depth = 100000;
+        QueryBuilder chain = new QueryBuilder().data("t");
+        QueryBuilder alternating = new QueryBuilder();
+        for (int i = 1; i < depth; i++) {
+            chain.data("t").op(AND);
+            alternating.data("t");
+        }
+        chain.param(TYPE_BOOLEAN, "strict").op(UNARY_NOT).op(AND);
+        alternating.param(TYPE_BOOLEAN, "strict");
+        for (int i = 1; i < depth; i++) {
+            alternating.op((i % 2 == 0) ? AND : OR);
+        }
+        DataSet dataSet = new DataSetBuilder().add("t", true).build();
+        CompiledQueryCache cache = new CompiledQueryCache(mExecutor, 10, 1 << 30);
+
+        for (ParameterSet params : new ParameterSet[]{parameters(2000, false),
+                                                      parameters(2000, true)}) {
+            for (Array query : new Array[]{chain.build(), alternating.build()}) {
+                boolean expected = mExecutor.execute(query, params, dataSet);
+                CompiledQuery residual = mExecutor.specialize(mExecutor.compile(query), params);
+                assertEquals(0, residual.getParameterLayout().getSlotCount());
+                assertEquals(expected, mExecutor.execute(residual, dataSet));
+                assertEquals(expected,
+                        mExecutor.execute(cache.getSpecialized(query, params), dataSet));
+            }
+        }
+    }
+
+    private static ParameterSet parameters(int cutoffYear, boolean strict) {
+        ParameterSet params = new ParameterSetBuilder().add("cutoff", date(cutoffYear)).build();
+        params.put("strict", strict ? SimpleValue.TRUE : SimpleValue.FALSE);
+        return params;
+    }
+
+    private static DataSet holder(int birthYear, boolean verified) {
+        return new DataSetBuilder().add("birth_date", date(birthYear)).add("verified", verified)
+                                   .build();
+    }
+
+    private static java.util.Date date(int year) {
+        return new GregorianCalendar(year, 0, 1).getTime();
+    }
+}
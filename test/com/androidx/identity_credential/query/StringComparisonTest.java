@@ -0,0 +1,114 @@
+package com.androidx.identity_credential.query;
+
+import co.nstant.in.cbor.model.Array;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StringComparisonTest {
+
+    private static final String[] STRINGS = {"", "US", "USA", "h\u00e9llo", "\u20ac",
+            "\ud83d\ude00", "a\ud83d\ude00b", "\u00ff", "\u0800", "\uffff", "\ud83d"};
+
+    @Test
+    void comparesUtf8BytesLikeStrings() {
+        // The last string, an unpaired surrogate, cannot be encoded, so it is never held as
+        // bytes, but must still compare unequal to every encoded string.
+        for (String a : STRINGS) {
+            for (int i = 0; i < STRINGS.length - 1; i++) {
+                String b = STRINGS[i];
+                assertEquals(a.equals(b), Utf8String.equal(a, utf8(b)), a + " " + b);
+                assertEquals(a.equals(b), Utf8String.equal(utf8(b), a), a + " " + b);
+            }
+        }
+        for (int i = 0; i < STRINGS.length - 1; i++) {
+            for (int j = 0; j < STRINGS.length - 1; j++) {
+                assertEquals(i == j, Utf8String.equal(utf8(STRINGS[i]), utf8(STRINGS[j])));
+            }
+        }
+
+        Random random = new Random(20);
+        for (int i = 0; i < 10000; i++) {
+            String a = randomString(random);
+            String b = random.nextBoolean() ? a : randomString(random);
+            assertEquals(a.equals(b), Utf8String.equal(a, utf8(b)), a + " " + b);
+            assertEquals(a, utf8(a).toString());
+        }
+    }
+
+    @Test
+    void assignsOneIdPerString() {
+        int id = StringDictionary.intern("comparison-test");
+        assertNotEquals(StringDictionary.NO_ID, id);
+        assertEquals(id, StringDictionary.intern(new String("comparison-test")));
+        assertEquals(id, StringDictionary.lookup("comparison-test"));
+        assertNotEquals(id, StringDictionary.intern("comparison-test-2"));
+        assertEquals(StringDictionary.NO_ID, StringDictionary.lookup("never interned"));
+    }
+
+    @Test
+    void comparesInternedAndPlainStrings() throws QueryException {
+        ICQueryExecutor executor = new ICQueryExecutor();
+        Array query = new QueryBuilder().data("country")
+                                        .param(ICQueryExecutor.TYPE_STRING, "country")
+                                        .op(ICQueryExecutor.EQUAL).build();
+        ParameterSet params = new ParameterSetBuilder().add("country", "comparison-XX").build();
+
+        // A constant folded from a parameter does not add to the dictionary.
+        CompiledQuery unregistered = executor.specialize(executor.compile(query), params);
+        assertEquals(StringDictionary.NO_ID, unregistered.constants.stringIds[0]);
+        assertEquals(StringDictionary.NO_ID, StringDictionary.lookup("comparison-XX"));
+
+        ICQueryExecutor.registerStrings(Arrays.asList("comparison-XX", "comparison-YY"));
+        CompiledQuery registered = executor.specialize(executor.compile(query), params);
+        assertEquals(StringDictionary.lookup("comparison-XX"), registered.constants.stringIds[0]);
+        assertNotEquals(StringDictionary.NO_ID, registered.constants.stringIds[0]);
+
+        // A data element decoded from CBOR has no id and is compared as a string.
+        for (CompiledQuery compiled : Arrays.asList(unregistered, registered)) {
+            assertTrue(executor.execute(compiled,
+                    new DataSetBuilder().add("country", "comparison-XX").build()));
+            assertFalse(executor.execute(compiled,
+                    new DataSetBuilder().add("country", "comparison-YY").build()));
+        }
+    }
+
+    private static Utf8String utf8(String string) {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        // Place the bytes at an offset, as they would be in a larger buffer.
+        ByteBuffer buffer = ByteBuffer.allocate(bytes.length + 3);
+        buffer.position(3);
+        buffer.put(bytes);
+        return new Utf8String(buffer, 3, bytes.length);
+    }
+
+    private static String randomString(Random random) {
+        StringBuilder builder = new StringBuilder();
+        int length = random.nextInt(4);
+        for (int i = 0; i < length; i++) {
+            switch (random.nextInt(4)) {
+                case 0:
+                    builder.append((char) ('a' + random.nextInt(3)));
+                    break;
+
+                case 1:
+                    builder.append((char) (0x80 + random.nextInt(0x780)));
+                    break;
+
+                case 2:
+                    builder.append((char) (0x800 + random.nextInt(0xD000)));
+                    break;
+
+                default:
+                    builder.appendCodePoint(0x10000 + random.nextInt(0x100));
+                    break;
+            }
+        }
+        return builder.toString();
+    }
+}